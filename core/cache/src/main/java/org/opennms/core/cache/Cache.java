@@ -66,6 +66,8 @@ public class Cache<K, V> {
                 final MetricRegistry registry = config.getMetricRegistry();
                 registry.register(MetricRegistry.name("cache." + config.getName() + ".evictionCount"), (Gauge) () -> delegate.stats().evictionCount());
                 registry.register(MetricRegistry.name("cache." + config.getName() + ".hitRate"), (Gauge) () -> delegate.stats().hitRate());
+                registry.register(MetricRegistry.name("cache." + config.getName() + ".hitCount"), (Gauge) () -> delegate.stats().hitCount());
+                registry.register(MetricRegistry.name("cache." + config.getName() + ".missCount"), (Gauge) () -> delegate.stats().missCount());
                 registry.register(MetricRegistry.name("cache." + config.getName() + ".loadExceptionCount"), (Gauge) () -> delegate.stats().loadExceptionCount());
             } else {
                 logger.debug("Recording of \"{}\" cache statistics is disabled.", config.getName());
@@ -0,0 +1,60 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2024 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2024 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.scheduler;
+
+/**
+ * Creates the {@link Scheduler} used by the daemons.
+ */
+public final class Schedulers {
+
+    /**
+     * Set to {@code true} to go back to the {@link LegacyScheduler}.
+     */
+    public static final String USE_LEGACY_SCHEDULER_PROPERTY = "org.opennms.netmgt.scheduler.legacy";
+
+    private Schedulers() {}
+
+    /**
+     * Creates a new scheduler: a {@link TimingWheelScheduler}, or a
+     * {@link LegacyScheduler} if the {@value #USE_LEGACY_SCHEDULER_PROPERTY}
+     * system property is set to {@code true}.
+     *
+     * @param parent
+     *            String prepended to "Scheduler" to create fiber name
+     * @param maxSize
+     *            The maximum size of the thread pool.
+     * @return a new scheduler that has not been started
+     */
+    public static Scheduler newScheduler(final String parent, final int maxSize) {
+        if (Boolean.getBoolean(USE_LEGACY_SCHEDULER_PROPERTY)) {
+            return new LegacyScheduler(parent, maxSize);
+        }
+        return new TimingWheelScheduler(parent, maxSize);
+    }
+}
@@ -0,0 +1,589 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2024 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2024 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.scheduler;
+
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opennms.core.concurrent.LogPreservingThreadFactory;
+import org.opennms.core.fiber.PausableFiber;
+import org.opennms.core.sysprops.SystemProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.Assert;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.jmx.JmxReporter;
+
+/**
+ * <p>A {@link Scheduler} backed by a hierarchical timing wheel.</p>
+ *
+ * <p>{@link #schedule(long, ReadyRunnable)} only appends the task to a lock-free
+ * queue, so callers never contend with each other or with the scheduler thread.
+ * Once per tick the scheduler thread moves the new tasks into the wheel, cascades
+ * the tasks of the coarser wheels that have come into range and hands the expired
+ * tasks to the thread pool. Inserting or expiring a task costs the same no matter
+ * how many tasks are scheduled, unlike {@link LegacyScheduler} which scans its
+ * queues on every pass.</p>
+ *
+ * <p>Tasks that are due but not {@link ReadyRunnable#isReady() ready} are checked
+ * again on the next tick. Tasks scheduled with an interval of 0, which is how the
+ * daemons schedule the first run of a service, can be spread out over a random
+ * start delay to avoid running all of them at once after a restart.</p>
+ *
+ * <p>The delay between the time a task was due and the time it was handed to the
+ * thread pool is tracked in a histogram per scheduling interval.</p>
+ */
+public class TimingWheelScheduler implements Runnable, PausableFiber, Scheduler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TimingWheelScheduler.class);
+
+    /**
+     * Resolution of the wheel, in milliseconds.
+     */
+    public static final long DEFAULT_TICK_MS = SystemProperties.getLong("org.opennms.netmgt.scheduler.tickMs", 100L);
+
+    /**
+     * Upper bound of the random delay added to tasks scheduled with an interval of 0.
+     * Set to 0 to start these tasks right away.
+     */
+    public static final long DEFAULT_MAX_START_JITTER_MS = SystemProperties.getLong("org.opennms.netmgt.scheduler.maxStartJitterMs", 0L);
+
+    /**
+     * The lateness histograms of a scheduler are registered in this JMX domain,
+     * followed by the name of the scheduler.
+     */
+    public static final String JMX_DOMAIN_PREFIX = "org.opennms.netmgt.scheduler.";
+
+    private static final int WHEEL_BITS = 8;
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+    private static final long WHEEL_MASK = WHEEL_SIZE - 1;
+
+    /**
+     * With 256 slots per wheel, 4 wheels cover 2^32 ticks. Anything
+     * further out is kept in {@link #m_overflow}.
+     */
+    private static final int LEVELS = 4;
+
+    /**
+     * A scheduled {@link ReadyRunnable}.
+     */
+    private final class Task implements LegacyScheduler.TimeKeeper {
+        private final ReadyRunnable m_runnable;
+        private final long m_interval;
+        private final long m_timeToRun;
+        private final long m_deadlineNanos;
+        private long m_deadlineTick;
+
+        private Task(ReadyRunnable runnable, long interval, long timeToRun, long deadlineNanos, long deadlineTick) {
+            m_runnable = runnable;
+            m_interval = interval;
+            m_timeToRun = timeToRun;
+            m_deadlineNanos = deadlineNanos;
+            m_deadlineTick = deadlineTick;
+        }
+
+        @Override
+        public boolean isReady() {
+            return getCurrentTime() >= m_timeToRun && m_runnable.isReady();
+        }
+
+        @Override
+        public long getTimeToRun() {
+            return m_timeToRun;
+        }
+
+        @Override
+        public ReadyRunnable getRunnable() {
+            return m_runnable;
+        }
+
+        @Override
+        public void run() {
+            m_runnable.run();
+        }
+
+        @Override
+        public String toString() { return m_runnable.toString()+" (ready in "+Math.max(0, m_timeToRun-getCurrentTime())+"ms)"; }
+    }
+
+    /**
+     * Tasks that have been scheduled but not yet placed in the wheel.
+     */
+    private final Queue<Task> m_incoming = new ConcurrentLinkedQueue<>();
+
+    /**
+     * All of the tasks that have not been executed yet.
+     */
+    private final Set<Task> m_tasks = ConcurrentHashMap.newKeySet();
+
+    /**
+     * The wheels, finest first. Only accessed by the scheduler thread.
+     */
+    private final List<List<ArrayDeque<Task>>> m_wheels;
+
+    private final ArrayDeque<Task> m_overflow = new ArrayDeque<>();
+
+    private final ArrayDeque<Task> m_expired = new ArrayDeque<>();
+
+    /**
+     * The last tick that was processed. Only accessed by the scheduler thread.
+     */
+    private long m_currentTick = 0;
+
+    private final long m_startNanos;
+
+    private final long m_tickNanos;
+
+    private final long m_maxStartJitterMs;
+
+    private final String m_name;
+
+    /**
+     * The pool of threads that are used to executed the runnable instances
+     * scheduled by the class' instance.
+     */
+    private final ExecutorService m_runner;
+
+    private final MetricRegistry m_metrics = new MetricRegistry();
+
+    private final Map<Long, Histogram> m_lateness = new ConcurrentHashMap<>();
+
+    /**
+     * Exposes the lateness histograms via JMX while the scheduler is running.
+     */
+    private JmxReporter m_metricsReporter;
+
+    /**
+     * The status for this fiber.
+     */
+    private volatile int m_status;
+
+    /**
+     * The worker thread that executes this instance.
+     */
+    private volatile Thread m_worker;
+
+    /**
+     * Used to keep track of the number of tasks that have been executed.
+     */
+    private final AtomicLong m_numTasksExecuted = new AtomicLong();
+
+    /**
+     * Constructs a new instance of the scheduler using the tick and start
+     * jitter from the system properties.
+     *
+     * @param parent
+     *            String prepended to "Scheduler" to create fiber name
+     * @param maxSize
+     *            The maximum size of the thread pool.
+     */
+    public TimingWheelScheduler(final String parent, final int maxSize) {
+        this(parent, maxSize, DEFAULT_TICK_MS, DEFAULT_MAX_START_JITTER_MS);
+    }
+
+    /**
+     * Constructs a new instance of the scheduler.
+     *
+     * @param parent
+     *            String prepended to "Scheduler" to create fiber name
+     * @param maxSize
+     *            The maximum size of the thread pool.
+     * @param tickMs
+     *            The resolution of the wheel, in milliseconds.
+     * @param maxStartJitterMs
+     *            The upper bound of the random delay added to tasks scheduled
+     *            with an interval of 0.
+     */
+    public TimingWheelScheduler(final String parent, final int maxSize, final long tickMs, final long maxStartJitterMs) {
+        Assert.isTrue(tickMs > 0, "The tick must be positive");
+        m_status = START_PENDING;
+        m_name = parent + "Scheduler";
+        m_runner = Executors.newFixedThreadPool(maxSize, new LogPreservingThreadFactory(parent, maxSize));
+        m_tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMs);
+        m_maxStartJitterMs = Math.max(0, maxStartJitterMs);
+        m_startNanos = System.nanoTime();
+
+        final List<List<ArrayDeque<Task>>> wheels = new ArrayList<>(LEVELS);
+        for (int level = 0; level < LEVELS; level++) {
+            final List<ArrayDeque<Task>> wheel = new ArrayList<>(WHEEL_SIZE);
+            for (int slot = 0; slot < WHEEL_SIZE; slot++) {
+                wheel.add(new ArrayDeque<>());
+            }
+            wheels.add(wheel);
+        }
+        m_wheels = Collections.unmodifiableList(wheels);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void schedule(long interval, final ReadyRunnable runnable) {
+        long delay = Math.max(0, interval);
+        if (interval == 0 && m_maxStartJitterMs > 0) {
+            delay = ThreadLocalRandom.current().nextLong(m_maxStartJitterMs);
+        }
+
+        final long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+        // Round up so that tasks never run early
+        final long deadlineTick = (deadlineNanos - m_startNanos + m_tickNanos - 1) / m_tickNanos;
+
+        final Task task = new Task(runnable, interval, getCurrentTime() + delay, deadlineNanos, deadlineTick);
+        LOG.debug("schedule: Adding ready runnable {} at interval {}", runnable, interval);
+        m_tasks.add(task);
+        m_incoming.add(task);
+    }
+
+    /**
+     * <p>getCurrentTime</p>
+     *
+     * @return a long.
+     */
+    @Override
+    public long getCurrentTime() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * <p>start</p>
+     */
+    @Override
+    public synchronized void start() {
+        Assert.state(m_worker == null, "The fiber has already run or is running");
+
+        m_worker = new Thread(this, getName());
+        m_worker.start();
+        m_status = STARTING;
+
+        m_metricsReporter = JmxReporter.forRegistry(m_metrics)
+                .inDomain(JMX_DOMAIN_PREFIX + getName())
+                .convertDurationsTo(TimeUnit.MILLISECONDS)
+                .build();
+        try {
+            m_metricsReporter.start();
+        } catch (IllegalArgumentException e) {
+            LOG.warn("start: failed to start metrics reporter, the lateness of {} may not be available via JMX", getName(), e);
+        }
+
+        LOG.info("start: scheduler started");
+    }
+
+    /**
+     * <p>stop</p>
+     */
+    @Override
+    public synchronized void stop() {
+        Assert.state(m_worker != null, "The fiber has never been started");
+
+        m_status = STOP_PENDING;
+        m_worker.interrupt();
+        m_runner.shutdown();
+
+        if (m_metricsReporter != null) {
+            m_metricsReporter.close();
+            m_metricsReporter = null;
+        }
+
+        LOG.info("stop: scheduler stopped");
+    }
+
+    /**
+     * <p>pause</p>
+     */
+    @Override
+    public synchronized void pause() {
+        Assert.state(m_worker != null, "The fiber has never been started");
+        Assert.state(m_status != STOPPED && m_status != STOP_PENDING, "The fiber is not running or a stop is pending");
+
+        if (m_status == PAUSED) {
+            return;
+        }
+
+        m_status = PAUSE_PENDING;
+        notifyAll();
+    }
+
+    /**
+     * <p>resume</p>
+     */
+    @Override
+    public synchronized void resume() {
+        Assert.state(m_worker != null, "The fiber has never been started");
+        Assert.state(m_status != STOPPED && m_status != STOP_PENDING, "The fiber is not running or a stop is pending");
+
+        if (m_status == RUNNING) {
+            return;
+        }
+
+        m_status = RESUME_PENDING;
+        notifyAll();
+    }
+
+    /**
+     * <p>getStatus</p>
+     *
+     * @return a int.
+     */
+    @Override
+    public synchronized int getStatus() {
+        if (m_worker != null && m_worker.isAlive() == false) {
+            m_status = STOPPED;
+        }
+        return m_status;
+    }
+
+    /**
+     * Returns the name of this fiber.
+     *
+     * @return a {@link java.lang.String} object.
+     */
+    @Override
+    public String getName() {
+        return m_name;
+    }
+
+    /**
+     * Returns total number of elements currently scheduled.
+     *
+     * @return the number of tasks that have not been executed yet
+     */
+    public int getScheduled() {
+        return m_tasks.size();
+    }
+
+    /**
+     * Returns the tasks that have not been executed yet.
+     *
+     * @return a snapshot of the scheduled tasks
+     */
+    public List<LegacyScheduler.TimeKeeper> getTimeKeepers() {
+        return new ArrayList<>(m_tasks);
+    }
+
+    /**
+     * Returns the pool of threads that are used to executed the runnable
+     * instances scheduled by the class' instance.
+     *
+     * @return thread pool
+     */
+    public ExecutorService getRunner() {
+        return m_runner;
+    }
+
+    /**
+     * Returns the registry holding the lateness histograms, named
+     * {@code lateness.<interval>}, in milliseconds. While the scheduler is
+     * running, they are also exposed via JMX in the domain
+     * {@value #JMX_DOMAIN_PREFIX} followed by the name of the scheduler.
+     *
+     * @return the metric registry
+     */
+    public MetricRegistry getMetrics() {
+        return m_metrics;
+    }
+
+    /**
+     * Returns the lateness histograms, in milliseconds, keyed by scheduling interval.
+     *
+     * @return the histograms
+     */
+    public Map<Long, Histogram> getLatenessHistograms() {
+        return Collections.unmodifiableMap(m_lateness);
+    }
+
+    /**
+     * The main method of the scheduler. Every tick, this method places newly
+     * scheduled tasks in the wheel, advances the wheel to the current time and
+     * enqueues the expired tasks into the thread pool for execution.
+     */
+    @Override
+    public void run() {
+        synchronized (this) {
+            m_status = RUNNING;
+        }
+
+        LOG.debug("run: scheduler running");
+
+        try {
+            for (;;) {
+                synchronized (this) {
+                    if (m_status != RUNNING && m_status != PAUSED && m_status != PAUSE_PENDING && m_status != RESUME_PENDING) {
+                        LOG.debug("run: status = {}, time to exit", m_status);
+                        break;
+                    }
+
+                    // if paused or pause pending then block
+                    while (m_status == PAUSE_PENDING || m_status == PAUSED) {
+                        if (m_status == PAUSE_PENDING) {
+                            LOG.debug("run: pausing.");
+                        }
+                        m_status = PAUSED;
+                        wait();
+                    }
+
+                    // if resume pending then change to running
+                    if (m_status == RESUME_PENDING) {
+                        LOG.debug("run: resuming.");
+                        m_status = RUNNING;
+                    }
+
+                    // Sleep until the next tick
+                    final long sleepNanos = m_startNanos + (m_currentTick + 1) * m_tickNanos - System.nanoTime();
+                    if (sleepNanos > 0) {
+                        TimeUnit.NANOSECONDS.timedWait(this, sleepNanos);
+                        continue;
+                    }
+                }
+
+                advance((System.nanoTime() - m_startNanos) / m_tickNanos);
+            }
+        } catch (InterruptedException e) {
+            LOG.debug("run: interrupted");
+        }
+
+        LOG.debug("run: scheduler exiting, state = STOPPED");
+        synchronized (this) {
+            m_status = STOPPED;
+        }
+    }
+
+    /**
+     * Process all of the ticks up to and including {@code toTick}.
+     */
+    private void advance(final long toTick) {
+        Task task;
+        while ((task = m_incoming.poll()) != null) {
+            place(task);
+        }
+        executeExpired();
+
+        while (m_currentTick < toTick) {
+            m_currentTick++;
+
+            // Cascade the coarser wheels that came into range, the coarsest first
+            if ((m_currentTick & ((1L << (WHEEL_BITS * LEVELS)) - 1)) == 0) {
+                cascade(m_overflow);
+            }
+            for (int level = LEVELS - 1; level > 0; level--) {
+                if ((m_currentTick & ((1L << (WHEEL_BITS * level)) - 1)) == 0) {
+                    cascade(m_wheels.get(level).get(slot(m_currentTick, level)));
+                }
+            }
+
+            m_expired.addAll(m_wheels.get(0).get(slot(m_currentTick, 0)));
+            m_wheels.get(0).get(slot(m_currentTick, 0)).clear();
+            executeExpired();
+        }
+    }
+
+    private static int slot(final long tick, final int level) {
+        return (int)((tick >> (WHEEL_BITS * level)) & WHEEL_MASK);
+    }
+
+    /**
+     * Put the task in the finest wheel whose current rotation includes the
+     * deadline, so that every wheel slot holds the tasks of a single rotation.
+     */
+    private void place(final Task task) {
+        final long deadline = task.m_deadlineTick;
+        if (deadline <= m_currentTick) {
+            m_expired.add(task);
+            return;
+        }
+        for (int level = 0; level < LEVELS; level++) {
+            final int shift = WHEEL_BITS * (level + 1);
+            if ((deadline >> shift) == (m_currentTick >> shift)) {
+                m_wheels.get(level).get(slot(deadline, level)).add(task);
+                return;
+            }
+        }
+        m_overflow.add(task);
+    }
+
+    private void cascade(final ArrayDeque<Task> bucket) {
+        final List<Task> tasks = new ArrayList<>(bucket);
+        bucket.clear();
+        for (final Task task : tasks) {
+            place(task);
+        }
+    }
+
+    private void executeExpired() {
+        if (m_expired.isEmpty()) {
+            return;
+        }
+
+        final long nowNanos = System.nanoTime();
+        final List<Task> notReady = new ArrayList<>();
+        Task task;
+        while ((task = m_expired.poll()) != null) {
+            if (!task.m_runnable.isReady()) {
+                notReady.add(task);
+                continue;
+            }
+
+            LOG.debug("run: found ready runnable {}", task);
+            m_tasks.remove(task);
+            m_lateness.computeIfAbsent(task.m_interval, interval -> m_metrics.histogram(MetricRegistry.name("lateness", Long.toString(interval))))
+                .update(TimeUnit.NANOSECONDS.toMillis(Math.max(0, nowNanos - task.m_deadlineNanos)));
+            try {
+                m_runner.execute(task.m_runnable);
+            } catch (RejectedExecutionException e) {
+                throw new UndeclaredThrowableException(e);
+            }
+            m_numTasksExecuted.incrementAndGet();
+        }
+
+        // Check these again on the next tick
+        for (final Task waiting : notReady) {
+            waiting.m_deadlineTick = m_currentTick + 1;
+            place(waiting);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getNumTasksExecuted() {
+        return m_numTasksExecuted.get();
+    }
+}
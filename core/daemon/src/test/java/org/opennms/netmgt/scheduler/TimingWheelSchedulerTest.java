@@ -0,0 +1,219 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2024 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2024 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.scheduler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Test;
+import org.opennms.core.fiber.PausableFiber;
+
+import com.codahale.metrics.Histogram;
+
+public class TimingWheelSchedulerTest {
+
+    private TimingWheelScheduler m_scheduler;
+
+    @After
+    public void tearDown() {
+        if (m_scheduler != null && m_scheduler.getStatus() != PausableFiber.STOPPED) {
+            m_scheduler.stop();
+        }
+    }
+
+    private static class Task implements ReadyRunnable {
+        private final CountDownLatch m_latch;
+        private final List<Task> m_executed;
+        private volatile long m_executedAt;
+
+        private Task(CountDownLatch latch, List<Task> executed) {
+            m_latch = latch;
+            m_executed = executed;
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void run() {
+            m_executedAt = System.currentTimeMillis();
+            m_executed.add(this);
+            m_latch.countDown();
+        }
+    }
+
+    @Test
+    public void testRunsAfterInterval() throws InterruptedException {
+        m_scheduler = new TimingWheelScheduler("Test", 1, 10, 0);
+        m_scheduler.start();
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        final Task task = new Task(latch, Collections.synchronizedList(new ArrayList<>()));
+        final long scheduledAt = System.currentTimeMillis();
+        m_scheduler.schedule(200, task);
+        assertEquals(1, m_scheduler.getScheduled());
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertTrue("The task ran early", task.m_executedAt - scheduledAt >= 200);
+        assertEquals(0, m_scheduler.getScheduled());
+    }
+
+    @Test
+    public void testRetriesUntilReady() throws InterruptedException {
+        m_scheduler = new TimingWheelScheduler("Test", 1, 10, 0);
+        m_scheduler.start();
+
+        final AtomicBoolean ready = new AtomicBoolean(false);
+        final CountDownLatch latch = new CountDownLatch(1);
+        m_scheduler.schedule(0, new Task(latch, Collections.synchronizedList(new ArrayList<>())) {
+            @Override
+            public boolean isReady() {
+                return ready.get();
+            }
+        });
+
+        assertEquals(false, latch.await(200, TimeUnit.MILLISECONDS));
+        assertEquals(1, m_scheduler.getScheduled());
+        ready.set(true);
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testOrdering() throws InterruptedException {
+        m_scheduler = new TimingWheelScheduler("Test", 1, 10, 0);
+
+        final List<Task> executed = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch latch = new CountDownLatch(3);
+        final Task last = new Task(latch, executed);
+        final Task middle = new Task(latch, executed);
+        final Task first = new Task(latch, executed);
+        m_scheduler.schedule(300, last);
+        m_scheduler.schedule(150, middle);
+        m_scheduler.schedule(0, first);
+        m_scheduler.start();
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(first, executed.get(0));
+        assertEquals(middle, executed.get(1));
+        assertEquals(last, executed.get(2));
+    }
+
+    @Test
+    public void testTasksAcrossWheels() throws InterruptedException {
+        // With a 1ms tick, the first wheel covers 256ms and the second 65s
+        m_scheduler = new TimingWheelScheduler("Test", 4, 1, 0);
+        m_scheduler.start();
+
+        final List<Task> executed = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch latch = new CountDownLatch(100);
+        for (int i = 0; i < 100; i++) {
+            m_scheduler.schedule(i * 10, new Task(latch, executed));
+        }
+
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertEquals(100, executed.size());
+        assertEquals(0, m_scheduler.getScheduled());
+    }
+
+    @Test
+    public void testStartJitter() throws InterruptedException {
+        m_scheduler = new TimingWheelScheduler("Test", 4, 10, 500);
+        m_scheduler.start();
+
+        final List<Task> executed = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch latch = new CountDownLatch(50);
+        final long scheduledAt = System.currentTimeMillis();
+        for (int i = 0; i < 50; i++) {
+            m_scheduler.schedule(0, new Task(latch, executed));
+        }
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (Task task : executed) {
+            min = Math.min(min, task.m_executedAt - scheduledAt);
+            max = Math.max(max, task.m_executedAt - scheduledAt);
+        }
+        assertTrue("The start of the tasks was not spread out", max - min > 100);
+        assertTrue("A task started after the maximum jitter", max < 500 + 200);
+    }
+
+    @Test
+    public void testLatenessHistograms() throws InterruptedException {
+        m_scheduler = new TimingWheelScheduler("Test", 1, 10, 0);
+        m_scheduler.start();
+
+        final CountDownLatch latch = new CountDownLatch(3);
+        final List<Task> executed = Collections.synchronizedList(new ArrayList<>());
+        m_scheduler.schedule(50, new Task(latch, executed));
+        m_scheduler.schedule(50, new Task(latch, executed));
+        m_scheduler.schedule(100, new Task(latch, executed));
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+        final Histogram histogram = m_scheduler.getLatenessHistograms().get(50L);
+        assertEquals(2, histogram.getCount());
+        assertEquals(1, m_scheduler.getLatenessHistograms().get(100L).getCount());
+        assertEquals(histogram, m_scheduler.getMetrics().getHistograms().get("lateness.50"));
+    }
+
+    @Test
+    public void testLatenessHistogramsAreExposedViaJmx() throws Exception {
+        m_scheduler = new TimingWheelScheduler("JmxTest", 1, 10, 0);
+        m_scheduler.start();
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        m_scheduler.schedule(50, new Task(latch, Collections.synchronizedList(new ArrayList<>())));
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+        final String domain = TimingWheelScheduler.JMX_DOMAIN_PREFIX + m_scheduler.getName();
+        final MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+        final Set<ObjectName> names = mbeanServer.queryNames(new ObjectName(domain + ":name=lateness.50,*"), null);
+        assertEquals(1, names.size());
+        assertEquals(1L, mbeanServer.getAttribute(names.iterator().next(), "Count"));
+
+        // The histograms are unregistered once the scheduler is stopped
+        m_scheduler.stop();
+        assertTrue(mbeanServer.queryNames(new ObjectName(domain + ":*"), null).isEmpty());
+    }
+}
@@ -73,6 +73,34 @@ public interface AggregationPolicy<S, T, U> {
      */
     int getCompletionIntervalMs();
 
+    /**
+     * Maximum size of the serialized aggregate before dispatching,
+     * as estimated by {@link #sizeOf(Object, Object)}.
+     *
+     * Values <= 0 will fall back to the default limit of the aggregator.
+     * The limit has no effect when {@link #sizeOf(Object, Object)} is not implemented.
+     *
+     * @return maximum number of bytes per bucket
+     */
+    default int getCompletionBytes() {
+        return 0;
+    }
+
+    /**
+     * Estimate the number of bytes by which the serialized aggregate grew
+     * when the given message was added to it.
+     *
+     * Invoked with the accumulator returned by {@link #aggregate(Object, Object)}.
+     * The first message of a bucket also accounts for the fields of the aggregate itself.
+     *
+     * @param accumulator the accumulator, including the message
+     * @param message the message
+     * @return the estimated number of bytes, or 0 if unknown
+     */
+    default int sizeOf(U accumulator, S message) {
+        return 0;
+    }
+
     /**
      * Calculate a key for the given message.
      *
@@ -36,7 +36,9 @@ import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.Lock;
+import java.util.function.LongSupplier;
 
 import org.opennms.core.ipc.sink.api.AggregationPolicy;
 import org.opennms.core.sysprops.SystemProperties;
@@ -75,6 +77,37 @@ public class Aggregator<S, T> implements AutoCloseable, Runnable {
      */
     private static final int NUM_STRIPE_LOCKS = SystemProperties.getInteger(NUM_STRIPE_LOCKS_SYS_PROP, DEFAULT_NUM_STRIPE_LOCKS);
 
+    /**
+     * System property used to override the default number of bytes after which a bucket is dispatched,
+     * for policies which do not define a limit themselves.
+     */
+    public static final String COMPLETION_BYTES_SYS_PROP = "org.opennms.ipc.sink.aggregation.bytes";
+
+    /**
+     * Defaults to 900 KB, the default maximum buffer size of the Kafka sink, so that aggregates are not split
+     * into chunks there. Other limits can be set with {@link #COMPLETION_BYTES_SYS_PROP}.
+     */
+    public static final int DEFAULT_COMPLETION_BYTES = 900 * 1024;
+
+    private static final int COMPLETION_BYTES = SystemProperties.getInteger(COMPLETION_BYTES_SYS_PROP, DEFAULT_COMPLETION_BYTES);
+
+    /**
+     * System property used to enable the adaptive linger.
+     */
+    public static final String ADAPTIVE_LINGER_SYS_PROP = "org.opennms.ipc.sink.aggregation.adaptive";
+
+    private static final boolean ADAPTIVE_LINGER = Boolean.getBoolean(ADAPTIVE_LINGER_SYS_PROP);
+
+    /**
+     * Buckets must collect at least this many messages on average for lingering to be worthwhile.
+     */
+    private static final double MIN_AVERAGE_BATCH_SIZE = 2.0;
+
+    /**
+     * Number of completion intervals to wait before lingering is tried again after it was disabled.
+     */
+    private static final int PROBE_INTERVALS = 20;
+
     private final AggregationPolicy<S,T,Object> aggregationPolicy;
 
     private final AggregatingMessageProducer<S,T> messageProducer;
@@ -83,17 +116,46 @@ public class Aggregator<S, T> implements AutoCloseable, Runnable {
 
     private final long completionIntervalMs;
 
+    private final int completionBytes;
+
+    private final boolean adaptiveLinger;
+
     private final Timer flushTimer;
 
+    private final LongSupplier clock;
+
+    private final LongAdder aggregatedMessages = new LongAdder();
+
+    private final LongAdder dispatchedBuckets = new LongAdder();
+
+    /**
+     * Whether buckets are kept open for up to the completion interval.
+     *
+     * If the messages are spread so thin across the buckets that these are mostly dispatched
+     * with a single message, lingering only adds latency and the buckets are dispatched immediately.
+     */
+    private volatile boolean linger = true;
+
+    private int intervalsUntilProbe = 0;
+
     private final ConcurrentHashMap<Object, Bucket> buckets = new ConcurrentHashMap<>();
 
     private final Striped<Lock> lockStripes = Striped.lock(NUM_STRIPE_LOCKS);
 
     public Aggregator(String id, AggregationPolicy<S,T,?> policy, AggregatingMessageProducer<S,T> messageProducer) {
+        this(id, policy, messageProducer, System::currentTimeMillis, ADAPTIVE_LINGER);
+    }
+
+    Aggregator(String id, AggregationPolicy<S,T,?> policy, AggregatingMessageProducer<S,T> messageProducer,
+               LongSupplier clock, boolean adaptiveLinger) {
         aggregationPolicy = (AggregationPolicy<S,T,Object>)Objects.requireNonNull(policy);
         this.messageProducer = Objects.requireNonNull(messageProducer);
+        this.clock = Objects.requireNonNull(clock);
         completionSize = aggregationPolicy.getCompletionSize();
         completionIntervalMs = aggregationPolicy.getCompletionIntervalMs();
+        completionBytes = aggregationPolicy.getCompletionBytes() > 0 ? aggregationPolicy.getCompletionBytes() : COMPLETION_BYTES;
+        // Without periodic flushing, there is nothing to adapt
+        this.adaptiveLinger = adaptiveLinger && completionIntervalMs > 0 && completionSize > 1;
 
         if (completionIntervalMs > 0) {
             // Periodically verify the buckets, and flush those that are older than completionIntervalMs
@@ -139,9 +201,15 @@ public class Aggregator<S, T> implements AutoCloseable, Runnable {
 
             // Accumulate into the bucket
             T accumulator = bucket.accumulate(message);
+            if (adaptiveLinger) {
+                aggregatedMessages.increment();
+            }
             if (accumulator != null) {
                 // The bucket is ready to be dispatched
                 buckets.remove(key);
+                if (adaptiveLinger) {
+                    dispatchedBuckets.increment();
+                }
                 return accumulator;
             } else {
                 // The bucket is NOT ready to be dispatched
@@ -154,6 +222,10 @@ public class Aggregator<S, T> implements AutoCloseable, Runnable {
 
     @Override
     public void run() {
+        if (adaptiveLinger) {
+            adaptLinger();
+        }
+
         final List<T> messagesReadyForDispatch = new LinkedList<>();
         // Grab a copy of all the current bucket keys
         final Set<Object> keys = new HashSet<>(buckets.keySet());
@@ -170,7 +242,7 @@ public class Aggregator<S, T> implements AutoCloseable, Runnable {
             locks.forEach(Lock::lock);
             // Determine which buckets are ready to be dispatched
             // and remove these from the map
-            final long cutOff = System.currentTimeMillis() - completionIntervalMs;
+            final long cutOff = clock.getAsLong() - completionIntervalMs;
             for (final Object key : keys) {
                 final Bucket bucket = buckets.get(key);
                 // The bucket may have been removed between the time we retrieved
@@ -185,12 +257,38 @@ public class Aggregator<S, T> implements AutoCloseable, Runnable {
             locks.forEach(Lock::unlock);
         }
 
+        if (adaptiveLinger) {
+            dispatchedBuckets.add(messagesReadyForDispatch.size());
+        }
+
         // Dispatch!
         for (T message : messagesReadyForDispatch) {
             messageProducer.dispatch(message);
         }
     }
 
+    /**
+     * Decides whether buckets should linger based on the average size of the buckets
+     * dispatched since the last invocation.
+     *
+     * Only called from the flush timer.
+     */
+    private void adaptLinger() {
+        final long messages = aggregatedMessages.sumThenReset();
+        final long batches = dispatchedBuckets.sumThenReset();
+
+        if (linger) {
+            if (batches > 0 && messages < MIN_AVERAGE_BATCH_SIZE * batches) {
+                LOG.debug("Average bucket size of {} is too small. Dispatching buckets immediately.", (double) messages / batches);
+                linger = false;
+                intervalsUntilProbe = PROBE_INTERVALS;
+            }
+        } else if (--intervalsUntilProbe <= 0) {
+            // The rate may have increased since lingering was disabled, so give it another try
+            linger = true;
+        }
+    }
+
     @Override
     public void close() throws Exception {
         if (flushTimer != null) {
@@ -201,16 +299,18 @@ public class Aggregator<S, T> implements AutoCloseable, Runnable {
     protected class Bucket {
         private Object accumulator;
         private int count = 0;
+        private long bytes = 0;
         private Long firstTimeMillis;
 
         public T accumulate(S message) {
             accumulator = aggregationPolicy.aggregate(accumulator, message);
+            bytes += aggregationPolicy.sizeOf(accumulator, message);
             count++;
-            if (count >= completionSize) {
+            if (count >= completionSize || (completionBytes > 0 && bytes >= completionBytes) || !linger) {
                 // We're ready!
                 return aggregationPolicy.build(accumulator);
             } else if (completionIntervalMs > 0) {
-                final long now = System.currentTimeMillis();
+                final long now = clock.getAsLong();
                 if (firstTimeMillis == null) {
                     firstTimeMillis = now;
                 } else if (now - firstTimeMillis >= completionIntervalMs) {
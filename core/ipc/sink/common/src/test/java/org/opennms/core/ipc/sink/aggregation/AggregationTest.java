@@ -34,6 +34,8 @@ import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.hamcrest.Matchers.greaterThan;
 import static org.hamcrest.Matchers.hasSize;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
 
 import java.net.InetAddress;
@@ -42,6 +44,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.junit.After;
 import org.junit.Before;
@@ -66,6 +69,8 @@ public class AggregationTest {
 
     private static final int COMPLETION_SIZE = 10;
     private static final int COMPLETION_INTERVAL_MS = 500;
+    private static final int COMPLETION_BYTES = 100;
+    private static final int LONG_COMPLETION_INTERVAL_MS = 3600000;
 
     private final InetAddress localhost = InetAddress.getLoopbackAddress();
 
@@ -167,6 +172,66 @@ public class AggregationTest {
         }
     }
 
+    @Test
+    public void aggregateWithByteLimit() throws Exception {
+        SinkModuleWithAggregateAndByteLimit aggregatingSinkModule = new SinkModuleWithAggregateAndByteLimit();
+        try(SyncDispatcher<UDPPacket> dispatcher = capturingMessageDispatcherFactory.createSyncDispatcher(aggregatingSinkModule)) {
+            for (byte i = 0; i < 10; i++) {
+                UDPPacket packet = new UDPPacket(localhost, ByteBuffer.wrap(new byte[COMPLETION_BYTES / 2]));
+                dispatcher.send(packet);
+            }
+            // The aggregates should have been dispatched when reaching the byte limit,
+            // long before reaching the completion size
+            assertEquals(5, dispatchedMessages.size());
+        }
+    }
+
+    @Test
+    public void dispatchImmediatelyWhenBucketsStaySmall() throws Exception {
+        final AtomicLong now = new AtomicLong();
+        final AggregationPolicy<UDPPacket, UDPPacketLog, UDPPacketLog> policy = new SinkModuleWithAggregateAndLongInterval().getAggregationPolicy();
+        try (AggregatingMessageProducer<UDPPacket, UDPPacketLog> producer = new CapturingMessageProducer(policy);
+             Aggregator<UDPPacket, UDPPacketLog> aggregator = new Aggregator<>("test", policy, producer, now::get, true)) {
+            // A single message lingers until the bucket is flushed
+            assertNull(aggregator.aggregate(new UDPPacket(localhost, ByteBuffer.wrap(new byte[]{(byte)42}))));
+            aggregator.run();
+            assertThat(dispatchedMessages, hasSize(0));
+            now.addAndGet(LONG_COMPLETION_INTERVAL_MS);
+            aggregator.run();
+            assertThat(dispatchedMessages, hasSize(1));
+
+            // Once the flushed buckets turned out to be small, messages are dispatched right away
+            now.addAndGet(LONG_COMPLETION_INTERVAL_MS);
+            aggregator.run();
+            assertNotNull(aggregator.aggregate(new UDPPacket(localhost, ByteBuffer.wrap(new byte[]{(byte)42}))));
+
+            // Lingering is tried again after 20 intervals
+            for (int i = 0; i < 19; i++) {
+                now.addAndGet(LONG_COMPLETION_INTERVAL_MS);
+                aggregator.run();
+                assertNotNull(aggregator.aggregate(new UDPPacket(localhost, ByteBuffer.wrap(new byte[]{(byte)42}))));
+            }
+            now.addAndGet(LONG_COMPLETION_INTERVAL_MS);
+            aggregator.run();
+            assertNull(aggregator.aggregate(new UDPPacket(localhost, ByteBuffer.wrap(new byte[]{(byte)42}))));
+        }
+    }
+
+    @Test
+    public void keepLingeringWithoutAdaptiveLinger() throws Exception {
+        final AtomicLong now = new AtomicLong();
+        final AggregationPolicy<UDPPacket, UDPPacketLog, UDPPacketLog> policy = new SinkModuleWithAggregateAndLongInterval().getAggregationPolicy();
+        try (AggregatingMessageProducer<UDPPacket, UDPPacketLog> producer = new CapturingMessageProducer(policy);
+             Aggregator<UDPPacket, UDPPacketLog> aggregator = new Aggregator<>("test", policy, producer, now::get, false)) {
+            for (int i = 0; i < 3; i++) {
+                assertNull(aggregator.aggregate(new UDPPacket(localhost, ByteBuffer.wrap(new byte[]{(byte)42}))));
+                now.addAndGet(LONG_COMPLETION_INTERVAL_MS);
+                aggregator.run();
+                assertThat(dispatchedMessages, hasSize(i + 1));
+            }
+        }
+    }
+
     /**
      * NMS-9114: Test concurrency with the timer thread.
      */
@@ -370,6 +435,103 @@ public class AggregationTest {
         }
     }
 
+    private static class SinkModuleWithAggregateAndByteLimit extends AbstractSinkModule<UDPPacket, UDPPacketLog> {
+        @Override
+        public AggregationPolicy<UDPPacket, UDPPacketLog, UDPPacketLog> getAggregationPolicy() {
+            return new AggregationPolicy<UDPPacket, UDPPacketLog, UDPPacketLog>() {
+                @Override
+                public int getCompletionSize() {
+                    return 10 * COMPLETION_SIZE;
+                }
+
+                @Override
+                public int getCompletionIntervalMs() {
+                    return 0;
+                }
+
+                @Override
+                public int getCompletionBytes() {
+                    return COMPLETION_BYTES;
+                }
+
+                @Override
+                public int sizeOf(UDPPacketLog accumulator, UDPPacket message) {
+                    return message.getBytes().remaining();
+                }
+
+                @Override
+                public Object key(UDPPacket message) {
+                    // Key by the source address
+                    return message.getSource();
+                }
+
+                @Override
+                public UDPPacketLog aggregate(UDPPacketLog oldPacketLog, UDPPacket newPacket) {
+                    if (oldPacketLog == null) {
+                        return new UDPPacketLog(newPacket);
+                    } else {
+                        oldPacketLog.getPackets().add(newPacket);
+                        return oldPacketLog;
+                    }
+                }
+
+                @Override
+                public UDPPacketLog build(UDPPacketLog accumulator) {
+                    return accumulator;
+                }
+            };
+        }
+    }
+
+    private class CapturingMessageProducer extends AggregatingMessageProducer<UDPPacket, UDPPacketLog> {
+        private CapturingMessageProducer(AggregationPolicy<UDPPacket, UDPPacketLog, UDPPacketLog> policy) {
+            super("test", policy);
+        }
+
+        @Override
+        public void dispatch(UDPPacketLog message) {
+            dispatchedMessages.add(message);
+        }
+    }
+
+    private static class SinkModuleWithAggregateAndLongInterval extends AbstractSinkModule<UDPPacket, UDPPacketLog> {
+        @Override
+        public AggregationPolicy<UDPPacket, UDPPacketLog, UDPPacketLog> getAggregationPolicy() {
+            return new AggregationPolicy<UDPPacket, UDPPacketLog, UDPPacketLog>() {
+                @Override
+                public int getCompletionSize() {
+                    return COMPLETION_SIZE;
+                }
+
+                @Override
+                public int getCompletionIntervalMs() {
+                    return LONG_COMPLETION_INTERVAL_MS;
+                }
+
+                @Override
+                public Object key(UDPPacket message) {
+                    // Key by the source address
+                    return message.getSource();
+                }
+
+                @Override
+                public UDPPacketLog aggregate(UDPPacketLog oldPacketLog, UDPPacket newPacket) {
+                    if (oldPacketLog == null) {
+                        return new UDPPacketLog(newPacket);
+                    } else {
+                        oldPacketLog.getPackets().add(newPacket);
+                        return oldPacketLog;
+                    }
+                }
+
+                @Override
+                public UDPPacketLog build(UDPPacketLog accumulator) {
+                    return accumulator;
+                }
+            };
+        }
+    }
+
     private static class SinkModuleWithAggregateAndAggressiveInterval extends AbstractSinkModule<UDPPacket, UDPPacketLog> {
         @Override
         public AggregationPolicy<UDPPacket, UDPPacketLog, UDPPacketLog> getAggregationPolicy() {
@@ -0,0 +1,54 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2024 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2024 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.ipc.sink.offheap;
+
+import org.opennms.core.ipc.sink.api.DispatchQueueFactory;
+
+/**
+ * Creates the {@link DispatchQueueFactory} for the configured type of off-heap storage.
+ */
+public final class OffHeapDispatchQueueFactories {
+
+    public static final String QUEUE_FILE = "queue-file";
+    public static final String SEGMENT_LOG = "segment-log";
+
+    private OffHeapDispatchQueueFactories() {}
+
+    public static DispatchQueueFactory create(String type, int inMemoryEntrySize, int batchSize, String offHeapSize,
+                                              String baseFilePath, String segmentSize, long syncIntervalMs) {
+        if (type == null || type.isEmpty() || QUEUE_FILE.equalsIgnoreCase(type)) {
+            return new QueueFileOffHeapDispatchQueueFactory(inMemoryEntrySize, batchSize, offHeapSize, baseFilePath);
+        } else if (SEGMENT_LOG.equalsIgnoreCase(type)) {
+            return new SegmentLogOffHeapDispatchQueueFactory(inMemoryEntrySize, segmentSize, offHeapSize,
+                    syncIntervalMs, baseFilePath);
+        }
+        throw new IllegalArgumentException("Unknown off-heap queue type '" + type + "'. Expected one of " + QUEUE_FILE
+                + " or " + SEGMENT_LOG);
+    }
+}
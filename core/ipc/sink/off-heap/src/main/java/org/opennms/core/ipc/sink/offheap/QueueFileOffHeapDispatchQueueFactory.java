@@ -88,7 +88,12 @@ public class QueueFileOffHeapDispatchQueueFactory implements DispatchQueueFactor
         });
     }
 
-    private static long convertToBytes(String sizeWithSuffix) {
+    public void destroy() {
+        // The queue files are synced on every write, nothing is left to release
+        queues.clear();
+    }
+
+    static long convertToBytes(String sizeWithSuffix) {
         if (sizeWithSuffix == null || sizeWithSuffix.length() == 0) {
             return 0;
         }
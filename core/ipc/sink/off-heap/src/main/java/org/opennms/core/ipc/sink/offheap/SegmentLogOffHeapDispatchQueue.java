@@ -0,0 +1,640 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2024 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2024 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.ipc.sink.offheap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+
+import org.opennms.core.ipc.sink.api.DispatchQueue;
+import org.opennms.core.ipc.sink.api.WriteFailedException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.swrve.ratelimitedlogger.RateLimitedLog;
+
+/**
+ * A {@link DispatchQueue} that first attempts to queue items in memory and upon overflowing the allocated in-memory
+ * queue appends items to a log of memory-mapped segment files. As with {@link QueueFileOffHeapDispatchQueue}, the
+ * in-memory queue is volatile while the contents of the log are reloaded after a restart.
+ * <p>
+ * Each item is serialized straight into the mapped segment, so neither writing nor replaying the log requires any
+ * intermediate batch objects on the heap. Replay only moves as many items into memory as the in-memory queue can take.
+ * <p>
+ * Writes are not synced individually. Instead, all segments written since the last sync are forced to disk together
+ * every sync interval, which bounds the amount of data lost on a crash to that interval. A sync interval of 0 forces
+ * every write.
+ * <p>
+ * Segments which have been read completely are kept and reused for later writes, so a queue draining and filling up
+ * again does not allocate new files. The number of segments is limited by the configured maximum size. Once all
+ * segments are in use, {@link #enqueue} blocks until the oldest segment has been read.
+ * <p>
+ * Every record in a segment consists of the payload length, a checksum over the segment ID and the payload, and the
+ * payload itself. On restart the segments are scanned from the last read position up to the first record that fails
+ * the checksum. This discards partially written records as well as leftovers from a previous use of a reused segment.
+ *
+ * @param <T> the type being queued
+ */
+public class SegmentLogOffHeapDispatchQueue<T> implements DispatchQueue<T> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SegmentLogOffHeapDispatchQueue.class);
+    private final RateLimitedLog RATE_LIMITED_LOGGER = RateLimitedLog
+            .withRateLimit(LOG)
+            .maxRate(5)
+            .every(Duration.ofSeconds(30))
+            .build();
+
+    private static final String DIRECTORY_EXTENSION = ".segments";
+    private static final String SEGMENT_EXTENSION = ".seg";
+    private static final String CHECKPOINT_FILE = "checkpoint";
+
+    // Length and checksum
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    private static final long SHUTDOWN_TIMEOUT_MS = 5000;
+
+    private final Function<T, byte[]> serializer;
+    private final Function<byte[], T> deserializer;
+    private final String moduleName;
+    private final BlockingQueue<Map.Entry<String, T>> inMemoryQueue;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final long syncIntervalMs;
+
+    // Guards all of the segment state below
+    private final ReentrantLock lock = new ReentrantLock(true);
+    private final Condition notFull = lock.newCondition();
+
+    // Segments holding unread records, ordered by ID - reads happen at the head and writes at the tail
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    // Completely read segments available for reuse
+    private final Deque<Segment> recycled = new ArrayDeque<>();
+    private long nextSegmentId = 0;
+    private long offHeapCount = 0;
+    private volatile boolean isFull = false;
+
+    private final Checkpoint checkpoint;
+    private final ScheduledExecutorService syncExecutor;
+
+    public SegmentLogOffHeapDispatchQueue(Function<T, byte[]> serializer, Function<byte[], T> deserializer,
+                                          String moduleName, Path filePath, int inMemoryQueueSize, int segmentSize,
+                                          long maxFileSizeInBytes, long syncIntervalMs) throws IOException {
+        Objects.requireNonNull(serializer);
+        Objects.requireNonNull(deserializer);
+        Objects.requireNonNull(moduleName);
+
+        if (inMemoryQueueSize < 1) {
+            throw new IllegalArgumentException("In memory queue size must be greater than 0");
+        }
+
+        if (segmentSize <= RECORD_HEADER_SIZE) {
+            throw new IllegalArgumentException("Segment size must be greater than " + RECORD_HEADER_SIZE);
+        }
+
+        if (maxFileSizeInBytes < 0) {
+            throw new IllegalArgumentException("Max file size must be either 0 or a positive integer");
+        }
+
+        this.serializer = serializer;
+        this.deserializer = deserializer;
+        this.moduleName = moduleName;
+        this.segmentSize = segmentSize;
+        this.maxSegments = (int) Math.max(1, Math.min(Integer.MAX_VALUE, maxFileSizeInBytes / segmentSize));
+        this.syncIntervalMs = syncIntervalMs;
+
+        inMemoryQueue = new ArrayBlockingQueue<>(inMemoryQueueSize, true);
+
+        // Setting the max file size to 0 or less will disable the off-heap portion of this queue
+        if (maxFileSizeInBytes > 0) {
+            Objects.requireNonNull(filePath);
+            directory = Paths.get(filePath.toString(), moduleName + DIRECTORY_EXTENSION);
+            Files.createDirectories(directory);
+
+            checkpoint = new Checkpoint(directory.resolve(CHECKPOINT_FILE));
+            recover();
+
+            if (syncIntervalMs > 0) {
+                syncExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+                    final Thread thread = new Thread(r, "SegmentLogSync-" + moduleName);
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                syncExecutor.scheduleWithFixedDelay(this::sync, syncIntervalMs, syncIntervalMs, TimeUnit.MILLISECONDS);
+            } else {
+                syncExecutor = null;
+            }
+        } else {
+            directory = null;
+            checkpoint = null;
+            syncExecutor = null;
+        }
+    }
+
+    /**
+     * Loads the existing segments and determines the unread records in each of them.
+     */
+    private void recover() throws IOException {
+        final List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SEGMENT_EXTENSION)) {
+            stream.forEach(files::add);
+        }
+
+        final List<Segment> loaded = new ArrayList<>(files.size());
+        for (final Path file : files) {
+            final String name = file.getFileName().toString();
+            try {
+                final long id = Long.parseLong(name.substring(0, name.length() - SEGMENT_EXTENSION.length()));
+                loaded.add(Segment.open(file, id));
+            } catch (NumberFormatException e) {
+                LOG.warn("Ignoring unexpected file {} in segment directory of module {}", file, moduleName);
+            }
+        }
+        loaded.sort(Comparator.comparingLong(s -> s.id));
+
+        final long checkpointId = checkpoint.segmentId();
+        for (final Segment segment : loaded) {
+            nextSegmentId = Math.max(nextSegmentId, segment.id + 1);
+
+            final int readPosition = segment.id == checkpointId ? checkpoint.position() : 0;
+            final int count = segment.id >= checkpointId ? segment.scan(readPosition) : 0;
+            if (count > 0) {
+                segments.addLast(segment);
+                offHeapCount += count;
+            } else if (segment.capacity() >= segmentSize) {
+                segment.clear();
+                recycled.addLast(segment);
+            } else {
+                // Segments from a different configuration are not worth keeping
+                Files.delete(segment.path);
+            }
+        }
+
+        if (offHeapCount > 0) {
+            LOG.info("Recovered {} entries in {} segments for module {}", offHeapCount, segments.size(), moduleName);
+        }
+    }
+
+    /**
+     * When enqueueing we prefer the in-memory queue unless the log is already utilized. If the in-memory queue is full
+     * the message is appended to the log provided it is configured. If the log is full or not configured we block and
+     * wait for capacity.
+     */
+    @Override
+    public EnqueueResult enqueue(T message, String key) throws WriteFailedException {
+        final Map.Entry<String, T> msgEntry = new AbstractMap.SimpleImmutableEntry<>(key, message);
+
+        // Off-heap queueing is not enabled so queue directly to memory
+        if (directory == null) {
+            LOG.trace("Enqueueing {} with key {} in-memory since there is no off-heap queue configured", message, key);
+
+            try {
+                inMemoryQueue.put(msgEntry);
+            } catch (InterruptedException e) {
+                throw new WriteFailedException(e);
+            }
+
+            return EnqueueResult.IMMEDIATE;
+        }
+
+        lock.lock();
+        try {
+            // Stay in memory as long as nothing was written to the log to retain ordering
+            if (offHeapCount == 0 && inMemoryQueue.offer(msgEntry)) {
+                LOG.trace("Enqueueing {} with key {} in-memory", message, key);
+                return EnqueueResult.IMMEDIATE;
+            }
+
+            LOG.trace("Appending message {} with key {} to the off-heap log", message, key);
+            final byte[] bytes;
+            try {
+                bytes = serializer.apply(message);
+            } catch (RuntimeException e) {
+                RATE_LIMITED_LOGGER.warn("Failed to serialize message for module {}", moduleName, e);
+                throw new WriteFailedException(e);
+            }
+
+            final Segment segment = writableSegment(RECORD_HEADER_SIZE + bytes.length);
+            segment.append(bytes);
+            offHeapCount++;
+
+            if (syncIntervalMs <= 0) {
+                segment.sync();
+            }
+
+            return EnqueueResult.DEFERRED;
+        } catch (IOException | InterruptedException e) {
+            throw new WriteFailedException(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the segment to append a record of the given size to, rolling over to a new segment if required.
+     * <p>
+     * Must be called while holding the lock.
+     */
+    private Segment writableSegment(int recordSize) throws IOException, InterruptedException {
+        while (true) {
+            final Segment tail = segments.peekLast();
+            if (tail != null && tail.remaining() >= recordSize) {
+                markNotFull();
+                return tail;
+            }
+
+            if (segments.size() < maxSegments) {
+                final Segment segment = allocateSegment(recordSize);
+                segments.addLast(segment);
+                markNotFull();
+                return segment;
+            }
+
+            markFull();
+            LOG.trace("Waiting for a segment of module {} to be read", moduleName);
+            notFull.await();
+        }
+    }
+
+    private Segment allocateSegment(int minSize) throws IOException {
+        final long id = nextSegmentId++;
+        final Path path = directory.resolve(String.format("%020d%s", id, SEGMENT_EXTENSION));
+
+        final Segment reusable = recycled.peekFirst();
+        if (reusable != null && reusable.capacity() >= minSize) {
+            recycled.removeFirst();
+            reusable.reuse(path, id);
+            return reusable;
+        }
+
+        return Segment.create(path, id, Math.max(segmentSize, minSize));
+    }
+
+    /**
+     * On every call to dequeue, if the off-heap queue is configured, we move as many records from the log to the
+     * in-memory queue as it has room for. We then take exclusively from the head of the in-memory queue which ensures
+     * ordering with respect to the two discrete queues.
+     */
+    @Override
+    public Map.Entry<String, T> dequeue() throws InterruptedException {
+        LOG.debug("Dequeueing an entry from queue with current size {}", getSize());
+
+        if (directory != null) {
+            lock.lock();
+            try {
+                boolean moved = false;
+                while (offHeapCount > 0 && inMemoryQueue.remainingCapacity() > 0) {
+                    final Segment head = segments.peekFirst();
+                    final byte[] bytes = head.read();
+                    offHeapCount--;
+                    moved = true;
+
+                    try {
+                        inMemoryQueue.add(new AbstractMap.SimpleImmutableEntry<>(null, deserializer.apply(bytes)));
+                    } catch (RuntimeException e) {
+                        RATE_LIMITED_LOGGER.warn("Dropping entry of module {} which could not be deserialized", moduleName, e);
+                    }
+
+                    if (head.isDrained()) {
+                        recycle(segments.removeFirst());
+                    }
+                }
+
+                if (moved) {
+                    final Segment head = segments.peekFirst();
+                    if (head != null) {
+                        checkpoint.update(head.id, head.readPosition);
+                    } else {
+                        checkpoint.update(nextSegmentId, 0);
+                    }
+                    if (syncIntervalMs <= 0) {
+                        checkpoint.sync();
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        LOG.trace("Waiting for an entry from in-memory queue...");
+
+        return inMemoryQueue.take();
+    }
+
+    private void recycle(Segment segment) {
+        LOG.trace("Segment {} of module {} has been read completely", segment.id, moduleName);
+        segment.clear();
+        recycled.addLast(segment);
+        notFull.signalAll();
+    }
+
+    /**
+     * Forces all segments written since the last sync and the read position to disk.
+     */
+    @VisibleForTesting
+    void sync() {
+        final List<Segment> dirty = new ArrayList<>();
+        lock.lock();
+        try {
+            for (final Segment segment : segments) {
+                if (segment.dirty) {
+                    segment.dirty = false;
+                    dirty.add(segment);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        try {
+            // Forcing the mapped buffers does not interfere with concurrent writes
+            for (final Segment segment : dirty) {
+                segment.buffer.force();
+            }
+            checkpoint.sync();
+        } catch (RuntimeException e) {
+            RATE_LIMITED_LOGGER.warn("Failed to sync off-heap log of module {}", moduleName, e);
+        }
+    }
+
+    /**
+     * Stops the periodic sync and forces everything written so far to disk. The queue must not be used afterwards.
+     */
+    public void shutdown() {
+        if (syncExecutor != null) {
+            syncExecutor.shutdown();
+            try {
+                if (!syncExecutor.awaitTermination(syncIntervalMs + SHUTDOWN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                    LOG.warn("Timed out waiting for the sync of module {} to complete", moduleName);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (checkpoint != null) {
+            sync();
+        }
+    }
+
+    private void markFull() {
+        if (!isFull) {
+            RATE_LIMITED_LOGGER.info("Off heap log for module {} is now full", moduleName);
+            isFull = true;
+        }
+    }
+
+    private void markNotFull() {
+        if (isFull) {
+            RATE_LIMITED_LOGGER.info("Off heap log for module {} is no longer full", moduleName);
+            isFull = false;
+        }
+    }
+
+    @Override
+    public boolean isFull() {
+        if (directory == null) {
+            int remaining = inMemoryQueue.remainingCapacity();
+            LOG.trace("Checked if full and remaining capacity is {}", remaining);
+
+            return remaining <= 0;
+        }
+
+        return isFull;
+    }
+
+    @Override
+    public int getSize() {
+        if (directory == null) {
+            return inMemoryQueue.size();
+        }
+
+        lock.lock();
+        try {
+            return (int) Math.min(Integer.MAX_VALUE, inMemoryQueue.size() + offHeapCount);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @VisibleForTesting
+    int getSegmentCount() {
+        lock.lock();
+        try {
+            return segments.size() + recycled.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * A memory-mapped segment file.
+     * <p>
+     * Not thread safe. Access should be guarded with the lock of the queue.
+     */
+    private static final class Segment {
+        private final MappedByteBuffer buffer;
+        private Path path;
+        private long id;
+
+        private int readPosition = 0;
+        private int writePosition = 0;
+        private boolean dirty = false;
+
+        private Segment(Path path, long id, MappedByteBuffer buffer) {
+            this.path = path;
+            this.id = id;
+            this.buffer = buffer;
+        }
+
+        static Segment create(Path path, long id, int size) throws IOException {
+            // The mapping stays valid after the channel has been closed
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                return new Segment(path, id, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+            }
+        }
+
+        static Segment open(Path path, long id) throws IOException {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                return new Segment(path, id, channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size()));
+            }
+        }
+
+        int capacity() {
+            return buffer.capacity();
+        }
+
+        int remaining() {
+            return buffer.capacity() - writePosition;
+        }
+
+        boolean isDrained() {
+            return readPosition >= writePosition;
+        }
+
+        void append(byte[] bytes) {
+            buffer.putInt(writePosition + 4, checksum(id, ByteBuffer.wrap(bytes)));
+            final ByteBuffer target = buffer.duplicate();
+            target.position(writePosition + RECORD_HEADER_SIZE);
+            target.put(bytes);
+            // Write the length last, so a record is never seen with a valid length but without its payload
+            buffer.putInt(writePosition, bytes.length);
+
+            writePosition += RECORD_HEADER_SIZE + bytes.length;
+            dirty = true;
+        }
+
+        byte[] read() {
+            final int length = buffer.getInt(readPosition);
+            final byte[] bytes = new byte[length];
+            final ByteBuffer source = buffer.duplicate();
+            source.position(readPosition + RECORD_HEADER_SIZE);
+            source.get(bytes);
+
+            readPosition += RECORD_HEADER_SIZE + length;
+            return bytes;
+        }
+
+        /**
+         * Validates the records starting at the given position and sets up the read and write positions accordingly.
+         *
+         * @return the number of valid records
+         */
+        int scan(int position) {
+            readPosition = Math.max(0, Math.min(position, buffer.capacity()));
+            writePosition = readPosition;
+
+            int count = 0;
+            while (buffer.capacity() - writePosition >= RECORD_HEADER_SIZE) {
+                final int length = buffer.getInt(writePosition);
+                if (length < 0 || length > buffer.capacity() - writePosition - RECORD_HEADER_SIZE) {
+                    break;
+                }
+                if (length == 0 && buffer.getInt(writePosition + 4) == 0) {
+                    // Never written
+                    break;
+                }
+                final ByteBuffer payload = buffer.duplicate();
+                payload.position(writePosition + RECORD_HEADER_SIZE);
+                payload.limit(writePosition + RECORD_HEADER_SIZE + length);
+                if (buffer.getInt(writePosition + 4) != checksum(id, payload)) {
+                    break;
+                }
+
+                writePosition += RECORD_HEADER_SIZE + length;
+                count++;
+            }
+            return count;
+        }
+
+        void reuse(Path path, long id) throws IOException {
+            Files.move(this.path, path);
+            this.path = path;
+            this.id = id;
+            clear();
+        }
+
+        void clear() {
+            readPosition = 0;
+            writePosition = 0;
+            dirty = false;
+        }
+
+        void sync() {
+            buffer.force();
+            dirty = false;
+        }
+
+        private static int checksum(long id, ByteBuffer payload) {
+            final CRC32 crc = new CRC32();
+            crc.update(ByteBuffer.allocate(Long.BYTES).putLong(0, id));
+            crc.update(payload);
+            return (int) crc.getValue();
+        }
+    }
+
+    /**
+     * Persists the position of the next record to read.
+     */
+    private static final class Checkpoint {
+        private static final int SIZE = Long.BYTES + Integer.BYTES;
+
+        private final MappedByteBuffer buffer;
+
+        Checkpoint(Path path) throws IOException {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, SIZE);
+            }
+        }
+
+        long segmentId() {
+            return buffer.getLong(0);
+        }
+
+        int position() {
+            return buffer.getInt(Long.BYTES);
+        }
+
+        void update(long segmentId, int position) {
+            buffer.putLong(0, segmentId);
+            buffer.putInt(Long.BYTES, position);
+        }
+
+        void sync() {
+            buffer.force();
+        }
+    }
+}
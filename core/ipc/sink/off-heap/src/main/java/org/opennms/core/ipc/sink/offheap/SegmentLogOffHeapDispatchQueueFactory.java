@@ -0,0 +1,99 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2024 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2024 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.ipc.sink.offheap;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import org.opennms.core.ipc.sink.api.AsyncPolicy;
+import org.opennms.core.ipc.sink.api.DispatchQueue;
+import org.opennms.core.ipc.sink.api.DispatchQueueFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class SegmentLogOffHeapDispatchQueueFactory implements DispatchQueueFactory {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SegmentLogOffHeapDispatchQueueFactory.class);
+
+    private final int inMemoryEntrySize;
+    private final int segmentSize;
+    private final long offHeapSize;
+    private final long syncIntervalMs;
+    private final Path baseFilePath;
+
+    private final Map<String, SegmentLogOffHeapDispatchQueue<?>> queues = new ConcurrentHashMap<>();
+
+    public SegmentLogOffHeapDispatchQueueFactory(int inMemoryEntrySize, String segmentSize, String offHeapSize,
+                                                 long syncIntervalMs, String baseFilePath) {
+        this.inMemoryEntrySize = inMemoryEntrySize;
+        this.segmentSize = Math.toIntExact(QueueFileOffHeapDispatchQueueFactory.convertToBytes(segmentSize));
+        this.offHeapSize = QueueFileOffHeapDispatchQueueFactory.convertToBytes(offHeapSize);
+        this.syncIntervalMs = syncIntervalMs;
+
+        if (baseFilePath == null || baseFilePath.length() == 0) {
+            this.baseFilePath = Paths.get(System.getProperty("karaf.data"));
+        } else {
+            this.baseFilePath = Paths.get(baseFilePath);
+        }
+
+        LOG.info("DispatchQueue factory initialized with on-heap size: {}, segment size: {}, off-heap size: {}, " +
+                        "sync interval: {}ms and file path: {}", this.inMemoryEntrySize, this.segmentSize,
+                this.offHeapSize, this.syncIntervalMs, this.baseFilePath);
+    }
+
+    @Override
+    public <T> DispatchQueue<T> getQueue(AsyncPolicy asyncPolicy, String moduleName, Function<T, byte[]> serializer,
+                                         Function<byte[], T> deserializer) {
+        if (asyncPolicy.getNumThreads() > inMemoryEntrySize) {
+            throw new IllegalArgumentException("The in memory queue size must be greater than or equal to the number" +
+                    " of consuming threads");
+        }
+
+        return (DispatchQueue<T>) queues.computeIfAbsent(moduleName, (k) -> {
+            try {
+                return new SegmentLogOffHeapDispatchQueue<>(serializer, deserializer, k, baseFilePath,
+                        inMemoryEntrySize, segmentSize, offHeapSize, syncIntervalMs);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    /**
+     * Stops the sync threads of the queues and syncs what they hold.
+     */
+    public void destroy() {
+        queues.values().forEach(SegmentLogOffHeapDispatchQueue::shutdown);
+        queues.clear();
+    }
+}
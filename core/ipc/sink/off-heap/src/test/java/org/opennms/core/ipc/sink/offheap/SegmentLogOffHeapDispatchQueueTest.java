@@ -0,0 +1,290 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2024 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2024 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.ipc.sink.offheap;
+
+import static org.awaitility.Awaitility.await;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.awaitility.core.ConditionTimeoutException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opennms.core.ipc.sink.api.DispatchQueue;
+import org.opennms.core.ipc.sink.api.WriteFailedException;
+
+public class SegmentLogOffHeapDispatchQueueTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void canQueueAndDequeue() throws IOException, WriteFailedException, InterruptedException {
+        DispatchQueue<String> queue = new SegmentLogOffHeapDispatchQueue<>(String::getBytes, String::new,
+                "canQueueAndDequeue", Paths.get(folder.newFolder().toURI()), 1, 1024, 10240, 1000);
+
+        // Since size is 1, the first entry should be in-memory and the second entry should be on disk
+        String payload1 = "msg1";
+        assertThat(queue.enqueue(payload1, "key1"), equalTo(DispatchQueue.EnqueueResult.IMMEDIATE));
+
+        String payload2 = "msg2";
+        assertThat(queue.enqueue(payload2, "key2"), equalTo(DispatchQueue.EnqueueResult.DEFERRED));
+
+        assertThat(queue.getSize(), equalTo(2));
+
+        assertThat(queue.dequeue().getValue(), equalTo(payload1));
+        assertThat(queue.dequeue().getValue(), equalTo(payload2));
+    }
+
+    @Test
+    public void dequeuesInOrderAcrossSegments() throws IOException, WriteFailedException, InterruptedException {
+        DispatchQueue<String> queue = new SegmentLogOffHeapDispatchQueue<>(String::getBytes, String::new,
+                "dequeuesInOrderAcrossSegments", Paths.get(folder.newFolder().toURI()), 100, 1024, 10_000_000, 1000);
+
+        int numEntries = 10020;
+        List<String> toQueue = IntStream.range(0, numEntries)
+                .boxed()
+                .map(Object::toString)
+                .collect(Collectors.toList());
+
+        for (String s : toQueue) {
+            queue.enqueue(s, "key" + s);
+        }
+
+        assertThat(queue.getSize(), equalTo(numEntries));
+
+        List<String> dequeued = new ArrayList<>();
+        while (queue.getSize() > 0) {
+            dequeued.add(queue.dequeue().getValue());
+        }
+
+        assertThat(dequeued, equalTo(toQueue));
+    }
+
+    @Test
+    public void canQueueAndDequeueInParallel() throws IOException {
+        DispatchQueue<String> queue = new SegmentLogOffHeapDispatchQueue<>(String::getBytes, String::new,
+                "canQueueAndDequeueInParallel", Paths.get(folder.newFolder().toURI()), 20, 4096, 100_000_000, 10);
+
+        int numEntries = 11_111;
+        List<String> toQueue = IntStream.range(0, numEntries)
+                .boxed()
+                .map(Object::toString)
+                .collect(Collectors.toList());
+
+        AtomicInteger count = new AtomicInteger(0);
+        CompletableFuture.runAsync(() -> {
+            while (count.get() < numEntries) {
+                try {
+                    queue.enqueue(toQueue.get(count.getAndIncrement()), "key");
+                } catch (WriteFailedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+
+        List<String> dequeued = new CopyOnWriteArrayList<>();
+        CompletableFuture.runAsync(() -> {
+            await().pollDelay(Duration.ofMillis(10)).pollInterval(Duration.ofMillis(10)).until(() -> queue.getSize() > 0);
+            while (true) {
+                try {
+                    dequeued.add(queue.dequeue().getValue());
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+
+        await().atMost(1, TimeUnit.MINUTES).until(() -> dequeued, equalTo(toQueue));
+    }
+
+    @Test
+    public void blocksWhenFull() throws WriteFailedException, IOException, InterruptedException {
+        SegmentLogOffHeapDispatchQueue<byte[]> queue = new SegmentLogOffHeapDispatchQueue<>(b -> b, b -> b,
+                "blocksWhenFull", Paths.get(folder.newFolder().toURI()), 1, 64, 64, 1000);
+
+        // Fill the in-memory queue and the only segment
+        queue.enqueue(new byte[0], "key1");
+        queue.enqueue(new byte[40], "key2");
+
+        AtomicBoolean didQueue = new AtomicBoolean(false);
+        CompletableFuture.runAsync(() -> {
+            // Now try to queue again and verify that we block
+            try {
+                queue.enqueue(new byte[40], "key3");
+                didQueue.set(true);
+            } catch (WriteFailedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+
+        try {
+            await().pollDelay(10, TimeUnit.MILLISECONDS)
+                    .atMost(100, TimeUnit.MILLISECONDS)
+                    .until(didQueue::get);
+            fail("Enqueue happened but we should have been blocking");
+        } catch (ConditionTimeoutException expected) {
+        }
+        assertThat(queue.isFull(), equalTo(true));
+
+        // Now dequeue which reads the segment and frees it up for reuse
+        queue.dequeue();
+        queue.dequeue();
+
+        await().atMost(1, TimeUnit.SECONDS).until(didQueue::get);
+        assertThat(queue.isFull(), equalTo(false));
+        assertThat(queue.getSegmentCount(), equalTo(1));
+    }
+
+    @Test
+    public void reusesSegments() throws IOException, WriteFailedException, InterruptedException {
+        SegmentLogOffHeapDispatchQueue<String> queue = new SegmentLogOffHeapDispatchQueue<>(String::getBytes,
+                String::new, "reusesSegments", Paths.get(folder.newFolder().toURI()), 10, 1024, 1_000_000, 1000);
+
+        int segmentCount = 0;
+        for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < 1000; i++) {
+                queue.enqueue(Integer.toString(i), "key");
+            }
+            for (int i = 0; i < 1000; i++) {
+                assertThat(queue.dequeue().getValue(), equalTo(Integer.toString(i)));
+            }
+
+            if (round == 0) {
+                segmentCount = queue.getSegmentCount();
+            }
+        }
+
+        // Only the segments required for a single round should have been allocated
+        assertThat(queue.getSegmentCount(), equalTo(segmentCount));
+    }
+
+    @Test
+    public void canDequeueOffHeapAfterRestart() throws IOException, WriteFailedException, InterruptedException {
+        Path path = Paths.get(folder.newFolder().toURI());
+        String moduleName = "canDequeueOffHeapAfterRestart";
+        SegmentLogOffHeapDispatchQueue<String> queue = new SegmentLogOffHeapDispatchQueue<>(String::getBytes,
+                String::new, moduleName, path, 1, 64, 10240, 1000);
+
+        assertThat(queue.enqueue("msg1", "key1"), equalTo(DispatchQueue.EnqueueResult.IMMEDIATE));
+        for (int i = 2; i <= 10; i++) {
+            assertThat(queue.enqueue("msg" + i, "key" + i), equalTo(DispatchQueue.EnqueueResult.DEFERRED));
+        }
+
+        // Consume some of the entries
+        assertThat(queue.dequeue().getValue(), equalTo("msg1"));
+        assertThat(queue.dequeue().getValue(), equalTo("msg2"));
+        queue.sync();
+
+        // Reinitialize to simulate coming back up after restart
+        queue = new SegmentLogOffHeapDispatchQueue<>(String::getBytes, String::new, moduleName, path, 1, 64, 10240, 1000);
+
+        // We will have lost the in-memory portion of the queue
+        assertThat(queue.getSize(), equalTo(8));
+        for (int i = 3; i <= 10; i++) {
+            assertThat(queue.dequeue().getValue(), equalTo("msg" + i));
+        }
+    }
+
+    @Test
+    public void stopsSyncThreadAndSyncsOnShutdown() throws IOException, WriteFailedException, InterruptedException {
+        Path path = Paths.get(folder.newFolder().toURI());
+        String moduleName = "stopsSyncThreadAndSyncsOnShutdown";
+        // Long enough for the periodic sync to never run during the test
+        SegmentLogOffHeapDispatchQueue<String> queue = new SegmentLogOffHeapDispatchQueue<>(String::getBytes,
+                String::new, moduleName, path, 1, 64, 10240, 3600000);
+        assertThat(isSyncThreadAlive(moduleName), equalTo(true));
+
+        for (int i = 1; i <= 5; i++) {
+            queue.enqueue("msg" + i, "key" + i);
+        }
+        assertThat(queue.dequeue().getValue(), equalTo("msg1"));
+        queue.shutdown();
+        await().atMost(Duration.ofSeconds(5)).until(() -> !isSyncThreadAlive(moduleName));
+
+        queue = new SegmentLogOffHeapDispatchQueue<>(String::getBytes, String::new, moduleName, path, 1, 64, 10240, 0);
+        assertThat(queue.getSize(), equalTo(4));
+        for (int i = 2; i <= 5; i++) {
+            assertThat(queue.dequeue().getValue(), equalTo("msg" + i));
+        }
+    }
+
+    private static boolean isSyncThreadAlive(String moduleName) {
+        return Thread.getAllStackTraces().keySet().stream()
+                .anyMatch(t -> t.getName().equals("SegmentLogSync-" + moduleName) && t.isAlive());
+    }
+
+    @Test
+    public void discardsPartialRecordsAfterRestart() throws IOException, WriteFailedException, InterruptedException {
+        Path path = Paths.get(folder.newFolder().toURI());
+        String moduleName = "discardsPartialRecordsAfterRestart";
+        SegmentLogOffHeapDispatchQueue<String> queue = new SegmentLogOffHeapDispatchQueue<>(String::getBytes,
+                String::new, moduleName, path, 1, 1024, 10240, 0);
+
+        queue.enqueue("msg1", "key1");
+        queue.enqueue("msg2", "key2");
+        queue.enqueue("msg3", "key3");
+
+        // Corrupt the payload of the last record
+        try (DirectoryStream<Path> segments = Files.newDirectoryStream(path.resolve(moduleName + ".segments"), "*.seg");
+             RandomAccessFile file = new RandomAccessFile(segments.iterator().next().toFile(), "rw")) {
+            file.seek((8 + 4) + 8);
+            file.write('X');
+        }
+
+        queue = new SegmentLogOffHeapDispatchQueue<>(String::getBytes, String::new, moduleName, path, 1, 1024, 10240, 0);
+
+        assertThat(queue.getSize(), equalTo(1));
+        assertThat(queue.dequeue().getValue(), equalTo("msg2"));
+
+        // The log continues after the last valid record
+        queue.enqueue("msg4", "key4");
+        queue.enqueue("msg5", "key5");
+        assertThat(queue.dequeue().getValue(), equalTo("msg4"));
+        assertThat(queue.dequeue().getValue(), equalTo("msg5"));
+    }
+}
@@ -0,0 +1,172 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2024 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2024 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.snmp;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Walks the given trackers with the max-repetitions learned for the agent and
+ * feeds the outcome of every GETBULK back into the {@link SnmpBulkProfiles}.
+ *
+ * The number of varbinds that the agent returned is compared to the number that
+ * was asked for: agents that cannot fit all of the repetitions in a message are
+ * allowed to return fewer of them, which tells us how many fit.
+ */
+public class AdaptiveBulkTracker extends AggregateTracker {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AdaptiveBulkTracker.class);
+
+    private final SnmpAgentConfig m_agentConfig;
+    private final String m_agent;
+    private final SnmpBulkProfiles m_profiles;
+
+    private CountingPduBuilder m_lastPdu;
+    private int m_received;
+    private boolean m_tooBig;
+
+    /**
+     * Records what the tracker put in the PDU.
+     */
+    private static final class CountingPduBuilder extends PduBuilder {
+        private final PduBuilder m_delegate;
+        private int m_oids = 0;
+        private int m_nonRepeaters = 0;
+        private int m_maxRepetitions = 0;
+
+        private CountingPduBuilder(PduBuilder delegate) {
+            m_delegate = delegate;
+        }
+
+        @Override
+        public void addOid(SnmpObjId snmpObjId) {
+            m_oids++;
+            m_delegate.addOid(snmpObjId);
+        }
+
+        @Override
+        public void setNonRepeaters(int numNonRepeaters) {
+            m_nonRepeaters = numNonRepeaters;
+            m_delegate.setNonRepeaters(numNonRepeaters);
+        }
+
+        @Override
+        public void setMaxRepetitions(int maxRepetitions) {
+            m_maxRepetitions = maxRepetitions;
+            m_delegate.setMaxRepetitions(maxRepetitions);
+        }
+
+        @Override
+        public int getMaxVarsPerPdu() {
+            return m_delegate.getMaxVarsPerPdu();
+        }
+
+        @Override
+        public void setMaxVarsPerPdu(int maxVarsPerPdu) {
+            m_delegate.setMaxVarsPerPdu(maxVarsPerPdu);
+        }
+
+        private int getRepeaters() {
+            return m_oids - m_nonRepeaters;
+        }
+    }
+
+    public AdaptiveBulkTracker(final CollectionTracker[] children, final SnmpAgentConfig agentConfig, final SnmpBulkProfiles profiles) {
+        super(children);
+        m_agentConfig = agentConfig;
+        m_agent = SnmpBulkProfiles.getKey(agentConfig);
+        m_profiles = profiles;
+    }
+
+    /**
+     * Applies the learned max-repetitions, overriding the one that the walker
+     * set from the agent configuration.
+     */
+    public void applyProfile() {
+        final int maxRepetitions = m_profiles.getMaxRepetitions(m_agent, m_agentConfig.getMaxRepetitions());
+        LOG.debug("applyProfile: using max-repetitions {} for {}", maxRepetitions, m_agent);
+        setMaxRepetitions(maxRepetitions);
+    }
+
+    @Override
+    public ResponseProcessor buildNextPdu(final PduBuilder pduBuilder) throws SnmpException {
+        learnFromLastPdu();
+
+        final CountingPduBuilder countingBuilder = new CountingPduBuilder(pduBuilder);
+        final ResponseProcessor delegate = super.buildNextPdu(countingBuilder);
+        m_lastPdu = countingBuilder;
+        m_received = 0;
+        m_tooBig = false;
+
+        return new ResponseProcessor() {
+            @Override
+            public void processResponse(SnmpObjId snmpObjId, SnmpValue val) throws SnmpException {
+                m_received++;
+                delegate.processResponse(snmpObjId, val);
+            }
+
+            @Override
+            public boolean processErrors(int errorStatus, int errorIndex) throws SnmpException {
+                if (ErrorStatus.fromStatus(errorStatus) == ErrorStatus.TOO_BIG) {
+                    m_tooBig = true;
+                }
+                return delegate.processErrors(errorStatus, errorIndex);
+            }
+        };
+    }
+
+    private void learnFromLastPdu() {
+        final CountingPduBuilder pdu = m_lastPdu;
+        m_lastPdu = null;
+        if (pdu == null || pdu.getRepeaters() <= 0) {
+            return;
+        }
+
+        final int maxRepetitions = pdu.m_maxRepetitions;
+        if (m_tooBig) {
+            m_profiles.onTooBig(m_agent, maxRepetitions);
+            // Use the reduced value for the rest of the walk too
+            setMaxRepetitions(m_profiles.getMaxRepetitions(m_agent, maxRepetitions));
+            return;
+        }
+
+        final int repetitions = (m_received - pdu.m_nonRepeaters) / pdu.getRepeaters();
+        if (repetitions >= maxRepetitions) {
+            m_profiles.onComplete(m_agent, maxRepetitions);
+        } else if (repetitions > 0) {
+            m_profiles.onTruncated(m_agent, maxRepetitions, repetitions);
+            setMaxRepetitions(m_profiles.getMaxRepetitions(m_agent, maxRepetitions));
+        }
+    }
+
+    @Override
+    protected void reportTooBigErr(String msg) {
+        LOG.info("Received tooBig response from {}. {}", m_agentConfig.getAddress(), msg);
+    }
+}
@@ -0,0 +1,261 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2024 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2024 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.snmp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The max-repetitions learned for each agent by the {@link AdaptiveBulkTracker}.
+ *
+ * <p>Agents start with the max-repetitions of their {@link SnmpAgentConfig}. Every
+ * GETBULK that comes back complete increases it by a quarter, up to
+ * {@value #MAX_REPETITIONS_PROPERTY}. A response that was truncated by the agent
+ * brings it down to the number of repetitions that the agent actually returned,
+ * and a tooBig error halves it and caps it for good below the value that caused
+ * the error.</p>
+ *
+ * <p>The profiles are saved to {@value #PROFILES_FILE_PROPERTY}, by default
+ * {@code $OPENNMS_HOME/share/snmp-bulk-profiles.properties}, so that they survive
+ * a restart. Once {@link #start()}ed, changes are written out once a minute and
+ * on {@link #close()}. The SNMP proxy RPC module does both for the shared instance,
+ * along with its container.</p>
+ */
+public class SnmpBulkProfiles {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SnmpBulkProfiles.class);
+
+    public static final String ENABLED_PROPERTY = "org.opennms.snmp.adaptiveBulk";
+
+    public static final String MAX_REPETITIONS_PROPERTY = "org.opennms.snmp.adaptiveBulk.maxRepetitions";
+
+    public static final String PROFILES_FILE_PROPERTY = "org.opennms.snmp.adaptiveBulk.profiles";
+
+    private static final long SAVE_INTERVAL_MS = TimeUnit.MINUTES.toMillis(1);
+
+    private static final class Profile {
+        private final int m_maxRepetitions;
+        private final int m_ceiling;
+
+        private Profile(int maxRepetitions, int ceiling) {
+            m_maxRepetitions = maxRepetitions;
+            m_ceiling = ceiling;
+        }
+
+        @Override
+        public String toString() {
+            return m_maxRepetitions + "," + m_ceiling;
+        }
+    }
+
+    private static class LazyHolder {
+        private static final SnmpBulkProfiles INSTANCE = createInstance();
+
+        private static SnmpBulkProfiles createInstance() {
+            return new SnmpBulkProfiles(getDefaultFile(), Integer.getInteger(MAX_REPETITIONS_PROPERTY, 50));
+        }
+    }
+
+    private final Path m_file;
+
+    private final int m_maxRepetitions;
+
+    private final Map<String, Profile> m_profiles = new ConcurrentHashMap<>();
+
+    private volatile boolean m_dirty = false;
+
+    private ScheduledExecutorService m_saver;
+
+    /**
+     * @param file
+     *            where to load and save the profiles, or {@code null} to keep them in memory
+     * @param maxRepetitions
+     *            the upper bound of the learned max-repetitions
+     */
+    public SnmpBulkProfiles(final Path file, final int maxRepetitions) {
+        m_file = file;
+        m_maxRepetitions = Math.max(1, maxRepetitions);
+        load();
+    }
+
+    public static boolean isEnabled() {
+        return Boolean.getBoolean(ENABLED_PROPERTY);
+    }
+
+    public static SnmpBulkProfiles getInstance() {
+        return LazyHolder.INSTANCE;
+    }
+
+    private static Path getDefaultFile() {
+        final String file = System.getProperty(PROFILES_FILE_PROPERTY);
+        if (file != null) {
+            return file.isEmpty() ? null : Paths.get(file);
+        }
+        final String home = System.getProperty("opennms.home");
+        return home == null ? null : Paths.get(home, "share", "snmp-bulk-profiles.properties");
+    }
+
+    public static String getKey(final SnmpAgentConfig agentConfig) {
+        return InetAddrUtils.str(agentConfig.getAddress()) + ":" + agentConfig.getPort();
+    }
+
+    /**
+     * @return the max-repetitions to use for the agent
+     */
+    public int getMaxRepetitions(final String agent, final int defaultValue) {
+        final Profile profile = m_profiles.get(agent);
+        return profile == null ? Math.min(Math.max(1, defaultValue), m_maxRepetitions) : profile.m_maxRepetitions;
+    }
+
+    /**
+     * The agent returned every repetition that was asked for.
+     */
+    public void onComplete(final String agent, final int maxRepetitions) {
+        update(agent, maxRepetitions, profile -> {
+            final int grown = Math.min(profile.m_ceiling, maxRepetitions + Math.max(1, maxRepetitions / 4));
+            return new Profile(Math.max(profile.m_maxRepetitions, grown), profile.m_ceiling);
+        });
+    }
+
+    /**
+     * The agent only returned {@code repetitions} of the repetitions that were
+     * asked for to fit the response in a message.
+     */
+    public void onTruncated(final String agent, final int maxRepetitions, final int repetitions) {
+        update(agent, maxRepetitions, profile -> new Profile(Math.max(1, Math.min(profile.m_maxRepetitions, repetitions)), profile.m_ceiling));
+    }
+
+    /**
+     * The agent replied with a tooBig error.
+     */
+    public void onTooBig(final String agent, final int maxRepetitions) {
+        update(agent, maxRepetitions, profile -> {
+            final int ceiling = Math.max(1, Math.min(profile.m_ceiling, maxRepetitions - 1));
+            // The PDU may have been built before the value was lowered, so never raise it
+            return new Profile(Math.max(1, Math.min(ceiling, Math.min(profile.m_maxRepetitions, maxRepetitions / 2))), ceiling);
+        });
+    }
+
+    private void update(final String agent, final int maxRepetitions, final UnaryOperator<Profile> update) {
+        final Profile before = m_profiles.get(agent);
+        final Profile after = m_profiles.compute(agent, (key, profile) -> update.apply(profile != null ? profile : new Profile(Math.min(maxRepetitions, m_maxRepetitions), m_maxRepetitions)));
+        if (before == null || before.m_maxRepetitions != after.m_maxRepetitions || before.m_ceiling != after.m_ceiling) {
+            LOG.debug("update: max-repetitions for {} is now {} (at most {})", agent, after.m_maxRepetitions, after.m_ceiling);
+            m_dirty = true;
+        }
+    }
+
+    private void load() {
+        if (m_file == null || !Files.isRegularFile(m_file)) {
+            return;
+        }
+        final Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(m_file)) {
+            properties.load(in);
+        } catch (final IOException e) {
+            LOG.warn("Failed to load the SNMP bulk profiles from {}", m_file, e);
+            return;
+        }
+        for (final String agent : properties.stringPropertyNames()) {
+            final String[] values = properties.getProperty(agent).split(",");
+            try {
+                final int ceiling = Math.min(m_maxRepetitions, Integer.parseInt(values[1].trim()));
+                m_profiles.put(agent, new Profile(Math.min(ceiling, Integer.parseInt(values[0].trim())), ceiling));
+            } catch (final RuntimeException e) {
+                LOG.warn("Ignoring invalid SNMP bulk profile for {}: {}", agent, properties.getProperty(agent));
+            }
+        }
+        LOG.info("Loaded {} SNMP bulk profiles from {}", m_profiles.size(), m_file);
+    }
+
+    /**
+     * Starts saving the profiles in the background every {@link #SAVE_INTERVAL_MS}.
+     */
+    public synchronized void start() {
+        if (m_file == null || m_saver != null) {
+            return;
+        }
+        m_saver = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "SnmpBulkProfiles-Saver");
+            thread.setDaemon(true);
+            return thread;
+        });
+        m_saver.scheduleWithFixedDelay(this::save, SAVE_INTERVAL_MS, SAVE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops saving the profiles in the background and saves any pending changes.
+     */
+    public void close() {
+        synchronized (this) {
+            if (m_saver != null) {
+                m_saver.shutdown();
+                m_saver = null;
+            }
+        }
+        save();
+    }
+
+    /**
+     * Writes the profiles to disk if they have changed since they were last saved.
+     */
+    public synchronized void save() {
+        if (m_file == null || !m_dirty) {
+            return;
+        }
+        m_dirty = false;
+
+        final Properties properties = new Properties();
+        m_profiles.forEach((agent, profile) -> properties.setProperty(agent, profile.toString()));
+        try {
+            final Path tmp = m_file.resolveSibling(m_file.getFileName() + ".tmp");
+            try (OutputStream out = Files.newOutputStream(tmp)) {
+                properties.store(out, "max-repetitions,ceiling learned for each SNMP agent");
+            }
+            Files.move(tmp, m_file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (final IOException e) {
+            LOG.warn("Failed to save the SNMP bulk profiles to {}", m_file, e);
+        }
+    }
+}
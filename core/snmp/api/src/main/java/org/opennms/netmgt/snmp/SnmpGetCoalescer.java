@@ -0,0 +1,298 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2024 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2024 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.snmp;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Merges the GET requests that are issued for the same agent within a short
+ * window into as few PDUs as the agent's max-vars-per-pdu allows, and hands
+ * every caller the values for its own OIDs.
+ *
+ * <p>Requests are only merged for SNMPv2c and SNMPv3 agents: with SNMPv1 a
+ * single unknown OID fails the whole PDU. If a merged PDU fails for any other
+ * reason than a timeout, the requests it contained are retried one by one so
+ * that callers see the same result as if they had not been merged.</p>
+ *
+ * <p>The {@link SnmpAgentConfig} is used as the key to merge requests, so it
+ * must not be modified while a request is pending. Its equality is by value,
+ * so the GETs of the {@code LocationAwareSnmpClient}, e.g. those of the SNMP
+ * interface poller, are merged as well: the SNMP proxy RPC module executes them
+ * with {@link SnmpUtils#getAsync(SnmpAgentConfig, SnmpObjId[])}, both on
+ * OpenNMS and on Minion, with an agent config of its own for every request.</p>
+ */
+public class SnmpGetCoalescer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SnmpGetCoalescer.class);
+
+    private final Supplier<SnmpStrategy> m_strategy;
+
+    private final long m_windowMs;
+
+    private final ConcurrentMap<SnmpAgentConfig, Batch> m_pending = new ConcurrentHashMap<>();
+
+    private volatile ScheduledExecutorService m_timer;
+
+    private final AtomicLong m_requests = new AtomicLong();
+
+    private final AtomicLong m_pdusSent = new AtomicLong();
+
+    /**
+     * A call to {@link #getAsync(SnmpAgentConfig, SnmpObjId[])}.
+     */
+    private static final class Request {
+        private final SnmpObjId[] m_oids;
+        private final int[] m_positions;
+        private final CompletableFuture<SnmpValue[]> m_future = new CompletableFuture<>();
+
+        private Request(SnmpObjId[] oids) {
+            m_oids = oids;
+            m_positions = new int[oids.length];
+        }
+    }
+
+    /**
+     * The requests that will be sent in a single PDU. Only modified while
+     * holding the lock of its entry in {@link SnmpGetCoalescer#m_pending}.
+     */
+    private static final class Batch {
+        private final SnmpAgentConfig m_agentConfig;
+        private final int m_maxVarsPerPdu;
+        private final Map<SnmpObjId, Integer> m_oids = new LinkedHashMap<>();
+        private final List<Request> m_requests = new ArrayList<>();
+
+        private Batch(SnmpAgentConfig agentConfig) {
+            m_agentConfig = agentConfig;
+            m_maxVarsPerPdu = agentConfig.getMaxVarsPerPdu();
+        }
+
+        private boolean add(Request request) {
+            int newOids = 0;
+            for (SnmpObjId oid : request.m_oids) {
+                if (!m_oids.containsKey(oid)) {
+                    newOids++;
+                }
+            }
+            if (!m_requests.isEmpty() && m_oids.size() + newOids > m_maxVarsPerPdu) {
+                return false;
+            }
+            for (int i = 0; i < request.m_oids.length; i++) {
+                request.m_positions[i] = m_oids.computeIfAbsent(request.m_oids[i], oid -> m_oids.size());
+            }
+            m_requests.add(request);
+            return true;
+        }
+
+        private boolean isFull() {
+            return m_oids.size() >= m_maxVarsPerPdu;
+        }
+
+        private SnmpObjId[] getOids() {
+            return m_oids.keySet().toArray(new SnmpObjId[0]);
+        }
+    }
+
+    /**
+     * @param strategy
+     *            supplies the strategy used to send the PDUs
+     * @param windowMs
+     *            how long to wait for more requests to the same agent before
+     *            sending a PDU; 0 disables merging
+     */
+    public SnmpGetCoalescer(final Supplier<SnmpStrategy> strategy, final long windowMs) {
+        m_strategy = strategy;
+        m_windowMs = windowMs;
+    }
+
+    public boolean isEnabled() {
+        return m_windowMs > 0;
+    }
+
+    public SnmpValue[] get(final SnmpAgentConfig agentConfig, final SnmpObjId[] oids) {
+        if (!shouldMerge(agentConfig, oids)) {
+            return m_strategy.get().get(agentConfig, oids);
+        }
+        try {
+            return getAsync(agentConfig, oids).get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOG.warn("get: interrupted while waiting for agent {}", agentConfig.getAddress());
+        } catch (final ExecutionException e) {
+            LOG.error(e.getMessage(), e.getCause());
+        }
+        // Same contract as SnmpStrategy.get() when the request fails
+        return new SnmpValue[] { null };
+    }
+
+    public CompletableFuture<SnmpValue[]> getAsync(final SnmpAgentConfig agentConfig, final SnmpObjId[] oids) {
+        if (!shouldMerge(agentConfig, oids)) {
+            return m_strategy.get().getAsync(agentConfig, oids);
+        }
+
+        m_requests.incrementAndGet();
+        final Request request = new Request(oids);
+        final List<Batch> ready = new ArrayList<>(2);
+        m_pending.compute(agentConfig, (key, batch) -> {
+            if (batch != null && !batch.add(request)) {
+                ready.add(batch);
+                batch = null;
+            }
+            if (batch == null) {
+                batch = new Batch(key);
+                batch.add(request);
+                final Batch scheduled = batch;
+                getTimer().schedule(() -> flush(scheduled), m_windowMs, TimeUnit.MILLISECONDS);
+            }
+            if (batch.isFull()) {
+                ready.add(batch);
+                return null;
+            }
+            return batch;
+        });
+
+        for (final Batch batch : ready) {
+            send(batch);
+        }
+        return request.m_future;
+    }
+
+    private boolean shouldMerge(final SnmpAgentConfig agentConfig, final SnmpObjId[] oids) {
+        return isEnabled()
+                && agentConfig.getVersion() != SnmpConfiguration.VERSION1
+                && oids.length > 0
+                && oids.length < agentConfig.getMaxVarsPerPdu();
+    }
+
+    private void flush(final Batch batch) {
+        final boolean[] removed = { false };
+        m_pending.computeIfPresent(batch.m_agentConfig, (key, pending) -> {
+            if (pending == batch) {
+                removed[0] = true;
+                return null;
+            }
+            return pending;
+        });
+        // Otherwise the batch was full and has already been sent
+        if (removed[0]) {
+            send(batch);
+        }
+    }
+
+    private void send(final Batch batch) {
+        final SnmpObjId[] oids = batch.getOids();
+        LOG.debug("send: sending {} OIDs for {} requests to agent {}", oids.length, batch.m_requests.size(), batch.m_agentConfig.getAddress());
+        m_pdusSent.incrementAndGet();
+
+        final CompletableFuture<SnmpValue[]> future;
+        try {
+            future = m_strategy.get().getAsync(batch.m_agentConfig, oids);
+        } catch (final RuntimeException e) {
+            batch.m_requests.forEach(request -> request.m_future.completeExceptionally(e));
+            return;
+        }
+
+        future.whenComplete((values, ex) -> {
+            final Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+            if (cause == null && values != null && values.length == oids.length) {
+                for (final Request request : batch.m_requests) {
+                    final SnmpValue[] result = new SnmpValue[request.m_oids.length];
+                    for (int i = 0; i < result.length; i++) {
+                        result[i] = values[request.m_positions[i]];
+                    }
+                    request.m_future.complete(result);
+                }
+            } else if (batch.m_requests.size() == 1 || cause instanceof SnmpAgentTimeoutException) {
+                for (final Request request : batch.m_requests) {
+                    if (cause != null) {
+                        request.m_future.completeExceptionally(cause);
+                    } else {
+                        request.m_future.complete(values);
+                    }
+                }
+            } else {
+                LOG.debug("send: merged request to agent {} failed, retrying the {} requests separately", batch.m_agentConfig.getAddress(), batch.m_requests.size(), cause);
+                for (final Request request : batch.m_requests) {
+                    m_pdusSent.incrementAndGet();
+                    m_strategy.get().getAsync(batch.m_agentConfig, request.m_oids).whenComplete((v, e) -> {
+                        if (e != null) {
+                            request.m_future.completeExceptionally(e);
+                        } else {
+                            request.m_future.complete(v);
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    private ScheduledExecutorService getTimer() {
+        if (m_timer == null) {
+            synchronized (this) {
+                if (m_timer == null) {
+                    m_timer = new ScheduledThreadPoolExecutor(1, r -> {
+                        final Thread thread = new Thread(r, "SnmpGetCoalescer");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                }
+            }
+        }
+        return m_timer;
+    }
+
+    /**
+     * @return the number of requests that went through the coalescer
+     */
+    public long getRequestCount() {
+        return m_requests.get();
+    }
+
+    /**
+     * @return the number of PDUs sent for these requests
+     */
+    public long getPdusSent() {
+        return m_pdusSent.get();
+    }
+}
@@ -54,6 +54,13 @@ public abstract class SnmpUtils {
     private static StrategyResolver s_strategyResolver;
     private static final boolean canUseClassBasedStrategy = checkIfClassBasedStrategyIsInstantiable();
 
+    /**
+     * GETs issued for the same agent within this many milliseconds are sent in
+     * a single PDU, see {@link SnmpGetCoalescer}. Disabled by default.
+     */
+    public static final String GET_COALESCING_WINDOW_PROPERTY = "org.opennms.snmp.getCoalescingWindowMs";
+    private static final SnmpGetCoalescer s_getCoalescer = new SnmpGetCoalescer(SnmpUtils::getStrategy, Long.getLong(GET_COALESCING_WINDOW_PROPERTY, 0L));
+
     private static final class TooBigReportingAggregator extends AggregateTracker {
         private final InetAddress address;
 
@@ -69,14 +76,28 @@ public abstract class SnmpUtils {
     }
 
     public static SnmpWalker createWalker(SnmpAgentConfig agentConfig, String name, CollectionTracker... trackers) {
+        if (SnmpBulkProfiles.isEnabled() && agentConfig.getVersion() != SnmpConfiguration.VERSION1) {
+            return createAdaptiveWalker(agentConfig, name, trackers);
+        }
         return getStrategy().createWalker(agentConfig, name, createTooBigTracker(agentConfig, trackers));
     }
 
+    private static SnmpWalker createAdaptiveWalker(SnmpAgentConfig agentConfig, String name, CollectionTracker... trackers) {
+        final AdaptiveBulkTracker tracker = new AdaptiveBulkTracker(trackers, agentConfig, SnmpBulkProfiles.getInstance());
+        final SnmpWalker walker = getStrategy().createWalker(agentConfig, name, tracker);
+        // The walker sets the max-repetitions from the agent config
+        tracker.applyProfile();
+        return walker;
+    }
+
     private static TooBigReportingAggregator createTooBigTracker(SnmpAgentConfig agentConfig, CollectionTracker... trackers) {
         return new TooBigReportingAggregator(trackers, agentConfig.getAddress());
     }
     
     public static SnmpWalker createWalker(SnmpAgentConfig agentConfig, String name, CollectionTracker tracker) {
+        if (SnmpBulkProfiles.isEnabled() && agentConfig.getVersion() != SnmpConfiguration.VERSION1) {
+            return createAdaptiveWalker(agentConfig, name, tracker);
+        }
         return getStrategy().createWalker(agentConfig, name, createTooBigTracker(agentConfig, tracker));
     }
 
@@ -85,15 +106,18 @@ public abstract class SnmpUtils {
     }
     
     public static SnmpValue get(SnmpAgentConfig agentConfig, SnmpObjId oid) {
+        if (s_getCoalescer.isEnabled()) {
+            return s_getCoalescer.get(agentConfig, new SnmpObjId[] { oid })[0];
+        }
         return getStrategy().get(agentConfig, oid);
     }
     
     public static SnmpValue[] get(SnmpAgentConfig agentConfig, SnmpObjId[] oids) {
-        return getStrategy().get(agentConfig, oids);
+        return s_getCoalescer.get(agentConfig, oids);
     }
 
     public static CompletableFuture<SnmpValue[]> getAsync(SnmpAgentConfig agentConfig, SnmpObjId[] oids) {
-        return getStrategy().getAsync(agentConfig, oids);
+        return s_getCoalescer.getAsync(agentConfig, oids);
     }
 
     public static SnmpValue getNext(SnmpAgentConfig agentConfig, SnmpObjId oid) {
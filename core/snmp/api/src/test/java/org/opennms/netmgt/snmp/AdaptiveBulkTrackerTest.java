@@ -0,0 +1,141 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2024 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2024 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.snmp;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class AdaptiveBulkTrackerTest {
+
+    private static final SnmpObjId IF_IN_OCTETS = SnmpObjId.get(".1.3.6.1.2.1.2.2.1.10");
+    private static final SnmpObjId IF_OUT_OCTETS = SnmpObjId.get(".1.3.6.1.2.1.2.2.1.16");
+
+    private static class TestPduBuilder extends PduBuilder {
+        private final List<SnmpObjId> m_oids = new ArrayList<>();
+        private int m_maxRepetitions;
+
+        private TestPduBuilder() {
+            super(10);
+        }
+
+        @Override
+        public void addOid(SnmpObjId snmpObjId) {
+            m_oids.add(snmpObjId);
+        }
+
+        @Override
+        public void setNonRepeaters(int numNonRepeaters) {
+        }
+
+        @Override
+        public void setMaxRepetitions(int maxRepetitions) {
+            m_maxRepetitions = maxRepetitions;
+        }
+
+        private void reset() {
+            m_oids.clear();
+        }
+    }
+
+    private SnmpAgentConfig m_agentConfig;
+    private SnmpBulkProfiles m_profiles;
+    private AdaptiveBulkTracker m_tracker;
+    private TestPduBuilder m_builder;
+    private int m_nextInstance = 1;
+
+    @Before
+    public void setUp() throws Exception {
+        m_agentConfig = new SnmpAgentConfig(InetAddress.getLoopbackAddress());
+        m_agentConfig.setVersion(SnmpConfiguration.VERSION2C);
+        m_agentConfig.setMaxRepetitions(10);
+        m_profiles = new SnmpBulkProfiles(null, 50);
+        m_tracker = new AdaptiveBulkTracker(new CollectionTracker[] {
+                new ColumnTracker(IF_IN_OCTETS, 2, 0),
+                new ColumnTracker(IF_OUT_OCTETS, 2, 0)
+        }, m_agentConfig, m_profiles);
+        m_tracker.applyProfile();
+        m_builder = new TestPduBuilder();
+    }
+
+    private ResponseProcessor buildNextPdu() throws SnmpException {
+        m_builder.reset();
+        return m_tracker.buildNextPdu(m_builder);
+    }
+
+    private void respond(ResponseProcessor processor, int repetitions) throws SnmpException {
+        processor.processErrors(0, 0);
+        for (int i = 0; i < repetitions; i++) {
+            final int instance = m_nextInstance++;
+            processor.processResponse(SnmpObjId.get(IF_IN_OCTETS, Integer.toString(instance)), mock(SnmpValue.class));
+            processor.processResponse(SnmpObjId.get(IF_OUT_OCTETS, Integer.toString(instance)), mock(SnmpValue.class));
+        }
+    }
+
+    @Test
+    public void testLearnsFromResponses() throws Exception {
+        final String agent = SnmpBulkProfiles.getKey(m_agentConfig);
+
+        ResponseProcessor processor = buildNextPdu();
+        assertEquals(2, m_builder.m_oids.size());
+        assertEquals(10, m_builder.m_maxRepetitions);
+        respond(processor, 10);
+
+        // A complete response grows the profile, but not the walk in progress
+        processor = buildNextPdu();
+        assertEquals(12, m_profiles.getMaxRepetitions(agent, 10));
+        assertEquals(10, m_builder.m_maxRepetitions);
+
+        // The agent only managed to fit 3 repetitions, the walk in progress asks for those only
+        respond(processor, 3);
+        processor = buildNextPdu();
+        assertEquals(3, m_profiles.getMaxRepetitions(agent, 10));
+        assertEquals(3, m_builder.m_maxRepetitions);
+
+        // tooBig halves the max-repetitions, for this walk too
+        processor.processErrors(ErrorStatus.TOO_BIG.ordinal(), 0);
+        processor = buildNextPdu();
+        assertEquals(1, m_profiles.getMaxRepetitions(agent, 10));
+        assertEquals(1, m_builder.m_maxRepetitions);
+    }
+
+    @Test
+    public void testAppliesTheLearnedProfile() throws Exception {
+        m_profiles.onTooBig(SnmpBulkProfiles.getKey(m_agentConfig), 8);
+        m_tracker.applyProfile();
+        buildNextPdu();
+        assertEquals(4, m_builder.m_maxRepetitions);
+    }
+}
@@ -0,0 +1,113 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2024 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2024 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.snmp;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.file.Path;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SnmpBulkProfilesTest {
+
+    @Rule
+    public TemporaryFolder m_folder = new TemporaryFolder();
+
+    private static final String AGENT = "127.0.0.1:161";
+
+    @Test
+    public void testLearning() {
+        final SnmpBulkProfiles profiles = new SnmpBulkProfiles(null, 30);
+        assertEquals(2, profiles.getMaxRepetitions(AGENT, 2));
+        assertEquals(30, profiles.getMaxRepetitions(AGENT, 100));
+
+        // Grows by a quarter, at least by one
+        profiles.onComplete(AGENT, 2);
+        assertEquals(3, profiles.getMaxRepetitions(AGENT, 2));
+        profiles.onComplete(AGENT, 20);
+        assertEquals(25, profiles.getMaxRepetitions(AGENT, 2));
+        profiles.onComplete(AGENT, 25);
+        assertEquals(30, profiles.getMaxRepetitions(AGENT, 2));
+
+        // Shrinks to what the agent returned
+        profiles.onTruncated(AGENT, 30, 12);
+        assertEquals(12, profiles.getMaxRepetitions(AGENT, 2));
+
+        // Halves, and never goes back to the value that was too big
+        profiles.onTooBig(AGENT, 16);
+        assertEquals(8, profiles.getMaxRepetitions(AGENT, 2));
+        for (int i = 0; i < 10; i++) {
+            profiles.onComplete(AGENT, profiles.getMaxRepetitions(AGENT, 2));
+        }
+        assertEquals(15, profiles.getMaxRepetitions(AGENT, 2));
+
+        // A tooBig for a PDU that was built before the value was lowered doesn't raise it
+        profiles.onTruncated(AGENT, 15, 3);
+        profiles.onTooBig(AGENT, 14);
+        assertEquals(3, profiles.getMaxRepetitions(AGENT, 2));
+
+        profiles.onTooBig(AGENT, 1);
+        assertEquals(1, profiles.getMaxRepetitions(AGENT, 2));
+
+        // Other agents are not affected
+        assertEquals(2, profiles.getMaxRepetitions("127.0.0.2:161", 2));
+    }
+
+    @Test
+    public void testPersistence() throws Exception {
+        final Path file = m_folder.getRoot().toPath().resolve("snmp-bulk-profiles.properties");
+
+        final SnmpBulkProfiles profiles = new SnmpBulkProfiles(file, 50);
+        profiles.onTooBig(AGENT, 20);
+        profiles.save();
+
+        final SnmpBulkProfiles loaded = new SnmpBulkProfiles(file, 50);
+        assertEquals(10, loaded.getMaxRepetitions(AGENT, 2));
+        loaded.onComplete(AGENT, 19);
+        assertEquals(19, loaded.getMaxRepetitions(AGENT, 2));
+
+        // A lower upper bound applies to the loaded profiles
+        assertEquals(5, new SnmpBulkProfiles(file, 5).getMaxRepetitions(AGENT, 2));
+    }
+
+    @Test
+    public void testSavesOnClose() throws Exception {
+        final Path file = m_folder.getRoot().toPath().resolve("snmp-bulk-profiles.properties");
+
+        final SnmpBulkProfiles profiles = new SnmpBulkProfiles(file, 50);
+        profiles.start();
+        profiles.onTooBig(AGENT, 20);
+        assertEquals(2, new SnmpBulkProfiles(file, 50).getMaxRepetitions(AGENT, 2));
+
+        profiles.close();
+        assertEquals(10, new SnmpBulkProfiles(file, 50).getMaxRepetitions(AGENT, 2));
+    }
+}
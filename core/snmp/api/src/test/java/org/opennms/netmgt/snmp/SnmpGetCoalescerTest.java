@@ -0,0 +1,201 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2024 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2024 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.snmp;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class SnmpGetCoalescerTest {
+
+    private SnmpStrategy m_strategy;
+
+    private final List<SnmpObjId[]> m_sent = Collections.synchronizedList(new ArrayList<>());
+
+    private SnmpAgentConfig m_agentConfig;
+
+    /**
+     * OIDs ending with .666 make the whole PDU fail.
+     */
+    private static final SnmpObjId BAD_OID = SnmpObjId.get(".1.3.6.1.2.1.1.666");
+
+    @Before
+    public void setUp() throws Exception {
+        m_strategy = mock(SnmpStrategy.class);
+        when(m_strategy.getAsync(any(SnmpAgentConfig.class), any(SnmpObjId[].class))).thenAnswer(invocation -> {
+            final SnmpObjId[] oids = invocation.getArgument(1);
+            m_sent.add(oids);
+            final CompletableFuture<SnmpValue[]> future = new CompletableFuture<>();
+            if (Arrays.asList(oids).contains(BAD_OID)) {
+                future.completeExceptionally(new SnmpException("genErr"));
+                return future;
+            }
+            final SnmpValue[] values = new SnmpValue[oids.length];
+            for (int i = 0; i < oids.length; i++) {
+                values[i] = value(oids[i]);
+            }
+            future.complete(values);
+            return future;
+        });
+
+        m_agentConfig = new SnmpAgentConfig(InetAddress.getLoopbackAddress());
+        m_agentConfig.setVersion(SnmpConfiguration.VERSION2C);
+        m_agentConfig.setMaxVarsPerPdu(4);
+    }
+
+    private static SnmpValue value(SnmpObjId oid) {
+        final SnmpValue value = mock(SnmpValue.class);
+        when(value.toDisplayString()).thenReturn(oid.toString());
+        return value;
+    }
+
+    private static SnmpObjId[] oids(String... oids) {
+        return Arrays.stream(oids).map(SnmpObjId::get).toArray(SnmpObjId[]::new);
+    }
+
+    private static void assertValues(SnmpObjId[] oids, SnmpValue[] values) {
+        assertEquals(oids.length, values.length);
+        for (int i = 0; i < oids.length; i++) {
+            assertEquals(oids[i].toString(), values[i].toDisplayString());
+        }
+    }
+
+    @Test
+    public void testMergesRequestsToTheSameAgent() throws Exception {
+        final SnmpGetCoalescer coalescer = new SnmpGetCoalescer(() -> m_strategy, 50);
+
+        final SnmpObjId[] first = oids(".1.3.6.1.2.1.1.1.0", ".1.3.6.1.2.1.1.3.0");
+        final SnmpObjId[] second = oids(".1.3.6.1.2.1.1.3.0");
+        final SnmpObjId[] third = oids(".1.3.6.1.2.1.1.5.0");
+        final CompletableFuture<SnmpValue[]> f1 = coalescer.getAsync(m_agentConfig, first);
+        final CompletableFuture<SnmpValue[]> f2 = coalescer.getAsync(m_agentConfig, second);
+        final CompletableFuture<SnmpValue[]> f3 = coalescer.getAsync(m_agentConfig, third);
+
+        assertValues(first, f1.get(5, TimeUnit.SECONDS));
+        assertValues(second, f2.get(5, TimeUnit.SECONDS));
+        assertValues(third, f3.get(5, TimeUnit.SECONDS));
+
+        // Duplicate OIDs are only requested once
+        assertEquals(1, m_sent.size());
+        assertArrayEquals(oids(".1.3.6.1.2.1.1.1.0", ".1.3.6.1.2.1.1.3.0", ".1.3.6.1.2.1.1.5.0"), m_sent.get(0));
+        assertEquals(3, coalescer.getRequestCount());
+        assertEquals(1, coalescer.getPdusSent());
+    }
+
+    @Test
+    public void testSendsAsSoonAsThePduIsFull() throws Exception {
+        final SnmpGetCoalescer coalescer = new SnmpGetCoalescer(() -> m_strategy, TimeUnit.MINUTES.toMillis(1));
+
+        final List<CompletableFuture<SnmpValue[]>> futures = new ArrayList<>();
+        for (int i = 0; i < 9; i++) {
+            futures.add(coalescer.getAsync(m_agentConfig, oids(".1.3.6.1.2.1.2.2.1.10." + i, ".1.3.6.1.2.1.2.2.1.16." + i)));
+        }
+        // The first 8 requests fill 4 PDUs and are sent right away, the last one waits for the window to end
+        for (int i = 0; i < 8; i++) {
+            assertValues(oids(".1.3.6.1.2.1.2.2.1.10." + i, ".1.3.6.1.2.1.2.2.1.16." + i), futures.get(i).get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(false, futures.get(8).isDone());
+        assertEquals(4, m_sent.size());
+        for (SnmpObjId[] pdu : m_sent) {
+            assertEquals(4, pdu.length);
+        }
+    }
+
+    @Test
+    public void testSeparatesAgents() throws Exception {
+        final SnmpGetCoalescer coalescer = new SnmpGetCoalescer(() -> m_strategy, 20);
+        final SnmpAgentConfig other = new SnmpAgentConfig(InetAddress.getByName("127.0.0.2"));
+        other.setVersion(SnmpConfiguration.VERSION2C);
+        other.setMaxVarsPerPdu(4);
+
+        final CompletableFuture<SnmpValue[]> f1 = coalescer.getAsync(m_agentConfig, oids(".1.3.6.1.2.1.1.1.0"));
+        final CompletableFuture<SnmpValue[]> f2 = coalescer.getAsync(other, oids(".1.3.6.1.2.1.1.1.0"));
+        f1.get(5, TimeUnit.SECONDS);
+        f2.get(5, TimeUnit.SECONDS);
+        assertEquals(2, m_sent.size());
+    }
+
+    @Test
+    public void testDoesNotMergeV1() throws Exception {
+        final SnmpGetCoalescer coalescer = new SnmpGetCoalescer(() -> m_strategy, 20);
+        m_agentConfig.setVersion(SnmpConfiguration.VERSION1);
+
+        coalescer.getAsync(m_agentConfig, oids(".1.3.6.1.2.1.1.1.0")).get(5, TimeUnit.SECONDS);
+        coalescer.getAsync(m_agentConfig, oids(".1.3.6.1.2.1.1.3.0")).get(5, TimeUnit.SECONDS);
+        assertEquals(2, m_sent.size());
+        assertEquals(0, coalescer.getRequestCount());
+    }
+
+    @Test
+    public void testRetriesSeparatelyWhenTheMergedPduFails() throws Exception {
+        final SnmpGetCoalescer coalescer = new SnmpGetCoalescer(() -> m_strategy, 50);
+
+        final SnmpObjId[] good = oids(".1.3.6.1.2.1.1.1.0");
+        final CompletableFuture<SnmpValue[]> f1 = coalescer.getAsync(m_agentConfig, good);
+        final CompletableFuture<SnmpValue[]> f2 = coalescer.getAsync(m_agentConfig, new SnmpObjId[] { BAD_OID });
+
+        assertValues(good, f1.get(5, TimeUnit.SECONDS));
+        try {
+            f2.get(5, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof SnmpException);
+        }
+        assertTrue(f2.isCompletedExceptionally());
+        // The merged PDU, then each request on its own
+        assertEquals(3, m_sent.size());
+        assertEquals(3, coalescer.getPdusSent());
+
+        // The synchronous API reports failures the same way as the strategies do
+        assertArrayEquals(new SnmpValue[] { null }, coalescer.get(m_agentConfig, new SnmpObjId[] { BAD_OID }));
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        final SnmpGetCoalescer coalescer = new SnmpGetCoalescer(() -> m_strategy, 0);
+
+        coalescer.getAsync(m_agentConfig, oids(".1.3.6.1.2.1.1.1.0")).get(5, TimeUnit.SECONDS);
+        coalescer.getAsync(m_agentConfig, oids(".1.3.6.1.2.1.1.3.0")).get(5, TimeUnit.SECONDS);
+        assertEquals(2, m_sent.size());
+    }
+}
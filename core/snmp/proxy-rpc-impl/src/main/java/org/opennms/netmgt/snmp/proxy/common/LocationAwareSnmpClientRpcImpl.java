@@ -43,6 +43,7 @@ import org.opennms.netmgt.snmp.SnmpResult;
 import org.opennms.netmgt.snmp.SnmpValue;
 import org.opennms.netmgt.snmp.proxy.LocationAwareSnmpClient;
 import org.opennms.netmgt.snmp.proxy.SNMPRequestBuilder;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 
@@ -52,7 +53,7 @@ import org.springframework.beans.factory.annotation.Autowired;
  *
  * @author jwhite
  */
-public class LocationAwareSnmpClientRpcImpl implements LocationAwareSnmpClient, InitializingBean {
+public class LocationAwareSnmpClientRpcImpl implements LocationAwareSnmpClient, InitializingBean, DisposableBean {
 
     @Autowired
     private RpcClientFactory rpcClientFactory;
@@ -69,6 +70,12 @@ public class LocationAwareSnmpClientRpcImpl implements LocationAwareSnmpClient,
     @Override
     public void afterPropertiesSet() {
         delegate = rpcClientFactory.getClient(SnmpProxyRpcModule.INSTANCE);
+        SnmpProxyRpcModule.INSTANCE.init();
+    }
+
+    @Override
+    public void destroy() {
+        SnmpProxyRpcModule.INSTANCE.destroy();
     }
 
     @Override
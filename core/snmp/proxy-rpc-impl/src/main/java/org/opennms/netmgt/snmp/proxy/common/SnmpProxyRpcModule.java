@@ -46,6 +46,7 @@ import org.opennms.netmgt.snmp.AggregateTracker;
 import org.opennms.netmgt.snmp.Collectable;
 import org.opennms.netmgt.snmp.CollectionTracker;
 import org.opennms.netmgt.snmp.ColumnTracker;
+import org.opennms.netmgt.snmp.SnmpBulkProfiles;
 import org.opennms.netmgt.snmp.SingleInstanceTracker;
 import org.opennms.netmgt.snmp.SnmpInstId;
 import org.opennms.netmgt.snmp.SnmpObjId;
@@ -83,6 +84,24 @@ public class SnmpProxyRpcModule extends AbstractXmlRpcModule<SnmpRequestDTO, Snm
         super(SnmpRequestDTO.class, SnmpMultiResponseDTO.class);
     }
 
+    /**
+     * Starts saving the max-repetitions learned for the agents, if enabled.
+     */
+    public void init() {
+        if (SnmpBulkProfiles.isEnabled()) {
+            SnmpBulkProfiles.getInstance().start();
+        }
+    }
+
+    /**
+     * Stops saving the learned max-repetitions in the background and saves them one last time.
+     */
+    public void destroy() {
+        if (SnmpBulkProfiles.isEnabled()) {
+            SnmpBulkProfiles.getInstance().close();
+        }
+    }
+
     @Override
     public CompletableFuture<SnmpMultiResponseDTO> execute(SnmpRequestDTO request) {
         if (request.getAgent() != null &&
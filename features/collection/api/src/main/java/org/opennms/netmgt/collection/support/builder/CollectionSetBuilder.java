@@ -61,6 +61,11 @@ public class CollectionSetBuilder {
 
     private static final Logger LOG = LoggerFactory.getLogger(CollectionSetBuilder.class);
 
+    /**
+     * When set to {@code true}, {@link #buildCollectionSet()} builds a {@link ColumnarCollectionSet}.
+     */
+    public static final String COLUMNAR_COLLECTION_SETS_PROPERTY = "org.opennms.netmgt.collectd.columnarCollectionSets";
+
     private final CollectionAgent m_agent;
     private CollectionStatus m_status = CollectionStatus.SUCCEEDED;
     private Date m_timestamp = new Date();
@@ -146,6 +151,31 @@ public class CollectionSetBuilder {
 
     }
 
+    /**
+     * Builds the collection set returned by the collectors: a {@link ColumnarCollectionSet}
+     * when {@value #COLUMNAR_COLLECTION_SETS_PROPERTY} is set, a {@link CollectionSetDTO} otherwise.
+     */
+    public CollectionSet buildCollectionSet() {
+        return Boolean.getBoolean(COLUMNAR_COLLECTION_SETS_PROPERTY) ? buildColumnar() : build();
+    }
+
+    /**
+     * Builds a {@link ColumnarCollectionSet}, which holds the same data as
+     * {@link #build()} without keeping an object per attribute.
+     */
+    public ColumnarCollectionSet buildColumnar() {
+        final ColumnarCollectionSet.Builder builder = new ColumnarCollectionSet.Builder(m_agent, getNumAttributes())
+                .withStatus(m_status)
+                .withTimestamp(m_timestamp)
+                .disableCounterPersistence(m_disableCounterPersistence)
+                .withSequenceNumber(m_sequenceNumber);
+        for (Map.Entry<Resource, List<Attribute<?>>> entry : m_attributesByResource.entrySet()) {
+            builder.withResource(entry.getKey());
+            entry.getValue().forEach(builder::withAttribute);
+        }
+        return builder.build();
+    }
+
     public static AbstractCollectionResource toCollectionResource(Resource resource, CollectionAgent agent) {
         return new AbstractCollectionResource(agent) {
             private String label;
@@ -0,0 +1,549 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2024 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2024 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.collection.support.builder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.OptionalLong;
+
+import org.opennms.netmgt.collection.api.AttributeGroupType;
+import org.opennms.netmgt.collection.api.AttributeType;
+import org.opennms.netmgt.collection.api.CollectionAgent;
+import org.opennms.netmgt.collection.api.CollectionAttribute;
+import org.opennms.netmgt.collection.api.CollectionSet;
+import org.opennms.netmgt.collection.api.CollectionSetVisitor;
+import org.opennms.netmgt.collection.api.CollectionStatus;
+import org.opennms.netmgt.collection.api.Persister;
+import org.opennms.netmgt.collection.api.ServiceParameters;
+import org.opennms.netmgt.collection.dto.CollectionSetDTO;
+import org.opennms.netmgt.collection.support.AbstractCollectionAttribute;
+import org.opennms.netmgt.collection.support.AbstractCollectionAttributeType;
+import org.opennms.netmgt.collection.support.AbstractCollectionResource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link CollectionSet} that stores its samples in columns instead of one
+ * {@link Attribute} object per sample.
+ *
+ * The resources are kept in the order in which they were added, and the samples
+ * of a resource are stored next to each other: the samples of resource {@code r}
+ * are the ones from {@link #getSampleStart(int)} up to (but excluding)
+ * {@link #getSampleEnd(int)}. Every sample refers to an entry in a dictionary of
+ * attributes (group, name, type and metric identifier) that is shared by all of
+ * the resources, and numeric values are stored as primitives.
+ *
+ * Consumers that know about this class can read the samples by index without
+ * allocating anything per sample. {@link #visit(CollectionSetVisitor)} is
+ * provided for the existing visitors: it creates the resources and attributes
+ * on the fly, sharing a single attribute type per dictionary entry.
+ */
+public class ColumnarCollectionSet implements CollectionSet {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ColumnarCollectionSet.class);
+
+    private static final byte KIND_DOUBLE = 0;
+    private static final byte KIND_LONG = 1;
+    private static final byte KIND_INTEGER = 2;
+    private static final byte KIND_NUMBER = 3;
+    private static final byte KIND_STRING = 4;
+
+    private final CollectionAgent m_agent;
+    private final CollectionStatus m_status;
+    private final Date m_timestamp;
+    private final Boolean m_disableCounterPersistence;
+    private final Long m_sequenceNumber;
+
+    private final Resource[] m_resources;
+    private final int[] m_sampleStart;
+
+    private final String[] m_groups;
+    private final String[] m_names;
+    private final AttributeType[] m_types;
+    private final String[] m_identifiers;
+
+    private final int[] m_attributeIds;
+    private final byte[] m_kinds;
+    private final long[] m_values;
+    // Only allocated if the set contains string values or numbers that are not stored as primitives
+    private final Object[] m_objects;
+
+    private ColumnarCollectionSet(Builder builder) {
+        m_agent = builder.m_agent;
+        m_status = builder.m_status;
+        m_timestamp = builder.m_timestamp;
+        m_disableCounterPersistence = builder.m_disableCounterPersistence ? Boolean.TRUE : null;
+        m_sequenceNumber = builder.m_sequenceNumber;
+
+        m_resources = builder.m_resources.toArray(new Resource[0]);
+        m_sampleStart = Arrays.copyOf(builder.m_sampleStart, m_resources.length + 1);
+        m_sampleStart[m_resources.length] = builder.m_numSamples;
+
+        final int numAttributes = builder.m_dictionary.size();
+        m_groups = new String[numAttributes];
+        m_names = new String[numAttributes];
+        m_types = new AttributeType[numAttributes];
+        m_identifiers = new String[numAttributes];
+        for (final Map.Entry<AttributeKey, Integer> entry : builder.m_dictionary.entrySet()) {
+            final AttributeKey key = entry.getKey();
+            final int id = entry.getValue();
+            m_groups[id] = key.m_group;
+            m_names[id] = key.m_name;
+            m_types[id] = key.m_type;
+            m_identifiers[id] = key.m_identifier;
+        }
+
+        m_attributeIds = Arrays.copyOf(builder.m_attributeIds, builder.m_numSamples);
+        m_kinds = Arrays.copyOf(builder.m_kinds, builder.m_numSamples);
+        m_values = Arrays.copyOf(builder.m_values, builder.m_numSamples);
+        m_objects = builder.m_objects != null ? Arrays.copyOf(builder.m_objects, builder.m_numSamples) : null;
+    }
+
+    public CollectionAgent getCollectionAgent() {
+        return m_agent;
+    }
+
+    @Override
+    public CollectionStatus getStatus() {
+        return m_status;
+    }
+
+    @Override
+    public boolean ignorePersist() {
+        return false;
+    }
+
+    @Override
+    public Date getCollectionTimestamp() {
+        return m_timestamp;
+    }
+
+    @Override
+    public OptionalLong getSequenceNumber() {
+        return m_sequenceNumber == null ? OptionalLong.empty() : OptionalLong.of(m_sequenceNumber);
+    }
+
+    public boolean isCounterPersistenceDisabled() {
+        return m_disableCounterPersistence != null;
+    }
+
+    public int getResourceCount() {
+        return m_resources.length;
+    }
+
+    public Resource getResource(int resource) {
+        return m_resources[resource];
+    }
+
+    /**
+     * @return the index of the first sample of the resource
+     */
+    public int getSampleStart(int resource) {
+        return m_sampleStart[resource];
+    }
+
+    /**
+     * @return the index after the last sample of the resource
+     */
+    public int getSampleEnd(int resource) {
+        return m_sampleStart[resource + 1];
+    }
+
+    public int getSampleCount() {
+        return m_attributeIds.length;
+    }
+
+    /**
+     * @return the number of distinct attributes in the dictionary
+     */
+    public int getAttributeCount() {
+        return m_names.length;
+    }
+
+    /**
+     * @return the dictionary entry of the sample
+     */
+    public int getAttributeId(int sample) {
+        return m_attributeIds[sample];
+    }
+
+    public String getGroup(int attributeId) {
+        return m_groups[attributeId];
+    }
+
+    public String getName(int attributeId) {
+        return m_names[attributeId];
+    }
+
+    public AttributeType getType(int attributeId) {
+        return m_types[attributeId];
+    }
+
+    public String getMetricIdentifier(int attributeId) {
+        return m_identifiers[attributeId] != null ? m_identifiers[attributeId] : m_names[attributeId];
+    }
+
+    public boolean isNumeric(int sample) {
+        return m_kinds[sample] != KIND_STRING;
+    }
+
+    /**
+     * @return the value of a numeric sample, or NaN for string samples
+     */
+    public double getDoubleValue(int sample) {
+        switch (m_kinds[sample]) {
+        case KIND_DOUBLE:
+            return Double.longBitsToDouble(m_values[sample]);
+        case KIND_LONG:
+        case KIND_INTEGER:
+            return m_values[sample];
+        case KIND_NUMBER:
+            return ((Number) m_objects[sample]).doubleValue();
+        default:
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * @return the value of a numeric sample, or 0 for string samples
+     */
+    public long getLongValue(int sample) {
+        switch (m_kinds[sample]) {
+        case KIND_DOUBLE:
+            return (long) Double.longBitsToDouble(m_values[sample]);
+        case KIND_LONG:
+        case KIND_INTEGER:
+            return m_values[sample];
+        case KIND_NUMBER:
+            return ((Number) m_objects[sample]).longValue();
+        default:
+            return 0L;
+        }
+    }
+
+    /**
+     * @return the value of a numeric sample as it was added to the set, or
+     *         {@code null} for string samples
+     */
+    public Number getNumericValue(int sample) {
+        switch (m_kinds[sample]) {
+        case KIND_DOUBLE:
+            return Double.longBitsToDouble(m_values[sample]);
+        case KIND_LONG:
+            return m_values[sample];
+        case KIND_INTEGER:
+            return (int) m_values[sample];
+        case KIND_NUMBER:
+            return (Number) m_objects[sample];
+        default:
+            return null;
+        }
+    }
+
+    /**
+     * @return the value of a string sample, or {@code null} for numeric samples
+     */
+    public String getStringValue(int sample) {
+        return m_kinds[sample] == KIND_STRING ? (String) m_objects[sample] : null;
+    }
+
+    public Attribute<?> getAttribute(int sample) {
+        final int id = m_attributeIds[sample];
+        if (m_kinds[sample] == KIND_STRING) {
+            return new StringAttribute(m_groups[id], m_names[id], getStringValue(sample), m_identifiers[id]);
+        }
+        return new NumericAttribute(m_groups[id], m_names[id], getNumericValue(sample), m_types[id], m_identifiers[id]);
+    }
+
+    @Override
+    public void visit(CollectionSetVisitor visitor) {
+        visitor.visitCollectionSet(this);
+
+        final ColumnAttributeType[] attributeTypes = new ColumnAttributeType[m_names.length];
+        for (int r = 0; r < m_resources.length; r++) {
+            final AbstractCollectionResource collectionResource = CollectionSetBuilder.toCollectionResource(m_resources[r], m_agent);
+            for (int s = m_sampleStart[r]; s < m_sampleStart[r + 1]; s++) {
+                final int id = m_attributeIds[s];
+                if (attributeTypes[id] == null) {
+                    attributeTypes[id] = new ColumnAttributeType(id);
+                }
+                collectionResource.addAttribute(new ColumnAttribute(attributeTypes[id], collectionResource, s));
+            }
+            collectionResource.visit(visitor);
+        }
+
+        visitor.completeCollectionSet(this);
+    }
+
+    /**
+     * Converts the set to a {@link CollectionSetDTO}, i.e. for sending it
+     * over the wire.
+     */
+    public CollectionSetDTO toDTO() {
+        final Map<Resource, List<Attribute<?>>> attributesByResource = new LinkedHashMap<>();
+        for (int r = 0; r < m_resources.length; r++) {
+            final List<Attribute<?>> attributes = new ArrayList<>(m_sampleStart[r + 1] - m_sampleStart[r]);
+            for (int s = m_sampleStart[r]; s < m_sampleStart[r + 1]; s++) {
+                attributes.add(getAttribute(s));
+            }
+            attributesByResource.put(m_resources[r], attributes);
+        }
+        return new CollectionSetDTO(m_agent, m_status, m_timestamp, attributesByResource,
+                isCounterPersistenceDisabled(), m_sequenceNumber);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ColumnarCollectionSet[agent=%s, resources=%d, samples=%d, attributes=%d, status=%s, timestamp=%s]",
+                m_agent, m_resources.length, m_attributeIds.length, m_names.length, m_status, m_timestamp);
+    }
+
+    private class ColumnAttributeType extends AbstractCollectionAttributeType {
+        private final int m_id;
+
+        private ColumnAttributeType(int id) {
+            super(new AttributeGroupType(m_groups[id], AttributeGroupType.IF_TYPE_ALL));
+            m_id = id;
+        }
+
+        @Override
+        public AttributeType getType() {
+            return m_types[m_id];
+        }
+
+        @Override
+        public String getName() {
+            return m_names[m_id];
+        }
+
+        @Override
+        public void storeAttribute(CollectionAttribute collectionAttribute, Persister persister) {
+            if (AttributeType.STRING.equals(m_types[m_id])) {
+                persister.persistStringAttribute(collectionAttribute);
+            } else {
+                persister.persistNumericAttribute(collectionAttribute);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Attribute[group=%s, name=%s, type=%s, identifier=%s]",
+                    m_groups[m_id], m_names[m_id], m_types[m_id], m_identifiers[m_id]);
+        }
+    }
+
+    private class ColumnAttribute extends AbstractCollectionAttribute {
+        private final int m_sample;
+
+        private ColumnAttribute(ColumnAttributeType attributeType, AbstractCollectionResource resource, int sample) {
+            super(attributeType, resource);
+            m_sample = sample;
+        }
+
+        @Override
+        public String getMetricIdentifier() {
+            return ColumnarCollectionSet.this.getMetricIdentifier(m_attributeIds[m_sample]);
+        }
+
+        @Override
+        public Number getNumericValue() {
+            return ColumnarCollectionSet.this.getNumericValue(m_sample);
+        }
+
+        @Override
+        public String getStringValue() {
+            return ColumnarCollectionSet.this.getStringValue(m_sample);
+        }
+
+        @Override
+        public boolean shouldPersist(ServiceParameters params) {
+            // Same as the attributes of the CollectionSetDTO
+            return !(Boolean.FALSE.equals(m_disableCounterPersistence) && AttributeType.COUNTER.equals(getType()));
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Attribute[%s:%s]", getMetricIdentifier(),
+                    isNumeric(m_sample) ? getNumericValue() : getStringValue());
+        }
+    }
+
+    private static final class AttributeKey {
+        private final String m_group;
+        private final String m_name;
+        private final AttributeType m_type;
+        private final String m_identifier;
+
+        private AttributeKey(Attribute<?> attribute) {
+            m_group = attribute.getGroup();
+            m_name = attribute.getName();
+            m_type = attribute.getType();
+            m_identifier = attribute.getIdentifier();
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(m_group, m_name, m_type, m_identifier);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            } else if (!(obj instanceof AttributeKey)) {
+                return false;
+            }
+            final AttributeKey other = (AttributeKey) obj;
+            return Objects.equals(m_group, other.m_group)
+                    && Objects.equals(m_name, other.m_name)
+                    && Objects.equals(m_type, other.m_type)
+                    && Objects.equals(m_identifier, other.m_identifier);
+        }
+    }
+
+    /**
+     * Appends resources and their samples to the columns. All of the samples of
+     * a resource must be added right after the resource.
+     */
+    public static class Builder {
+        private final CollectionAgent m_agent;
+        private CollectionStatus m_status = CollectionStatus.SUCCEEDED;
+        private Date m_timestamp = new Date();
+        private boolean m_disableCounterPersistence = false;
+        private Long m_sequenceNumber;
+
+        private final List<Resource> m_resources = new ArrayList<>();
+        private int[] m_sampleStart = new int[16];
+
+        private final Map<AttributeKey, Integer> m_dictionary = new HashMap<>();
+
+        private int m_numSamples = 0;
+        private int[] m_attributeIds;
+        private byte[] m_kinds;
+        private long[] m_values;
+        private Object[] m_objects;
+
+        public Builder(CollectionAgent agent) {
+            this(agent, 64);
+        }
+
+        public Builder(CollectionAgent agent, int expectedSamples) {
+            m_agent = Objects.requireNonNull(agent, "agent cannot be null");
+            final int capacity = Math.max(1, expectedSamples);
+            m_attributeIds = new int[capacity];
+            m_kinds = new byte[capacity];
+            m_values = new long[capacity];
+        }
+
+        public Builder withStatus(CollectionStatus status) {
+            m_status = Objects.requireNonNull(status, "status cannot be null");
+            return this;
+        }
+
+        public Builder withTimestamp(Date timestamp) {
+            m_timestamp = Objects.requireNonNull(timestamp, "timestamp cannot be null");
+            return this;
+        }
+
+        public Builder disableCounterPersistence(boolean disableCounterPersistence) {
+            m_disableCounterPersistence = disableCounterPersistence;
+            return this;
+        }
+
+        public Builder withSequenceNumber(Long sequenceNumber) {
+            m_sequenceNumber = sequenceNumber;
+            return this;
+        }
+
+        public Builder withResource(Resource resource) {
+            final int index = m_resources.size();
+            if (index == m_sampleStart.length) {
+                m_sampleStart = Arrays.copyOf(m_sampleStart, index * 2);
+            }
+            m_sampleStart[index] = m_numSamples;
+            m_resources.add(Objects.requireNonNull(resource, "resource cannot be null"));
+            return this;
+        }
+
+        /**
+         * Adds a sample to the last resource.
+         */
+        public Builder withAttribute(Attribute<?> attribute) {
+            if (m_resources.isEmpty()) {
+                throw new IllegalStateException("A resource must be added before its attributes");
+            }
+            final Object value = attribute.getValue();
+            if (value == null) {
+                LOG.info("Ignoring null value for attribute '{}' in group '{}' on resource '{}'",
+                        attribute.getName(), attribute.getGroup(), m_resources.get(m_resources.size() - 1));
+                return this;
+            }
+            if (m_numSamples == m_attributeIds.length) {
+                final int capacity = m_numSamples * 2;
+                m_attributeIds = Arrays.copyOf(m_attributeIds, capacity);
+                m_kinds = Arrays.copyOf(m_kinds, capacity);
+                m_values = Arrays.copyOf(m_values, capacity);
+                if (m_objects != null) {
+                    m_objects = Arrays.copyOf(m_objects, capacity);
+                }
+            }
+
+            final int sample = m_numSamples++;
+            m_attributeIds[sample] = m_dictionary.computeIfAbsent(new AttributeKey(attribute), key -> m_dictionary.size());
+
+            if (value instanceof Double) {
+                m_kinds[sample] = KIND_DOUBLE;
+                m_values[sample] = Double.doubleToRawLongBits((Double) value);
+            } else if (value instanceof Long) {
+                m_kinds[sample] = KIND_LONG;
+                m_values[sample] = (Long) value;
+            } else if (value instanceof Integer) {
+                m_kinds[sample] = KIND_INTEGER;
+                m_values[sample] = (Integer) value;
+            } else {
+                m_kinds[sample] = value instanceof String ? KIND_STRING : KIND_NUMBER;
+                if (m_objects == null) {
+                    m_objects = new Object[m_attributeIds.length];
+                }
+                m_objects[sample] = value;
+            }
+            return this;
+        }
+
+        public ColumnarCollectionSet build() {
+            return new ColumnarCollectionSet(this);
+        }
+    }
+}
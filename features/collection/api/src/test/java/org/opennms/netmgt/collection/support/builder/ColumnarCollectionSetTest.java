@@ -0,0 +1,199 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2024 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2024 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.collection.support.builder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.netmgt.collection.api.AttributeType;
+import org.opennms.netmgt.collection.api.CollectionAgent;
+import org.opennms.netmgt.collection.api.CollectionAttribute;
+import org.opennms.netmgt.collection.api.CollectionAttributeType;
+import org.opennms.netmgt.collection.api.CollectionResource;
+import org.opennms.netmgt.collection.api.CollectionSet;
+import org.opennms.netmgt.collection.api.CollectionStatus;
+import org.opennms.netmgt.collection.dto.CollectionSetDTO;
+import org.opennms.netmgt.collection.support.AbstractCollectionSetVisitor;
+import org.opennms.netmgt.model.ResourcePath;
+
+public class ColumnarCollectionSetTest {
+
+    private CollectionAgent m_agent;
+
+    private CollectionSetBuilder m_builder;
+
+    @Before
+    public void setUp() {
+        m_agent = mock(CollectionAgent.class);
+        when(m_agent.getStorageResourcePath()).thenReturn(ResourcePath.get("1"));
+
+        final NodeLevelResource node = new NodeLevelResource(1);
+        m_builder = new CollectionSetBuilder(m_agent)
+                .withTimestamp(new Date(1000))
+                .withSequenceNumber(42L)
+                .withGauge(node, "mib2-tcp", "tcpCurrEstab", 12.5d)
+                .withCounter(node, "mib2-tcp", "tcpActiveOpens", 9007199254740993L)
+                .withStringAttribute(node, "sys", "sysName", "router1");
+        for (int ifIndex = 1; ifIndex <= 3; ifIndex++) {
+            final InterfaceLevelResource intf = new InterfaceLevelResource(node, "eth" + ifIndex);
+            m_builder.withCounter(intf, "mib2-X-interfaces", "ifHCInOctets", ifIndex * 1000)
+                    .withCounter(intf, "mib2-X-interfaces", "ifHCOutOctets", ifIndex * 2000L)
+                    .withIdentifiedNumericAttribute(intf, "mib2-X-interfaces", "ifHighSpeed", 1000.0f, AttributeType.GAUGE, "speed");
+        }
+        // Added after the other resources, but belongs to the node
+        m_builder.withGauge(node, "mib2-tcp", "tcpInErrors", 0);
+    }
+
+    @Test
+    public void canReadColumns() {
+        final ColumnarCollectionSet set = m_builder.buildColumnar();
+
+        assertEquals(4, set.getResourceCount());
+        assertEquals(13, set.getSampleCount());
+        // The interfaces share their dictionary entries
+        assertEquals(7, set.getAttributeCount());
+        assertEquals(CollectionStatus.SUCCEEDED, set.getStatus());
+        assertEquals(42L, set.getSequenceNumber().getAsLong());
+
+        assertEquals(0, set.getSampleStart(0));
+        assertEquals(4, set.getSampleEnd(0));
+        assertEquals(12.5d, set.getDoubleValue(0), 0.0d);
+        assertEquals(9007199254740993L, set.getLongValue(1));
+        assertEquals(Long.valueOf(9007199254740993L), set.getNumericValue(1));
+        assertEquals("router1", set.getStringValue(2));
+        assertTrue(Double.isNaN(set.getDoubleValue(2)));
+        assertEquals(Integer.valueOf(0), set.getNumericValue(3));
+
+        for (int r = 1; r < set.getResourceCount(); r++) {
+            final int start = set.getSampleStart(r);
+            assertEquals(3, set.getSampleEnd(r) - start);
+            assertEquals(set.getAttributeId(4), set.getAttributeId(start));
+            assertEquals(r * 1000L, set.getLongValue(start));
+            assertEquals(r * 2000.0d, set.getDoubleValue(start + 1), 0.0d);
+            assertEquals(Float.valueOf(1000.0f), set.getNumericValue(start + 2));
+            assertEquals("speed", set.getMetricIdentifier(set.getAttributeId(start + 2)));
+            assertEquals(AttributeType.GAUGE, set.getType(set.getAttributeId(start + 2)));
+        }
+        assertEquals("ifHCInOctets", set.getMetricIdentifier(set.getAttributeId(4)));
+        assertNull(set.getStringValue(4));
+    }
+
+    @Test
+    public void canVisitLikeTheDTO() {
+        final CollectionSetDTO dto = m_builder.build();
+        final ColumnarCollectionSet set = m_builder.buildColumnar();
+
+        final List<String> expected = visit(dto);
+        assertEquals(13, expected.size());
+        assertEquals(expected, visit(set));
+    }
+
+    @Test
+    public void canVisitWithSharedAttributeTypes() {
+        final List<CollectionAttributeType> types = new ArrayList<>();
+        m_builder.buildColumnar().visit(new AbstractCollectionSetVisitor() {
+            @Override
+            public void visitAttribute(CollectionAttribute attribute) {
+                if ("ifHCInOctets".equals(attribute.getName())) {
+                    types.add(attribute.getAttributeType());
+                }
+            }
+        });
+        assertEquals(3, types.size());
+        assertSame(types.get(0), types.get(1));
+        assertSame(types.get(0), types.get(2));
+    }
+
+    @Test
+    public void canConvertToDTO() {
+        final CollectionSetDTO dto = m_builder.build();
+        assertEquals(dto, m_builder.buildColumnar().toDTO());
+    }
+
+    @Test
+    public void skipsNullValues() {
+        final NodeLevelResource node = new NodeLevelResource(1);
+        // Values are only checked when the attribute is created, subclasses can still return null
+        m_builder.withAttribute(node, new NumericAttribute("mib2-tcp", "tcpRetransSegs", 0, AttributeType.COUNTER, null) {
+            @Override
+            public Number getValue() {
+                return null;
+            }
+        });
+
+        final ColumnarCollectionSet set = m_builder.buildColumnar();
+        assertEquals(13, set.getSampleCount());
+        assertEquals(7, set.getAttributeCount());
+        for (int sample = 0; sample < set.getSampleCount(); sample++) {
+            assertTrue(set.getNumericValue(sample) != null || set.getStringValue(sample) != null);
+        }
+    }
+
+    @Test
+    public void buildsColumnarSetsWhenEnabled() {
+        assertTrue(m_builder.buildCollectionSet() instanceof CollectionSetDTO);
+        System.setProperty(CollectionSetBuilder.COLUMNAR_COLLECTION_SETS_PROPERTY, "true");
+        try {
+            assertTrue(m_builder.buildCollectionSet() instanceof ColumnarCollectionSet);
+        } finally {
+            System.clearProperty(CollectionSetBuilder.COLUMNAR_COLLECTION_SETS_PROPERTY);
+        }
+    }
+
+    private static List<String> visit(CollectionSet set) {
+        final List<String> samples = new ArrayList<>();
+        set.visit(new AbstractCollectionSetVisitor() {
+            private CollectionResource m_resource;
+
+            @Override
+            public void visitResource(CollectionResource resource) {
+                m_resource = resource;
+            }
+
+            @Override
+            public void visitAttribute(CollectionAttribute attribute) {
+                samples.add(String.format("%s/%s %s/%s %s %s=%s", m_resource.getPath(), m_resource.getResourceTypeName(),
+                        attribute.getAttributeType().getGroupType().getName(), attribute.getName(),
+                        attribute.getType(), attribute.getMetricIdentifier(),
+                        attribute.getType() == AttributeType.STRING ? attribute.getStringValue() : attribute.getNumericValue()));
+            }
+        });
+        return samples;
+    }
+}
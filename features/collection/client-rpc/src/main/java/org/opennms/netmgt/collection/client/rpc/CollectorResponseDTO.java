@@ -30,6 +30,7 @@ package org.opennms.netmgt.collection.client.rpc;
 
 import java.util.Objects;
 
+import javax.xml.bind.Marshaller;
 import javax.xml.bind.annotation.XmlAccessType;
 import javax.xml.bind.annotation.XmlAccessorType;
 import javax.xml.bind.annotation.XmlAttribute;
@@ -40,6 +41,7 @@ import org.opennms.core.rpc.api.RemoteExecutionException;
 import org.opennms.core.rpc.api.RpcResponse;
 import org.opennms.netmgt.collection.api.CollectionSet;
 import org.opennms.netmgt.collection.dto.CollectionSetDTO;
+import org.opennms.netmgt.collection.support.builder.ColumnarCollectionSet;
 
 @XmlRootElement(name = "collector-response")
 @XmlAccessorType(XmlAccessType.NONE)
@@ -65,6 +67,16 @@ public class CollectorResponseDTO implements RpcResponse {
         return collectionSet;
     }
 
+    /**
+     * Collectors may return a {@link ColumnarCollectionSet}, which is only converted
+     * to a {@link CollectionSetDTO} when the response leaves the JVM.
+     */
+    void beforeMarshal(Marshaller marshaller) {
+        if (collectionSet instanceof ColumnarCollectionSet) {
+            collectionSet = ((ColumnarCollectionSet) collectionSet).toDTO();
+        }
+    }
+
     @Override
     public String getErrorMessage() {
         return error;
@@ -154,7 +154,7 @@ public class HttpCollector extends AbstractRemoteServiceCollector {
         final CollectionSetBuilder collectionSetBuilder = new CollectionSetBuilder(agent);
         final HttpCollectorAgent httpCollectorAgent = new HttpCollectorAgent(agent, parameters, collection, collectionSetBuilder);
         httpCollectorAgent.collect();
-        return collectionSetBuilder.build();
+        return collectionSetBuilder.buildCollectionSet();
     }
 
     private static class HttpCollectorAgent {
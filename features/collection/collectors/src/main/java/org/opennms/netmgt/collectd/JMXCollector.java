@@ -350,7 +350,7 @@ public class JMXCollector extends AbstractRemoteServiceCollector {
             LOG.debug("{} Collector.collect: IOException while collecting address: {}", serviceName, agent.getAddress(), e);
         }
 
-        return collectionSetBuilder.build();
+        return collectionSetBuilder.buildCollectionSet();
     }
 
     /**
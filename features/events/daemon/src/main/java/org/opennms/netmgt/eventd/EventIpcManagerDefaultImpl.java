@@ -42,11 +42,14 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.opennms.core.concurrent.LogPreservingThreadFactory;
 import org.opennms.core.logging.Logging;
+import org.opennms.core.sysprops.SystemProperties;
 import org.opennms.netmgt.events.api.EventHandler;
 import org.opennms.netmgt.events.api.EventIpcBroadcaster;
 import org.opennms.netmgt.events.api.EventIpcManager;
@@ -77,6 +80,17 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
     
     private static final Logger LOG = LoggerFactory.getLogger(EventIpcManagerDefaultImpl.class);
 
+    /**
+     * Use to disable partitioning of the event handler pool and fall back to a single shared work queue.
+     */
+    public static final String PARTITIONED_SYS_PROP = "org.opennms.eventd.partitioned";
+
+    /**
+     * Marks the threads of the partitions, so logs sent synchronously from within a partition are handled inline
+     * instead of waiting for a partition which may be the one of the current thread.
+     */
+    private static final ThreadLocal<Boolean> IN_PARTITION = ThreadLocal.withInitial(() -> Boolean.FALSE);
+
     public static class DiscardTrapsAndSyslogEvents implements RejectedExecutionHandler {
         /**
          * Creates a <tt>DiscardOldestPolicy</tt> for the given executor.
@@ -126,8 +140,57 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
     
     private Integer m_handlerQueueLength;
 
+    private boolean m_partitioned = SystemProperties.getBooleanWithDefaultAsTrue(PARTITIONED_SYS_PROP);
+
+    /**
+     * Single threaded executors handling the events of a partition each, used instead of the shared pool if
+     * partitioning is enabled
+     */
+    private List<Partition> m_partitions;
+
+    /**
+     * Spreads events which are not associated with a node or an interface across the partitions
+     */
+    private final AtomicInteger m_nextPartition = new AtomicInteger();
+
     private final MetricRegistry m_registry;
 
+    /**
+     * A single threaded executor handling the event logs of a partition. Its capacity is tracked by a semaphore
+     * rather than by the bounds of its queue, so it can be reserved before anything is queued. A permit is held
+     * from the time an event log is queued until it has been handled.
+     */
+    private static final class Partition {
+        private final ThreadPoolExecutor m_executor;
+
+        private final Semaphore m_capacity;
+
+        Partition(ThreadPoolExecutor executor, int capacity) {
+            m_executor = executor;
+            m_capacity = new Semaphore(capacity);
+        }
+
+        /**
+         * Queues the given runnable, a permit must have been acquired beforehand.
+         */
+        void execute(final Runnable runnable) {
+            try {
+                m_executor.execute(() -> {
+                    IN_PARTITION.set(Boolean.TRUE);
+                    try {
+                        runnable.run();
+                    } finally {
+                        IN_PARTITION.remove();
+                        m_capacity.release();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                m_capacity.release();
+                throw e;
+            }
+        }
+    }
+
     /**
      * A thread dedicated to each listener. The events meant for each listener
      * is added to an execution queue when the 'sendNow()' is called. The
@@ -260,11 +323,38 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
 
         if (LOG.isDebugEnabled()) LOG.debug("sending: {}", eventLog);
 
-        try {
-            m_eventHandlerPool.execute(m_eventHandler.createRunnable(eventLog));
-        } catch (RejectedExecutionException e) {
-            LOG.warn("Unable to queue event log to the event handler pool queue", e);
-            throw e;
+        if (m_partitions == null) {
+            try {
+                m_eventHandlerPool.execute(m_eventHandler.createRunnable(eventLog));
+            } catch (RejectedExecutionException e) {
+                LOG.warn("Unable to queue event log to the event handler pool queue", e);
+                throw e;
+            }
+            return;
+        }
+
+        final Map<Integer, Runnable> runnables = new HashMap<>();
+        for (final Map.Entry<Integer, Log> partition : partition(eventLog).entrySet()) {
+            runnables.put(partition.getKey(), m_eventHandler.createRunnable(partition.getValue()));
+        }
+
+        // Reserve room in all of the partitions first, so the log is either queued as a whole or not at all
+        final List<Partition> reserved = new ArrayList<>(runnables.size());
+        for (final Integer index : runnables.keySet()) {
+            final Partition partition = m_partitions.get(index);
+            if (!partition.m_capacity.tryAcquire()) {
+                for (final Partition r : reserved) {
+                    r.m_capacity.release();
+                }
+                final RejectedExecutionException e = new RejectedExecutionException("Queue of event handler partition " + index + " is full");
+                LOG.warn("Unable to queue event log to the queue of event handler partition {}", index, e);
+                throw e;
+            }
+            reserved.add(partition);
+        }
+
+        for (final Map.Entry<Integer, Runnable> runnable : runnables.entrySet()) {
+            m_partitions.get(runnable.getKey()).execute(runnable.getValue());
         }
     }
 
@@ -284,10 +374,91 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
     @Override
     public void sendNowSync(Log eventLog) {
         Objects.requireNonNull(eventLog);
-        // Create the runnable and invoke it using the current thread
-        // Also set the logging prefix to ensure that the log messages are
-        // properly routed to eventd's log file
-        Logging.withPrefix(Eventd.LOG4J_CATEGORY, m_eventHandler.createRunnable(eventLog, true));
+        // Logs sent from within a partition are handled by the calling thread, waiting for a partition could
+        // otherwise deadlock
+        if (m_partitions == null || IN_PARTITION.get()) {
+            // Create the runnable and invoke it using the current thread
+            // Also set the logging prefix to ensure that the log messages are
+            // properly routed to eventd's log file
+            Logging.withPrefix(Eventd.LOG4J_CATEGORY, m_eventHandler.createRunnable(eventLog, true));
+            return;
+        }
+
+        // Everything else is handed to the partitions of its events, in parallel if the log spans multiple
+        // partitions, so the events stay in order with those sent asynchronously. The caller is blocked until
+        // all of them are done.
+        final Map<Integer, Log> partitions = partition(eventLog);
+        final List<CompletableFuture<Void>> futures = new ArrayList<>(partitions.size());
+        for (final Map.Entry<Integer, Log> entry : partitions.entrySet()) {
+            final Runnable runnable = m_eventHandler.createRunnable(entry.getValue(), true);
+            final Partition partition = m_partitions.get(entry.getKey());
+            if (!partition.m_capacity.tryAcquire()) {
+                // The partition is backed up - wait for it instead of dropping the events
+                LOG.debug("Queue of event handler partition {} is full, waiting for it to drain", entry.getKey());
+                partition.m_capacity.acquireUninterruptibly();
+            }
+            futures.add(CompletableFuture.runAsync(runnable, partition::execute));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+    }
+
+    /**
+     * Splits the given log by the partitions responsible for its events. The order of the events is kept inside
+     * each of the resulting logs and the header is shared by all of them. If all events belong to the same
+     * partition, the given log is returned as is.
+     */
+    Map<Integer, Log> partition(final Log eventLog) {
+        final int partitionCount = m_partitions.size();
+        final Events events = eventLog.getEvents();
+        if (partitionCount == 1 || events == null || events.getEventCount() == 0) {
+            return Collections.singletonMap(0, eventLog);
+        }
+
+        final Map<Integer, Events> partitions = new HashMap<>();
+        for (final Event event : events.getEventCollection()) {
+            partitions.computeIfAbsent(partitionOf(event, partitionCount), p -> new Events()).addEvent(event);
+        }
+
+        if (partitions.size() == 1) {
+            return Collections.singletonMap(partitions.keySet().iterator().next(), eventLog);
+        }
+
+        final Map<Integer, Log> logs = new HashMap<>(partitions.size());
+        for (final Map.Entry<Integer, Events> partition : partitions.entrySet()) {
+            final Log log = new Log();
+            log.setHeader(eventLog.getHeader());
+            log.setEvents(partition.getValue());
+            logs.put(partition.getKey(), log);
+        }
+        return logs;
+    }
+
+    /**
+     * Events of the same node are always handled by the same partition, so they are persisted and broadcast in
+     * the order they were sent in. Events without a node are kept together by their interface, if any.
+     */
+    int partitionOf(final Event event, final int partitionCount) {
+        if (event.hasNodeid() && event.getNodeid() > 0) {
+            return Math.floorMod(Long.hashCode(event.getNodeid()), partitionCount);
+        }
+
+        // The node of these events is resolved by the handler later on
+        final String foreignSource = parmContent(event, "_foreignSource");
+        final String foreignId = parmContent(event, "_foreignId");
+        if (foreignSource != null && foreignId != null) {
+            return Math.floorMod(Objects.hash(foreignSource, foreignId), partitionCount);
+        }
+
+        if (event.getInterface() != null) {
+            return Math.floorMod(event.getInterface().hashCode(), partitionCount);
+        }
+
+        return Math.floorMod(m_nextPartition.getAndIncrement(), partitionCount);
+    }
+
+    private static String parmContent(final Event event, final String name) {
+        final Parm parm = event.getParm(name);
+        return parm != null && parm.getValue() != null ? parm.getValue().getContent() : null;
     }
 
     @Override
@@ -548,6 +719,11 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
         Assert.state(m_eventHandler != null, "eventHandler not set");
         Assert.state(m_handlerPoolSize != null, "handlerPoolSize not set");
 
+        if (m_partitioned) {
+            createPartitions();
+            return;
+        }
+
         final LinkedBlockingQueue<Runnable> workQueue = m_handlerQueueLength == null ? new LinkedBlockingQueue<>() : new LinkedBlockingQueue<>(m_handlerQueueLength);
         m_registry.remove("eventlogs.queued");
         m_registry.register("eventlogs.queued", new Gauge<Integer>() {
@@ -579,6 +755,51 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
         });
     }
 
+    /**
+     * Creates a single threaded executor for each of the "receivers" configured. The configured queue length is
+     * split evenly between the partitions, so the total number of queued event logs stays the same.
+     */
+    private void createPartitions() {
+        final int partitionCount = Math.max(1, m_handlerPoolSize);
+        // The event log being handled counts towards the capacity of a partition, on top of those queued
+        final int capacity = m_handlerQueueLength == null ? Integer.MAX_VALUE : Math.max(1, m_handlerQueueLength / partitionCount) + 1;
+
+        final List<Partition> partitions = new ArrayList<>(partitionCount);
+        Logging.withPrefix(Eventd.LOG4J_CATEGORY, new Runnable() {
+
+            @Override
+            public void run() {
+                final LogPreservingThreadFactory threadFactory = new LogPreservingThreadFactory(EventIpcManagerDefaultImpl.class.getSimpleName(), partitionCount);
+                for (int i = 0; i < partitionCount; i++) {
+                    partitions.add(new Partition(new ThreadPoolExecutor(
+                        1,
+                        1,
+                        0L,
+                        TimeUnit.MILLISECONDS,
+                        new LinkedBlockingQueue<>(),
+                        threadFactory
+                    ), capacity));
+                }
+            }
+
+        });
+
+        m_registry.remove("eventlogs.queued");
+        m_registry.register("eventlogs.queued", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                int queued = 0;
+                for (final Partition partition : partitions) {
+                    queued += partition.m_executor.getQueue().size();
+                }
+                return queued;
+            }
+        });
+
+        m_partitions = Collections.unmodifiableList(partitions);
+        m_eventHandlerPool = partitions.get(0).m_executor;
+    }
+
     /**
      * <p>getEventHandler</p>
      *
@@ -636,6 +857,20 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
         m_handlerQueueLength = size;
     }
 
+    public boolean isPartitioned() {
+        return m_partitioned;
+    }
+
+    /**
+     * <p>setPartitioned</p>
+     *
+     * @param partitioned whether event logs are handled by partitions keyed by node instead of a shared pool
+     */
+    public void setPartitioned(boolean partitioned) {
+        Assert.state(m_eventHandlerPool == null, "partitioned property cannot be set after afterPropertiesSet() is called");
+        m_partitioned = partitioned;
+    }
+
     @Override
     public boolean hasEventListener(final String uei) {
         if (this.m_ueiListeners.containsKey(uei)) {
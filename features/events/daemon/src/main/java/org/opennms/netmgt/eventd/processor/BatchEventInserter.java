@@ -0,0 +1,210 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2024 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2024 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.eventd.processor;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Objects;
+
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.netmgt.model.OnmsEvent;
+import org.opennms.netmgt.model.OnmsEventParameter;
+import org.springframework.jdbc.core.JdbcOperations;
+
+/**
+ * Inserts events and their parameters using multi-row insert statements.
+ *
+ * Event IDs are allocated from the sequence with a single query for all events of the batch. The rows are then
+ * written with one statement per chunk of events and one per chunk of parameters, instead of two round-trips for
+ * every event and one for every parameter as done when saving the events through Hibernate.
+ *
+ * The statements are executed using the connection bound to the current transaction, so the caller is expected to
+ * run the inserter inside of the same transaction used by the DAOs.
+ */
+class BatchEventInserter {
+
+    /**
+     * The maximum number of rows inserted with a single statement. This keeps the number of bind parameters below the
+     * limit of the PostgreSQL protocol for both tables.
+     */
+    static final int MAX_ROWS_PER_STATEMENT = 500;
+
+    private static final String NEXT_IDS = "SELECT nextval('eventsNxtId') FROM generate_series(1, ?)";
+
+    private static final String[] EVENT_COLUMNS = {
+            "eventId", "eventUei", "nodeId", "eventTime", "eventHost", "eventSource", "ipAddr", "systemId",
+            "eventSnmpHost", "serviceId", "eventSnmp", "eventCreateTime", "eventDescr", "eventLogGroup", "eventLogMsg",
+            "eventSeverity", "ifIndex", "eventPathOutage", "eventCorrelation", "eventSuppressedCount",
+            "eventOperInstruct", "eventAutoAction", "eventOperAction", "eventOperActionMenuText", "eventNotification",
+            "eventTTicket", "eventTTicketState", "eventForward", "eventMouseOverText", "eventLog", "eventDisplay",
+            "eventAckUser", "eventAckTime"
+    };
+
+    private static final String[] PARAMETER_COLUMNS = {
+            "eventID", "name", "value", "type", "position"
+    };
+
+    private final JdbcOperations jdbcTemplate;
+
+    BatchEventInserter(final JdbcOperations jdbcTemplate) {
+        this.jdbcTemplate = Objects.requireNonNull(jdbcTemplate);
+    }
+
+    /**
+     * Inserts the given events and assigns the allocated IDs to them.
+     */
+    void insert(final List<OnmsEvent> events) {
+        if (events.isEmpty()) {
+            return;
+        }
+
+        final List<Integer> ids = this.jdbcTemplate.queryForList(NEXT_IDS, Integer.class, events.size());
+        if (ids.size() != events.size()) {
+            throw new IllegalStateException("Expected " + events.size() + " event IDs but got " + ids.size());
+        }
+
+        final List<OnmsEventParameter> parameters = new ArrayList<>();
+        final List<Integer> positions = new ArrayList<>();
+        for (int i = 0; i < events.size(); i++) {
+            final OnmsEvent event = events.get(i);
+            event.setId(ids.get(i));
+            if (event.getEventParameters() != null) {
+                // The parameters are returned ordered by their position
+                final List<OnmsEventParameter> eventParameters = event.getEventParameters();
+                for (int position = 0; position < eventParameters.size(); position++) {
+                    parameters.add(eventParameters.get(position));
+                    positions.add(position);
+                }
+            }
+        }
+
+        for (int from = 0; from < events.size(); from += MAX_ROWS_PER_STATEMENT) {
+            final List<OnmsEvent> chunk = events.subList(from, Math.min(events.size(), from + MAX_ROWS_PER_STATEMENT));
+            this.jdbcTemplate.update(insertStatement("events", EVENT_COLUMNS, chunk.size()), ps -> {
+                int index = 1;
+                for (final OnmsEvent event : chunk) {
+                    index = bindEvent(ps, index, event);
+                }
+            });
+        }
+
+        for (int from = 0; from < parameters.size(); from += MAX_ROWS_PER_STATEMENT) {
+            final int to = Math.min(parameters.size(), from + MAX_ROWS_PER_STATEMENT);
+            final List<OnmsEventParameter> chunk = parameters.subList(from, to);
+            final List<Integer> chunkPositions = positions.subList(from, to);
+            this.jdbcTemplate.update(insertStatement("event_parameters", PARAMETER_COLUMNS, chunk.size()), ps -> {
+                int index = 1;
+                for (int i = 0; i < chunk.size(); i++) {
+                    index = bindParameter(ps, index, chunk.get(i), chunkPositions.get(i));
+                }
+            });
+        }
+    }
+
+    static String insertStatement(final String table, final String[] columns, final int rows) {
+        final StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append(" (")
+                .append(String.join(", ", columns))
+                .append(") VALUES ");
+
+        final StringBuilder row = new StringBuilder("(");
+        for (int i = 0; i < columns.length; i++) {
+            row.append(i == 0 ? "?" : ", ?");
+        }
+        row.append(')');
+
+        for (int i = 0; i < rows; i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append(row);
+        }
+        return sql.toString();
+    }
+
+    private static int bindEvent(final PreparedStatement ps, int index, final OnmsEvent event) throws SQLException {
+        set(ps, index++, event.getId(), Types.INTEGER);
+        set(ps, index++, event.getEventUei(), Types.VARCHAR);
+        set(ps, index++, event.getNode() != null ? event.getNode().getId() : null, Types.INTEGER);
+        set(ps, index++, event.getEventTime(), Types.TIMESTAMP);
+        set(ps, index++, event.getEventHost(), Types.VARCHAR);
+        set(ps, index++, event.getEventSource(), Types.VARCHAR);
+        set(ps, index++, event.getIpAddr() != null ? InetAddressUtils.str(event.getIpAddr()) : null, Types.VARCHAR);
+        set(ps, index++, event.getDistPoller() != null ? event.getDistPoller().getId() : null, Types.VARCHAR);
+        set(ps, index++, event.getEventSnmpHost(), Types.VARCHAR);
+        set(ps, index++, event.getServiceType() != null ? event.getServiceType().getId() : null, Types.INTEGER);
+        set(ps, index++, event.getEventSnmp(), Types.VARCHAR);
+        set(ps, index++, event.getEventCreateTime(), Types.TIMESTAMP);
+        set(ps, index++, event.getEventDescr(), Types.VARCHAR);
+        set(ps, index++, event.getEventLogGroup(), Types.VARCHAR);
+        set(ps, index++, event.getEventLogMsg(), Types.VARCHAR);
+        set(ps, index++, event.getEventSeverity(), Types.INTEGER);
+        set(ps, index++, event.getIfIndex(), Types.INTEGER);
+        set(ps, index++, event.getEventPathOutage(), Types.VARCHAR);
+        set(ps, index++, event.getEventCorrelation(), Types.VARCHAR);
+        set(ps, index++, event.getEventSuppressedCount(), Types.INTEGER);
+        set(ps, index++, event.getEventOperInstruct(), Types.VARCHAR);
+        set(ps, index++, event.getEventAutoAction(), Types.VARCHAR);
+        set(ps, index++, event.getEventOperAction(), Types.VARCHAR);
+        set(ps, index++, event.getEventOperActionMenuText(), Types.VARCHAR);
+        set(ps, index++, event.getEventNotification(), Types.VARCHAR);
+        set(ps, index++, event.getEventTTicket(), Types.VARCHAR);
+        set(ps, index++, event.getEventTTicketState(), Types.INTEGER);
+        set(ps, index++, event.getEventForward(), Types.VARCHAR);
+        set(ps, index++, event.getEventMouseOverText(), Types.VARCHAR);
+        set(ps, index++, event.getEventLog(), Types.VARCHAR);
+        set(ps, index++, event.getEventDisplay(), Types.VARCHAR);
+        set(ps, index++, event.getEventAckUser(), Types.VARCHAR);
+        set(ps, index++, event.getEventAckTime(), Types.TIMESTAMP);
+        return index;
+    }
+
+    private static int bindParameter(final PreparedStatement ps, int index, final OnmsEventParameter parameter, final int position) throws SQLException {
+        set(ps, index++, parameter.getEvent().getId(), Types.INTEGER);
+        set(ps, index++, parameter.getName(), Types.VARCHAR);
+        set(ps, index++, parameter.getValue(), Types.VARCHAR);
+        set(ps, index++, parameter.getType(), Types.VARCHAR);
+        set(ps, index++, position, Types.INTEGER);
+        return index;
+    }
+
+    private static void set(final PreparedStatement ps, final int index, final Object value, final int type) throws SQLException {
+        if (value == null) {
+            ps.setNull(index, type);
+        } else if (value instanceof Date) {
+            ps.setTimestamp(index, new Timestamp(((Date) value).getTime()));
+        } else {
+            ps.setObject(index, value, type);
+        }
+    }
+}
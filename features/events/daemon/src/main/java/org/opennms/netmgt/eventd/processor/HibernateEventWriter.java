@@ -35,6 +35,7 @@ import java.util.Objects;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 
+import org.opennms.core.sysprops.SystemProperties;
 import org.opennms.netmgt.dao.api.DistPollerDao;
 import org.opennms.netmgt.dao.api.EventDao;
 import org.opennms.netmgt.dao.api.MonitoringSystemDao;
@@ -59,6 +60,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.DeadlockLoserDataAccessException;
+import org.springframework.jdbc.core.JdbcOperations;
 import org.springframework.transaction.TransactionStatus;
 import org.springframework.transaction.support.TransactionCallbackWithoutResult;
 import org.springframework.transaction.support.TransactionOperations;
@@ -99,6 +101,13 @@ public class HibernateEventWriter implements EventWriter {
     public static final String LOG_MSG_DEST_LOG_ONLY = "logonly";
     public static final String LOG_MSG_DEST_DISPLAY_ONLY = "displayonly";
     public static final String LOG_MSG_DEST_DISCARD_TRAPS = "discardtraps";
+
+    /**
+     * Logs with at least this many events to persist are written using multi-row inserts. Set to 0 to always save
+     * the events one by one using Hibernate.
+     */
+    public static final String BATCH_THRESHOLD_SYS_PROP = "org.opennms.eventd.jdbc.batchThreshold";
+    public static final int DEFAULT_BATCH_THRESHOLD = 2;
     
     @Autowired
     private TransactionOperations m_transactionManager;
@@ -121,6 +130,11 @@ public class HibernateEventWriter implements EventWriter {
     @Autowired
     private EventUtil eventUtil;
 
+    @Autowired(required = false)
+    private JdbcOperations jdbcTemplate;
+
+    private final int batchThreshold = SystemProperties.getInteger(BATCH_THRESHOLD_SYS_PROP, DEFAULT_BATCH_THRESHOLD);
+
     private final Timer writeTimer;
 
     public HibernateEventWriter(MetricRegistry registry) {
@@ -185,9 +199,20 @@ public class HibernateEventWriter implements EventWriter {
             try (Context context = writeTimer.time()) {
                 final AtomicReference<EventProcessorException> exception = new AtomicReference<>();
 
+                final boolean batched = jdbcTemplate != null && batchThreshold > 0 && eventsToPersist.size() >= batchThreshold;
+
                 m_transactionManager.execute(new TransactionCallbackWithoutResult() {
                     @Override
                     protected void doInTransactionWithoutResult(TransactionStatus status) {
+                        if (batched) {
+                            try {
+                                process(eventLog.getHeader(), eventsToPersist);
+                            } catch (EventProcessorException e) {
+                                exception.set(e);
+                            }
+                            return;
+                        }
+
                         for (Event eachEvent : eventsToPersist) {
                             try {
                                 process(eventLog.getHeader(), eachEvent);
@@ -227,6 +252,31 @@ public class HibernateEventWriter implements EventWriter {
         }
     }
 
+    /**
+     * Inserts all of the given events into the database using multi-row inserts.
+     */
+    private void process(final Header eventHeader, final List<Event> events) throws EventProcessorException {
+        LOG.debug("HibernateEventWriter: processing batch of {} events", events.size());
+
+        try {
+            final List<OnmsEvent> ovents = new ArrayList<>(events.size());
+            for (final Event event : events) {
+                ovents.add(createOnmsEvent(eventHeader, event));
+            }
+
+            new BatchEventInserter(jdbcTemplate).insert(ovents);
+
+            // Update the events with the database IDs of the events stored in the database
+            for (int i = 0; i < events.size(); i++) {
+                events.get(i).setDbid(ovents.get(i).getId());
+            }
+        } catch (DeadlockLoserDataAccessException e) {
+            throw new EventProcessorException("Encountered deadlock when inserting batch of " + events.size() + " events", e);
+        } catch (Throwable e) {
+            throw new EventProcessorException("Unexpected exception while storing batch of " + events.size() + " events", e);
+        }
+    }
+
     /**
      * Creates OnmsEvent to be inserted afterwards.
      * 
@@ -412,4 +462,8 @@ public class HibernateEventWriter implements EventWriter {
     public void setTransactionManager(TransactionOperations transactionManager) {
         m_transactionManager = transactionManager;
     }
+
+    public void setJdbcTemplate(JdbcOperations jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
 }
@@ -33,8 +33,10 @@ import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.opennms.core.utils.InetAddressUtils.addr;
@@ -43,8 +45,10 @@ import java.lang.Thread.UncaughtExceptionHandler;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.RejectedExecutionException;
@@ -63,6 +67,7 @@ import org.opennms.netmgt.events.api.model.IEvent;
 import org.opennms.netmgt.events.api.model.ImmutableMapper;
 import org.opennms.netmgt.model.events.EventBuilder;
 import org.opennms.netmgt.xml.event.Event;
+import org.opennms.netmgt.xml.event.Events;
 import org.opennms.netmgt.xml.event.Log;
 import org.opennms.test.ThreadLocker;
 import org.opennms.test.ThrowableAnticipator;
@@ -525,8 +530,23 @@ public class EventIpcManagerDefaultImplTest {
         threadRecordingEventHandler.waitForEvent();
         assertNotEquals(Thread.currentThread().getId(), threadRecordingEventHandler.getThreadId());
 
-        // Sync: When invoking sendNowSync, the Runnable should be ran from the callers thread
+        // Sync: When invoking sendNowSync, the Runnable should be ran by a partition before the call returns
         m_manager.sendNowSync(e);
+        assertEquals(0, threadRecordingEventHandler.latch.getCount());
+        assertNotEquals(Thread.currentThread().getId(), threadRecordingEventHandler.getThreadId());
+    }
+
+    @Test
+    public void testSyncSendNowWithoutPartitions() {
+        ThreadRecordingEventHandler threadRecordingEventHandler = new ThreadRecordingEventHandler();
+        EventIpcManagerDefaultImpl manager = new EventIpcManagerDefaultImpl(m_registry);
+        manager.setEventHandler(threadRecordingEventHandler);
+        manager.setHandlerPoolSize(5);
+        manager.setPartitioned(false);
+        manager.afterPropertiesSet();
+
+        // Without partitions, the Runnable is ran from the callers thread
+        manager.sendNowSync(new EventBuilder("uei.opennms.org/foo", "testSyncSendNowWithoutPartitions").getEvent());
         assertEquals(Thread.currentThread().getId(), threadRecordingEventHandler.getThreadId());
     }
 
@@ -825,4 +845,174 @@ public class EventIpcManagerDefaultImplTest {
         // Release
         locker.release();
     }
+    @Test
+    public void testPartitionKeepsEventsOfNodeTogether() {
+        EventIpcManagerDefaultImpl manager = new EventIpcManagerDefaultImpl(m_registry);
+        manager.setEventHandler(m_eventHandler);
+        manager.setHandlerPoolSize(4);
+        manager.setPartitioned(true);
+        manager.afterPropertiesSet();
+
+        Log eventLog = createLog(8, 5);
+        Map<Integer, Log> partitions = manager.partition(eventLog);
+        assertTrue(partitions.size() > 1);
+
+        Map<Long, Integer> partitionOfNode = new ConcurrentHashMap<>();
+        int eventCount = 0;
+        for (Map.Entry<Integer, Log> partition : partitions.entrySet()) {
+            assertEquals(eventLog.getHeader(), partition.getValue().getHeader());
+
+            long[] lastSequence = new long[9];
+            for (Event event : partition.getValue().getEvents().getEventCollection()) {
+                // All events of a node are handled by the same partition, in the order they were sent
+                assertEquals(partition.getKey(), partitionOfNode.computeIfAbsent(event.getNodeid(), n -> partition.getKey()));
+                long sequence = Long.parseLong(event.getSource());
+                assertTrue(sequence > lastSequence[event.getNodeid().intValue()]);
+                lastSequence[event.getNodeid().intValue()] = sequence;
+                eventCount++;
+            }
+        }
+        assertEquals(40, eventCount);
+
+        // Logs with events of a single partition are not copied
+        Log singleNodeLog = createLog(1, 5);
+        assertTrue(manager.partition(singleNodeLog).containsValue(singleNodeLog));
+    }
+
+    @Test
+    public void testSendNowSyncHandlesPartitionsInParallel() {
+        Map<Long, List<Event>> eventsByNode = new ConcurrentHashMap<>();
+        Map<Long, Long> threadByNode = new ConcurrentHashMap<>();
+        EventHandler handler = new EventHandler() {
+            @Override
+            public Runnable createRunnable(Log eventLog, boolean synchronous) {
+                assertTrue(synchronous);
+                return () -> {
+                    for (Event event : eventLog.getEvents().getEventCollection()) {
+                        eventsByNode.computeIfAbsent(event.getNodeid(), n -> new ArrayList<>()).add(event);
+                        assertEquals(threadByNode.computeIfAbsent(event.getNodeid(), n -> Thread.currentThread().getId()).longValue(), Thread.currentThread().getId());
+                    }
+                };
+            }
+
+            @Override
+            public Runnable createRunnable(Log eventLog) {
+                return createRunnable(eventLog, false);
+            }
+        };
+
+        EventIpcManagerDefaultImpl manager = new EventIpcManagerDefaultImpl(m_registry);
+        manager.setEventHandler(handler);
+        manager.setHandlerPoolSize(4);
+        manager.setPartitioned(true);
+        manager.afterPropertiesSet();
+
+        Log eventLog = createLog(8, 50);
+        manager.sendNowSync(eventLog);
+
+        // All events have been handled once the call returns
+        assertEquals(8, eventsByNode.size());
+        for (List<Event> events : eventsByNode.values()) {
+            assertEquals(50, events.size());
+            for (int i = 1; i < events.size(); i++) {
+                assertTrue(Long.parseLong(events.get(i - 1).getSource()) < Long.parseLong(events.get(i).getSource()));
+            }
+        }
+        assertTrue(threadByNode.values().stream().noneMatch(id -> id == Thread.currentThread().getId()));
+    }
+
+    @Test
+    public void testSendQueuesLogsAsAWhole() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        Map<Long, AtomicInteger> handledByNode = new ConcurrentHashMap<>();
+        EventIpcManagerDefaultImpl manager = createBlockingPartitionedManager(release, handledByNode);
+
+        // Node 1 and node 2 belong to different partitions, fill up the one of node 1
+        manager.sendNow(createLog(1, 1));
+        manager.sendNow(createLog(1, 1));
+        try {
+            manager.sendNow(createLog(2, 1));
+            fail("Expected the log to be rejected");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+
+        // Nothing was queued for node 2 and the partition of node 2 still has room
+        release.countDown();
+        await().atMost(Duration.ofSeconds(5)).until(() -> handledByNode.get(1L).get() == 2);
+        assertEquals(null, handledByNode.get(2L));
+        manager.sendNow(createLog(2, 1));
+        await().atMost(Duration.ofSeconds(5)).until(() -> handledByNode.get(2L) != null && handledByNode.get(2L).get() == 1);
+    }
+
+    @Test
+    public void testSendNowSyncWaitsForFullPartition() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        Map<Long, AtomicInteger> handledByNode = new ConcurrentHashMap<>();
+        EventIpcManagerDefaultImpl manager = createBlockingPartitionedManager(release, handledByNode);
+
+        manager.sendNow(createLog(1, 1));
+        manager.sendNow(createLog(1, 1));
+        CompletableFuture<Void> sync = CompletableFuture.runAsync(() -> manager.sendNowSync(createLog(1, 1)));
+
+        // The log is neither rejected nor handled by the calling thread while the partition is full
+        Thread.sleep(100);
+        assertFalse(sync.isDone());
+        assertEquals(null, handledByNode.get(1L));
+
+        release.countDown();
+        sync.get(5, TimeUnit.SECONDS);
+        assertEquals(3, handledByNode.get(1L).get());
+    }
+
+    /**
+     * Creates a manager with two partitions, each of them able to hold a log that is handled and a queued one. The
+     * handler blocks until released and counts the handled events by node.
+     */
+    private EventIpcManagerDefaultImpl createBlockingPartitionedManager(CountDownLatch release, Map<Long, AtomicInteger> handledByNode) {
+        EventHandler handler = new EventHandler() {
+            @Override
+            public Runnable createRunnable(Log eventLog, boolean synchronous) {
+                return () -> {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    for (Event event : eventLog.getEvents().getEventCollection()) {
+                        handledByNode.computeIfAbsent(event.getNodeid(), n -> new AtomicInteger()).incrementAndGet();
+                    }
+                };
+            }
+
+            @Override
+            public Runnable createRunnable(Log eventLog) {
+                return createRunnable(eventLog, false);
+            }
+        };
+
+        EventIpcManagerDefaultImpl manager = new EventIpcManagerDefaultImpl(m_registry);
+        manager.setEventHandler(handler);
+        manager.setHandlerPoolSize(2);
+        manager.setHandlerQueueLength(2);
+        manager.setPartitioned(true);
+        manager.afterPropertiesSet();
+        return manager;
+    }
+
+    private static Log createLog(int nodes, int eventsPerNode) {
+        Events events = new Events();
+        long sequence = 0;
+        for (int i = 0; i < eventsPerNode; i++) {
+            for (int node = 1; node <= nodes; node++) {
+                EventBuilder bldr = new EventBuilder("uei.opennms.org/foo", Long.toString(++sequence));
+                bldr.setNodeid(node);
+                events.addEvent(bldr.getEvent());
+            }
+        }
+
+        Log eventLog = new Log();
+        eventLog.setEvents(events);
+        return eventLog;
+    }
 }
@@ -0,0 +1,169 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2024 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2024 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.eventd.processor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.sql.PreparedStatement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.opennms.netmgt.model.OnmsEvent;
+import org.opennms.netmgt.model.OnmsEventParameter;
+import org.opennms.netmgt.model.OnmsMonitoringSystem;
+import org.opennms.netmgt.model.OnmsNode;
+import org.springframework.jdbc.core.JdbcOperations;
+import org.springframework.jdbc.core.PreparedStatementSetter;
+
+public class BatchEventInserterTest {
+
+    private JdbcOperations jdbcTemplate;
+
+    @Before
+    public void setUp() {
+        jdbcTemplate = mock(JdbcOperations.class);
+    }
+
+    @Test
+    public void canInsertEventsAndParameters() throws Exception {
+        when(jdbcTemplate.queryForList(anyString(), eq(Integer.class), any())).thenReturn(Arrays.asList(10, 11, 12));
+
+        final List<OnmsEvent> events = Arrays.asList(createEvent(1), createEvent(2), createEvent(null));
+        events.get(0).setEventParameters(new ArrayList<>(Arrays.asList(
+                new OnmsEventParameter(events.get(0), "a", "1", "string"),
+                new OnmsEventParameter(events.get(0), "b", "2", "int"))));
+        events.get(2).setEventParameters(new ArrayList<>(Arrays.asList(
+                new OnmsEventParameter(events.get(2), "c", "3", "string"))));
+
+        new BatchEventInserter(jdbcTemplate).insert(events);
+
+        // The IDs allocated from the sequence are assigned in order
+        assertEquals(Integer.valueOf(10), events.get(0).getId());
+        assertEquals(Integer.valueOf(11), events.get(1).getId());
+        assertEquals(Integer.valueOf(12), events.get(2).getId());
+
+        final ArgumentCaptor<String> sql = ArgumentCaptor.forClass(String.class);
+        final ArgumentCaptor<PreparedStatementSetter> setters = ArgumentCaptor.forClass(PreparedStatementSetter.class);
+        verify(jdbcTemplate, times(2)).update(sql.capture(), setters.capture());
+
+        // A single statement for all events and one for all parameters
+        assertTrue(sql.getAllValues().get(0).startsWith("INSERT INTO events (eventId, eventUei, nodeId,"));
+        assertEquals(3, countRows(sql.getAllValues().get(0)));
+        assertTrue(sql.getAllValues().get(1).startsWith("INSERT INTO event_parameters (eventID, name, value, type, position)"));
+        assertEquals(3, countRows(sql.getAllValues().get(1)));
+
+        final PreparedStatement eventsStatement = mock(PreparedStatement.class);
+        setters.getAllValues().get(0).setValues(eventsStatement);
+        verify(eventsStatement).setObject(1, 10, Types.INTEGER);
+        verify(eventsStatement).setObject(3, 1, Types.INTEGER);
+        verify(eventsStatement).setObject(34, 11, Types.INTEGER);
+        verify(eventsStatement).setObject(67, 12, Types.INTEGER);
+        verify(eventsStatement).setNull(69, Types.INTEGER);
+
+        final PreparedStatement parametersStatement = mock(PreparedStatement.class);
+        setters.getAllValues().get(1).setValues(parametersStatement);
+        verify(parametersStatement).setObject(1, 10, Types.INTEGER);
+        verify(parametersStatement).setObject(2, "a", Types.VARCHAR);
+        verify(parametersStatement).setObject(5, 0, Types.INTEGER);
+        verify(parametersStatement).setObject(6, 10, Types.INTEGER);
+        verify(parametersStatement).setObject(7, "b", Types.VARCHAR);
+        verify(parametersStatement).setObject(10, 1, Types.INTEGER);
+        verify(parametersStatement).setObject(11, 12, Types.INTEGER);
+        verify(parametersStatement).setObject(12, "c", Types.VARCHAR);
+        verify(parametersStatement).setObject(15, 0, Types.INTEGER);
+    }
+
+    @Test
+    public void canSplitLargeBatches() {
+        final int count = BatchEventInserter.MAX_ROWS_PER_STATEMENT + 1;
+
+        final List<Integer> ids = new ArrayList<>(count);
+        final List<OnmsEvent> events = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ids.add(i);
+            events.add(createEvent(i));
+        }
+        when(jdbcTemplate.queryForList(anyString(), eq(Integer.class), any())).thenReturn(ids);
+
+        new BatchEventInserter(jdbcTemplate).insert(events);
+
+        final ArgumentCaptor<String> sql = ArgumentCaptor.forClass(String.class);
+        verify(jdbcTemplate, times(2)).update(sql.capture(), any(PreparedStatementSetter.class));
+        assertEquals(BatchEventInserter.MAX_ROWS_PER_STATEMENT, countRows(sql.getAllValues().get(0)));
+        assertEquals(1, countRows(sql.getAllValues().get(1)));
+    }
+
+    @Test
+    public void doesNothingWithoutEvents() {
+        new BatchEventInserter(jdbcTemplate).insert(new ArrayList<>());
+
+        verify(jdbcTemplate, times(0)).queryForList(anyString(), eq(Integer.class), any());
+        verify(jdbcTemplate, times(0)).update(anyString(), any(PreparedStatementSetter.class));
+    }
+
+    private static OnmsEvent createEvent(final Integer nodeId) {
+        final OnmsEvent event = new OnmsEvent();
+        event.setEventUei("uei.opennms.org/test");
+        event.setEventTime(new Date());
+        event.setEventCreateTime(new Date());
+        event.setEventSource("test");
+        event.setEventSeverity(1);
+        event.setEventLog("Y");
+        event.setEventDisplay("Y");
+
+        final OnmsMonitoringSystem distPoller = new OnmsMonitoringSystem();
+        distPoller.setId("00000000-0000-0000-0000-000000000000");
+        event.setDistPoller(distPoller);
+
+        if (nodeId != null) {
+            final OnmsNode node = new OnmsNode();
+            node.setId(nodeId);
+            event.setNode(node);
+        }
+        return event;
+    }
+
+    private static int countRows(final String sql) {
+        return sql.substring(sql.indexOf(" VALUES ")).split("\\(").length - 1;
+    }
+}
@@ -33,17 +33,11 @@ import static org.opennms.core.utils.InetAddressUtils.str;
 import java.net.InetAddress;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
-import java.util.Collections;
 import java.util.Date;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Optional;
-import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.regex.PatternSyntaxException;
 
 import com.google.common.base.Strings;
 import com.google.common.cache.Cache;
@@ -51,11 +45,7 @@ import org.apache.commons.lang.builder.ToStringBuilder;
 import org.opennms.core.utils.InetAddressUtils;
 import org.opennms.core.utils.LocationUtils;
 import org.opennms.netmgt.config.SyslogdConfig;
-import org.opennms.netmgt.config.syslogd.HideMatch;
-import org.opennms.netmgt.config.syslogd.HostaddrMatch;
-import org.opennms.netmgt.config.syslogd.HostnameMatch;
 import org.opennms.netmgt.config.syslogd.ParameterAssignment;
-import org.opennms.netmgt.config.syslogd.ProcessMatch;
 import org.opennms.netmgt.config.syslogd.UeiMatch;
 import org.opennms.netmgt.dao.api.AbstractInterfaceToNodeCache;
 import org.opennms.netmgt.dao.api.InterfaceToNodeCache;
@@ -65,10 +55,6 @@ import org.opennms.netmgt.xml.event.Event;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
-
 /**
  * This routine does the majority of Syslogd's work.
  * Improvements are most likely to be made.
@@ -97,19 +83,6 @@ public class ConvertToEvent {
 
     private final Cache<HostNameWithLocationKey, String> m_dnsCache;
 
-    private static final LoadingCache<String,Pattern> CACHED_PATTERNS = CacheBuilder.newBuilder().build(
-        new CacheLoader<String,Pattern>() {
-            public Pattern load(String expression) {
-                try {
-                    return Pattern.compile(expression, Pattern.MULTILINE);
-                } catch(final PatternSyntaxException e) {
-                    LOG.warn("Failed to compile regex pattern '{}'", expression, e);
-                    return null;
-                }
-            }
-        }
-    );
-
     /**
      * Reduce the limit of the buffer to trim trailing nulls from the value.
      * 
@@ -400,52 +373,54 @@ public class ConvertToEvent {
 
         EventBuilder bldr = toEventBuilder(message, systemId, location, receivedTimestamp, m_locationAwareDnsLookupClient, dnsCache);
 
-        final List<UeiMatch> ueiMatch = (config.getUeiList() == null ? Collections.emptyList() : config.getUeiList());
-        for (final UeiMatch uei : ueiMatch) {
-            final boolean messageMatchesUeiListEntry = containsIgnoreCase(uei.getFacilities(), facilityTxt) &&
-                                              containsIgnoreCase(uei.getSeverities(), priorityTxt) &&
-                                              matchProcess(uei.getProcessMatch().orElse(null), message.getProcessName()) &&
-                                              matchHostname(uei.getHostnameMatch().orElse(null), message.getHostName()) &&
-                                              matchHostAddr(uei.getHostaddrMatch().orElse(null), str(message.getHostAddress()));
-
-            if (messageMatchesUeiListEntry) {
-                if (uei.getMatch().getType().equals("substr")) {
-                    if (matchSubstring(message.getMessage(), uei, bldr, config.getDiscardUei())) {
-                        break;
-                    }
-                } else if ((uei.getMatch().getType().startsWith("regex"))) {
-                    if (matchRegex(message.getMessage(), uei, bldr, config.getDiscardUei())) {
-                        break;
+        // The rules are compiled once per configuration, and only the rules whose literals
+        // are contained in the message are evaluated
+        final SyslogMatchIndex matchIndex = SyslogMatchIndex.forConfig(config);
+        if (!matchIndex.getUeiMatches().isEmpty()) {
+            final SyslogMatchIndex.Candidates candidates = matchIndex.findUeiCandidates(message.getMessage());
+            for (final SyslogMatchIndex.CompiledUeiMatch uei : matchIndex.getUeiMatches()) {
+                if (!candidates.mayMatch(uei)) {
+                    continue;
+                }
+                final boolean messageMatchesUeiListEntry = uei.matchesSource(facilityTxt, priorityTxt,
+                        message.getProcessName(), message.getHostName(), str(message.getHostAddress()));
+
+                if (messageMatchesUeiListEntry) {
+                    if (uei.getMatch().isSubstring()) {
+                        if (matchSubstring(message.getMessage(), uei.getUeiMatch(), bldr, config.getDiscardUei())) {
+                            break;
+                        }
+                    } else if (uei.getMatch().isRegex()) {
+                        if (matchRegex(message.getMessage(), uei.getUeiMatch(), uei.getMatch().getPattern(), bldr, config.getDiscardUei())) {
+                            break;
+                        }
                     }
                 }
             }
         }
 
         // Time to verify if we need to hide the message
-        final List<HideMatch> hideMatch = (config.getHideMessages() == null ? Collections.emptyList() : config.getHideMessages());
         boolean doHide = false;
-        if (hideMatch.size() > 0) {
+        if (!matchIndex.getHideMatches().isEmpty()) {
             // Match this regex against the full string of the message
             final String fullText = message.asRfc3164Message();
+            final SyslogMatchIndex.Candidates candidates = matchIndex.findHideCandidates(fullText);
 
-            for (final HideMatch hide : hideMatch) {
-                if (hide.getMatch().getType().equals("substr")) {
+            for (final SyslogMatchIndex.CompiledMatch hide : matchIndex.getHideMatches()) {
+                if (!candidates.mayMatch(hide)) {
+                    continue;
+                }
+                if (hide.isSubstring()) {
                     if (fullText.contains(hide.getMatch().getExpression())) {
                         // We should hide the message based on this match
                         doHide = true;
                         break;
                     }
-                } else if (hide.getMatch().getType().equals("regex")) {
-                    try {
-                        Pattern msgPat = getPattern(hide.getMatch().getExpression());
-                        Matcher msgMat = msgPat.matcher(fullText);
-                        if (msgMat.find()) {
-                            // We should hide the message based on this match
-                            doHide = true;
-                            break;
-                        }
-                    } catch (PatternSyntaxException pse) {
-                        LOG.warn("Failed to compile hide-match regex pattern '{}'", hide.getMatch().getExpression(), pse);
+                } else if (hide.getMatch().getType().equals("regex") && hide.getPattern() != null) {
+                    if (hide.getPattern().matcher(fullText).find()) {
+                        // We should hide the message based on this match
+                        doHide = true;
+                        break;
                     }
                 }
             }
@@ -460,51 +435,6 @@ public class ConvertToEvent {
         m_event = bldr.getEvent();
     }
 
-    private static boolean matchFind(final String expression, final String input, final String context) {
-        if (input == null) {
-            return false;
-        }
-        final Pattern pat = getPattern(expression);
-        if (pat == null) {
-            LOG.debug("Unable to get pattern for expression '{}' in {} context", expression, context);
-            return false;
-        }
-        final Matcher mat = pat.matcher(input);
-        if (mat != null && mat.find()) {
-            LOG.trace("Successful regex {} for input '{}' against expression '{}'", context, input, expression);
-            return true;
-        } else {
-           return false;
-        }
-    }
-
-    private static boolean matchHostAddr(final HostaddrMatch hostaddrMatch, final String hostAddress) {
-        if (hostaddrMatch == null) return true;
-        return matchFind(hostaddrMatch.getExpression(), hostAddress, "hostaddr-match");
-    }
-
-    private static boolean matchHostname(final HostnameMatch hostnameMatch, final String hostName) {
-        if (hostnameMatch == null) return true;
-        return matchFind(hostnameMatch.getExpression(), hostName, "hostname-match");
-    }
-
-    private static boolean matchProcess(final ProcessMatch processMatch, final String processName) {
-        if (processMatch == null) return true;
-        return matchFind(processMatch.getExpression(), processName, "process-match");
-    }
-
-    private static boolean containsIgnoreCase(List<String> collection, String match) {
-         if (collection.size() == 0) return true;
-         for (String string : collection) {
-             if (string.equalsIgnoreCase(match)) return true;
-         }
-         return false;
-    }
-
-    private static Pattern getPattern(final String expression) {
-        return CACHED_PATTERNS.getUnchecked(expression);
-    }
-
     /**
      * Checks the message for substring matches to a {@link UeiMatch}. If the message
      * matches, then the UEI is updated (or the event is discarded if the discard
@@ -542,15 +472,15 @@ public class ConvertToEvent {
      * 
      * @param message
      * @param uei
+     * @param msgPat the compiled expression of the match, or null if it is invalid
      * @param bldr
      * @param discardUei
      * @return
      * @throws MessageDiscardedException
      */
-    private static boolean matchRegex(final String message, final UeiMatch uei, final EventBuilder bldr, final String discardUei) throws MessageDiscardedException {
+    private static boolean matchRegex(final String message, final UeiMatch uei, final Pattern msgPat, final EventBuilder bldr, final String discardUei) throws MessageDiscardedException {
         final boolean traceEnabled = LOG.isTraceEnabled();
         final String expression = uei.getMatch().getExpression();
-        final Pattern msgPat = getPattern(expression);
         if (msgPat == null) {
             LOG.debug("Unable to create pattern for expression '{}'", expression);
             return false;
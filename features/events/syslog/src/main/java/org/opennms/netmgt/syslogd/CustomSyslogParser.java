@@ -37,6 +37,10 @@ import org.opennms.netmgt.config.SyslogdConfig;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
 public class CustomSyslogParser extends SyslogParser {
     private static final Logger LOG = LoggerFactory.getLogger(CustomSyslogParser.class);
     private static final Pattern m_messageIdPattern = Pattern.compile("^((\\S+):\\s*)");
@@ -45,6 +49,14 @@ public class CustomSyslogParser extends SyslogParser {
     // used to be passed which cause 3ms more time in parsing message
     private static final Pattern m_datePattern = Pattern.compile("^\\s*((\\d\\d\\d\\d-\\d\\d-\\d\\d)\\s*)");
     private static final Pattern m_oldDatePattern = Pattern.compile("^\\s*(\\S\\S\\S\\s+\\d{1,2}\\s+\\d\\d:\\d\\d:\\d\\d)\\s+");
+    // A parser is created for every message, so share the compiled forwarding regexp
+    private static final LoadingCache<String,Pattern> FORWARDING_PATTERNS = CacheBuilder.newBuilder().maximumSize(16).build(
+        new CacheLoader<String,Pattern>() {
+            public Pattern load(String forwardingRegexp) {
+                return Pattern.compile(forwardingRegexp, Pattern.MULTILINE);
+            }
+        }
+    );
 
     private final Pattern m_forwardingPattern;
     private final int m_matchingGroupHost;
@@ -57,7 +69,7 @@ public class CustomSyslogParser extends SyslogParser {
             throw new SyslogParserException("no forwarding regular expression defined");
         }
         final String forwardingRegexp = config.getForwardingRegexp();
-        m_forwardingPattern = Pattern.compile(forwardingRegexp, Pattern.MULTILINE);
+        m_forwardingPattern = FORWARDING_PATTERNS.getUnchecked(forwardingRegexp);
         m_matchingGroupHost = config.getMatchingGroupHost();
         m_matchingGroupMessage = config.getMatchingGroupMessage();
     }
@@ -37,7 +37,6 @@ import java.util.EmptyStackException;
 import java.util.List;
 import java.util.Objects;
 import java.util.Stack;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
 
@@ -84,49 +83,60 @@ public class ParserStageSequenceBuilder {
 	}
 
 	/**
-	 * The state of an individual {@link ParserStage} operation.
+	 * The state of an individual {@link ParserStage} operation. Stages are applied
+	 * one at a time on the calling thread, so a single instance per thread is
+	 * reused for every stage instead of allocating one per stage.
 	 */
 	private static class ParserStageState {
-		public final ByteBuffer buffer;
+		/**
+		 * Don't hold on to huge accumulators after parsing unusually long messages.
+		 */
+		private static final int MAX_RETAINED_CAPACITY = 8192;
 
-		private StringBuilder accumulatedValue = null;
-		private AtomicInteger accumulatedSize = null;
+		private static final ThreadLocal<ParserStageState> PER_THREAD = ThreadLocal.withInitial(ParserStageState::new);
 
-		// Only used by MatchMonth
-		public RadixTreeNode<CharacterWithValue> currentNode = null; 
+		public ByteBuffer buffer;
 
-		public ParserStageState(ByteBuffer input) {
-			buffer = input;
-		}
+		private StringBuilder accumulatedValue = new StringBuilder();
+		private int accumulatedSize = 0;
 
-		public void accumulate(char c) {
-			accessAccumulatedValue().append(c);
-			accessAccumulatedSize().incrementAndGet();
-		}
+		// Only used by MatchMonth
+		public RadixTreeNode<CharacterWithValue> currentNode = null; 
 
-		public int getAccumulatedSize() {
-			return accessAccumulatedSize().get();
+		/**
+		 * @return the calling thread's state, reset to parse the given buffer
+		 */
+		public static ParserStageState forBuffer(ByteBuffer input) {
+			final ParserStageState state = PER_THREAD.get();
+			state.buffer = input;
+			state.clear();
+			return state;
 		}
 
-		private final StringBuilder accessAccumulatedValue() {
-			if (accumulatedValue == null) {
+		private void clear() {
+			if (accumulatedValue.capacity() > MAX_RETAINED_CAPACITY) {
 				accumulatedValue = new StringBuilder();
+			} else {
+				accumulatedValue.setLength(0);
 			}
-			return accumulatedValue;
+			accumulatedSize = 0;
+			currentNode = null;
 		}
 
-		private final AtomicInteger accessAccumulatedSize() {
-			if (accumulatedSize == null) {
-				accumulatedSize = new AtomicInteger();
-			}
+		public void accumulate(char c) {
+			accumulatedValue.append(c);
+			accumulatedSize++;
+		}
+
+		public int getAccumulatedSize() {
 			return accumulatedSize;
 		}
 
 		@Override
 		public String toString() {
 			return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE)
-				.append("accumulatedValue", accumulatedValue == null ? "null" : accumulatedValue.toString())
-				.append("accumulatedSize", accumulatedSize == null ? 0 : accumulatedSize.get())
+				.append("accumulatedValue", accumulatedSize == 0 ? "null" : accumulatedValue.toString())
+				.append("accumulatedSize", accumulatedSize)
 				.toString();
 		}
 	}
@@ -341,7 +351,7 @@ public class ParserStageSequenceBuilder {
 			if (incomingState == null) {
 				return null;
 			} else {
-				LOG.trace("Starting stage: " + this);
+				LOG.trace("Starting stage: {}", this);
 			}
 
 			ParserState state = incomingState.clone();
@@ -350,7 +360,7 @@ public class ParserStageSequenceBuilder {
 			// Use ByteBuffer.duplicate() to create a buffer with marks
 			// and positions that only this stage will use.
 //			ParserStageState stageState = new ParserStageState(state.getBuffer().duplicate()); 
-			ParserStageState stageState = new ParserStageState(state.getBuffer()); 
+			ParserStageState stageState = ParserStageState.forBuffer(state.getBuffer());
 
 			while(true) {
 				stageState.buffer.mark();
@@ -381,7 +391,7 @@ public class ParserStageSequenceBuilder {
 						return new ParserState(stageState.buffer, state.message);
 					} else {
 						// Reached end of buffer, match failed
-						LOG.trace("Parse failed due to buffer underflow: " + this);
+						LOG.trace("Parse failed due to buffer underflow: {}", this);
 						return null;
 					}
 				}
@@ -452,11 +462,10 @@ public class ParserStageSequenceBuilder {
 		}
 
 		protected static String getAccumulatedValue(ParserStageState state) {
-			final StringBuilder accumulatedValue = state.accumulatedValue;
-			if (accumulatedValue == null) {
+			if (state.accumulatedSize == 0) {
 				return null;
 			} else {
-				return accumulatedValue.toString();
+				return state.accumulatedValue.toString();
 			}
 		}
 
@@ -30,6 +30,7 @@ package org.opennms.netmgt.syslogd;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
@@ -38,9 +39,14 @@ import java.util.stream.Collectors;
 import org.opennms.core.collections.RadixTree;
 import org.opennms.core.collections.RadixTreeImpl;
 import org.opennms.core.collections.RadixTreeNode;
+import org.opennms.core.sysprops.SystemProperties;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
 /**
  * <p>This class uses a {@link RadixTree} to store a tree of parser stages.
  * Each leaf node of the tree represents a complete parse of an incoming
@@ -66,14 +72,49 @@ import org.slf4j.LoggerFactory;
  * will put heavily utilized parse branches near the front of the tree, making it faster
  * to traverse the branches to a successful parse.</p>
  * 
+ * <p>To avoid walking the whole tree for devices that send the same message format
+ * over and over, the branch that produced a complete parse is remembered in a
+ * bounded cache keyed by the message template: the message with every digit
+ * replaced by {@code 0}. Subsequent messages with the same template are parsed by
+ * replaying only that branch, falling back to the full tree if it does not match.</p>
+ * 
  * @author Seth
  */
 public class RadixTreeParser implements ByteBufferParser<SyslogMessage> {
 
 	private final static Logger LOG = LoggerFactory.getLogger(RadixTreeParser.class);
 
+	/**
+	 * Maximum number of message templates whose matching branch is remembered.
+	 * Set to 0 to disable the template cache.
+	 */
+	private static final int TEMPLATE_CACHE_SIZE = SystemProperties.getInteger("org.opennms.netmgt.syslogd.parser.templateCacheSize", 1000);
+
+	/**
+	 * Messages longer than this are always parsed with the full tree so that
+	 * the cache keys stay small.
+	 */
+	private static final int MAX_TEMPLATE_LENGTH = SystemProperties.getInteger("org.opennms.netmgt.syslogd.parser.maxTemplateLength", 1024);
+
 	final RadixTree<ParserStage> tree = new RadixTreeImpl<>();
 
+	private final Cache<String,List<ParserStage>> m_templateCache;
+
+	/**
+	 * Root-to-leaf stage sequences of {@link #tree}, in the same order as the
+	 * leaf futures created by {@link #parse(ByteBuffer)}. Rebuilt lazily after
+	 * the tree changes.
+	 */
+	private volatile List<List<ParserStage>> m_branches = null;
+
+	public RadixTreeParser() {
+		this(TEMPLATE_CACHE_SIZE);
+	}
+
+	public RadixTreeParser(int templateCacheSize) {
+		m_templateCache = templateCacheSize > 0 ? CacheBuilder.newBuilder().maximumSize(templateCacheSize).build() : null;
+	}
+
 //	private static final ThreadPoolExecutor m_executor = new ThreadPoolExecutor(
 //		1,
 //		1,
@@ -110,12 +151,26 @@ public class RadixTreeParser implements ByteBufferParser<SyslogMessage> {
 	 */
 	public void teach(ParserStage[] stages) {
 		tree.addChildren(stages);
+		invalidateBranches();
 	}
 
 	public void performEdgeCompression() {
 		for (RadixTreeNode<ParserStage> child : tree.getChildren()) {
 			compressNode(child);
 		}
+		invalidateBranches();
+	}
+
+	private void invalidateBranches() {
+		m_branches = null;
+		if (m_templateCache != null) {
+			m_templateCache.invalidateAll();
+		}
+	}
+
+	@VisibleForTesting
+	long getTemplateCacheSize() {
+		return m_templateCache == null ? 0 : m_templateCache.size();
 	}
 
 	public static void compressNode(RadixTreeNode<ParserStage> node) {
@@ -182,6 +237,18 @@ public class RadixTreeParser implements ByteBufferParser<SyslogMessage> {
 
 	@Override
 	public CompletableFuture<SyslogMessage> parse(ByteBuffer incoming) {
+		final String template = m_templateCache == null ? null : toTemplate(incoming);
+		if (template != null) {
+			final List<ParserStage> branch = m_templateCache.getIfPresent(template);
+			if (branch != null) {
+				final ParserState cached = applyBranch(branch, new ParserState(incoming));
+				if (cached != null) {
+					return CompletableFuture.completedFuture(cached.message);
+				}
+				LOG.trace("Cached branch did not match template {}, parsing with the full tree", template);
+			}
+		}
+
 		ParserState state = new ParserState(incoming);
 
 		// TODO: Use better collection than ArrayList?
@@ -200,11 +267,96 @@ public class RadixTreeParser implements ByteBufferParser<SyslogMessage> {
 			if (s == null) {
 				return null;
 			} else {
+				if (template != null) {
+					rememberBranch(template, finishedFutures, s);
+				}
 				return s.message;
 			}
 		});
 	}
 
+	/**
+	 * Build the cache key for a message: its bytes with every digit replaced by
+	 * {@code 0}, so that timestamps, process IDs and counters do not create new
+	 * templates. Returns null if the message is too long to be cached.
+	 */
+	static String toTemplate(ByteBuffer incoming) {
+		final int length = incoming.remaining();
+		if (length > MAX_TEMPLATE_LENGTH) {
+			return null;
+		}
+		final char[] template = new char[length];
+		for (int i = 0; i < length; i++) {
+			final char c = (char)(incoming.get(incoming.position() + i) & 0xff);
+			template[i] = (c >= '0' && c <= '9') ? '0' : c;
+		}
+		return new String(template);
+	}
+
+	private static ParserState applyBranch(List<ParserStage> branch, ParserState state) {
+		try {
+			for (ParserStage stage : branch) {
+				state = stage.apply(state);
+				if (state == null) {
+					return null;
+				}
+			}
+			return state;
+		} catch (RuntimeException e) {
+			LOG.trace("Cached branch failed with an exception", e);
+			return null;
+		}
+	}
+
+	/**
+	 * Remember the branch whose leaf produced {@code result}. All of the leaf futures
+	 * have already completed at this point since the stages are applied synchronously.
+	 */
+	private void rememberBranch(String template, List<CompletableFuture<ParserState>> finishedFutures, ParserState result) {
+		final List<List<ParserStage>> branches = getBranches();
+		if (branches.size() != finishedFutures.size()) {
+			return;
+		}
+		for (int i = 0; i < finishedFutures.size(); i++) {
+			final CompletableFuture<ParserState> future = finishedFutures.get(i);
+			if (future.isDone() && !future.isCompletedExceptionally() && future.getNow(null) == result) {
+				m_templateCache.put(template, branches.get(i));
+				return;
+			}
+		}
+	}
+
+	private List<List<ParserStage>> getBranches() {
+		List<List<ParserStage>> branches = m_branches;
+		if (branches == null) {
+			branches = new ArrayList<>();
+			addBranches(branches, new ArrayList<>(), tree);
+			branches = Collections.unmodifiableList(branches);
+			m_branches = branches;
+		}
+		return branches;
+	}
+
+	/**
+	 * Collect the branches in the same depth-first order that
+	 * {@link #addStageFutures(List, CompletableFuture, RadixTreeNode)} visits the leaves.
+	 */
+	private static void addBranches(List<List<ParserStage>> branches, List<ParserStage> path, RadixTreeNode<ParserStage> node) {
+		if (node.getContent() != null) {
+			path.add(node.getContent());
+		}
+		if (node.getChildren() != null && node.getChildren().size() > 0) {
+			for (RadixTreeNode<ParserStage> child : node.getChildren()) {
+				addBranches(branches, path, child);
+			}
+		} else {
+			branches.add(new ArrayList<>(path));
+		}
+		if (node.getContent() != null) {
+			path.remove(path.size() - 1);
+		}
+	}
+
 	/**
 	 * TODO: Use a visitor pattern instead?
 	 */
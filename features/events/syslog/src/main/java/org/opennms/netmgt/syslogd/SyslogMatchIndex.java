@@ -0,0 +1,593 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2024 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2024 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.opennms.netmgt.config.SyslogdConfig;
+import org.opennms.netmgt.config.syslogd.HideMatch;
+import org.opennms.netmgt.config.syslogd.Match;
+import org.opennms.netmgt.config.syslogd.UeiMatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The uei-match and hide-match rules of a syslogd configuration, compiled for matching messages.
+ *
+ * Every rule is reduced to a literal which must be contained in the text for the rule to match: the expression
+ * itself for substring matches, and the longest literal sequence which is required by the expression for regular
+ * expressions. All of these literals are searched for in a single pass over the text, using an Aho-Corasick
+ * automaton, and only the rules whose literal was found are evaluated, in their configured order.
+ *
+ * The index is rebuilt whenever the rules of the configuration change. Rules which are modified in place, without
+ * replacing the list they're contained in, are not detected.
+ */
+final class SyslogMatchIndex {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SyslogMatchIndex.class);
+
+    private static final SyslogMatchIndex EMPTY = new SyslogMatchIndex(Collections.emptyList(), Collections.emptyList());
+
+    private static volatile SyslogMatchIndex s_index = EMPTY;
+
+    private final List<UeiMatch> m_ueiMatchList;
+
+    private final List<HideMatch> m_hideMatchList;
+
+    private final List<CompiledUeiMatch> m_ueiMatches;
+
+    private final List<CompiledMatch> m_hideMatches;
+
+    private final LiteralMatcher m_ueiLiterals;
+
+    private final LiteralMatcher m_hideLiterals;
+
+    private SyslogMatchIndex(final List<UeiMatch> ueiMatchList, final List<HideMatch> hideMatchList) {
+        m_ueiMatchList = new ArrayList<>(ueiMatchList);
+        m_hideMatchList = new ArrayList<>(hideMatchList);
+
+        final LiteralMatcher.Builder ueiLiterals = new LiteralMatcher.Builder();
+        final List<CompiledUeiMatch> ueiMatches = new ArrayList<>(ueiMatchList.size());
+        for (final UeiMatch ueiMatch : ueiMatchList) {
+            ueiMatches.add(new CompiledUeiMatch(ueiMatch, ueiLiterals));
+        }
+        m_ueiMatches = Collections.unmodifiableList(ueiMatches);
+        m_ueiLiterals = ueiLiterals.build();
+
+        final LiteralMatcher.Builder hideLiterals = new LiteralMatcher.Builder();
+        final List<CompiledMatch> hideMatches = new ArrayList<>(hideMatchList.size());
+        for (final HideMatch hideMatch : hideMatchList) {
+            hideMatches.add(new CompiledMatch(hideMatch.getMatch(), hideLiterals));
+        }
+        m_hideMatches = Collections.unmodifiableList(hideMatches);
+        m_hideLiterals = hideLiterals.build();
+    }
+
+    /**
+     * Returns the index for the rules of the given configuration, compiling them if they changed since the last call.
+     */
+    static SyslogMatchIndex forConfig(final SyslogdConfig config) {
+        final List<UeiMatch> ueiMatchList = config.getUeiList() == null ? Collections.emptyList() : config.getUeiList();
+        final List<HideMatch> hideMatchList = config.getHideMessages() == null ? Collections.emptyList() : config.getHideMessages();
+
+        SyslogMatchIndex index = s_index;
+        if (!index.m_ueiMatchList.equals(ueiMatchList) || !index.m_hideMatchList.equals(hideMatchList)) {
+            LOG.debug("Compiling {} uei-match and {} hide-match rules.", ueiMatchList.size(), hideMatchList.size());
+            index = new SyslogMatchIndex(ueiMatchList, hideMatchList);
+            s_index = index;
+        }
+        return index;
+    }
+
+    /**
+     * Returns the uei-match rules in their configured order.
+     */
+    List<CompiledUeiMatch> getUeiMatches() {
+        return m_ueiMatches;
+    }
+
+    /**
+     * Returns the hide-match rules in their configured order.
+     */
+    List<CompiledMatch> getHideMatches() {
+        return m_hideMatches;
+    }
+
+    /**
+     * Searches the message for the literals of the uei-match rules.
+     */
+    Candidates findUeiCandidates(final String message) {
+        return new Candidates(m_ueiLiterals.find(message));
+    }
+
+    /**
+     * Searches the full text of the message for the literals of the hide-match rules.
+     */
+    Candidates findHideCandidates(final String fullText) {
+        return new Candidates(m_hideLiterals.find(fullText));
+    }
+
+    /**
+     * The rules which may match a given text.
+     */
+    static final class Candidates {
+        private final boolean[] m_found;
+
+        private Candidates(final boolean[] found) {
+            m_found = found;
+        }
+
+        boolean mayMatch(final CompiledMatch match) {
+            return match.m_literal < 0 || m_found[match.m_literal];
+        }
+
+        boolean mayMatch(final CompiledUeiMatch ueiMatch) {
+            return mayMatch(ueiMatch.m_match);
+        }
+    }
+
+    /**
+     * A substring or regex match.
+     */
+    static final class CompiledMatch {
+        private final Match m_match;
+        private final boolean m_substring;
+        private final boolean m_regex;
+        private final Pattern m_pattern;
+        private final int m_literal;
+
+        private CompiledMatch(final Match match, final LiteralMatcher.Builder literals) {
+            m_match = match;
+            m_substring = "substr".equals(match.getType());
+            m_regex = match.getType() != null && match.getType().startsWith("regex");
+
+            final String expression = match.getExpression();
+            if (m_substring) {
+                m_pattern = null;
+                m_literal = expression != null && !expression.isEmpty() ? literals.add(expression) : -1;
+            } else if (m_regex) {
+                m_pattern = compile(expression);
+                final String literal = m_pattern != null ? requiredLiteral(expression) : null;
+                m_literal = literal != null ? literals.add(literal) : -1;
+            } else {
+                m_pattern = null;
+                m_literal = -1;
+            }
+        }
+
+        Match getMatch() {
+            return m_match;
+        }
+
+        boolean isSubstring() {
+            return m_substring;
+        }
+
+        /**
+         * Whether the type of the match starts with regex. Note that hide-match rules only support the exact type.
+         */
+        boolean isRegex() {
+            return m_regex;
+        }
+
+        /**
+         * Returns the compiled expression of a regex match, or null if the expression is invalid.
+         */
+        Pattern getPattern() {
+            return m_pattern;
+        }
+    }
+
+    /**
+     * A uei-match rule with its facilities and severities normalized and its expressions compiled.
+     */
+    static final class CompiledUeiMatch {
+        private final UeiMatch m_ueiMatch;
+        private final Set<String> m_facilities;
+        private final Set<String> m_severities;
+        private final Pattern m_processPattern;
+        private final Pattern m_hostnamePattern;
+        private final Pattern m_hostaddrPattern;
+        private final boolean m_valid;
+        private final CompiledMatch m_match;
+
+        private CompiledUeiMatch(final UeiMatch ueiMatch, final LiteralMatcher.Builder literals) {
+            m_ueiMatch = ueiMatch;
+            m_facilities = toLowerCase(ueiMatch.getFacilities());
+            m_severities = toLowerCase(ueiMatch.getSeverities());
+            m_processPattern = ueiMatch.getProcessMatch().map(m -> compile(m.getExpression())).orElse(null);
+            m_hostnamePattern = ueiMatch.getHostnameMatch().map(m -> compile(m.getExpression())).orElse(null);
+            m_hostaddrPattern = ueiMatch.getHostaddrMatch().map(m -> compile(m.getExpression())).orElse(null);
+            // A rule with an invalid process, hostname or hostaddr expression never matches
+            m_valid = (!ueiMatch.getProcessMatch().isPresent() || m_processPattern != null)
+                    && (!ueiMatch.getHostnameMatch().isPresent() || m_hostnamePattern != null)
+                    && (!ueiMatch.getHostaddrMatch().isPresent() || m_hostaddrPattern != null);
+            m_match = new CompiledMatch(ueiMatch.getMatch(), literals);
+        }
+
+        UeiMatch getUeiMatch() {
+            return m_ueiMatch;
+        }
+
+        CompiledMatch getMatch() {
+            return m_match;
+        }
+
+        /**
+         * Whether the facility, severity, process, host name and host address of the message match the rule.
+         */
+        boolean matchesSource(final String facility, final String severity, final String processName,
+                              final String hostName, final String hostAddress) {
+            return m_valid
+                    && contains(m_facilities, facility)
+                    && contains(m_severities, severity)
+                    && find(m_processPattern, processName)
+                    && find(m_hostnamePattern, hostName)
+                    && find(m_hostaddrPattern, hostAddress);
+        }
+
+        private static Set<String> toLowerCase(final List<String> values) {
+            if (values.isEmpty()) {
+                return null;
+            }
+            final Set<String> lowerCase = new HashSet<>();
+            for (final String value : values) {
+                lowerCase.add(value.toLowerCase(Locale.ROOT));
+            }
+            return lowerCase;
+        }
+
+        private static boolean contains(final Set<String> values, final String value) {
+            return values == null || values.contains(value.toLowerCase(Locale.ROOT));
+        }
+
+        private static boolean find(final Pattern pattern, final String input) {
+            if (pattern == null) {
+                return true;
+            }
+            if (input == null) {
+                return false;
+            }
+            final Matcher matcher = pattern.matcher(input);
+            return matcher.find();
+        }
+    }
+
+    private static Pattern compile(final String expression) {
+        try {
+            return Pattern.compile(expression, Pattern.MULTILINE);
+        } catch (final PatternSyntaxException | NullPointerException e) {
+            LOG.warn("Failed to compile regex pattern '{}'", expression, e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the longest sequence of characters which must appear literally in any text matched by the given
+     * regular expression, or null if no such sequence could be determined.
+     *
+     * Only literals outside of groups are considered, and expressions with alternations, inline flags or escapes
+     * which take arguments are not analyzed at all.
+     */
+    static String requiredLiteral(final String regex) {
+        String longest = "";
+        final StringBuilder run = new StringBuilder();
+        boolean lastWasLiteral = false;
+        int depth = 0;
+
+        for (int i = 0; i < regex.length(); i++) {
+            final char c = regex.charAt(i);
+            char literal = 0;
+            boolean isLiteral = false;
+
+            switch (c) {
+                case '\\':
+                    if (i + 1 >= regex.length()) {
+                        return null;
+                    }
+                    final char escaped = regex.charAt(++i);
+                    if (!Character.isLetterOrDigit(escaped)) {
+                        literal = escaped;
+                        isLiteral = true;
+                    } else if ("dDsSwWbBAGZzRXhHvV".indexOf(escaped) < 0) {
+                        // Quoting, back references, code points and properties
+                        return null;
+                    }
+                    break;
+                case '[':
+                    i = endOfCharacterClass(regex, i);
+                    if (i < 0) {
+                        return null;
+                    }
+                    break;
+                case '(':
+                    if (i + 2 < regex.length() && regex.charAt(i + 1) == '?'
+                            && (Character.isLetter(regex.charAt(i + 2)) || regex.charAt(i + 2) == '-')) {
+                        // Inline flags may make the match case insensitive
+                        return null;
+                    }
+                    depth++;
+                    break;
+                case ')':
+                    depth--;
+                    break;
+                case '|':
+                    return null;
+                case '?':
+                case '*':
+                case '{':
+                    // The preceding character may be absent
+                    if (lastWasLiteral) {
+                        run.setLength(run.length() - 1);
+                    }
+                    if (c == '{') {
+                        i = regex.indexOf('}', i);
+                        if (i < 0) {
+                            return null;
+                        }
+                    }
+                    break;
+                case '+':
+                case '.':
+                case '^':
+                case '$':
+                    break;
+                default:
+                    literal = c;
+                    isLiteral = true;
+            }
+
+            if (isLiteral && depth == 0) {
+                run.append(literal);
+                lastWasLiteral = true;
+            } else {
+                if (run.length() > longest.length()) {
+                    longest = run.toString();
+                }
+                run.setLength(0);
+                lastWasLiteral = false;
+            }
+        }
+        if (run.length() > longest.length()) {
+            longest = run.toString();
+        }
+        return longest.isEmpty() ? null : longest;
+    }
+
+    /**
+     * Returns the position of the bracket closing the character class starting at the given position, or -1 if
+     * there is none or the class contains nested classes.
+     */
+    private static int endOfCharacterClass(final String regex, final int start) {
+        // A closing bracket at the beginning of the class is a literal
+        int first = start + 1;
+        if (first < regex.length() && regex.charAt(first) == '^') {
+            first++;
+        }
+        for (int i = first; i < regex.length(); i++) {
+            final char c = regex.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == '[') {
+                return -1;
+            } else if (c == ']' && i > first) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Finds all occurrences of a set of literals in a single pass over a text.
+     */
+    static final class LiteralMatcher {
+        private final int m_numLiterals;
+        private final char[][] m_chars;
+        private final int[][] m_next;
+        private final int[] m_fail;
+        private final int[][] m_outputs;
+
+        private LiteralMatcher(final int numLiterals, final char[][] chars, final int[][] next, final int[] fail, final int[][] outputs) {
+            m_numLiterals = numLiterals;
+            m_chars = chars;
+            m_next = next;
+            m_fail = fail;
+            m_outputs = outputs;
+        }
+
+        /**
+         * Returns, for each of the literals, whether it occurs in the given text.
+         */
+        boolean[] find(final String text) {
+            final boolean[] found = new boolean[m_numLiterals];
+            if (m_numLiterals == 0 || text == null) {
+                return found;
+            }
+
+            int numFound = 0;
+            int state = 0;
+            for (int i = 0; i < text.length(); i++) {
+                final char c = text.charAt(i);
+                int next;
+                while ((next = next(state, c)) < 0 && state != 0) {
+                    state = m_fail[state];
+                }
+                state = next < 0 ? 0 : next;
+
+                for (final int literal : m_outputs[state]) {
+                    if (!found[literal]) {
+                        found[literal] = true;
+                        if (++numFound == m_numLiterals) {
+                            return found;
+                        }
+                    }
+                }
+            }
+            return found;
+        }
+
+        private int next(final int state, final char c) {
+            final char[] chars = m_chars[state];
+            int low = 0;
+            int high = chars.length - 1;
+            while (low <= high) {
+                final int mid = (low + high) >>> 1;
+                if (chars[mid] < c) {
+                    low = mid + 1;
+                } else if (chars[mid] > c) {
+                    high = mid - 1;
+                } else {
+                    return m_next[state][mid];
+                }
+            }
+            return -1;
+        }
+
+        static final class Builder {
+            private final Map<String, Integer> m_literals = new HashMap<>();
+            private final List<TreeMap<Character, Integer>> m_transitions = new ArrayList<>();
+            private final List<List<Integer>> m_outputs = new ArrayList<>();
+
+            Builder() {
+                newState();
+            }
+
+            private int newState() {
+                m_transitions.add(new TreeMap<>());
+                m_outputs.add(new ArrayList<>());
+                return m_transitions.size() - 1;
+            }
+
+            /**
+             * Adds the given, non-empty, literal and returns its id. Equal literals share the same id.
+             */
+            int add(final String literal) {
+                final Integer existing = m_literals.get(literal);
+                if (existing != null) {
+                    return existing;
+                }
+                final int id = m_literals.size();
+                m_literals.put(literal, id);
+
+                int state = 0;
+                for (int i = 0; i < literal.length(); i++) {
+                    final Integer next = m_transitions.get(state).get(literal.charAt(i));
+                    if (next != null) {
+                        state = next;
+                    } else {
+                        final int created = newState();
+                        m_transitions.get(state).put(literal.charAt(i), created);
+                        state = created;
+                    }
+                }
+                m_outputs.get(state).add(id);
+                return id;
+            }
+
+            LiteralMatcher build() {
+                final int numStates = m_transitions.size();
+                final char[][] chars = new char[numStates][];
+                final int[][] next = new int[numStates][];
+                for (int state = 0; state < numStates; state++) {
+                    final TreeMap<Character, Integer> transitions = m_transitions.get(state);
+                    chars[state] = new char[transitions.size()];
+                    next[state] = new int[transitions.size()];
+                    int i = 0;
+                    for (final Map.Entry<Character, Integer> e : transitions.entrySet()) {
+                        chars[state][i] = e.getKey();
+                        next[state][i] = e.getValue();
+                        i++;
+                    }
+                }
+
+                // Link every state to the state of its longest proper suffix, in breadth-first order
+                final int[] fail = new int[numStates];
+                final int[][] outputs = new int[numStates][];
+                outputs[0] = toArray(m_outputs.get(0));
+                final Queue<Integer> queue = new ArrayDeque<>();
+                for (final int child : next[0]) {
+                    fail[child] = 0;
+                    queue.add(child);
+                }
+                while (!queue.isEmpty()) {
+                    final int state = queue.remove();
+                    final List<Integer> out = m_outputs.get(state);
+                    for (final int literal : outputs[fail[state]]) {
+                        out.add(literal);
+                    }
+                    outputs[state] = toArray(out);
+
+                    for (int i = 0; i < chars[state].length; i++) {
+                        final char c = chars[state][i];
+                        final int child = next[state][i];
+                        int f = fail[state];
+                        int target;
+                        while ((target = lookup(chars, next, f, c)) < 0 && f != 0) {
+                            f = fail[f];
+                        }
+                        fail[child] = target < 0 ? 0 : target;
+                        queue.add(child);
+                    }
+                }
+
+                return new LiteralMatcher(m_literals.size(), chars, next, fail, outputs);
+            }
+
+            private static int lookup(final char[][] chars, final int[][] next, final int state, final char c) {
+                for (int i = 0; i < chars[state].length; i++) {
+                    if (chars[state][i] == c) {
+                        return next[state][i];
+                    }
+                }
+                return -1;
+            }
+
+            private static int[] toArray(final List<Integer> values) {
+                final int[] result = new int[values.size()];
+                for (int i = 0; i < result.length; i++) {
+                    result[i] = values.get(i);
+                }
+                return result;
+            }
+        }
+    }
+}
@@ -53,6 +53,7 @@ import com.google.common.cache.LoadingCache;
 public class SyslogParser {
     private static final Logger LOG = LoggerFactory.getLogger(SyslogParser.class);
     private static final String datePattern="((19|20)\\d{2})-([1-9]|0[1-9]|1[0-2])-(0[1-9]|[1-9]|[12][0-9]|3[01])";
+    private static final Pattern DEFAULT_PATTERN = Pattern.compile("^.*$");
     private Matcher m_matcher = null;
     private final SyslogdConfig m_config;
     private final ByteBuffer m_text;
@@ -71,13 +72,20 @@ public class SyslogParser {
             }
         }
     );
+    private static final LoadingCache<Class<? extends SyslogParser>,Constructor<? extends SyslogParser>> PARSER_CONSTRUCTORS = CacheBuilder.newBuilder().build(
+        new CacheLoader<Class<? extends SyslogParser>,Constructor<? extends SyslogParser>>() {
+            public Constructor<? extends SyslogParser> load(Class<? extends SyslogParser> parserClass) throws NoSuchMethodException {
+                return parserClass.getConstructor(SyslogdConfig.class, ByteBuffer.class);
+            }
+        }
+    );
 
     public static SyslogParser getParserInstance(SyslogdConfig config, ByteBuffer text) throws MessageDiscardedException {
         Class<? extends SyslogParser> parserClass = PARSER_CLASSES.getUnchecked(config.getParser());
 
         final SyslogParser retval;
         try {
-            Constructor<? extends SyslogParser> m = parserClass.getConstructor(SyslogdConfig.class, ByteBuffer.class);
+            Constructor<? extends SyslogParser> m = PARSER_CONSTRUCTORS.get(parserClass);
             retval = (SyslogParser)m.newInstance(config, text);
         } catch (final Exception ex) {
             LOG.debug("Unable to get parser for class '{}'", parserClass.getName(), ex);
@@ -137,7 +145,7 @@ public class SyslogParser {
 
     /* override this to get your custom pattern */
     protected Pattern getPattern() {
-        return Pattern.compile("^.*$");
+        return DEFAULT_PATTERN;
     }
 
     /* override this to parse data from the matcher */
@@ -30,8 +30,14 @@ package org.opennms.netmgt.syslogd;
 
 import static org.opennms.core.utils.InetAddressUtils.addr;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import com.codahale.metrics.Gauge;
 import com.google.common.cache.Cache;
@@ -57,6 +63,7 @@ import org.opennms.netmgt.xml.event.Log;
 import org.opennms.netmgt.xml.event.Parm;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 
@@ -64,13 +71,26 @@ import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
 import com.codahale.metrics.Timer.Context;
 import com.google.common.base.Strings;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
-public class SyslogSinkConsumer implements MessageConsumer<SyslogConnection, SyslogMessageLogDTO>, InitializingBean {
+public class SyslogSinkConsumer implements MessageConsumer<SyslogConnection, SyslogMessageLogDTO>, InitializingBean, DisposableBean {
 
     private static final Logger LOG = LoggerFactory.getLogger(SyslogSinkConsumer.class);
 
     private static final String defaultCacheConfig = "maximumSize=1000,expireAfterWrite=8h";
     private static final String dnsCacheConfigProperty = "org.opennms.netmgt.syslogd.dnscache.config";
+
+    /**
+     * Number of threads used to convert the messages of a single log into events.
+     * Messages are converted on the consumer thread when set to 1.
+     */
+    private static final int CONVERSION_THREADS = SystemProperties.getInteger("org.opennms.netmgt.syslogd.conversion.threads", 1);
+
+    /**
+     * Minimum number of messages converted by a single task.
+     */
+    private static final int MIN_MESSAGES_PER_TASK = SystemProperties.getInteger("org.opennms.netmgt.syslogd.conversion.minMessagesPerTask", 32);
+
     @Autowired
     private MessageConsumerManager messageConsumerManager;
 
@@ -93,7 +113,14 @@ public class SyslogSinkConsumer implements MessageConsumer<SyslogConnection, Sys
     private final Timer toEventTimer;
     private final Timer broadcastTimer;
 
+    private final int conversionThreads;
+    private final ExecutorService conversionExecutor;
+
     public SyslogSinkConsumer(MetricRegistry registry) {
+        this(registry, CONVERSION_THREADS);
+    }
+
+    public SyslogSinkConsumer(MetricRegistry registry, int conversionThreads) {
         consumerTimer = registry.timer("consumer");
         toEventTimer = registry.timer("consumer.toevent");
         broadcastTimer = registry.timer("consumer.broadcast");
@@ -102,6 +129,18 @@ public class SyslogSinkConsumer implements MessageConsumer<SyslogConnection, Sys
         registry.register("dnsCacheSize", (Gauge<Long>) () -> dnsCache.size());
         registry.register("dnsCacheHitRate", (Gauge<Double>) () -> dnsCache.stats().hitRate());
         localAddr = InetAddressUtils.getLocalHostName();
+
+        this.conversionThreads = Math.max(1, conversionThreads);
+        if (this.conversionThreads > 1) {
+            // Bounded, so that the consumer threads help out with the conversion when the pool is busy
+            conversionExecutor = new ThreadPoolExecutor(this.conversionThreads, this.conversionThreads,
+                    0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(this.conversionThreads * 4),
+                    new ThreadFactoryBuilder().setNameFormat("syslogd-conversion-%d").setDaemon(true).build(),
+                    new ThreadPoolExecutor.CallerRunsPolicy());
+        } else {
+            conversionExecutor = null;
+        }
     }
 
     @Override
@@ -127,10 +166,46 @@ public class SyslogSinkConsumer implements MessageConsumer<SyslogConnection, Sys
     }
 
     public Log toEventLog(SyslogMessageLogDTO messageLog) {
+        final List<SyslogMessageDTO> messages = messageLog.getMessages();
+        final Event[] converted = new Event[messages.size()];
+
+        final int numTasks = conversionExecutor == null ? 1
+                : Math.min(conversionThreads, messages.size() / Math.max(1, MIN_MESSAGES_PER_TASK));
+        if (numTasks <= 1) {
+            toEvents(messageLog, 0, messages.size(), converted);
+        } else {
+            // Split the messages into contiguous ranges and convert the first one on this thread
+            final int messagesPerTask = (messages.size() + numTasks - 1) / numTasks;
+            final List<CompletableFuture<Void>> futures = new ArrayList<>(numTasks - 1);
+            for (int from = messagesPerTask; from < messages.size(); from += messagesPerTask) {
+                final int start = from;
+                final int end = Math.min(from + messagesPerTask, messages.size());
+                futures.add(CompletableFuture.runAsync(() -> {
+                    try (MDCCloseable mdc = Logging.withPrefixCloseable(Syslogd.LOG4J_CATEGORY)) {
+                        toEvents(messageLog, start, end, converted);
+                    }
+                }, conversionExecutor));
+            }
+            toEvents(messageLog, 0, Math.min(messagesPerTask, messages.size()), converted);
+            futures.forEach(CompletableFuture::join);
+        }
+
+        // Preserve the order of the messages
         final Log elog = new Log();
         final Events events = new Events();
         elog.setEvents(events);
-        for (SyslogMessageDTO message : messageLog.getMessages()) {
+        for (Event event : converted) {
+            if (event != null) {
+                events.addEvent(event);
+            }
+        }
+        return elog;
+    }
+
+    private void toEvents(SyslogMessageLogDTO messageLog, int from, int to, Event[] converted) {
+        final List<SyslogMessageDTO> messages = messageLog.getMessages();
+        for (int i = from; i < to; i++) {
+            final SyslogMessageDTO message = messages.get(i);
             try {
                 LOG.debug("Converting syslog message into event.");
                 ConvertToEvent re = new ConvertToEvent(
@@ -143,14 +218,13 @@ public class SyslogSinkConsumer implements MessageConsumer<SyslogConnection, Sys
                         syslogdConfig,
                         m_locationAwareDnsLookupClient,
                         dnsCache);
-                events.addEvent(re.getEvent());
+                converted[i] = re.getEvent();
             } catch (final MessageDiscardedException e) {
                 LOG.info("Message discarded, returning without enqueueing event.", e);
             } catch (final Throwable e) {
                 LOG.error("Unexpected exception while processing SyslogConnection", e);
             }
         }
-        return elog;
     }
 
     private void broadcast(Log eventLog)  {
@@ -207,6 +281,13 @@ public class SyslogSinkConsumer implements MessageConsumer<SyslogConnection, Sys
         messageConsumerManager.registerConsumer(this);
     }
 
+    @Override
+    public void destroy() {
+        if (conversionExecutor != null) {
+            conversionExecutor.shutdown();
+        }
+    }
+
     public void setEventForwarder(EventForwarder eventForwarder) {
         this.eventForwarder = eventForwarder;
     }
@@ -29,6 +29,8 @@
 package org.opennms.netmgt.syslogd;
 
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.List;
 import java.util.Objects;
 
 import org.opennms.core.ipc.sink.api.AggregationPolicy;
@@ -44,6 +46,12 @@ public class SyslogSinkModule extends AbstractXmlSinkModule<SyslogConnection, Sy
 
     public static final String MODULE_ID = "Syslog";
 
+    // Approximate size of the XML declaration and the attributes of a syslog-message-log element, without their values
+    private static final int XML_LOG_OVERHEAD = 192;
+
+    // Approximate size of a messages element and its timestamp, without the payload
+    private static final int XML_MESSAGE_OVERHEAD = 64;
+
     private final SyslogdConfig config;
     private final DistPollerDao distPollerDao;
 
@@ -83,6 +91,19 @@ public class SyslogSinkModule extends AbstractXmlSinkModule<SyslogConnection, Sy
                 return syslogConnection.getSource();
             }
 
+            @Override
+            public int sizeOf(SyslogMessageLogDTO accumulator, SyslogConnection connection) {
+                final List<SyslogMessageDTO> messages = accumulator.getMessages();
+                // The payload is marshalled as base64, see ByteBufferXmlAdapter
+                final ByteBuffer bytes = messages.get(messages.size() - 1).getBytes();
+                final int length = bytes.hasArray() ? bytes.array().length : bytes.limit();
+                int size = 4 * ((length + 2) / 3) + XML_MESSAGE_OVERHEAD;
+                if (messages.size() == 1) {
+                    size += XML_LOG_OVERHEAD + systemLocation.length() + systemId.length();
+                }
+                return size;
+            }
+
             @Override
             public SyslogMessageLogDTO aggregate(SyslogMessageLogDTO accumulator, SyslogConnection connection) {
                 if (accumulator == null) {
@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2024 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2024 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class RadixTreeParserTest {
+
+	private static final List<String> MESSAGES = Arrays.asList(
+		"<14> Nov 16 00:01:25 localhost postfix/smtpd[1713]: connect from www.opennms.org[10.1.1.1]",
+		"<14> Nov 16 00:01:26 localhost postfix/smtpd[1714]: connect from www.opennms.org[10.1.1.2]",
+		"<19> Nov 17 14:28:48 CST %AUTHPRIV-3-SYSTEM_MSG[0]: Authentication failed from 7.40.16.188 - sshd[20189]",
+		"<31>main: 2010-08-19 localhost foo23: load test 23 on tty1",
+		"<31>main: 2010-08-20 localhost foo24: load test 24 on tty1",
+		"<11>Mar 22 14:24:49 testhost last message repeated 30 times",
+		"<11>Mar 22 14:24:50 testhost last message repeated 31 times",
+		"<34>1 2003-10-11T22:14:15.003Z mymachine.example.com su - ID47 - BOM'su root' failed for lonvick on /dev/pts/8",
+		"<165>1 2003-08-24T05:14:15.000003-07:00 192.0.2.1 myproc 8710 - - %% It's time to make the do-nuts.",
+		"<14> Mar 29 2004 09:57:04: %PIX-5-304001: 10.0.0.1 Accessed URL 10.0.0.2:/index.html",
+		"something that only matches the catch-all pattern 12345"
+	);
+
+	private static RadixTreeParser defaultPatterns(int templateCacheSize) throws Exception {
+		final RadixTreeParser parser = new RadixTreeParser(templateCacheSize);
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(RadixTreeParserTest.class.getClassLoader().getResourceAsStream("org/opennms/netmgt/syslogd/grok-patterns.txt"), StandardCharsets.UTF_8))) {
+			reader.lines()
+				.filter(pattern -> pattern.trim().length() > 0 && !pattern.trim().startsWith("#"))
+				.forEach(pattern -> parser.teach(GrokParserStageSequenceBuilder.parseGrok(pattern).toArray(new ParserStage[0])));
+		}
+		parser.performEdgeCompression();
+		return parser;
+	}
+
+	private static String parse(RadixTreeParser parser, String message) {
+		final SyslogMessage result = parser.parse(ByteBuffer.wrap(message.getBytes(StandardCharsets.US_ASCII))).join();
+		assertNotNull(message, result);
+		// Strip the identity hash code from the ToStringBuilder output
+		final String string = result.toString();
+		return string.substring(string.indexOf('['));
+	}
+
+	@Test
+	public void testCachedParseMatchesFullParse() throws Exception {
+		final RadixTreeParser uncached = defaultPatterns(0);
+		final RadixTreeParser cached = defaultPatterns(100);
+
+		for (int i = 0; i < 3; i++) {
+			for (String message : MESSAGES) {
+				assertEquals(message, parse(uncached, message), parse(cached, message));
+			}
+		}
+		assertEquals(0, uncached.getTemplateCacheSize());
+		// Messages that only differ by their digits share a template
+		assertEquals(MESSAGES.size() - 3, cached.getTemplateCacheSize());
+	}
+
+	@Test
+	public void testTemplate() {
+		assertEquals("<00> Nov 00 00:00:00 localhost postfix/smtpd[0000]: hi", RadixTreeParser.toTemplate(ByteBuffer.wrap("<14> Nov 16 00:01:25 localhost postfix/smtpd[1713]: hi".getBytes(StandardCharsets.US_ASCII))));
+
+		final ByteBuffer buffer = ByteBuffer.wrap("xx<14>".getBytes(StandardCharsets.US_ASCII));
+		buffer.position(2);
+		assertEquals("<00>", RadixTreeParser.toTemplate(buffer));
+		assertEquals("The buffer position must not change", 2, buffer.position());
+
+		assertNull(RadixTreeParser.toTemplate(ByteBuffer.allocate(100000)));
+	}
+
+	@Test
+	public void testTeachingInvalidatesTemplates() {
+		final RadixTreeParser parser = new RadixTreeParser(100);
+		parser.teach(GrokParserStageSequenceBuilder.parseGrok("<%{INT:facilityPriority}> %{STRING:message}").toArray(new ParserStage[0]));
+
+		final ByteBuffer message = ByteBuffer.wrap("<14> Mar 29 2004 09:57:04: %PIX-5-304001".getBytes(StandardCharsets.US_ASCII));
+		assertEquals("Mar 29 2004 09:57:04: %PIX-5-304001", parser.parse(message).join().getMessage());
+		assertEquals(1, parser.getTemplateCacheSize());
+
+		parser.teach(GrokParserStageSequenceBuilder.parseGrok("<%{INT:facilityPriority}> %{MONTH:month} %{INT:day} %{INT:year} %{INT:hour}:%{INT:minute}:%{INT:second}: %{STRING:message}").toArray(new ParserStage[0]));
+		assertEquals(0, parser.getTemplateCacheSize());
+	}
+}
@@ -0,0 +1,171 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2024 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2024 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+import org.opennms.netmgt.config.SyslogdConfig;
+import org.opennms.netmgt.config.syslogd.Match;
+import org.opennms.netmgt.config.syslogd.UeiMatch;
+
+public class SyslogMatchIndexTest {
+
+    @Test
+    public void canExtractRequiredLiterals() {
+        assertThat(SyslogMatchIndex.requiredLiteral("foo"), equalTo("foo"));
+        assertThat(SyslogMatchIndex.requiredLiteral("^%PIX-5-304001: (.*) Accessed URL (.*)$"), equalTo("%PIX-5-304001: "));
+        assertThat(SyslogMatchIndex.requiredLiteral("ab?cd"), equalTo("cd"));
+        assertThat(SyslogMatchIndex.requiredLiteral("abc*d"), equalTo("ab"));
+        assertThat(SyslogMatchIndex.requiredLiteral("ab+cd"), equalTo("ab"));
+        assertThat(SyslogMatchIndex.requiredLiteral("x{2,3}abc"), equalTo("abc"));
+        assertThat(SyslogMatchIndex.requiredLiteral("a\\.b\\[c\\d+"), equalTo("a.b[c"));
+        assertThat(SyslogMatchIndex.requiredLiteral("[]ab]xyz"), equalTo("xyz"));
+        assertThat(SyslogMatchIndex.requiredLiteral("[^]ab]xyz"), equalTo("xyz"));
+        assertThat(SyslogMatchIndex.requiredLiteral("(?<name>abc)de"), equalTo("de"));
+        assertThat(SyslogMatchIndex.requiredLiteral("(abc)?defg"), equalTo("defg"));
+
+        // Nothing can be said about these
+        assertThat(SyslogMatchIndex.requiredLiteral("foo|bar"), nullValue());
+        assertThat(SyslogMatchIndex.requiredLiteral("(?i)foo"), nullValue());
+        assertThat(SyslogMatchIndex.requiredLiteral("\\Qfoo\\E"), nullValue());
+        assertThat(SyslogMatchIndex.requiredLiteral("\\x41bc"), nullValue());
+        assertThat(SyslogMatchIndex.requiredLiteral("[a[b]]c"), nullValue());
+        assertThat(SyslogMatchIndex.requiredLiteral(".*"), nullValue());
+    }
+
+    @Test
+    public void canFindLiterals() {
+        final SyslogMatchIndex.LiteralMatcher.Builder builder = new SyslogMatchIndex.LiteralMatcher.Builder();
+        assertThat(builder.add("he"), equalTo(0));
+        assertThat(builder.add("she"), equalTo(1));
+        assertThat(builder.add("his"), equalTo(2));
+        assertThat(builder.add("hers"), equalTo(3));
+        assertThat(builder.add("she"), equalTo(1));
+        final SyslogMatchIndex.LiteralMatcher matcher = builder.build();
+
+        assertTrue(Arrays.equals(matcher.find("ushers"), new boolean[]{true, true, false, true}));
+        assertTrue(Arrays.equals(matcher.find("this"), new boolean[]{false, false, true, false}));
+        assertTrue(Arrays.equals(matcher.find(""), new boolean[]{false, false, false, false}));
+        assertTrue(Arrays.equals(matcher.find(null), new boolean[]{false, false, false, false}));
+    }
+
+    /**
+     * A rule must never be skipped if its expression would have matched.
+     */
+    @Test
+    public void doesNotSkipMatchingRules() {
+        final List<String> expressions = Arrays.asList(
+                "ab?c", "a+bc", "(ab)+c", "[abc]{2}ca", "^b.c$", "c\\.a", "ba*b", "abc|cab", "(?:a|b)cc", "a\\sb",
+                "[]a]bc", "acb?a", "b{2}");
+        final List<UeiMatch> ueiMatches = new ArrayList<>();
+        for (final String expression : expressions) {
+            ueiMatches.add(ueiMatch("regex", expression, "uei.opennms.org/test/" + expression));
+        }
+        final SyslogdConfig config = mock(SyslogdConfig.class);
+        when(config.getUeiList()).thenReturn(ueiMatches);
+        final SyslogMatchIndex index = SyslogMatchIndex.forConfig(config);
+
+        final Random random = new Random(42);
+        final char[] alphabet = {'a', 'b', 'c', '.', ' ', '\n', ']'};
+        for (int i = 0; i < 20000; i++) {
+            final StringBuilder sb = new StringBuilder();
+            final int length = random.nextInt(8);
+            for (int j = 0; j < length; j++) {
+                sb.append(alphabet[random.nextInt(alphabet.length)]);
+            }
+            final String text = sb.toString();
+
+            final SyslogMatchIndex.Candidates candidates = index.findUeiCandidates(text);
+            for (final SyslogMatchIndex.CompiledUeiMatch ueiMatch : index.getUeiMatches()) {
+                final Pattern pattern = Pattern.compile(ueiMatch.getUeiMatch().getMatch().getExpression(), Pattern.MULTILINE);
+                if (pattern.matcher(text).find()) {
+                    assertTrue(ueiMatch.getUeiMatch().getMatch().getExpression() + " should be a candidate for '" + text + "'",
+                            candidates.mayMatch(ueiMatch));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void canRecompileWhenRulesChange() {
+        final SyslogdConfig config = mock(SyslogdConfig.class);
+        when(config.getUeiList()).thenReturn(Collections.singletonList(ueiMatch("substr", "foo", "uei.opennms.org/test/foo")));
+        final SyslogMatchIndex index = SyslogMatchIndex.forConfig(config);
+
+        // Equal rules are not compiled again
+        when(config.getUeiList()).thenReturn(Collections.singletonList(ueiMatch("substr", "foo", "uei.opennms.org/test/foo")));
+        assertThat(SyslogMatchIndex.forConfig(config), is(sameInstance(index)));
+
+        when(config.getUeiList()).thenReturn(Collections.singletonList(ueiMatch("substr", "bar", "uei.opennms.org/test/foo")));
+        final SyslogMatchIndex changed = SyslogMatchIndex.forConfig(config);
+        assertThat(changed, is(not(sameInstance(index))));
+        assertThat(changed.findUeiCandidates("foo").mayMatch(changed.getUeiMatches().get(0)), equalTo(false));
+        assertThat(changed.findUeiCandidates("a bar").mayMatch(changed.getUeiMatches().get(0)), equalTo(true));
+    }
+
+    @Test
+    public void canMatchSourceOfMessage() {
+        final UeiMatch ueiMatch = ueiMatch("substr", "foo", "uei.opennms.org/test/foo");
+        ueiMatch.addFacility("KERNEL");
+        ueiMatch.addSeverity("Error");
+        final SyslogdConfig config = mock(SyslogdConfig.class);
+        when(config.getUeiList()).thenReturn(Collections.singletonList(ueiMatch));
+        final SyslogMatchIndex.CompiledUeiMatch compiled = SyslogMatchIndex.forConfig(config).getUeiMatches().get(0);
+
+        assertThat(compiled.matchesSource("kernel", "error", null, "host", "127.0.0.1"), equalTo(true));
+        assertThat(compiled.matchesSource("user", "error", null, "host", "127.0.0.1"), equalTo(false));
+        assertThat(compiled.matchesSource("kernel", "info", null, "host", "127.0.0.1"), equalTo(false));
+    }
+
+    private static UeiMatch ueiMatch(final String type, final String expression, final String uei) {
+        final Match match = new Match();
+        match.setType(type);
+        match.setExpression(expression);
+        final UeiMatch ueiMatch = new UeiMatch();
+        ueiMatch.setMatch(match);
+        ueiMatch.setUei(uei);
+        return ueiMatch;
+    }
+}
@@ -0,0 +1,103 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2024 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2024 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.netmgt.config.SyslogdConfig;
+import org.opennms.netmgt.config.syslogd.Match;
+import org.opennms.netmgt.config.syslogd.UeiMatch;
+import org.opennms.netmgt.syslogd.api.SyslogMessageDTO;
+import org.opennms.netmgt.syslogd.api.SyslogMessageLogDTO;
+import org.opennms.netmgt.xml.event.Log;
+
+import com.codahale.metrics.MetricRegistry;
+
+public class SyslogSinkConsumerTest {
+
+    private SyslogSinkConsumer consumer;
+
+    @Before
+    public void setUp() {
+        final Match match = new Match();
+        match.setType("substr");
+        match.setExpression("discard me");
+        final UeiMatch discard = new UeiMatch();
+        discard.setMatch(match);
+        discard.setUei("DISCARD-MATCHING-MESSAGES");
+
+        final SyslogdConfig config = mock(SyslogdConfig.class);
+        when(config.getParser()).thenReturn("org.opennms.netmgt.syslogd.RadixTreeSyslogParser");
+        when(config.getDiscardUei()).thenReturn("DISCARD-MATCHING-MESSAGES");
+        when(config.getUeiList()).thenReturn(Collections.singletonList(discard));
+        when(config.getHideMessages()).thenReturn(Collections.emptyList());
+
+        consumer = new SyslogSinkConsumer(new MetricRegistry(), 4);
+        consumer.setSyslogdConfig(config);
+    }
+
+    @After
+    public void tearDown() {
+        consumer.destroy();
+    }
+
+    @Test
+    public void canConvertMessagesInParallel() {
+        final List<SyslogMessageDTO> messages = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            final String message = "<34>Oct 11 22:14:15 localhost foo[" + i + "]: load test " + i + " on tty1";
+            messages.add(new SyslogMessageDTO(ByteBuffer.wrap(message.getBytes(StandardCharsets.US_ASCII))));
+        }
+        // Discarded messages are skipped without affecting the order of the others
+        messages.add(500, new SyslogMessageDTO(ByteBuffer.wrap("<34>Oct 11 22:14:15 localhost foo: discard me".getBytes(StandardCharsets.US_ASCII))));
+
+        final SyslogMessageLogDTO messageLog = new SyslogMessageLogDTO("Default", "00000000-0000-0000-0000-000000000000",
+                new InetSocketAddress(InetAddressUtils.ONE_TWENTY_SEVEN, 514), messages);
+        final Log log = consumer.toEventLog(messageLog);
+
+        assertThat(log.getEvents().getEventCount(), equalTo(1000));
+        for (int i = 0; i < 1000; i++) {
+            assertThat(log.getEvents().getEvent(i).getLogmsg().getContent(), equalTo("load test " + i + " on tty1"));
+        }
+    }
+}
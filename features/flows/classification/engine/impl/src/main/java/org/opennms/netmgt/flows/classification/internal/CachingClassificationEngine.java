@@ -0,0 +1,162 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2024 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2024 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.flows.classification.internal;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+
+import org.opennms.core.cache.Cache;
+import org.opennms.core.cache.CacheConfig;
+import org.opennms.netmgt.flows.classification.ClassificationEngine;
+import org.opennms.netmgt.flows.classification.ClassificationRequest;
+import org.opennms.netmgt.flows.classification.IpAddr;
+import org.opennms.netmgt.flows.classification.persistence.api.Rule;
+
+import com.google.common.cache.CacheLoader;
+
+/**
+ * A classification engine that caches classification results by the conversation tuple of a request.
+ * <p>
+ * Most flows of a time window belong to a small number of conversations. Caching the results makes the cost of
+ * classification scale with the number of distinct conversations instead of the number of flows.
+ * <p>
+ * Cached results are tagged with the generation of the rule set they were calculated for. The generation is
+ * incremented whenever the rules are reloaded. Therefore results of the previous rule set are never returned after
+ * a reload, even if their calculation was still in progress while the rules were reloaded.
+ */
+public class CachingClassificationEngine implements ClassificationEngine, ClassificationEngine.ClassificationRulesReloadedListener {
+
+    private final ClassificationEngine delegate;
+    private final Cache<Key, Optional<String>> cache;
+
+    private volatile int generation;
+
+    public CachingClassificationEngine(ClassificationEngine delegate, CacheConfig cacheConfig) {
+        Objects.requireNonNull(cacheConfig);
+        this.delegate = Objects.requireNonNull(delegate);
+        this.cache = new org.opennms.core.cache.CacheBuilder<>()
+                .withConfig(cacheConfig)
+                .withCacheLoader(new CacheLoader<Key, Optional<String>>() {
+                    @Override
+                    public Optional<String> load(Key key) {
+                        return Optional.ofNullable(delegate.classify(key.request));
+                    }
+                })
+                .build();
+        this.delegate.addClassificationRulesReloadedListener(this);
+    }
+
+    @Override
+    public String classify(ClassificationRequest classificationRequest) {
+        try {
+            return cache.get(new Key(generation, classificationRequest)).orElse(null);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Error loading entry from cache", e);
+        }
+    }
+
+    @Override
+    public List<Rule> getInvalidRules() {
+        return delegate.getInvalidRules();
+    }
+
+    @Override
+    public void reload() throws InterruptedException {
+        delegate.reload();
+    }
+
+    @Override
+    public void classificationRulesReloaded(List<Rule> rules) {
+        generation++;
+        cache.invalidateAll();
+    }
+
+    @Override
+    public void addClassificationRulesReloadedListener(final ClassificationRulesReloadedListener classificationRulesReloadedListener) {
+        this.delegate.addClassificationRulesReloadedListener(classificationRulesReloadedListener);
+    }
+
+    @Override
+    public void removeClassificationRulesReloadedListener(final ClassificationRulesReloadedListener classificationRulesReloadedListener) {
+        this.delegate.removeClassificationRulesReloadedListener(classificationRulesReloadedListener);
+    }
+
+    /**
+     * Identifies a conversation by the aspects that are considered during classification.
+     * <p>
+     * The request is kept for loading but does not take part in equality, e.g. the location of a request is ignored.
+     */
+    private static class Key {
+        private final int generation;
+        private final int protocol;
+        private final Integer srcPort, dstPort;
+        private final IpAddr srcAddress, dstAddress;
+        private final String exporterAddress;
+        private final int hashCode;
+
+        private final ClassificationRequest request;
+
+        private Key(int generation, ClassificationRequest request) {
+            this.generation = generation;
+            this.protocol = request.getProtocol() != null ? request.getProtocol().getDecimal() : -1;
+            this.srcPort = request.getSrcPort();
+            this.dstPort = request.getDstPort();
+            this.srcAddress = request.getSrcAddress();
+            this.dstAddress = request.getDstAddress();
+            this.exporterAddress = request.getExporterAddress();
+            this.hashCode = Objects.hash(generation, protocol, srcPort, dstPort, srcAddress, dstAddress, exporterAddress);
+            this.request = request;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            final Key that = (Key) o;
+            return generation == that.generation
+                   && protocol == that.protocol
+                   && Objects.equals(srcPort, that.srcPort)
+                   && Objects.equals(dstPort, that.dstPort)
+                   && Objects.equals(srcAddress, that.srcAddress)
+                   && Objects.equals(dstAddress, that.dstAddress)
+                   && Objects.equals(exporterAddress, that.exporterAddress);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
@@ -38,6 +38,7 @@ import org.opennms.netmgt.flows.classification.ClassificationEngine;
 import org.opennms.netmgt.flows.classification.ClassificationRequest;
 import org.opennms.netmgt.flows.classification.ClassificationRuleProvider;
 import org.opennms.netmgt.flows.classification.FilterService;
+import org.opennms.netmgt.flows.classification.internal.decision.CompiledTree;
 import org.opennms.netmgt.flows.classification.internal.decision.PreprocessedRule;
 import org.opennms.netmgt.flows.classification.internal.decision.Tree;
 import org.opennms.netmgt.flows.classification.persistence.api.Rule;
@@ -49,6 +50,9 @@ import com.google.common.collect.Lists;
 /**
  * A classification engine that uses a decision tree to select applicable classification rules.
  * <p>
+ * The decision tree is compiled into a flat representation (cf. {@link CompiledTree}) that is used for classification,
+ * unless {@value #DISABLE_COMPILED_TREE_PROPERTY} is set. Then the decision tree itself is used, as before.
+ * <p>
  * The implementation is thread-safe.
  */
 public class DefaultClassificationEngine implements ClassificationEngine {
@@ -57,18 +61,29 @@ public class DefaultClassificationEngine implements ClassificationEngine {
 
     private static Logger LOG = LoggerFactory.getLogger(DefaultClassificationEngine.class);
 
-    private final AtomicReference<TreeAndInvalidRules> treeAndInvalidRules = new AtomicReference<>(new TreeAndInvalidRules(Tree.EMPTY, Collections.emptyList()));
+    /**
+     * Falls back to classifying with the decision tree, in case the compiled tree behaves differently.
+     */
+    public static final String DISABLE_COMPILED_TREE_PROPERTY = "org.opennms.netmgt.flows.classification.disableCompiledTree";
+
+    private final AtomicReference<TreeAndInvalidRules> treeAndInvalidRules = new AtomicReference<>(new TreeAndInvalidRules(Tree.EMPTY, CompiledTree.EMPTY, Collections.emptyList()));
 
     private final ClassificationRuleProvider ruleProvider;
     private final FilterService filterService;
+    private final boolean compile;
 
     public DefaultClassificationEngine(final ClassificationRuleProvider ruleProvider, final FilterService filterService) throws InterruptedException {
         this(ruleProvider, filterService, true);
     }
 
     public DefaultClassificationEngine(final ClassificationRuleProvider ruleProvider, final FilterService filterService, final boolean initialize) throws InterruptedException {
+        this(ruleProvider, filterService, initialize, !Boolean.getBoolean(DISABLE_COMPILED_TREE_PROPERTY));
+    }
+
+    DefaultClassificationEngine(final ClassificationRuleProvider ruleProvider, final FilterService filterService, final boolean initialize, final boolean compile) throws InterruptedException {
         this.ruleProvider = Objects.requireNonNull(ruleProvider);
         this.filterService = Objects.requireNonNull(filterService);
+        this.compile = compile;
         if (initialize) {
             this.reload();
         }
@@ -96,6 +111,7 @@ public class DefaultClassificationEngine implements ClassificationEngine {
         });
 
         var tree = Tree.of(preprocessedRules, filterService);
+        var compiledTree = compile ? CompiledTree.of(tree, filterService) : CompiledTree.EMPTY;
 
         var elapsed = System.currentTimeMillis() - start;
         if (LOG.isInfoEnabled()) {
@@ -115,11 +131,12 @@ public class DefaultClassificationEngine implements ClassificationEngine {
                     .append("avgComp  : " + (double) tree.info.sumComp / tree.info.leaves).append('\n')
                     .append("minLeafSize : " + tree.info.minLeafSize).append('\n')
                     .append("maxLeafSize : " + tree.info.maxLeafSize).append('\n')
-                    .append("avgLeafSize : " + (double) tree.info.sumLeafSize / tree.info.leaves).append('\n');
+                    .append("avgLeafSize : " + (double) tree.info.sumLeafSize / tree.info.leaves).append('\n')
+                    .append("compiled : " + (compile ? compiledTree.getNodeCount() + " nodes, " + compiledTree.getClassifierCount() + " classifiers" : "disabled")).append('\n');
             LOG.info(sb.toString());
         }
 
-        treeAndInvalidRules.set(new TreeAndInvalidRules(tree, invalid));
+        treeAndInvalidRules.set(new TreeAndInvalidRules(tree, compiledTree, invalid));
 
         fireClassificationReloadedListeners(Collections.unmodifiableList(rules));
     }
@@ -139,16 +156,23 @@ public class DefaultClassificationEngine implements ClassificationEngine {
         return treeAndInvalidRules.get().tree;
     }
 
+    public CompiledTree getCompiledTree() {
+        return treeAndInvalidRules.get().compiledTree;
+    }
+
     @Override
     public String classify(ClassificationRequest classificationRequest) {
-        return treeAndInvalidRules.get().tree.classify(classificationRequest);
+        final TreeAndInvalidRules current = treeAndInvalidRules.get();
+        return compile ? current.compiledTree.classify(classificationRequest) : current.tree.classify(classificationRequest);
     }
 
     private static class TreeAndInvalidRules {
         private final Tree tree;
+        private final CompiledTree compiledTree;
         private final List<Rule> invalidRules;
-        public TreeAndInvalidRules(Tree tree, List<Rule> invalidRules) {
+        public TreeAndInvalidRules(Tree tree, CompiledTree compiledTree, List<Rule> invalidRules) {
             this.tree = tree;
+            this.compiledTree = compiledTree;
             this.invalidRules = invalidRules;
         }
     }
@@ -0,0 +1,557 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2024 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2024 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.flows.classification.internal.decision;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeSet;
+
+import org.opennms.netmgt.flows.classification.ClassificationRequest;
+import org.opennms.netmgt.flows.classification.FilterService;
+import org.opennms.netmgt.flows.classification.IpAddr;
+import org.opennms.netmgt.flows.classification.internal.matcher.DstAddressMatcher;
+import org.opennms.netmgt.flows.classification.internal.matcher.DstPortMatcher;
+import org.opennms.netmgt.flows.classification.internal.matcher.FilterMatcher;
+import org.opennms.netmgt.flows.classification.internal.matcher.Matcher;
+import org.opennms.netmgt.flows.classification.internal.matcher.ProtocolMatcher;
+import org.opennms.netmgt.flows.classification.internal.matcher.SrcAddressMatcher;
+import org.opennms.netmgt.flows.classification.internal.matcher.SrcPortMatcher;
+import org.opennms.netmgt.flows.classification.internal.value.IpRange;
+import org.opennms.netmgt.flows.classification.internal.value.IpValue;
+import org.opennms.netmgt.flows.classification.internal.value.PortValue;
+
+/**
+ * A decision {@link Tree} that is flattened into primitive arrays.
+ * <p>
+ * Nodes and classifiers are addressed by their index into parallel arrays. Thresholds, protocol sets, port ranges,
+ * and address ranges are stored as primitives. Classification walks the arrays without allocating any objects and
+ * without dereferencing boxed values, which keeps the working set of a classification small and cache friendly.
+ * <p>
+ * Classification results are identical to {@link Tree#classify(ClassificationRequest)}: the classifiers of all
+ * reached leaves are considered in the order of their priorities and the most specific match of the first priority
+ * that has a match is returned.
+ * <p>
+ * Absent request values are indicated by {@link #NONE} for protocols and ports and by {@link #NONE} as the address
+ * family for addresses. IPv4 addresses are passed with the {@link #IPV4} family and their unsigned value in the
+ * low word; IPv6 addresses with the {@link #IPV6} family and their high and low words.
+ * <p>
+ * Instances are immutable and thread-safe.
+ */
+public final class CompiledTree {
+
+    public static final int NONE = -1;
+    public static final int IPV4 = 4;
+    public static final int IPV6 = 6;
+
+    public static final CompiledTree EMPTY = of(Tree.EMPTY, null);
+
+    // node kinds
+    private static final int LEAF = 0;
+    private static final int PROTOCOL = 1;
+    private static final int SRC_PORT = 2;
+    private static final int DST_PORT = 3;
+    private static final int SRC_ADDR = 4;
+    private static final int DST_ADDR = 5;
+
+    // classifier flags
+    private static final int HAS_PROTOCOL = 1;
+    private static final int HAS_SRC_PORT = 1 << 1;
+    private static final int HAS_DST_PORT = 1 << 2;
+    private static final int HAS_SRC_ADDR = 1 << 3;
+    private static final int HAS_DST_ADDR = 1 << 4;
+    private static final int HAS_FILTER = 1 << 5;
+
+    // a score combines the priority of a classifier, its specificity, and its index
+    // -> the minimum score of all matching classifiers determines the result
+    private static final long NO_MATCH = Long.MAX_VALUE;
+    private static final int MAX_ASPECTS = 7;
+
+    private final FilterService filterService;
+    private final int root;
+
+    // nodes
+    // -> for leaves the threshold field holds the index of the first classifier and the lt field holds the index
+    //    after the last classifier of the leaf
+    // -> child indexes of -1 reference empty leaves
+    private final int[] nodeKind;
+    private final int[] nodeThreshold;
+    private final long[] nodeAddrHigh;
+    private final long[] nodeAddrLow;
+    private final int[] nodeLt, nodeEq, nodeGt, nodeNa;
+
+    // classifiers
+    private final long[] classifierOrder;
+    private final int[] classifierFlags;
+    private final long[] protocolBits;
+    private final int[] srcPortOffset, dstPortOffset;
+    private final int[] srcAddrOffset, dstAddrOffset;
+    private final String[] filterExpressions;
+    private final String[] names;
+
+    // port ranges are stored as [count, begin, end, begin, end, ...] segments
+    private final int[] portRanges;
+    // address ranges are stored as [count, family, beginHigh, beginLow, endHigh, endLow, family, ...] segments
+    private final long[] addrRanges;
+
+    public static CompiledTree of(Tree tree, FilterService filterService) {
+        return new Compiler(filterService).compile(tree);
+    }
+
+    private CompiledTree(Compiler c, int root) {
+        this.filterService = c.filterService;
+        this.root = root;
+        this.nodeKind = c.nodeKind.toArray();
+        this.nodeThreshold = c.nodeThreshold.toArray();
+        this.nodeAddrHigh = c.nodeAddrHigh.toArray();
+        this.nodeAddrLow = c.nodeAddrLow.toArray();
+        this.nodeLt = c.nodeLt.toArray();
+        this.nodeEq = c.nodeEq.toArray();
+        this.nodeGt = c.nodeGt.toArray();
+        this.nodeNa = c.nodeNa.toArray();
+        final var classifiers = c.classifiers;
+        final var ranks = c.priorityRanks();
+        this.classifierOrder = new long[classifiers.size()];
+        this.classifierFlags = new int[classifiers.size()];
+        this.protocolBits = new long[classifiers.size() * 4];
+        this.srcPortOffset = new int[classifiers.size()];
+        this.dstPortOffset = new int[classifiers.size()];
+        this.srcAddrOffset = new int[classifiers.size()];
+        this.dstAddrOffset = new int[classifiers.size()];
+        this.filterExpressions = new String[classifiers.size()];
+        this.names = new String[classifiers.size()];
+        final var ports = new IntArray();
+        final var addrs = new LongArray();
+        for (int i = 0; i < classifiers.size(); i++) {
+            final var classifier = classifiers.get(i);
+            classifierOrder[i] = (long) ranks.get(priority(classifier)) * (MAX_ASPECTS + 1) + (MAX_ASPECTS - classifier.result.matchedAspects);
+            names[i] = classifier.result.name;
+            int flags = 0;
+            for (final Matcher m : classifier.matchers) {
+                if (m instanceof ProtocolMatcher) {
+                    flags |= HAS_PROTOCOL;
+                    for (int p : ((ProtocolMatcher) m).getProtocols()) {
+                        if (p >= 0 && p < 256) {
+                            protocolBits[i * 4 + (p >>> 6)] |= 1L << (p & 63);
+                        }
+                    }
+                } else if (m instanceof SrcPortMatcher) {
+                    flags |= HAS_SRC_PORT;
+                    srcPortOffset[i] = addPorts(ports, ((SrcPortMatcher) m).getValue());
+                } else if (m instanceof DstPortMatcher) {
+                    flags |= HAS_DST_PORT;
+                    dstPortOffset[i] = addPorts(ports, ((DstPortMatcher) m).getValue());
+                } else if (m instanceof SrcAddressMatcher) {
+                    flags |= HAS_SRC_ADDR;
+                    srcAddrOffset[i] = addAddresses(addrs, ((SrcAddressMatcher) m).getValue());
+                } else if (m instanceof DstAddressMatcher) {
+                    flags |= HAS_DST_ADDR;
+                    dstAddrOffset[i] = addAddresses(addrs, ((DstAddressMatcher) m).getValue());
+                } else if (m instanceof FilterMatcher) {
+                    flags |= HAS_FILTER;
+                    filterExpressions[i] = ((FilterMatcher) m).getFilterExpression();
+                } else {
+                    throw new IllegalArgumentException("Matcher can not be compiled: " + m.getClass().getName());
+                }
+            }
+            classifierFlags[i] = flags;
+        }
+        this.portRanges = ports.toArray();
+        this.addrRanges = addrs.toArray();
+    }
+
+    private static int addPorts(IntArray ports, PortValue value) {
+        final var offset = ports.size;
+        final var ranges = value.getPortRanges();
+        ports.add(ranges.size());
+        for (var r : ranges) {
+            ports.add(r.getBegin());
+            ports.add(r.getEnd());
+        }
+        return offset;
+    }
+
+    private static int addAddresses(LongArray addrs, IpValue value) {
+        final var offset = addrs.size;
+        final var ranges = value.getIpAddressRanges();
+        addrs.add(ranges.size());
+        for (IpRange r : ranges) {
+            addrs.add(family(r.begin));
+            addrs.add(high(r.begin));
+            addrs.add(low(r.begin));
+            addrs.add(high(r.end));
+            addrs.add(low(r.end));
+        }
+        return offset;
+    }
+
+    public static int family(IpAddr addr) {
+        return addr == null ? NONE : addr instanceof IpAddr.Ip4Addr ? IPV4 : IPV6;
+    }
+
+    public static long high(IpAddr addr) {
+        return addr instanceof IpAddr.Ip6Addr ? ((IpAddr.Ip6Addr) addr).getHigh() : 0;
+    }
+
+    public static long low(IpAddr addr) {
+        if (addr instanceof IpAddr.Ip4Addr) {
+            return Integer.toUnsignedLong(((IpAddr.Ip4Addr) addr).getValue());
+        } else if (addr instanceof IpAddr.Ip6Addr) {
+            return ((IpAddr.Ip6Addr) addr).getLow();
+        } else {
+            return 0;
+        }
+    }
+
+    private static long priority(Classifier c) {
+        return ((long) c.groupPosition << 32) | (c.position & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Classifies a flow given as a request object.
+     *
+     * @return Returns <code>null</code> if the request does not match a rule
+     */
+    public String classify(ClassificationRequest request) {
+        final var src = request.getSrcAddress();
+        final var dst = request.getDstAddress();
+        return classify(
+                request.getProtocol() != null ? request.getProtocol().getDecimal() : NONE,
+                request.getSrcPort() != null ? request.getSrcPort() : NONE,
+                request.getDstPort() != null ? request.getDstPort() : NONE,
+                family(src), high(src), low(src),
+                family(dst), high(dst), low(dst),
+                request.getExporterAddress()
+        );
+    }
+
+    /**
+     * Classifies a flow given by its primitive aspects. Does not allocate.
+     *
+     * @return Returns <code>null</code> if the flow does not match a rule
+     */
+    public String classify(int protocol, int srcPort, int dstPort,
+                           int srcAddrFamily, long srcAddrHigh, long srcAddrLow,
+                           int dstAddrFamily, long dstAddrHigh, long dstAddrLow,
+                           String exporterAddress) {
+        if (root < 0) {
+            return null;
+        }
+        final long best = search(root, NO_MATCH, protocol, srcPort, dstPort,
+                srcAddrFamily, srcAddrHigh, srcAddrLow, dstAddrFamily, dstAddrHigh, dstAddrLow, exporterAddress);
+        return best == NO_MATCH ? null : names[(int) best];
+    }
+
+    private long search(int node, long best, int protocol, int srcPort, int dstPort,
+                        int srcAddrFamily, long srcAddrHigh, long srcAddrLow,
+                        int dstAddrFamily, long dstAddrHigh, long dstAddrLow,
+                        String exporterAddress) {
+        while (true) {
+            final int order;
+            switch (nodeKind[node]) {
+                case LEAF:
+                    return searchLeaf(node, best, protocol, srcPort, dstPort,
+                            srcAddrFamily, srcAddrHigh, srcAddrLow, dstAddrFamily, dstAddrHigh, dstAddrLow, exporterAddress);
+                case PROTOCOL:
+                    order = protocol == NONE ? 2 : Integer.compare(protocol, nodeThreshold[node]);
+                    break;
+                case SRC_PORT:
+                    order = srcPort == NONE ? 2 : Integer.compare(srcPort, nodeThreshold[node]);
+                    break;
+                case DST_PORT:
+                    order = dstPort == NONE ? 2 : Integer.compare(dstPort, nodeThreshold[node]);
+                    break;
+                case SRC_ADDR:
+                    order = srcAddrFamily == NONE ? 2 : compare(srcAddrFamily, srcAddrHigh, srcAddrLow, nodeThreshold[node], nodeAddrHigh[node], nodeAddrLow[node]);
+                    break;
+                case DST_ADDR:
+                    order = dstAddrFamily == NONE ? 2 : compare(dstAddrFamily, dstAddrHigh, dstAddrLow, nodeThreshold[node], nodeAddrHigh[node], nodeAddrLow[node]);
+                    break;
+                default:
+                    throw new IllegalStateException("unexpected node kind: " + nodeKind[node]);
+            }
+            final int na = nodeNa[node];
+            if (order == 2) {
+                // requests without a value only consider the rules that do not constrain that value
+                if (na < 0) {
+                    return best;
+                }
+                node = na;
+                continue;
+            }
+            final int child = order < 0 ? nodeLt[node] : order == 0 ? nodeEq[node] : nodeGt[node];
+            if (na >= 0) {
+                if (child >= 0) {
+                    best = search(child, best, protocol, srcPort, dstPort,
+                            srcAddrFamily, srcAddrHigh, srcAddrLow, dstAddrFamily, dstAddrHigh, dstAddrLow, exporterAddress);
+                }
+                node = na;
+            } else if (child >= 0) {
+                node = child;
+            } else {
+                return best;
+            }
+        }
+    }
+
+    private long searchLeaf(int node, long best, int protocol, int srcPort, int dstPort,
+                            int srcAddrFamily, long srcAddrHigh, long srcAddrLow,
+                            int dstAddrFamily, long dstAddrHigh, long dstAddrLow,
+                            String exporterAddress) {
+        final int end = nodeLt[node];
+        for (int i = nodeThreshold[node]; i < end; i++) {
+            // classifiers of a leaf are sorted by priority
+            // -> no further classifier of this leaf can have a better priority than the current best
+            if (best != NO_MATCH && classifierOrder[i] / (MAX_ASPECTS + 1) > (best >>> 32) / (MAX_ASPECTS + 1)) {
+                return best;
+            }
+            final long score = (classifierOrder[i] << 32) | i;
+            if (score < best && matches(i, protocol, srcPort, dstPort,
+                    srcAddrFamily, srcAddrHigh, srcAddrLow, dstAddrFamily, dstAddrHigh, dstAddrLow, exporterAddress)) {
+                best = score;
+            }
+        }
+        return best;
+    }
+
+    private boolean matches(int i, int protocol, int srcPort, int dstPort,
+                            int srcAddrFamily, long srcAddrHigh, long srcAddrLow,
+                            int dstAddrFamily, long dstAddrHigh, long dstAddrLow,
+                            String exporterAddress) {
+        final int flags = classifierFlags[i];
+        if ((flags & HAS_PROTOCOL) != 0
+            && (protocol < 0 || protocol > 255 || (protocolBits[i * 4 + (protocol >>> 6)] & (1L << (protocol & 63))) == 0)) {
+            return false;
+        }
+        if ((flags & HAS_SRC_PORT) != 0 && !portMatches(srcPortOffset[i], srcPort)) {
+            return false;
+        }
+        if ((flags & HAS_DST_PORT) != 0 && !portMatches(dstPortOffset[i], dstPort)) {
+            return false;
+        }
+        if ((flags & HAS_SRC_ADDR) != 0 && !addrMatches(srcAddrOffset[i], srcAddrFamily, srcAddrHigh, srcAddrLow)) {
+            return false;
+        }
+        if ((flags & HAS_DST_ADDR) != 0 && !addrMatches(dstAddrOffset[i], dstAddrFamily, dstAddrHigh, dstAddrLow)) {
+            return false;
+        }
+        if ((flags & HAS_FILTER) != 0 && !filterService.matches(exporterAddress, filterExpressions[i])) {
+            return false;
+        }
+        return true;
+    }
+
+    private boolean portMatches(int offset, int port) {
+        if (port == NONE) {
+            return false;
+        }
+        final int end = offset + 1 + 2 * portRanges[offset];
+        for (int j = offset + 1; j < end; j += 2) {
+            if (portRanges[j] <= port && port <= portRanges[j + 1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean addrMatches(int offset, int family, long high, long low) {
+        if (family == NONE) {
+            return false;
+        }
+        final int end = offset + 1 + 5 * (int) addrRanges[offset];
+        for (int j = offset + 1; j < end; j += 5) {
+            final int rangeFamily = (int) addrRanges[j];
+            if (rangeFamily == family
+                && compare(family, high, low, rangeFamily, addrRanges[j + 1], addrRanges[j + 2]) >= 0
+                && compare(family, high, low, rangeFamily, addrRanges[j + 3], addrRanges[j + 4]) <= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // mirrors IpAddr.compareTo: IPv4 addresses come before IPv6 addresses; addresses are compared unsigned
+    private static int compare(int family1, long high1, long low1, int family2, long high2, long low2) {
+        if (family1 != family2) {
+            return family1 < family2 ? -1 : 1;
+        }
+        final int c = Long.compareUnsigned(high1, high2);
+        return c != 0 ? c : Long.compareUnsigned(low1, low2);
+    }
+
+    public int getNodeCount() {
+        return nodeKind.length;
+    }
+
+    public int getClassifierCount() {
+        return names.length;
+    }
+
+    /**
+     * Collects nodes and classifiers of a tree in depth first order.
+     */
+    private static class Compiler implements Tree.Visitor<Integer> {
+
+        private final FilterService filterService;
+
+        private final IntArray nodeKind = new IntArray();
+        private final IntArray nodeThreshold = new IntArray();
+        private final LongArray nodeAddrHigh = new LongArray();
+        private final LongArray nodeAddrLow = new LongArray();
+        private final IntArray nodeLt = new IntArray();
+        private final IntArray nodeEq = new IntArray();
+        private final IntArray nodeGt = new IntArray();
+        private final IntArray nodeNa = new IntArray();
+
+        private final List<Classifier> classifiers = new ArrayList<>();
+
+        private Compiler(FilterService filterService) {
+            this.filterService = filterService;
+        }
+
+        private CompiledTree compile(Tree tree) {
+            final int root = tree.accept(this);
+            return new CompiledTree(this, root);
+        }
+
+        private Map<Long, Integer> priorityRanks() {
+            final var priorities = new TreeSet<Long>();
+            for (var c : classifiers) {
+                priorities.add(priority(c));
+            }
+            final var ranks = new HashMap<Long, Integer>();
+            for (var p : priorities) {
+                ranks.put(p, ranks.size());
+            }
+            return ranks;
+        }
+
+        private int addNode(int kind, int threshold, long addrHigh, long addrLow) {
+            final int index = nodeKind.size;
+            nodeKind.add(kind);
+            nodeThreshold.add(threshold);
+            nodeAddrHigh.add(addrHigh);
+            nodeAddrLow.add(addrLow);
+            nodeLt.add(-1);
+            nodeEq.add(-1);
+            nodeGt.add(-1);
+            nodeNa.add(-1);
+            return index;
+        }
+
+        private int addNode(Threshold threshold) {
+            if (threshold instanceof Threshold.Protocol) {
+                return addNode(PROTOCOL, ((Threshold.Protocol) threshold).getThreshold(), 0, 0);
+            } else if (threshold instanceof Threshold.SrcPort) {
+                return addNode(SRC_PORT, ((Threshold.SrcPort) threshold).getThreshold(), 0, 0);
+            } else if (threshold instanceof Threshold.DstPort) {
+                return addNode(DST_PORT, ((Threshold.DstPort) threshold).getThreshold(), 0, 0);
+            } else if (threshold instanceof Threshold.SrcAddress) {
+                final var addr = ((Threshold.SrcAddress) threshold).getThreshold();
+                return addNode(SRC_ADDR, family(addr), high(addr), low(addr));
+            } else if (threshold instanceof Threshold.DstAddress) {
+                final var addr = ((Threshold.DstAddress) threshold).getThreshold();
+                return addNode(DST_ADDR, family(addr), high(addr), low(addr));
+            } else {
+                throw new IllegalArgumentException("Threshold can not be compiled: " + threshold);
+            }
+        }
+
+        @Override
+        public Integer visit(Tree.Node.WithChoice node) {
+            final int index = addNode(node.threshold);
+            nodeLt.set(index, node.lt.accept(this));
+            nodeEq.set(index, node.eq.accept(this));
+            nodeGt.set(index, node.gt.accept(this));
+            nodeNa.set(index, node.na.accept(this));
+            return index;
+        }
+
+        @Override
+        public Integer visit(Tree.Node.WithoutChoice node) {
+            final int index = addNode(node.threshold);
+            nodeLt.set(index, node.lt.accept(this));
+            nodeEq.set(index, node.eq.accept(this));
+            nodeGt.set(index, node.gt.accept(this));
+            return index;
+        }
+
+        @Override
+        public Integer visit(Tree.Leaf.Empty leaf) {
+            return -1;
+        }
+
+        @Override
+        public Integer visit(Tree.Leaf.WithClassifiers leaf) {
+            final int index = addNode(LEAF, classifiers.size(), 0, 0);
+            classifiers.addAll(leaf.classifiers);
+            nodeLt.set(index, classifiers.size());
+            return index;
+        }
+    }
+
+    private static class IntArray {
+        private int[] values = new int[16];
+        private int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        void set(int index, int value) {
+            values[Objects.checkIndex(index, size)] = value;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+
+    private static class LongArray {
+        private long[] values = new long[16];
+        private int size;
+
+        void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        long[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
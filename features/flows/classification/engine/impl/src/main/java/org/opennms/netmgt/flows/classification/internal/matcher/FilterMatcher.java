@@ -47,4 +47,8 @@ public class FilterMatcher implements Matcher {
     public boolean matches(ClassificationRequest request) {
         return this.filterService.matches(request.getExporterAddress(), filterExpression);
     }
+
+    public String getFilterExpression() {
+        return filterExpression;
+    }
 }
@@ -53,4 +53,8 @@ class IpMatcher implements Matcher {
         final boolean matches = value.isInRange(addr);
         return matches;
     }
+
+    public IpValue getValue() {
+        return value;
+    }
 }
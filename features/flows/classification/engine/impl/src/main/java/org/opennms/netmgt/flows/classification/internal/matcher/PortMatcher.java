@@ -50,4 +50,8 @@ class PortMatcher implements Matcher {
     public boolean matches(ClassificationRequest request) {
         return this.value.matches(valueExtractor.apply(request));
     }
+
+    public PortValue getValue() {
+        return value;
+    }
 }
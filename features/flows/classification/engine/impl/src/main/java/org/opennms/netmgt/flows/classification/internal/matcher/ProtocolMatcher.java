@@ -49,4 +49,8 @@ public class ProtocolMatcher implements Matcher {
     public boolean matches(ClassificationRequest request) {
         return protocols.contains(request.getProtocol().getDecimal());
     }
+
+    public Set<Integer> getProtocols() {
+        return protocols;
+    }
 }
@@ -0,0 +1,79 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2024 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2024 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.flows.classification.internal;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.opennms.core.cache.CacheConfigBuilder;
+import org.opennms.netmgt.flows.classification.ClassificationEngine;
+import org.opennms.netmgt.flows.classification.ClassificationRequest;
+import org.opennms.netmgt.flows.classification.FilterService;
+import org.opennms.netmgt.flows.classification.IpAddr;
+import org.opennms.netmgt.flows.classification.persistence.api.Protocols;
+import org.opennms.netmgt.flows.classification.persistence.api.Rule;
+import org.opennms.netmgt.flows.classification.persistence.api.RuleBuilder;
+
+public class CachingClassificationEngineTest {
+
+    @Test
+    public void verifyCachingAndInvalidation() throws InterruptedException {
+        final List<Rule> rules = new ArrayList<>();
+        rules.add(new RuleBuilder().withName("http").withPosition(1).withDstPort(80).build());
+
+        final ClassificationEngine engine = Mockito.spy(new DefaultClassificationEngine(() -> Collections.unmodifiableList(new ArrayList<>(rules)), FilterService.NOOP));
+        final ClassificationEngine cachingEngine = new CachingClassificationEngine(engine,
+                new CacheConfigBuilder().withName("classification").withExpireAfterRead(5).withMaximumSize(1000).build());
+
+        assertEquals("http", cachingEngine.classify(request("Default", 80)));
+        // the location is not considered during classification
+        assertEquals("http", cachingEngine.classify(request("Other", 80)));
+        Mockito.verify(engine, Mockito.times(1)).classify(Mockito.any());
+
+        // misses are cached as well
+        assertEquals(null, cachingEngine.classify(request("Default", 443)));
+        assertEquals(null, cachingEngine.classify(request("Default", 443)));
+        Mockito.verify(engine, Mockito.times(2)).classify(Mockito.any());
+
+        // reloading the rules invalidates all cached results
+        rules.set(0, new RuleBuilder().withName("web").withPosition(1).withDstPort(80).build());
+        engine.reload();
+        assertEquals("web", cachingEngine.classify(request("Default", 80)));
+        Mockito.verify(engine, Mockito.times(3)).classify(Mockito.any());
+    }
+
+    private static ClassificationRequest request(String location, int dstPort) {
+        return new ClassificationRequest(location, 12345, IpAddr.of("10.0.0.1"), dstPort, IpAddr.of("10.0.0.2"), Protocols.getProtocol("tcp"));
+    }
+}
@@ -43,6 +43,7 @@ import org.opennms.netmgt.flows.classification.ClassificationEngine;
 import org.opennms.netmgt.flows.classification.ClassificationRequest;
 import org.opennms.netmgt.flows.classification.FilterService;
 import org.opennms.netmgt.flows.classification.csv.CsvService;
+import org.opennms.netmgt.flows.classification.internal.decision.CompiledTree;
 import org.opennms.netmgt.flows.classification.internal.csv.CsvServiceImpl;
 import org.opennms.netmgt.flows.classification.internal.csv.CsvServiceTest;
 import org.opennms.netmgt.flows.classification.internal.validation.RuleValidator;
@@ -92,13 +93,43 @@ public class ClassificationEngineBenchmark {
         public String ruleSet;
 
         private ClassificationEngine classificationEngine;
+        private CompiledTree compiledTree;
         private List<ClassificationRequest> classificationRequests;
 
+        // the classification requests split into primitive columns
+        private int[] protocols, srcPorts, dstPorts, srcAddrFamilies, dstAddrFamilies;
+        private long[] srcAddrHighs, srcAddrLows, dstAddrHighs, dstAddrLows;
+
         @Setup
         public void setup() throws InterruptedException {
             var rules = getRules(ruleSet);
-            classificationEngine = new DefaultClassificationEngine(() -> rules, org.mockito.Mockito.mock(FilterService.class));
+            var engine = new DefaultClassificationEngine(() -> rules, org.mockito.Mockito.mock(FilterService.class));
+            classificationEngine = engine;
+            compiledTree = engine.getCompiledTree();
             classificationRequests = RandomClassificationEngineTest.streamOfclassificationRequests(rules, 123456l).skip(index * BATCH_SIZE).limit(BATCH_SIZE).collect(Collectors.toList());
+
+            var size = classificationRequests.size();
+            protocols = new int[size];
+            srcPorts = new int[size];
+            dstPorts = new int[size];
+            srcAddrFamilies = new int[size];
+            srcAddrHighs = new long[size];
+            srcAddrLows = new long[size];
+            dstAddrFamilies = new int[size];
+            dstAddrHighs = new long[size];
+            dstAddrLows = new long[size];
+            for (int i = 0; i < size; i++) {
+                var cr = classificationRequests.get(i);
+                protocols[i] = cr.getProtocol() != null ? cr.getProtocol().getDecimal() : CompiledTree.NONE;
+                srcPorts[i] = cr.getSrcPort() != null ? cr.getSrcPort() : CompiledTree.NONE;
+                dstPorts[i] = cr.getDstPort() != null ? cr.getDstPort() : CompiledTree.NONE;
+                srcAddrFamilies[i] = CompiledTree.family(cr.getSrcAddress());
+                srcAddrHighs[i] = CompiledTree.high(cr.getSrcAddress());
+                srcAddrLows[i] = CompiledTree.low(cr.getSrcAddress());
+                dstAddrFamilies[i] = CompiledTree.family(cr.getDstAddress());
+                dstAddrHighs[i] = CompiledTree.high(cr.getDstAddress());
+                dstAddrLows[i] = CompiledTree.low(cr.getDstAddress());
+            }
         }
 
         public List<ClassificationRequest> requests() {
@@ -123,4 +154,33 @@ public class ClassificationEngineBenchmark {
         }
     }
 
+    @Benchmark
+    @Fork(value = 1)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 2)
+    public void classifyTree(BState state, Blackhole blackhole) {
+        // classification by traversing the object graph of the decision tree
+        var tree = ((DefaultClassificationEngine) state.classificationEngine()).getTree();
+        for (var cr: state.requests()) {
+            var app = tree.classify(cr);
+            blackhole.consume(app);
+        }
+    }
+
+    @Benchmark
+    @Fork(value = 1)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 2)
+    public void classifyPrimitives(BState state, Blackhole blackhole) {
+        // allocation free classification by the compiled decision tree
+        var tree = state.compiledTree;
+        for (int i = 0; i < state.protocols.length; i++) {
+            var app = tree.classify(state.protocols[i], state.srcPorts[i], state.dstPorts[i],
+                    state.srcAddrFamilies[i], state.srcAddrHighs[i], state.srcAddrLows[i],
+                    state.dstAddrFamilies[i], state.dstAddrHighs[i], state.dstAddrLows[i],
+                    null);
+            blackhole.consume(app);
+        }
+    }
+
 }
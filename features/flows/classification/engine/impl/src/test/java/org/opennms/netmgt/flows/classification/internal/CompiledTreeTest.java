@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2024 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2024 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.flows.classification.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Collections;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+import org.opennms.netmgt.flows.classification.ClassificationRequest;
+import org.opennms.netmgt.flows.classification.FilterService;
+import org.opennms.netmgt.flows.classification.IpAddr;
+import org.opennms.netmgt.flows.classification.internal.decision.CompiledTree;
+import org.opennms.netmgt.flows.classification.persistence.api.Protocols;
+import org.opennms.netmgt.flows.classification.persistence.api.RuleBuilder;
+
+public class CompiledTreeTest {
+
+    @Test
+    public void verifyExampleRules() throws InterruptedException {
+        verifyRuleSet("/example-rules.csv");
+    }
+
+    @Test
+    public void verifyPreDefinedRules() throws InterruptedException {
+        verifyRuleSet("/pre-defined-rules.csv");
+    }
+
+    @Test
+    public void verifyEmptyRuleSet() throws InterruptedException {
+        var engine = new DefaultClassificationEngine(Collections::emptyList, org.mockito.Mockito.mock(FilterService.class));
+        assertNull(engine.classify(new ClassificationRequest("Default", 0, IpAddr.of("127.0.0.1"), 80, IpAddr.of("127.0.0.1"), Protocols.getProtocol("tcp"))));
+    }
+
+    @Test
+    public void verifyPrimitiveClassification() throws InterruptedException {
+        var rules = Collections.singletonList(new RuleBuilder()
+                .withName("http")
+                .withProtocol("tcp")
+                .withDstPort("80,8080")
+                .withDstAddress("10.0.0.0/8")
+                .withPosition(0)
+                .build());
+        var engine = new DefaultClassificationEngine(() -> rules, org.mockito.Mockito.mock(FilterService.class));
+        var tree = engine.getCompiledTree();
+        var tcp = Protocols.getProtocol("tcp").getDecimal();
+        var dst = IpAddr.of("10.1.2.3");
+
+        assertEquals("http", tree.classify(tcp, 1234, 8080, CompiledTree.NONE, 0, 0,
+                CompiledTree.family(dst), CompiledTree.high(dst), CompiledTree.low(dst), null));
+        assertNull(tree.classify(tcp, 1234, 443, CompiledTree.NONE, 0, 0,
+                CompiledTree.family(dst), CompiledTree.high(dst), CompiledTree.low(dst), null));
+        assertNull(tree.classify(tcp, 1234, 80, CompiledTree.NONE, 0, 0, CompiledTree.NONE, 0, 0, null));
+    }
+
+    @Test
+    public void verifyFallbackToTree() throws InterruptedException {
+        var rules = ClassificationEngineBenchmark.getRules("/example-rules.csv");
+        var compiled = new DefaultClassificationEngine(() -> rules, org.mockito.Mockito.mock(FilterService.class), true, true);
+        var fallback = new DefaultClassificationEngine(() -> rules, org.mockito.Mockito.mock(FilterService.class), true, false);
+        assertSame(CompiledTree.EMPTY, fallback.getCompiledTree());
+        var requests = RandomClassificationEngineTest.streamOfclassificationRequests(rules, 123456l).limit(1000).collect(Collectors.toList());
+        for (var request : requests) {
+            assertEquals(request.toString(), compiled.classify(request), fallback.classify(request));
+        }
+    }
+
+    private void verifyRuleSet(String resource) throws InterruptedException {
+        var rules = ClassificationEngineBenchmark.getRules(resource);
+        var engine = new DefaultClassificationEngine(() -> rules, org.mockito.Mockito.mock(FilterService.class));
+        var requests = RandomClassificationEngineTest.streamOfclassificationRequests(rules, 654321l).limit(10000).collect(Collectors.toList());
+        for (var request : requests) {
+            assertEquals(request.toString(), engine.getTree().classify(request), engine.getCompiledTree().classify(request));
+        }
+    }
+}
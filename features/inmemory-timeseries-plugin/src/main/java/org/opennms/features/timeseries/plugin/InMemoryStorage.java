@@ -28,51 +28,106 @@
 
 package org.opennms.features.timeseries.plugin;
 
+import java.time.Clock;
+import java.time.Duration;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.Optional;
-import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.stream.Collectors;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
+import org.opennms.integration.api.v1.timeseries.Aggregation;
+import org.opennms.integration.api.v1.timeseries.DataPoint;
 import org.opennms.integration.api.v1.timeseries.Metric;
 import org.opennms.integration.api.v1.timeseries.Sample;
-import org.opennms.integration.api.v1.timeseries.DataPoint;
-import org.opennms.integration.api.v1.timeseries.Aggregation;
-import org.opennms.integration.api.v1.timeseries.Tag;
-import org.opennms.integration.api.v1.timeseries.TagMatcher;
 import org.opennms.integration.api.v1.timeseries.StorageException;
-import org.opennms.integration.api.v1.timeseries.TimeSeriesStorage;
+import org.opennms.integration.api.v1.timeseries.TagMatcher;
 import org.opennms.integration.api.v1.timeseries.TimeSeriesData;
 import org.opennms.integration.api.v1.timeseries.TimeSeriesFetchRequest;
-import org.opennms.integration.api.v1.timeseries.immutables.ImmutableDataPoint;
+import org.opennms.integration.api.v1.timeseries.TimeSeriesStorage;
 import org.opennms.integration.api.v1.timeseries.immutables.ImmutableTimeSeriesData;
 
-import com.google.re2j.Pattern;
-
 /**
- * Simulates a TimeSeriesStorage in memory (ConcurrentHashMap). The implementation is super simple and not very efficient.
- * For testing and evaluating purposes only, not for production.
+ * A TimeSeriesStorage that keeps all data in memory.
+ *
+ * Samples are kept per metric in time bucketed, compressed chunks (see {@link TimeSeriesChunk}), metrics are looked
+ * up via an inverted tag index (see {@link TagIndex}). Data older than the configured retention is evicted
+ * periodically once {@link #init()} has been called. Aggregated fetches are answered, but only
+ * {@link Aggregation#NONE} is advertised as supported, so that the fetch strategy aggregates the raw samples itself.
+ *
+ * Data does not survive a restart, so this storage is meant for small installations and testing.
  */
 public class InMemoryStorage implements TimeSeriesStorage {
 
-    private final Map<Metric, Collection<DataPoint>> data = new ConcurrentHashMap<>();
+    public static final Duration DEFAULT_RETENTION = Duration.ofDays(7);
+
+    public static final Duration DEFAULT_CHUNK_SPAN = Duration.ofHours(2);
+
+    private final Map<String, MemorySeries> data = new ConcurrentHashMap<>();
+
+    private final TagIndex index = new TagIndex();
+
+    private final Clock clock;
+
+    private Duration retention = DEFAULT_RETENTION;
 
+    private Duration chunkSpan = DEFAULT_CHUNK_SPAN;
+
+    private ScheduledExecutorService evictionExecutor;
+
+    public InMemoryStorage() {
+        this(Clock.systemUTC());
+    }
+
+    InMemoryStorage(final Clock clock) {
+        this.clock = Objects.requireNonNull(clock);
+    }
+
+    public void init() {
+        final long interval = Math.max(1, Math.min(retention.toMillis(), chunkSpan.toMillis()));
+        evictionExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "inmemory-tss-eviction");
+            thread.setDaemon(true);
+            return thread;
+        });
+        evictionExecutor.scheduleWithFixedDelay(this::evict, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    public void destroy() {
+        if (evictionExecutor != null) {
+            evictionExecutor.shutdownNow();
+            evictionExecutor = null;
+        }
+    }
+
+    /** Materializes all stored data points. Expensive, meant for diagnostics only. */
     public final Map<Metric, Collection<DataPoint>> getAllMetrics() {
-        return Collections.unmodifiableMap(data);
+        final Map<Metric, Collection<DataPoint>> metrics = new LinkedHashMap<>();
+        for (MemorySeries series : data.values()) {
+            metrics.put(series.getMetric(), series.getDataPoints(Long.MIN_VALUE, Long.MAX_VALUE));
+        }
+        return Collections.unmodifiableMap(metrics);
     }
 
     @Override
     public void store(final List<Sample> samples) {
         Objects.requireNonNull(samples);
+        final long chunkSpanMs = chunkSpan.toMillis();
         for(Sample sample : samples) {
-            Collection<DataPoint> timeseries = data.computeIfAbsent(sample.getMetric(), k -> new ConcurrentLinkedQueue<>());
-            timeseries.add(new ImmutableDataPoint(sample.getTime(), sample.getValue()));
+            // add within the compute, so that evict() can't remove the series between the lookup and the add
+            data.compute(sample.getMetric().getKey(), (k, series) -> {
+                if (series == null) {
+                    index.add(sample.getMetric());
+                    series = new MemorySeries(sample.getMetric(), chunkSpanMs);
+                }
+                series.add(sample.getTime().toEpochMilli(), sample.getValue());
+                return series;
+            });
         }
     }
 
@@ -82,81 +137,102 @@ public class InMemoryStorage implements TimeSeriesStorage {
         if(tagMatchers.isEmpty()) {
             throw new IllegalArgumentException("We expect at least one TagMatcher but none was given.");
         }
-        return data.keySet()
-                .stream()
-                .filter(metric -> this.matches(tagMatchers, metric))
-                .collect(Collectors.toList());
+        return index.find(tagMatchers);
     }
 
-    /** Each matcher must be matched by at least one tag. */
-    private static boolean matches(final Collection<TagMatcher> matchers, final Metric metric) {
-        final Set<Tag> searchableTags = new HashSet<>(metric.getIntrinsicTags());
-        searchableTags.addAll(metric.getMetaTags());
-
-        for(TagMatcher matcher : matchers) {
-            if(searchableTags.stream().noneMatch(t -> matches(matcher, t))) {
-                return false; // this TagMatcher didn't find any matching tag => this Metric is not part of search result;
-            }
-        }
-        return true; // all matched
+    @Override
+    public List<Sample> getTimeseries(TimeSeriesFetchRequest request) throws StorageException {
+        throw new UnsupportedOperationException("use getTimeSeriesData(TimeSeriesFetchRequest request) instead.");
     }
 
-    private static boolean matches(final TagMatcher matcher, final Tag tag) {
+    @Override
+    public TimeSeriesData getTimeSeriesData(TimeSeriesFetchRequest request) {
+        Objects.requireNonNull(request);
 
-        if(!matcher.getKey().equals(tag.getKey())) {
-            return false; // not even the key matches => we are done.
+        final MemorySeries series = data.get(request.getMetric().getKey());
+        if (series == null) {
+            return ImmutableTimeSeriesData.builder()
+                    .metric(request.getMetric())
+                    .dataPoints(Collections.emptyList())
+                    .build();
         }
 
-        // Tags have always a non null value so we don't have to null check for them.
-        if(TagMatcher.Type.EQUALS == matcher.getType()) {
-            return tag.getValue().equals(matcher.getValue());
-        } else if (TagMatcher.Type.NOT_EQUALS == matcher.getType()) {
-            return !tag.getValue().equals(matcher.getValue());
-        } else if (TagMatcher.Type.EQUALS_REGEX == matcher.getType()) {
-            return Pattern.matches(matcher.getValue(), tag.getValue());
-        } else if (TagMatcher.Type.NOT_EQUALS_REGEX == matcher.getType()) {
-            return !Pattern.matches(matcher.getValue(), tag.getValue());
-        } else {
-            throw new IllegalArgumentException("Implement me for " + matcher.getType());
-        }
+        final long step = request.getStep() == null ? 0 : request.getStep().toMillis();
+        // use the original metric instead of the one from the request since the one from the request might not have all tags
+        return ImmutableTimeSeriesData.builder()
+                .metric(series.getMetric())
+                .dataPoints(series.getDataPoints(request.getStart().toEpochMilli(), request.getEnd().toEpochMilli(), step, request.getAggregation()))
+                .build();
     }
 
     @Override
-    public List<Sample> getTimeseries(TimeSeriesFetchRequest request) throws StorageException {
-        throw new UnsupportedOperationException("use getTimeSeriesData(TimeSeriesFetchRequest request) instead.");
+    public boolean supportsAggregation(Aggregation aggregation) {
+        // Let the caller aggregate: it turns counters into rates and fills empty steps with NaN
+        return aggregation == Aggregation.NONE;
     }
 
     @Override
-    public TimeSeriesData getTimeSeriesData(TimeSeriesFetchRequest request) {
-        Objects.requireNonNull(request);
+    public void delete(Metric metric) {
+        Objects.requireNonNull(metric);
+        // remove from the index within the same compute, so that a concurrent store() can't re-add it in between
+        this.data.computeIfPresent(metric.getKey(), (k, s) -> {
+            index.remove(s.getMetric());
+            return null;
+        });
+    }
 
+    /** Drops all data that is older than the retention. Series without any remaining data are removed entirely. */
+    public void evict() {
+        final long cutoff = clock.millis() - retention.toMillis();
+        for (MemorySeries series : data.values()) {
+            if (series.evictBefore(cutoff)) {
+                // only remove the series if nothing has been written in the meantime. store() adds within a compute
+                // as well, so a sample either lands before this check or in a new series with a new index entry
+                data.computeIfPresent(series.getMetric().getKey(), (k, s) -> {
+                    if (s != series || !s.isEmpty()) {
+                        return s;
+                    }
+                    index.remove(s.getMetric());
+                    return null;
+                });
+            }
+        }
+    }
+
+    /** Size of the compressed sample data in bytes. */
+    public long getEncodedSize() {
+        return data.values().stream().mapToLong(MemorySeries::getEncodedSize).sum();
+    }
 
-        if(request.getAggregation() != Aggregation.NONE) {
-            throw new IllegalArgumentException(String.format("Aggregation %s is not supported.", request.getAggregation()));
+    public Duration getRetention() {
+        return retention;
+    }
+
+    public void setRetention(final Duration retention) {
+        if (retention.isNegative() || retention.isZero()) {
+            throw new IllegalArgumentException("retention must be positive but was " + retention);
         }
+        this.retention = retention;
+    }
 
-        // get the original metric instead of the one from the request since the one from the request might not have all tags
-        Metric metric = data.keySet().stream()
-                .filter(m -> m.getKey().equals(request.getMetric().getKey()))
-                .findFirst()
-                .orElse(request.getMetric());
+    public void setRetentionSeconds(final long retentionSeconds) {
+        setRetention(Duration.ofSeconds(retentionSeconds));
+    }
 
-        List<DataPoint> dataPoints = Optional.ofNullable(data.get(request.getMetric())).stream()
-                .flatMap(Collection::stream)
-                .filter(sample -> sample.getTime().isAfter(request.getStart()))
-                .filter(sample -> sample.getTime().isBefore(request.getEnd()))
-                .collect(Collectors.toList());
+    public Duration getChunkSpan() {
+        return chunkSpan;
+    }
 
-        return ImmutableTimeSeriesData.builder()
-                .metric(metric)
-                .dataPoints(dataPoints)
-                .build();
+    /** Time span covered by a single chunk. Only affects series created after the change. */
+    public void setChunkSpan(final Duration chunkSpan) {
+        if (chunkSpan.isNegative() || chunkSpan.isZero()) {
+            throw new IllegalArgumentException("chunkSpan must be positive but was " + chunkSpan);
+        }
+        this.chunkSpan = chunkSpan;
     }
 
-    @Override
-    public void delete(Metric metric) {
-        Objects.requireNonNull(metric);
-        this.data.remove(metric);
+    public void setChunkSpanSeconds(final long chunkSpanSeconds) {
+        setChunkSpan(Duration.ofSeconds(chunkSpanSeconds));
     }
 
     @Override
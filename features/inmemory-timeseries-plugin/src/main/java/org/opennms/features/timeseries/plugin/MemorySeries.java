@@ -0,0 +1,223 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2024 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2024 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.features.timeseries.plugin;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+
+import org.opennms.integration.api.v1.timeseries.Aggregation;
+import org.opennms.integration.api.v1.timeseries.DataPoint;
+import org.opennms.integration.api.v1.timeseries.Metric;
+import org.opennms.integration.api.v1.timeseries.immutables.ImmutableDataPoint;
+
+/**
+ * All samples of a single metric, kept as a list of compressed {@link TimeSeriesChunk}s ordered by their time bucket.
+ * Only the newest chunk keeps spare capacity, older chunks are sealed.
+ */
+class MemorySeries {
+
+    private final Metric metric;
+    private final long chunkSpan;
+    private final List<TimeSeriesChunk> chunks = new ArrayList<>();
+
+    MemorySeries(final Metric metric, final long chunkSpan) {
+        this.metric = Objects.requireNonNull(metric);
+        if (chunkSpan <= 0) {
+            throw new IllegalArgumentException("chunkSpan must be positive but was " + chunkSpan);
+        }
+        this.chunkSpan = chunkSpan;
+    }
+
+    Metric getMetric() {
+        return metric;
+    }
+
+    synchronized void add(final long time, final double value) {
+        final long bucketStart = Math.floorDiv(time, chunkSpan) * chunkSpan;
+        // fast path: the sample belongs into the newest chunk
+        if (!chunks.isEmpty()) {
+            final TimeSeriesChunk head = chunks.get(chunks.size() - 1);
+            if (head.getBucketStart() == bucketStart) {
+                head.insert(time, value);
+                return;
+            }
+        }
+        int index = chunks.size();
+        while (index > 0 && chunks.get(index - 1).getBucketStart() > bucketStart) {
+            index--;
+        }
+        if (index > 0 && chunks.get(index - 1).getBucketStart() == bucketStart) {
+            chunks.get(index - 1).insert(time, value);
+            return;
+        }
+        final TimeSeriesChunk chunk = new TimeSeriesChunk(bucketStart);
+        chunk.append(time, value);
+        if (index == chunks.size() && index > 0) {
+            chunks.get(index - 1).seal();
+        }
+        chunks.add(index, chunk);
+    }
+
+    /**
+     * Drops all chunks that only hold samples before the given time.
+     *
+     * @return true if the series is empty afterwards
+     */
+    synchronized boolean evictBefore(final long time) {
+        final Iterator<TimeSeriesChunk> it = chunks.iterator();
+        while (it.hasNext()) {
+            final TimeSeriesChunk chunk = it.next();
+            if (chunk.getBucketStart() + chunkSpan > time) {
+                break;
+            }
+            it.remove();
+        }
+        return chunks.isEmpty();
+    }
+
+    synchronized boolean isEmpty() {
+        return chunks.isEmpty();
+    }
+
+    synchronized int size() {
+        int size = 0;
+        for (TimeSeriesChunk chunk : chunks) {
+            size += chunk.size();
+        }
+        return size;
+    }
+
+    synchronized long getEncodedSize() {
+        long size = 0;
+        for (TimeSeriesChunk chunk : chunks) {
+            size += chunk.getEncodedSize();
+        }
+        return size;
+    }
+
+    /** Decodes all samples with start < time < end, in time order. */
+    synchronized void scan(final long start, final long end, final TimeSeriesChunk.PointConsumer consumer) {
+        for (TimeSeriesChunk chunk : chunks) {
+            if (chunk.getBucketStart() >= end) {
+                break;
+            }
+            if (chunk.getBucketStart() + chunkSpan <= start) {
+                continue;
+            }
+            chunk.scan(start, end, consumer);
+        }
+    }
+
+    List<DataPoint> getDataPoints(final long start, final long end) {
+        final List<DataPoint> dataPoints = new ArrayList<>();
+        scan(start, end, (time, value) -> dataPoints.add(new ImmutableDataPoint(Instant.ofEpochMilli(time), value)));
+        return dataPoints;
+    }
+
+    /**
+     * Aggregates the samples into buckets of the given step. Each returned data point carries the start of its bucket,
+     * empty buckets are omitted. NaN values do not take part in the aggregation.
+     */
+    List<DataPoint> getDataPoints(final long start, final long end, final long step, final Aggregation aggregation) {
+        if (aggregation == Aggregation.NONE) {
+            return getDataPoints(start, end);
+        }
+        if (step <= 0) {
+            throw new IllegalArgumentException(String.format("A positive step is required for aggregation %s.", aggregation));
+        }
+        final Aggregator aggregator = new Aggregator(step, aggregation);
+        scan(start, end, aggregator);
+        aggregator.flush();
+        return aggregator.dataPoints;
+    }
+
+    private static class Aggregator implements TimeSeriesChunk.PointConsumer {
+        private final long step;
+        private final Aggregation aggregation;
+        private final List<DataPoint> dataPoints = new ArrayList<>();
+
+        private long bucket = Long.MIN_VALUE;
+        private int count;
+        private double sum;
+        private double min;
+        private double max;
+
+        private Aggregator(final long step, final Aggregation aggregation) {
+            this.step = step;
+            this.aggregation = aggregation;
+        }
+
+        @Override
+        public void accept(final long time, final double value) {
+            if (Double.isNaN(value)) {
+                return;
+            }
+            final long current = Math.floorDiv(time, step) * step;
+            if (current != bucket) {
+                flush();
+                bucket = current;
+            }
+            if (count == 0) {
+                min = value;
+                max = value;
+            } else {
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+            sum += value;
+            count++;
+        }
+
+        private void flush() {
+            if (count == 0) {
+                return;
+            }
+            final double value;
+            switch (aggregation) {
+                case AVERAGE:
+                    value = sum / count;
+                    break;
+                case MIN:
+                    value = min;
+                    break;
+                case MAX:
+                    value = max;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Implement me for " + aggregation);
+            }
+            dataPoints.add(new ImmutableDataPoint(Instant.ofEpochMilli(bucket), value));
+            count = 0;
+            sum = 0;
+        }
+    }
+}
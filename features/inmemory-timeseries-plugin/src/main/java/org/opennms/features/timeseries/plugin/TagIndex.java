@@ -0,0 +1,175 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2024 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2024 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.features.timeseries.plugin;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.opennms.integration.api.v1.timeseries.Metric;
+import org.opennms.integration.api.v1.timeseries.Tag;
+import org.opennms.integration.api.v1.timeseries.TagMatcher;
+
+import com.google.re2j.Pattern;
+
+/**
+ * Inverted index from tag key and value to the metrics carrying that tag. Intrinsic and meta tags are indexed.
+ *
+ * Lookups start from the postings of the most selective matcher and only verify the remaining matchers against
+ * those candidates, instead of evaluating all matchers against all metrics.
+ */
+class TagIndex {
+
+    private static final int MAX_CACHED_PATTERNS = 4096;
+
+    private final Map<String, Map<String, Set<Metric>>> postings = new ConcurrentHashMap<>();
+
+    private final Map<String, Pattern> patterns = new ConcurrentHashMap<>();
+
+    void add(final Metric metric) {
+        for (Tag tag : searchableTags(metric)) {
+            postings.computeIfAbsent(tag.getKey(), k -> new ConcurrentHashMap<>())
+                    .compute(tag.getValue(), (v, metrics) -> {
+                        final Set<Metric> result = metrics != null ? metrics : ConcurrentHashMap.newKeySet();
+                        result.add(metric);
+                        return result;
+                    });
+        }
+    }
+
+    void remove(final Metric metric) {
+        for (Tag tag : searchableTags(metric)) {
+            final Map<String, Set<Metric>> values = postings.get(tag.getKey());
+            if (values == null) {
+                continue;
+            }
+            values.computeIfPresent(tag.getValue(), (v, metrics) -> {
+                metrics.remove(metric);
+                return metrics.isEmpty() ? null : metrics;
+            });
+        }
+    }
+
+    /** Returns all metrics for which each matcher is matched by at least one tag. */
+    List<Metric> find(final Collection<TagMatcher> matchers) {
+        Collection<Metric> candidates = null;
+        for (TagMatcher matcher : matchers) {
+            final Collection<Metric> matching = candidates(matcher);
+            if (candidates == null || matching.size() < candidates.size()) {
+                candidates = matching;
+            }
+            if (candidates.isEmpty()) {
+                return Collections.emptyList();
+            }
+        }
+        if (candidates == null) {
+            return Collections.emptyList();
+        }
+        final List<Metric> result = new ArrayList<>();
+        for (Metric metric : candidates) {
+            if (matchesAll(matchers, metric)) {
+                result.add(metric);
+            }
+        }
+        return result;
+    }
+
+    /** Collects the metrics that have at least one tag matching the given matcher. */
+    private Collection<Metric> candidates(final TagMatcher matcher) {
+        final Map<String, Set<Metric>> values = postings.get(matcher.getKey());
+        if (values == null) {
+            return Collections.emptySet();
+        }
+        if (TagMatcher.Type.EQUALS == matcher.getType()) {
+            return values.getOrDefault(matcher.getValue(), Collections.emptySet());
+        }
+        final Set<Metric> result = new HashSet<>();
+        for (Map.Entry<String, Set<Metric>> entry : values.entrySet()) {
+            if (matches(matcher, entry.getKey())) {
+                result.addAll(entry.getValue());
+            }
+        }
+        return result;
+    }
+
+    private boolean matchesAll(final Collection<TagMatcher> matchers, final Metric metric) {
+        for (TagMatcher matcher : matchers) {
+            boolean matched = false;
+            for (Tag tag : searchableTags(metric)) {
+                if (matcher.getKey().equals(tag.getKey()) && matches(matcher, tag.getValue())) {
+                    matched = true;
+                    break;
+                }
+            }
+            if (!matched) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean matches(final TagMatcher matcher, final String value) {
+        // Tags have always a non null value so we don't have to null check for them.
+        if (TagMatcher.Type.EQUALS == matcher.getType()) {
+            return value.equals(matcher.getValue());
+        } else if (TagMatcher.Type.NOT_EQUALS == matcher.getType()) {
+            return !value.equals(matcher.getValue());
+        } else if (TagMatcher.Type.EQUALS_REGEX == matcher.getType()) {
+            return pattern(matcher.getValue()).matches(value);
+        } else if (TagMatcher.Type.NOT_EQUALS_REGEX == matcher.getType()) {
+            return !pattern(matcher.getValue()).matches(value);
+        } else {
+            throw new IllegalArgumentException("Implement me for " + matcher.getType());
+        }
+    }
+
+    private Pattern pattern(final String regex) {
+        Pattern pattern = patterns.get(regex);
+        if (pattern == null) {
+            if (patterns.size() >= MAX_CACHED_PATTERNS) {
+                patterns.clear();
+            }
+            pattern = patterns.computeIfAbsent(regex, Pattern::compile);
+        }
+        return pattern;
+    }
+
+    private static Iterable<Tag> searchableTags(final Metric metric) {
+        Objects.requireNonNull(metric);
+        final List<Tag> tags = new ArrayList<>(metric.getIntrinsicTags());
+        tags.addAll(metric.getMetaTags());
+        return tags;
+    }
+}
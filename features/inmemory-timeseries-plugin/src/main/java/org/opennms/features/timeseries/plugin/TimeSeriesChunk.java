@@ -0,0 +1,296 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2024 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2024 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.features.timeseries.plugin;
+
+import java.util.Arrays;
+
+/**
+ * A compressed, append-only block of samples covering one time bucket of a single series.
+ *
+ * Timestamps (milliseconds) are stored as delta-of-delta and values as the XOR against the previous value, following
+ * the scheme described in Facebook's "Gorilla" paper. Regularly collected series compress to roughly two bits per
+ * timestamp and a handful of bits per value. All state is held in a primitive long[] bit buffer, no objects are
+ * allocated per sample.
+ *
+ * Instances are not thread safe, the owning {@link MemorySeries} guards access.
+ */
+class TimeSeriesChunk {
+
+    @FunctionalInterface
+    interface PointConsumer {
+        void accept(long time, double value);
+    }
+
+    private final long bucketStart;
+
+    private long[] bits = new long[4];
+    private int bitPosition;
+    private int count;
+
+    private long firstTime;
+    private long lastTime;
+    private long lastDelta;
+    private long lastValueBits;
+    private int lastLeadingZeros = Integer.MAX_VALUE;
+    private int lastTrailingZeros;
+
+    TimeSeriesChunk(final long bucketStart) {
+        this.bucketStart = bucketStart;
+    }
+
+    long getBucketStart() {
+        return bucketStart;
+    }
+
+    long getFirstTime() {
+        return firstTime;
+    }
+
+    long getLastTime() {
+        return lastTime;
+    }
+
+    int size() {
+        return count;
+    }
+
+    /** Size of the encoded data in bytes, excluding the fixed per chunk overhead. */
+    int getEncodedSize() {
+        return bits.length * Long.BYTES;
+    }
+
+    /**
+     * Appends a sample. The time must not be before {@link #getLastTime()}, use {@link #insert(long, double)} for
+     * samples arriving out of order.
+     */
+    void append(final long time, final double value) {
+        final long valueBits = Double.doubleToRawLongBits(value);
+        if (count == 0) {
+            firstTime = time;
+            writeBits(time, 64);
+            writeBits(valueBits, 64);
+        } else {
+            if (time < lastTime) {
+                throw new IllegalArgumentException("Sample at " + time + " is older than the last sample at " + lastTime);
+            }
+            final long delta = time - lastTime;
+            writeDeltaOfDelta(delta - lastDelta);
+            writeValue(valueBits);
+            lastDelta = delta;
+        }
+        lastTime = time;
+        lastValueBits = valueBits;
+        count++;
+    }
+
+    /**
+     * Inserts a sample at any position. Re-encodes the whole chunk if the sample is out of order, which is expensive
+     * but only happens for late arriving data.
+     */
+    void insert(final long time, final double value) {
+        if (count == 0 || time >= lastTime) {
+            append(time, value);
+            return;
+        }
+        final long[] times = new long[count + 1];
+        final double[] values = new double[count + 1];
+        final int[] index = {0};
+        final boolean[] inserted = {false};
+        forEach((t, v) -> {
+            if (!inserted[0] && time < t) {
+                times[index[0]] = time;
+                values[index[0]++] = value;
+                inserted[0] = true;
+            }
+            times[index[0]] = t;
+            values[index[0]++] = v;
+        });
+        reset();
+        for (int i = 0; i < times.length; i++) {
+            append(times[i], values[i]);
+        }
+    }
+
+    /** Releases the spare capacity of the bit buffer once no more samples are expected for this chunk. */
+    void seal() {
+        final int words = (bitPosition + 63) >>> 6;
+        if (words < bits.length) {
+            bits = Arrays.copyOf(bits, Math.max(words, 1));
+        }
+    }
+
+    void forEach(final PointConsumer consumer) {
+        scan(Long.MIN_VALUE, Long.MAX_VALUE, consumer);
+    }
+
+    /** Decodes all samples with start < time < end, in time order. */
+    void scan(final long start, final long end, final PointConsumer consumer) {
+        if (count == 0 || lastTime <= start || firstTime >= end) {
+            return;
+        }
+        final Reader reader = new Reader();
+        long time = reader.read(64);
+        long valueBits = reader.read(64);
+        long delta = 0;
+        int leading = 0;
+        int trailing = 0;
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                delta += reader.readDeltaOfDelta();
+                time += delta;
+                if (reader.read(1) != 0) {
+                    if (reader.read(1) != 0) {
+                        leading = (int) reader.read(6);
+                        final int significant = (int) reader.read(6) + 1;
+                        trailing = 64 - leading - significant;
+                    }
+                    final int significant = 64 - leading - trailing;
+                    valueBits ^= reader.read(significant) << trailing;
+                }
+            }
+            if (time >= end) {
+                return;
+            }
+            if (time > start) {
+                consumer.accept(time, Double.longBitsToDouble(valueBits));
+            }
+        }
+    }
+
+    private void reset() {
+        bits = new long[Math.max(4, bits.length)];
+        bitPosition = 0;
+        count = 0;
+        firstTime = 0;
+        lastTime = 0;
+        lastDelta = 0;
+        lastValueBits = 0;
+        lastLeadingZeros = Integer.MAX_VALUE;
+        lastTrailingZeros = 0;
+    }
+
+    private void writeDeltaOfDelta(final long deltaOfDelta) {
+        if (deltaOfDelta == 0) {
+            writeBits(0b0, 1);
+        } else if (deltaOfDelta >= -63 && deltaOfDelta <= 64) {
+            writeBits(0b10, 2);
+            writeBits(deltaOfDelta + 63, 7);
+        } else if (deltaOfDelta >= -255 && deltaOfDelta <= 256) {
+            writeBits(0b110, 3);
+            writeBits(deltaOfDelta + 255, 9);
+        } else if (deltaOfDelta >= -2047 && deltaOfDelta <= 2048) {
+            writeBits(0b1110, 4);
+            writeBits(deltaOfDelta + 2047, 12);
+        } else {
+            writeBits(0b1111, 4);
+            writeBits(deltaOfDelta, 64);
+        }
+    }
+
+    private void writeValue(final long valueBits) {
+        final long xor = valueBits ^ lastValueBits;
+        if (xor == 0) {
+            writeBits(0b0, 1);
+            return;
+        }
+        writeBits(0b1, 1);
+        // the leading zero count must fit into 6 bits, cap it to keep the encoding simple
+        final int leading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+        final int trailing = Long.numberOfTrailingZeros(xor);
+        if (lastLeadingZeros != Integer.MAX_VALUE && leading >= lastLeadingZeros && trailing >= lastTrailingZeros) {
+            // meaningful bits fit into the previous window
+            writeBits(0b0, 1);
+            writeBits(xor >>> lastTrailingZeros, 64 - lastLeadingZeros - lastTrailingZeros);
+        } else {
+            final int significant = 64 - leading - trailing;
+            writeBits(0b1, 1);
+            writeBits(leading, 6);
+            writeBits(significant - 1, 6);
+            writeBits(xor >>> trailing, significant);
+            lastLeadingZeros = leading;
+            lastTrailingZeros = trailing;
+        }
+    }
+
+    /** Writes the lowest {@code length} bits of value, most significant bit first. */
+    private void writeBits(final long value, final int length) {
+        final int required = (bitPosition + length + 63) >>> 6;
+        if (required > bits.length) {
+            bits = Arrays.copyOf(bits, Math.max(required, bits.length * 2));
+        }
+        final long masked = length == 64 ? value : value & ((1L << length) - 1);
+        final int word = bitPosition >>> 6;
+        final int offset = bitPosition & 63;
+        final int free = 64 - offset;
+        if (length <= free) {
+            bits[word] |= masked << (free - length);
+        } else {
+            bits[word] |= masked >>> (length - free);
+            bits[word + 1] |= masked << (64 - (length - free));
+        }
+        bitPosition += length;
+    }
+
+    private class Reader {
+        private int position;
+
+        long read(final int length) {
+            if (length == 0) {
+                return 0;
+            }
+            final int word = position >>> 6;
+            final int offset = position & 63;
+            final int available = 64 - offset;
+            long value;
+            if (length <= available) {
+                value = bits[word] >>> (available - length);
+            } else {
+                value = (bits[word] << (length - available)) | (bits[word + 1] >>> (64 - (length - available)));
+            }
+            position += length;
+            return length == 64 ? value : value & ((1L << length) - 1);
+        }
+
+        long readDeltaOfDelta() {
+            if (read(1) == 0) {
+                return 0;
+            }
+            if (read(1) == 0) {
+                return read(7) - 63;
+            }
+            if (read(1) == 0) {
+                return read(9) - 255;
+            }
+            if (read(1) == 0) {
+                return read(12) - 2047;
+            }
+            return read(64);
+        }
+    }
+}
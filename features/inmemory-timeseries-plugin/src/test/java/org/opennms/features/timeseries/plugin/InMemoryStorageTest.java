@@ -0,0 +1,236 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2024 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2024 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.features.timeseries.plugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+import org.opennms.integration.api.v1.timeseries.Aggregation;
+import org.opennms.integration.api.v1.timeseries.DataPoint;
+import org.opennms.integration.api.v1.timeseries.IntrinsicTagNames;
+import org.opennms.integration.api.v1.timeseries.Metric;
+import org.opennms.integration.api.v1.timeseries.Sample;
+import org.opennms.integration.api.v1.timeseries.TagMatcher;
+import org.opennms.integration.api.v1.timeseries.immutables.ImmutableMetric;
+import org.opennms.integration.api.v1.timeseries.immutables.ImmutableSample;
+import org.opennms.integration.api.v1.timeseries.immutables.ImmutableTagMatcher;
+import org.opennms.integration.api.v1.timeseries.immutables.ImmutableTimeSeriesFetchRequest;
+
+public class InMemoryStorageTest {
+
+    private static final Instant NOW = Instant.parse("2024-01-10T00:00:00Z");
+
+    private final InMemoryStorage storage = new InMemoryStorage(Clock.fixed(NOW, ZoneOffset.UTC));
+
+    @Test
+    public void shouldRoundTripChunkEncoding() {
+        final Random random = new Random(42);
+        final long[] times = new long[1000];
+        final double[] values = new double[times.length];
+        final TimeSeriesChunk chunk = new TimeSeriesChunk(0);
+        long time = 1_000;
+        for (int i = 0; i < times.length; i++) {
+            // mostly regular intervals with some jitter, the occasional large gap, repeated values and a NaN
+            time += i % 100 == 0 ? 1_000_000 : 300_000 + random.nextInt(500) - 250;
+            times[i] = time;
+            values[i] = i % 7 == 0 && i > 0 ? values[i - 1] : random.nextDouble() * 1000;
+            if (i == 10) {
+                values[i] = Double.NaN;
+            }
+            chunk.append(times[i], values[i]);
+        }
+        chunk.seal();
+
+        final List<Long> decodedTimes = new ArrayList<>();
+        final List<Double> decodedValues = new ArrayList<>();
+        chunk.forEach((t, v) -> {
+            decodedTimes.add(t);
+            decodedValues.add(v);
+        });
+        assertEquals(times.length, decodedTimes.size());
+        for (int i = 0; i < times.length; i++) {
+            assertEquals(times[i], (long) decodedTimes.get(i));
+            assertEquals(values[i], decodedValues.get(i), 0.0d);
+        }
+    }
+
+    @Test
+    public void shouldSortOutOfOrderSamples() {
+        final TimeSeriesChunk chunk = new TimeSeriesChunk(0);
+        chunk.insert(30, 3.0);
+        chunk.insert(10, 1.0);
+        chunk.insert(20, 2.0);
+        final List<Double> values = new ArrayList<>();
+        chunk.forEach((t, v) -> values.add(v));
+        assertEquals(Arrays.asList(1.0, 2.0, 3.0), values);
+    }
+
+    @Test
+    public void shouldFindMetricsByTags() {
+        final Metric a = metric("a", "snmp/1/eth0");
+        final Metric b = metric("b", "snmp/1/eth1");
+        final Metric c = metric("a", "snmp/2/eth0");
+        storage.store(Arrays.asList(sample(a, NOW, 1), sample(b, NOW, 2), sample(c, NOW, 3)));
+
+        assertEquals(Collections.singletonList(a), storage.findMetrics(Arrays.asList(
+                matcher(TagMatcher.Type.EQUALS, IntrinsicTagNames.name, "a"),
+                matcher(TagMatcher.Type.EQUALS_REGEX, IntrinsicTagNames.resourceId, "snmp/1/.*"))));
+        assertEquals(Collections.singletonList(b), storage.findMetrics(Collections.singletonList(
+                matcher(TagMatcher.Type.NOT_EQUALS, IntrinsicTagNames.name, "a"))));
+        assertEquals(2, storage.findMetrics(Collections.singletonList(
+                matcher(TagMatcher.Type.NOT_EQUALS_REGEX, IntrinsicTagNames.resourceId, ".*eth1"))).size());
+
+        storage.delete(a);
+        assertTrue(storage.findMetrics(Collections.singletonList(
+                matcher(TagMatcher.Type.EQUALS, IntrinsicTagNames.resourceId, "snmp/1/eth0"))).isEmpty());
+    }
+
+    @Test
+    public void shouldAggregate() {
+        final Metric metric = metric("a", "snmp/1/eth0");
+        final List<Sample> samples = new ArrayList<>();
+        for (int i = 0; i < 60; i++) {
+            samples.add(sample(metric, NOW.minus(Duration.ofMinutes(60 - i)), i));
+        }
+        storage.store(samples);
+
+        assertEquals(60, fetch(metric, Aggregation.NONE).size());
+        final List<DataPoint> max = fetch(metric, Aggregation.MAX);
+        assertEquals(6, max.size());
+        assertEquals(9.0d, max.get(0).getValue(), 0.0d);
+        final List<DataPoint> avg = fetch(metric, Aggregation.AVERAGE);
+        assertEquals(4.5d, avg.get(0).getValue(), 0.0d);
+        final List<DataPoint> min = fetch(metric, Aggregation.MIN);
+        assertEquals(50.0d, min.get(5).getValue(), 0.0d);
+
+        // The fetch strategy must aggregate by itself, to get counter rates and a complete step grid
+        assertTrue(storage.supportsAggregation(Aggregation.NONE));
+        assertFalse(storage.supportsAggregation(Aggregation.AVERAGE));
+        assertFalse(storage.supportsAggregation(Aggregation.MAX));
+        assertFalse(storage.supportsAggregation(Aggregation.MIN));
+    }
+
+    @Test
+    public void shouldEvictExpiredData() {
+        storage.setRetention(Duration.ofDays(1));
+        final Metric old = metric("old", "snmp/1/eth0");
+        final Metric recent = metric("recent", "snmp/1/eth0");
+        storage.store(Arrays.asList(
+                sample(old, NOW.minus(Duration.ofDays(3)), 1),
+                sample(recent, NOW.minus(Duration.ofDays(3)), 1),
+                sample(recent, NOW.minus(Duration.ofMinutes(5)), 2)));
+
+        storage.evict();
+
+        assertEquals(1, storage.getAllMetrics().size());
+        assertEquals(1, storage.getAllMetrics().get(recent).size());
+        assertTrue(storage.findMetrics(Collections.singletonList(
+                matcher(TagMatcher.Type.EQUALS, IntrinsicTagNames.name, "old"))).isEmpty());
+    }
+
+    @Test
+    public void shouldNotLoseSamplesStoredWhileEvicting() throws Exception {
+        storage.setRetention(Duration.ofDays(1));
+        final AtomicBoolean done = new AtomicBoolean();
+        final Thread evictor = new Thread(() -> {
+            while (!done.get()) {
+                storage.evict();
+            }
+        });
+        evictor.start();
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<?>> writers = new ArrayList<>();
+            for (int w = 0; w < 4; w++) {
+                final String prefix = "w" + w + "m";
+                writers.add(executor.submit(() -> {
+                    for (int i = 0; i < 25000; i++) {
+                        final Metric metric = metric(prefix + i, "snmp/1/eth0");
+                        // the series only holds expired data, so evict() removes it unless the recent sample lands first
+                        storage.store(Collections.singletonList(sample(metric, NOW.minus(Duration.ofDays(3)), 1)));
+                        storage.store(Collections.singletonList(sample(metric, NOW.minus(Duration.ofMinutes(5)), 2)));
+
+                        assertEquals(metric.toString(), 1, fetch(metric, Aggregation.NONE).size());
+                        assertEquals(metric.toString(), Collections.singletonList(metric), storage.findMetrics(Collections.singletonList(
+                                matcher(TagMatcher.Type.EQUALS, IntrinsicTagNames.name, prefix + i))));
+                        storage.delete(metric);
+                    }
+                }));
+            }
+            for (Future<?> writer : writers) {
+                writer.get();
+            }
+        } finally {
+            executor.shutdownNow();
+            done.set(true);
+            evictor.join();
+        }
+    }
+
+    private List<DataPoint> fetch(final Metric metric, final Aggregation aggregation) {
+        return storage.getTimeSeriesData(ImmutableTimeSeriesFetchRequest.builder()
+                .metric(metric)
+                .start(NOW.minus(Duration.ofHours(2)))
+                .end(NOW)
+                .step(Duration.ofMinutes(10))
+                .aggregation(aggregation)
+                .build()).getDataPoints();
+    }
+
+    private static Metric metric(final String name, final String resourceId) {
+        return ImmutableMetric.builder()
+                .intrinsicTag(IntrinsicTagNames.name, name)
+                .intrinsicTag(IntrinsicTagNames.resourceId, resourceId)
+                .build();
+    }
+
+    private static Sample sample(final Metric metric, final Instant time, final double value) {
+        return ImmutableSample.builder().metric(metric).time(time).value(value).build();
+    }
+
+    private static TagMatcher matcher(final TagMatcher.Type type, final String key, final String value) {
+        return ImmutableTagMatcher.builder().type(type).key(key).value(value).build();
+    }
+}
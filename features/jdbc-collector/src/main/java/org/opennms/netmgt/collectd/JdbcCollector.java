@@ -217,7 +217,7 @@ public class JdbcCollector extends AbstractRemoteServiceCollector {
                 }
             }
             builder.withStatus(CollectionStatus.SUCCEEDED);
-            return builder.build();
+            return builder.buildCollectionSet();
         } finally {
             if(agentState != null) {
                 // Make sure that when we're done we close all results, statements and connections.
@@ -144,7 +144,7 @@ public class TcaCollectionHandler {
             future.get();
             LOG.info("collect: node TCA query for address {} complete.", m_agent.getHostAddress());
 			process(tracker, builder);
-			return builder.build();
+			return builder.buildCollectionSet();
 		} catch (InterruptedException e) {
 			Thread.currentThread().interrupt();
 			throw new CollectionUnknown("Collection of node TCA data for interface " + m_agent.getHostAddress() + " interrupted: " + e, e);
@@ -45,6 +45,8 @@ import org.opennms.netmgt.collection.api.CollectionResource;
 import org.opennms.netmgt.collection.api.CollectionSet;
 import org.opennms.netmgt.collection.api.CollectionSetVisitor;
 import org.opennms.netmgt.collection.api.ServiceParameters;
+import org.opennms.netmgt.collection.support.builder.CollectionSetBuilder;
+import org.opennms.netmgt.collection.support.builder.ColumnarCollectionSet;
 import org.opennms.netmgt.dao.api.NodeDao;
 import org.opennms.netmgt.dao.api.ResourceDao;
 import org.opennms.netmgt.dao.api.SessionUtils;
@@ -82,6 +84,10 @@ public class CollectionSetMapper {
     }
 
     public CollectionSetProtos.CollectionSet buildCollectionSetProtos(CollectionSet collectionSet, ServiceParameters params) {
+        if (collectionSet instanceof ColumnarCollectionSet) {
+            return buildCollectionSetProtos((ColumnarCollectionSet) collectionSet, params);
+        }
+
         CollectionSetProtos.CollectionSet.Builder builder = CollectionSetProtos.CollectionSet.newBuilder();
 
         collectionSet.visit(new CollectionSetVisitor() {
@@ -95,73 +101,7 @@ public class CollectionSetMapper {
 
             @Override
             public void visitResource(CollectionResource resource) {
-                collectionSetResourceBuilder = CollectionSetProtos.CollectionSetResource.newBuilder();
-                long nodeId = 0;
-                if (!resource.shouldPersist(params)) {
-                    // DO NOTHING, do not persist this resource
-                }
-                else if (resource.getResourceTypeName().equals(CollectionResource.RESOURCE_TYPE_NODE)) {
-                    String nodeCriteria = getNodeCriteriaFromResource(resource);
-                    CollectionSetProtos.NodeLevelResource.Builder nodeResourceBuilder = buildNodeLevelResourceForProto(
-                            nodeCriteria);
-                    nodeId = nodeResourceBuilder.getNodeId();
-                    collectionSetResourceBuilder.setNode(nodeResourceBuilder);
-                } else if (resource.getResourceTypeName().equals(CollectionResource.RESOURCE_TYPE_IF)) {
-                    CollectionSetProtos.InterfaceLevelResource.Builder interfaceResourceBuilder = CollectionSetProtos.InterfaceLevelResource
-                            .newBuilder();
-                    String nodeCriteria = getNodeCriteriaFromResource(resource);
-                    if (!Strings.isNullOrEmpty(nodeCriteria)) {
-                        CollectionSetProtos.NodeLevelResource.Builder nodeResourceBuilder = buildNodeLevelResourceForProto(
-                                nodeCriteria);
-                        nodeId = nodeResourceBuilder.getNodeId();
-                        interfaceResourceBuilder.setNode(nodeResourceBuilder);
-                        Optional.ofNullable(resource.getInterfaceLabel()).ifPresent(interfaceResourceBuilder::setInstance);
-                        // Skip Aliased Resources which doesn't have instance.
-                        if (!Strings.isNullOrEmpty(resource.getInstance())) {
-                            Integer ifIndex = StringUtils.parseInt(resource.getInstance(), null);
-                            Optional.ofNullable(ifIndex).ifPresent(interfaceResourceBuilder::setIfIndex);
-                            collectionSetResourceBuilder.setInterface(interfaceResourceBuilder);
-                        }
-                    }
-                } else if (resource.getResourceTypeName().equals(CollectionResource.RESOURCE_TYPE_LATENCY)) {
-                    CollectionSetProtos.ResponseTimeResource.Builder responseTimeResource = buildResponseTimeResource(
-                            resource);
-                    if (responseTimeResource != null) {
-                        collectionSetResourceBuilder.setResponse(responseTimeResource);
-                    }
-                } else {
-                    CollectionSetProtos.GenericTypeResource.Builder genericResourceBuilder = CollectionSetProtos.GenericTypeResource
-                            .newBuilder();
-                    String nodeCriteria = getNodeCriteriaFromResource(resource);
-                    if (!Strings.isNullOrEmpty(nodeCriteria)) {
-                        CollectionSetProtos.NodeLevelResource.Builder nodeResourceBuilder = buildNodeLevelResourceForProto(
-                                nodeCriteria);
-                        nodeId = nodeResourceBuilder.getNodeId();
-                        genericResourceBuilder.setNode(nodeResourceBuilder);
-                    }
-                    genericResourceBuilder.setType(resource.getResourceTypeName());
-                    genericResourceBuilder.setInstance(resource.getInstance());
-                    collectionSetResourceBuilder.setGeneric(genericResourceBuilder);
-                }
-                // Response time resources doesn't embed any node info, they will not have any resource-id info.
-                if (nodeId > 0) {
-                    populateResourceIdFields(resource, nodeId);
-                }
-            }
-
-            private void populateResourceIdFields(CollectionResource collectionResource, long nodeId) {
-                try {
-                    ResourceId resourceId = resourceDao.getResourceId(collectionResource, nodeId);
-                    if (resourceId != null) {
-                            getString(resourceId.toString()).ifPresent(collectionSetResourceBuilder::setResourceId);
-                            getString(resourceId.getName()).ifPresent(collectionSetResourceBuilder::setResourceName);
-                            getString(resourceId.getType()).ifPresent(collectionSetResourceBuilder::setResourceTypeName);
-                    } else {
-                        LOG.error("Couldn't fetch resource from ResourceId {} ", resourceId);
-                    }
-                } catch (Exception e) {
-                    LOG.error("Couldn't map ResourceId fields from CollectionResource {}", collectionResource);
-                }
+                collectionSetResourceBuilder = buildResource(resource, params);
             }
 
             @Override
@@ -173,16 +113,9 @@ public class CollectionSetMapper {
             @Override
             public void visitAttribute(CollectionAttribute attribute) {
                 if (attribute.getType().equals(AttributeType.STRING)) {
-                    CollectionSetProtos.StringAttribute.Builder attributeBuilder = CollectionSetProtos.StringAttribute
-                            .newBuilder();
-                    attributeBuilder.setValue(attribute.getStringValue());
-                    attributeBuilder.setName(attribute.getName());
-                    collectionSetResourceBuilder.addString(attributeBuilder);
+                    addStringAttribute(collectionSetResourceBuilder, attribute.getName(), attribute.getStringValue());
                 } else {
-                    CollectionSetProtos.NumericAttribute.Builder attributeBuilder = CollectionSetProtos.NumericAttribute
-                            .newBuilder();
-                    attributeBuilder.setGroup(lastGroupName);
-                    attributeBuilder.setName(attribute.getName());
+                    CollectionSetProtos.NumericAttribute.Builder attributeBuilder = newNumericAttribute(lastGroupName, attribute.getName(), attribute.getType());
                     final Number number = attribute.getNumericValue();
 
                     if (number != null) {
@@ -193,7 +126,6 @@ public class CollectionSetMapper {
                         RATE_LIMITED_LOG.error("Missing double value for non-string attribute (group='{}', name='{}', type='{}')", lastGroupName, attribute.getName(), attribute.getType().toString());
                     }
 
-                    attributeBuilder.setType((attribute.getType() == AttributeType.GAUGE) ? Type.GAUGE : Type.COUNTER);
                     collectionSetResourceBuilder.addNumeric(attributeBuilder);
                 }
 
@@ -228,6 +160,126 @@ public class CollectionSetMapper {
         return builder.build();
     }
 
+    /**
+     * Reads the samples straight from the columns instead of visiting an
+     * attribute object for each of them.
+     */
+    private CollectionSetProtos.CollectionSet buildCollectionSetProtos(ColumnarCollectionSet collectionSet, ServiceParameters params) {
+        CollectionSetProtos.CollectionSet.Builder builder = CollectionSetProtos.CollectionSet.newBuilder();
+
+        for (int r = 0; r < collectionSet.getResourceCount(); r++) {
+            final CollectionResource resource = CollectionSetBuilder.toCollectionResource(collectionSet.getResource(r), collectionSet.getCollectionAgent());
+            final CollectionSetProtos.CollectionSetResource.Builder collectionSetResourceBuilder = buildResource(resource, params);
+            for (int s = collectionSet.getSampleStart(r); s < collectionSet.getSampleEnd(r); s++) {
+                final int id = collectionSet.getAttributeId(s);
+                if (collectionSet.getType(id).equals(AttributeType.STRING)) {
+                    addStringAttribute(collectionSetResourceBuilder, collectionSet.getName(id), collectionSet.getStringValue(s));
+                } else {
+                    final double value = collectionSet.getDoubleValue(s);
+                    collectionSetResourceBuilder.addNumeric(newNumericAttribute(collectionSet.getGroup(id), collectionSet.getName(id), collectionSet.getType(id))
+                            .setValue(value)
+                            .setMetricValue(DoubleValue.of(value)));
+                }
+            }
+            if (hasResource(collectionSetResourceBuilder)) {
+                builder.addResource(collectionSetResourceBuilder);
+            }
+        }
+        builder.setTimestamp(collectionSet.getCollectionTimestamp().getTime());
+
+        return builder.build();
+    }
+
+    private CollectionSetProtos.CollectionSetResource.Builder buildResource(CollectionResource resource, ServiceParameters params) {
+        final CollectionSetProtos.CollectionSetResource.Builder collectionSetResourceBuilder = CollectionSetProtos.CollectionSetResource.newBuilder();
+        long nodeId = 0;
+        if (!resource.shouldPersist(params)) {
+            // DO NOTHING, do not persist this resource
+        }
+        else if (resource.getResourceTypeName().equals(CollectionResource.RESOURCE_TYPE_NODE)) {
+            String nodeCriteria = getNodeCriteriaFromResource(resource);
+            CollectionSetProtos.NodeLevelResource.Builder nodeResourceBuilder = buildNodeLevelResourceForProto(
+                    nodeCriteria);
+            nodeId = nodeResourceBuilder.getNodeId();
+            collectionSetResourceBuilder.setNode(nodeResourceBuilder);
+        } else if (resource.getResourceTypeName().equals(CollectionResource.RESOURCE_TYPE_IF)) {
+            CollectionSetProtos.InterfaceLevelResource.Builder interfaceResourceBuilder = CollectionSetProtos.InterfaceLevelResource
+                    .newBuilder();
+            String nodeCriteria = getNodeCriteriaFromResource(resource);
+            if (!Strings.isNullOrEmpty(nodeCriteria)) {
+                CollectionSetProtos.NodeLevelResource.Builder nodeResourceBuilder = buildNodeLevelResourceForProto(
+                        nodeCriteria);
+                nodeId = nodeResourceBuilder.getNodeId();
+                interfaceResourceBuilder.setNode(nodeResourceBuilder);
+                Optional.ofNullable(resource.getInterfaceLabel()).ifPresent(interfaceResourceBuilder::setInstance);
+                // Skip Aliased Resources which doesn't have instance.
+                if (!Strings.isNullOrEmpty(resource.getInstance())) {
+                    Integer ifIndex = StringUtils.parseInt(resource.getInstance(), null);
+                    Optional.ofNullable(ifIndex).ifPresent(interfaceResourceBuilder::setIfIndex);
+                    collectionSetResourceBuilder.setInterface(interfaceResourceBuilder);
+                }
+            }
+        } else if (resource.getResourceTypeName().equals(CollectionResource.RESOURCE_TYPE_LATENCY)) {
+            CollectionSetProtos.ResponseTimeResource.Builder responseTimeResource = buildResponseTimeResource(
+                    resource);
+            if (responseTimeResource != null) {
+                collectionSetResourceBuilder.setResponse(responseTimeResource);
+            }
+        } else {
+            CollectionSetProtos.GenericTypeResource.Builder genericResourceBuilder = CollectionSetProtos.GenericTypeResource
+                    .newBuilder();
+            String nodeCriteria = getNodeCriteriaFromResource(resource);
+            if (!Strings.isNullOrEmpty(nodeCriteria)) {
+                CollectionSetProtos.NodeLevelResource.Builder nodeResourceBuilder = buildNodeLevelResourceForProto(
+                        nodeCriteria);
+                nodeId = nodeResourceBuilder.getNodeId();
+                genericResourceBuilder.setNode(nodeResourceBuilder);
+            }
+            genericResourceBuilder.setType(resource.getResourceTypeName());
+            genericResourceBuilder.setInstance(resource.getInstance());
+            collectionSetResourceBuilder.setGeneric(genericResourceBuilder);
+        }
+        // Response time resources doesn't embed any node info, they will not have any resource-id info.
+        if (nodeId > 0) {
+            populateResourceIdFields(collectionSetResourceBuilder, resource, nodeId);
+        }
+        return collectionSetResourceBuilder;
+    }
+
+    private void populateResourceIdFields(CollectionSetProtos.CollectionSetResource.Builder collectionSetResourceBuilder,
+                                          CollectionResource collectionResource, long nodeId) {
+        try {
+            ResourceId resourceId = resourceDao.getResourceId(collectionResource, nodeId);
+            if (resourceId != null) {
+                    getString(resourceId.toString()).ifPresent(collectionSetResourceBuilder::setResourceId);
+                    getString(resourceId.getName()).ifPresent(collectionSetResourceBuilder::setResourceName);
+                    getString(resourceId.getType()).ifPresent(collectionSetResourceBuilder::setResourceTypeName);
+            } else {
+                LOG.error("Couldn't fetch resource from ResourceId {} ", resourceId);
+            }
+        } catch (Exception e) {
+            LOG.error("Couldn't map ResourceId fields from CollectionResource {}", collectionResource);
+        }
+    }
+
+    private static void addStringAttribute(CollectionSetProtos.CollectionSetResource.Builder collectionSetResourceBuilder,
+                                           String name, String value) {
+        CollectionSetProtos.StringAttribute.Builder attributeBuilder = CollectionSetProtos.StringAttribute
+                .newBuilder();
+        attributeBuilder.setValue(value);
+        attributeBuilder.setName(name);
+        collectionSetResourceBuilder.addString(attributeBuilder);
+    }
+
+    private static CollectionSetProtos.NumericAttribute.Builder newNumericAttribute(String group, String name, AttributeType type) {
+        CollectionSetProtos.NumericAttribute.Builder attributeBuilder = CollectionSetProtos.NumericAttribute
+                .newBuilder();
+        attributeBuilder.setGroup(group);
+        attributeBuilder.setName(name);
+        attributeBuilder.setType((type == AttributeType.GAUGE) ? Type.GAUGE : Type.COUNTER);
+        return attributeBuilder;
+    }
+
     private boolean hasResource(CollectionSetProtos.CollectionSetResource.Builder collectionSetResourceBuilder) {
         return collectionSetResourceBuilder.hasNode() || collectionSetResourceBuilder.hasInterface()
                 || collectionSetResourceBuilder.hasGeneric() || collectionSetResourceBuilder.hasResponse();
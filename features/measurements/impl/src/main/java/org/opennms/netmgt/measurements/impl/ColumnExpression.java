@@ -0,0 +1,843 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2024 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2024 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.measurements.impl;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+import java.util.function.Supplier;
+
+/**
+ * An expression that is evaluated over whole columns at once instead of
+ * row by row.
+ *
+ * Nodes are produced by the {@link ColumnExpressionParser} and must be bound
+ * to a {@link Scope} before they are evaluated. The semantics follow the ones
+ * of the JEXL arithmetic used by the {@link JEXLExpressionEngine}: anything
+ * that could behave differently is rejected while binding, so that the
+ * expression can be handed to JEXL instead.
+ */
+abstract class ColumnExpression {
+
+    /**
+     * The type of the values, which decides what JEXL does with them.
+     */
+    enum Type {
+        /** Boxed as a {@link Double} */
+        DOUBLE,
+        /** Boxed as a {@link Float}, such as the real literals without suffix */
+        FLOAT,
+        /** Boxed as an {@link Integer} or a {@link Long} */
+        LONG,
+        /** Either {@link #DOUBLE} or {@link #LONG}, depending on the row */
+        NUMBER,
+        BOOLEAN,
+        STRING;
+
+        boolean isNumeric() {
+            return this == DOUBLE || this == FLOAT || this == LONG || this == NUMBER;
+        }
+
+        boolean isFloatingPoint() {
+            return this == DOUBLE || this == FLOAT;
+        }
+    }
+
+    /**
+     * Integers above this are not exact once converted to doubles.
+     */
+    private static final long MAX_EXACT_LONG = 1L << 53;
+
+    /**
+     * The expression uses syntax that is not supported by the parser, or
+     * depends on the order in which the rows are evaluated: all of the
+     * expressions of the request must be evaluated by JEXL.
+     */
+    static class UnsupportedExpressionException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        UnsupportedExpressionException(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    /**
+     * The expression is valid, but can not be evaluated column-wise with the
+     * same results as JEXL: the expression must be evaluated by JEXL, row by row.
+     */
+    static class NotVectorizableException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        NotVectorizableException(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    /**
+     * Resolves the variables referenced by an expression.
+     */
+    interface Scope {
+        int getRowCount();
+
+        /**
+         * @return the column or the constant value of the variable
+         */
+        ColumnExpression resolve(String name) throws UnsupportedExpressionException, NotVectorizableException;
+
+        /**
+         * @return the values of the source with the given label, as referenced
+         *         by the {@code fn:array*} functions, or {@code null}
+         */
+        double[] getSourceArray(String label) throws NotVectorizableException;
+    }
+
+    protected Type m_type;
+
+    /**
+     * Resolves the variables and functions used by the expression.
+     *
+     * @return the type of the values produced by the expression
+     */
+    abstract Type bind(Scope scope) throws UnsupportedExpressionException, NotVectorizableException;
+
+    /**
+     * @return the values of a numeric expression; the returned array may be
+     *         shared and must not be modified
+     */
+    double[] evaluate(int rows) throws NotVectorizableException {
+        throw new IllegalStateException("not a numeric expression: " + this);
+    }
+
+    /**
+     * @return the values of a boolean expression
+     */
+    boolean[] test(int rows) throws NotVectorizableException {
+        throw new IllegalStateException("not a boolean expression: " + this);
+    }
+
+    /**
+     * @return true if the expression has the same value in every row
+     */
+    boolean isConstant() {
+        return false;
+    }
+
+    /**
+     * Compares two numbers the way JEXL does: NaN is equal to NaN and lower
+     * than any other number.
+     */
+    static int compare(double left, double right) {
+        if (Double.isNaN(left)) {
+            return Double.isNaN(right) ? 0 : -1;
+        } else if (Double.isNaN(right)) {
+            return 1;
+        } else if (left < right) {
+            return -1;
+        } else if (left > right) {
+            return 1;
+        }
+        return 0;
+    }
+
+    /**
+     * Compares two numbers for equality the way JEXL does: with
+     * {@link Double#equals(Object)} when both have the same class, with == otherwise.
+     */
+    static boolean equal(double left, double right, boolean sameClass) {
+        if (sameClass) {
+            return Double.doubleToLongBits(left) == Double.doubleToLongBits(right);
+        }
+        return left == right;
+    }
+
+    private static Type requireNumeric(Type type, String what) throws NotVectorizableException {
+        if (!type.isNumeric()) {
+            throw new NotVectorizableException(what + " is not numeric");
+        }
+        return type;
+    }
+
+    /**
+     * A value that is the same in every row.
+     */
+    static class Constant extends ColumnExpression {
+        private final Object m_value;
+
+        Constant(Object value, Type type) {
+            m_value = value;
+            m_type = type;
+        }
+
+        Object getValue() {
+            return m_value;
+        }
+
+        @Override
+        Type bind(Scope scope) throws NotVectorizableException {
+            if (m_type == Type.LONG && Math.abs(((Number) m_value).longValue()) > MAX_EXACT_LONG) {
+                throw new NotVectorizableException("integer " + m_value + " can not be represented as a double");
+            }
+            return m_type;
+        }
+
+        @Override
+        boolean isConstant() {
+            return true;
+        }
+
+        @Override
+        double[] evaluate(int rows) {
+            final double[] values = new double[rows];
+            Arrays.fill(values, ((Number) m_value).doubleValue());
+            return values;
+        }
+
+        @Override
+        boolean[] test(int rows) {
+            final boolean[] values = new boolean[rows];
+            Arrays.fill(values, (Boolean) m_value);
+            return values;
+        }
+
+        @Override
+        public String toString() {
+            return String.valueOf(m_value);
+        }
+    }
+
+    /**
+     * The values of a source, of a previous expression or of a built-in
+     * variable such as the timestamp.
+     */
+    static class Column extends ColumnExpression {
+        private final String m_name;
+        private final Supplier<double[]> m_values;
+
+        /**
+         * @param values
+         *            supplies the values when the expression is evaluated,
+         *            which may be after it was bound
+         */
+        Column(String name, Supplier<double[]> values, Type type) {
+            m_name = name;
+            m_values = values;
+            m_type = type;
+        }
+
+        @Override
+        Type bind(Scope scope) {
+            return m_type;
+        }
+
+        @Override
+        double[] evaluate(int rows) {
+            return m_values.get();
+        }
+
+        @Override
+        public String toString() {
+            return m_name;
+        }
+    }
+
+    /**
+     * A reference to a variable, replaced by what the {@link Scope} resolves it to.
+     */
+    static class Variable extends ColumnExpression {
+        private final String m_name;
+        private ColumnExpression m_resolved;
+
+        Variable(String name) {
+            m_name = name;
+        }
+
+        String getName() {
+            return m_name;
+        }
+
+        @Override
+        Type bind(Scope scope) throws UnsupportedExpressionException, NotVectorizableException {
+            m_resolved = scope.resolve(m_name);
+            m_type = m_resolved.bind(scope);
+            return m_type;
+        }
+
+        @Override
+        boolean isConstant() {
+            return m_resolved.isConstant();
+        }
+
+        ColumnExpression getResolved() {
+            return m_resolved;
+        }
+
+        @Override
+        double[] evaluate(int rows) throws NotVectorizableException {
+            return m_resolved.evaluate(rows);
+        }
+
+        @Override
+        public String toString() {
+            return m_name;
+        }
+    }
+
+    static class Negate extends ColumnExpression {
+        private final ColumnExpression m_operand;
+
+        Negate(ColumnExpression operand) {
+            m_operand = operand;
+        }
+
+        @Override
+        Type bind(Scope scope) throws UnsupportedExpressionException, NotVectorizableException {
+            m_type = requireNumeric(m_operand.bind(scope), "operand of -");
+            return m_type;
+        }
+
+        @Override
+        double[] evaluate(int rows) throws NotVectorizableException {
+            final double[] values = m_operand.evaluate(rows);
+            final double[] result = new double[rows];
+            for (int i = 0; i < rows; i++) {
+                result[i] = -values[i];
+            }
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return "-" + m_operand;
+        }
+    }
+
+    static class Arithmetic extends ColumnExpression {
+        enum Operator { ADD, SUBTRACT, MULTIPLY, DIVIDE, MODULO }
+
+        private final Operator m_operator;
+        private final ColumnExpression m_left;
+        private final ColumnExpression m_right;
+
+        Arithmetic(Operator operator, ColumnExpression left, ColumnExpression right) {
+            m_operator = operator;
+            m_left = left;
+            m_right = right;
+        }
+
+        @Override
+        Type bind(Scope scope) throws UnsupportedExpressionException, NotVectorizableException {
+            final Type left = requireNumeric(m_left.bind(scope), "left operand of " + m_operator);
+            final Type right = requireNumeric(m_right.bind(scope), "right operand of " + m_operator);
+            // JEXL uses integer arithmetic, with overflow to bigger types, when neither side is a floating point number
+            if (!left.isFloatingPoint() && !right.isFloatingPoint()) {
+                throw new NotVectorizableException("integer arithmetic");
+            }
+            m_type = Type.DOUBLE;
+            return m_type;
+        }
+
+        @Override
+        double[] evaluate(int rows) throws NotVectorizableException {
+            final double[] left = m_left.evaluate(rows);
+            final double[] right = m_right.evaluate(rows);
+            final double[] result = new double[rows];
+            switch (m_operator) {
+            case ADD:
+                for (int i = 0; i < rows; i++) {
+                    result[i] = left[i] + right[i];
+                }
+                break;
+            case SUBTRACT:
+                for (int i = 0; i < rows; i++) {
+                    result[i] = left[i] - right[i];
+                }
+                break;
+            case MULTIPLY:
+                for (int i = 0; i < rows; i++) {
+                    result[i] = left[i] * right[i];
+                }
+                break;
+            case DIVIDE:
+                checkDivisor(right, rows);
+                for (int i = 0; i < rows; i++) {
+                    result[i] = left[i] / right[i];
+                }
+                break;
+            case MODULO:
+                checkDivisor(right, rows);
+                for (int i = 0; i < rows; i++) {
+                    result[i] = left[i] % right[i];
+                }
+                break;
+            }
+            return result;
+        }
+
+        private static void checkDivisor(double[] divisor, int rows) throws NotVectorizableException {
+            for (int i = 0; i < rows; i++) {
+                if (divisor[i] == 0.0d) {
+                    // JEXL fails on a division by zero, let it report the error
+                    throw new NotVectorizableException("division by zero");
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "(" + m_left + " " + m_operator + " " + m_right + ")";
+        }
+    }
+
+    static class Comparison extends ColumnExpression {
+        enum Operator { EQ, NE, LT, LE, GT, GE }
+
+        private final Operator m_operator;
+        private final ColumnExpression m_left;
+        private final ColumnExpression m_right;
+        private boolean m_booleans;
+        private boolean m_sameClass;
+
+        Comparison(Operator operator, ColumnExpression left, ColumnExpression right) {
+            m_operator = operator;
+            m_left = left;
+            m_right = right;
+        }
+
+        @Override
+        Type bind(Scope scope) throws UnsupportedExpressionException, NotVectorizableException {
+            final Type left = m_left.bind(scope);
+            final Type right = m_right.bind(scope);
+            if (left == Type.BOOLEAN && right == Type.BOOLEAN && (m_operator == Operator.EQ || m_operator == Operator.NE)) {
+                m_booleans = true;
+            } else {
+                requireNumeric(left, "left operand of " + m_operator);
+                requireNumeric(right, "right operand of " + m_operator);
+                if (m_operator == Operator.EQ || m_operator == Operator.NE) {
+                    // JEXL uses equals() when both sides have the same class and == otherwise, which
+                    // only differ for NaN and -0.0
+                    if (left == Type.NUMBER || right == Type.NUMBER) {
+                        throw new NotVectorizableException("operands of " + m_operator + " have different classes");
+                    }
+                    m_sameClass = left == right && left.isFloatingPoint();
+                }
+            }
+            m_type = Type.BOOLEAN;
+            return m_type;
+        }
+
+        @Override
+        boolean[] test(int rows) throws NotVectorizableException {
+            final boolean[] result = new boolean[rows];
+            if (m_booleans) {
+                final boolean[] left = m_left.test(rows);
+                final boolean[] right = m_right.test(rows);
+                final boolean equal = m_operator == Operator.EQ;
+                for (int i = 0; i < rows; i++) {
+                    result[i] = (left[i] == right[i]) == equal;
+                }
+                return result;
+            }
+
+            final double[] left = m_left.evaluate(rows);
+            final double[] right = m_right.evaluate(rows);
+            switch (m_operator) {
+            case EQ:
+                for (int i = 0; i < rows; i++) {
+                    result[i] = equal(left[i], right[i], m_sameClass);
+                }
+                break;
+            case NE:
+                for (int i = 0; i < rows; i++) {
+                    result[i] = !equal(left[i], right[i], m_sameClass);
+                }
+                break;
+            case LT:
+                for (int i = 0; i < rows; i++) {
+                    result[i] = compare(left[i], right[i]) < 0;
+                }
+                break;
+            case LE:
+                for (int i = 0; i < rows; i++) {
+                    result[i] = compare(left[i], right[i]) <= 0;
+                }
+                break;
+            case GT:
+                for (int i = 0; i < rows; i++) {
+                    result[i] = compare(left[i], right[i]) > 0;
+                }
+                break;
+            case GE:
+                for (int i = 0; i < rows; i++) {
+                    result[i] = compare(left[i], right[i]) >= 0;
+                }
+                break;
+            }
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return "(" + m_left + " " + m_operator + " " + m_right + ")";
+        }
+    }
+
+    static class Logical extends ColumnExpression {
+        enum Operator { AND, OR }
+
+        private final Operator m_operator;
+        private final ColumnExpression m_left;
+        private final ColumnExpression m_right;
+
+        Logical(Operator operator, ColumnExpression left, ColumnExpression right) {
+            m_operator = operator;
+            m_left = left;
+            m_right = right;
+        }
+
+        @Override
+        Type bind(Scope scope) throws UnsupportedExpressionException, NotVectorizableException {
+            if (m_left.bind(scope) != Type.BOOLEAN || m_right.bind(scope) != Type.BOOLEAN) {
+                throw new NotVectorizableException("operand of " + m_operator + " is not a boolean");
+            }
+            m_type = Type.BOOLEAN;
+            return m_type;
+        }
+
+        @Override
+        boolean[] test(int rows) throws NotVectorizableException {
+            // Both sides are free of side effects, so there is no need to short-circuit
+            final boolean[] left = m_left.test(rows);
+            final boolean[] right = m_right.test(rows);
+            final boolean[] result = new boolean[rows];
+            if (m_operator == Operator.AND) {
+                for (int i = 0; i < rows; i++) {
+                    result[i] = left[i] && right[i];
+                }
+            } else {
+                for (int i = 0; i < rows; i++) {
+                    result[i] = left[i] || right[i];
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return "(" + m_left + " " + m_operator + " " + m_right + ")";
+        }
+    }
+
+    static class Not extends ColumnExpression {
+        private final ColumnExpression m_operand;
+
+        Not(ColumnExpression operand) {
+            m_operand = operand;
+        }
+
+        @Override
+        Type bind(Scope scope) throws UnsupportedExpressionException, NotVectorizableException {
+            if (m_operand.bind(scope) != Type.BOOLEAN) {
+                throw new NotVectorizableException("operand of ! is not a boolean");
+            }
+            m_type = Type.BOOLEAN;
+            return m_type;
+        }
+
+        @Override
+        boolean[] test(int rows) throws NotVectorizableException {
+            final boolean[] values = m_operand.test(rows);
+            final boolean[] result = new boolean[rows];
+            for (int i = 0; i < rows; i++) {
+                result[i] = !values[i];
+            }
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return "!" + m_operand;
+        }
+    }
+
+    static class Ternary extends ColumnExpression {
+        private final ColumnExpression m_condition;
+        private final ColumnExpression m_then;
+        private final ColumnExpression m_else;
+
+        Ternary(ColumnExpression condition, ColumnExpression then, ColumnExpression otherwise) {
+            m_condition = condition;
+            m_then = then;
+            m_else = otherwise;
+        }
+
+        @Override
+        Type bind(Scope scope) throws UnsupportedExpressionException, NotVectorizableException {
+            if (m_condition.bind(scope) != Type.BOOLEAN) {
+                throw new NotVectorizableException("condition is not a boolean");
+            }
+            final Type then = requireNumeric(m_then.bind(scope), "first branch");
+            final Type otherwise = requireNumeric(m_else.bind(scope), "second branch");
+            if (then == otherwise) {
+                m_type = then;
+            } else if (then != Type.FLOAT && otherwise != Type.FLOAT) {
+                m_type = Type.NUMBER;
+            } else {
+                throw new NotVectorizableException("branches mix floats with other numbers");
+            }
+            return m_type;
+        }
+
+        @Override
+        double[] evaluate(int rows) throws NotVectorizableException {
+            final boolean[] condition = m_condition.test(rows);
+            final double[] then = m_then.evaluate(rows);
+            final double[] otherwise = m_else.evaluate(rows);
+            final double[] result = new double[rows];
+            for (int i = 0; i < rows; i++) {
+                result[i] = condition[i] ? then[i] : otherwise[i];
+            }
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return "(" + m_condition + " ? " + m_then + " : " + m_else + ")";
+        }
+    }
+
+    /**
+     * A call to one of the functions of {@link Math} or {@link StrictMath}
+     * that only exist for doubles, or to {@code abs}, {@code min} and
+     * {@code max}, which give the same value for every overload.
+     */
+    static class MathFunction extends ColumnExpression {
+        private final String m_namespace;
+        private final String m_name;
+        private final List<ColumnExpression> m_arguments;
+        private DoubleUnaryOperator m_unary;
+        private DoubleBinaryOperator m_binary;
+
+        MathFunction(String namespace, String name, List<ColumnExpression> arguments) {
+            m_namespace = namespace;
+            m_name = name;
+            m_arguments = arguments;
+        }
+
+        @Override
+        Type bind(Scope scope) throws UnsupportedExpressionException, NotVectorizableException {
+            final EnumSet<Type> types = EnumSet.noneOf(Type.class);
+            for (ColumnExpression argument : m_arguments) {
+                types.add(requireNumeric(argument.bind(scope), "argument of " + m_name));
+            }
+            final boolean strict = "strictmath".equals(m_namespace);
+            if (m_arguments.size() == 1) {
+                m_unary = getUnary(m_name, strict);
+                if (m_unary != null) {
+                    m_type = Type.DOUBLE;
+                } else if ("abs".equals(m_name)) {
+                    m_unary = Math::abs;
+                    m_type = getOverloadType(types);
+                }
+            } else if (m_arguments.size() == 2) {
+                m_binary = getBinary(m_name, strict);
+                if (m_binary != null) {
+                    m_type = Type.DOUBLE;
+                } else if ("min".equals(m_name) || "max".equals(m_name)) {
+                    m_binary = "min".equals(m_name) ? Math::min : Math::max;
+                    m_type = getOverloadType(types);
+                }
+            }
+            if (m_unary == null && m_binary == null) {
+                throw new NotVectorizableException("unsupported function " + m_namespace + ":" + m_name);
+            }
+            return m_type;
+        }
+
+        /**
+         * @return the type returned by the overload of abs, min or max that
+         *         JEXL picks for arguments of the given types
+         */
+        private Type getOverloadType(Set<Type> types) throws NotVectorizableException {
+            if (types.contains(Type.NUMBER)) {
+                throw new NotVectorizableException("the overload of " + m_name + " depends on the row");
+            } else if (types.contains(Type.DOUBLE)) {
+                return Type.DOUBLE;
+            } else if (types.contains(Type.FLOAT)) {
+                if (types.contains(Type.LONG)) {
+                    // Integers would be rounded to floats
+                    throw new NotVectorizableException("integer argument of " + m_name + "(float)");
+                }
+                return Type.FLOAT;
+            }
+            return Type.LONG;
+        }
+
+        private static DoubleUnaryOperator getUnary(String name, boolean strict) {
+            switch (name) {
+            case "sin": return strict ? StrictMath::sin : Math::sin;
+            case "cos": return strict ? StrictMath::cos : Math::cos;
+            case "tan": return strict ? StrictMath::tan : Math::tan;
+            case "asin": return strict ? StrictMath::asin : Math::asin;
+            case "acos": return strict ? StrictMath::acos : Math::acos;
+            case "atan": return strict ? StrictMath::atan : Math::atan;
+            case "sinh": return strict ? StrictMath::sinh : Math::sinh;
+            case "cosh": return strict ? StrictMath::cosh : Math::cosh;
+            case "tanh": return strict ? StrictMath::tanh : Math::tanh;
+            case "exp": return strict ? StrictMath::exp : Math::exp;
+            case "expm1": return strict ? StrictMath::expm1 : Math::expm1;
+            case "log": return strict ? StrictMath::log : Math::log;
+            case "log10": return strict ? StrictMath::log10 : Math::log10;
+            case "log1p": return strict ? StrictMath::log1p : Math::log1p;
+            case "sqrt": return strict ? StrictMath::sqrt : Math::sqrt;
+            case "cbrt": return strict ? StrictMath::cbrt : Math::cbrt;
+            case "ceil": return strict ? StrictMath::ceil : Math::ceil;
+            case "floor": return strict ? StrictMath::floor : Math::floor;
+            case "rint": return strict ? StrictMath::rint : Math::rint;
+            case "toDegrees": return strict ? StrictMath::toDegrees : Math::toDegrees;
+            case "toRadians": return strict ? StrictMath::toRadians : Math::toRadians;
+            default: return null;
+            }
+        }
+
+        private static DoubleBinaryOperator getBinary(String name, boolean strict) {
+            switch (name) {
+            case "atan2": return strict ? StrictMath::atan2 : Math::atan2;
+            case "pow": return strict ? StrictMath::pow : Math::pow;
+            case "hypot": return strict ? StrictMath::hypot : Math::hypot;
+            case "IEEEremainder": return strict ? StrictMath::IEEEremainder : Math::IEEEremainder;
+            default: return null;
+            }
+        }
+
+        @Override
+        double[] evaluate(int rows) throws NotVectorizableException {
+            final double[] result = new double[rows];
+            if (m_unary != null) {
+                final double[] values = m_arguments.get(0).evaluate(rows);
+                for (int i = 0; i < rows; i++) {
+                    result[i] = m_unary.applyAsDouble(values[i]);
+                }
+            } else {
+                final double[] left = m_arguments.get(0).evaluate(rows);
+                final double[] right = m_arguments.get(1).evaluate(rows);
+                for (int i = 0; i < rows; i++) {
+                    result[i] = m_binary.applyAsDouble(left[i], right[i]);
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return m_namespace + ":" + m_name + m_arguments;
+        }
+    }
+
+    /**
+     * A call to one of the {@link SampleArrayFunctions}, which reference the
+     * value of a source a given number of rows earlier.
+     */
+    static class SampleArrayFunction extends ColumnExpression {
+        private final String m_name;
+        private final List<ColumnExpression> m_arguments;
+        private double[] m_source;
+        private int m_offset;
+
+        SampleArrayFunction(String name, List<ColumnExpression> arguments) {
+            m_name = name;
+            m_arguments = arguments;
+        }
+
+        @Override
+        Type bind(Scope scope) throws UnsupportedExpressionException, NotVectorizableException {
+            final int numArguments = "arrayStart".equals(m_name) ? 3 : 2;
+            if (!Arrays.asList("arrayZero", "arrayFirst", "arrayNaN", "arrayStart").contains(m_name) || m_arguments.size() != numArguments) {
+                throw new NotVectorizableException("unsupported function fn:" + m_name);
+            }
+            final ColumnExpression label = m_arguments.get(0);
+            final ColumnExpression offset = m_arguments.get(1);
+            if (!(label instanceof Constant) || label.bind(scope) != Type.STRING) {
+                throw new NotVectorizableException("the label of fn:" + m_name + " is not a string literal");
+            }
+            // Only plain int literals match the Integer and int parameters
+            if (!(offset instanceof Constant) || !(((Constant) offset).getValue() instanceof Integer)) {
+                throw new NotVectorizableException("the offset of fn:" + m_name + " is not an int literal");
+            }
+            if (numArguments == 3) {
+                requireNumeric(m_arguments.get(2).bind(scope), "start value of fn:" + m_name);
+            }
+            m_source = scope.getSourceArray((String) ((Constant) label).getValue());
+            m_offset = (Integer) ((Constant) offset).getValue();
+            m_type = Type.DOUBLE;
+            return m_type;
+        }
+
+        @Override
+        double[] evaluate(int rows) throws NotVectorizableException {
+            final double[] result = new double[rows];
+            if (m_source == null) {
+                // Not a source, the function returns NaN
+                Arrays.fill(result, Double.NaN);
+                return result;
+            }
+            final double[] start = m_arguments.size() == 3 ? m_arguments.get(2).evaluate(rows) : null;
+            for (int i = 0; i < rows; i++) {
+                final int j = i - m_offset;
+                if (j >= rows) {
+                    result[i] = Double.NaN;
+                } else if (j >= 0) {
+                    result[i] = m_source[j];
+                } else {
+                    switch (m_name) {
+                    case "arrayZero":
+                        result[i] = 0.0d;
+                        break;
+                    case "arrayFirst":
+                        result[i] = m_source[0];
+                        break;
+                    case "arrayStart":
+                        result[i] = start[i];
+                        break;
+                    default:
+                        result[i] = Double.NaN;
+                    }
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return "fn:" + m_name + m_arguments;
+        }
+    }
+}
@@ -0,0 +1,426 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2024 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2024 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.measurements.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.opennms.netmgt.measurements.impl.ColumnExpression.Arithmetic;
+import org.opennms.netmgt.measurements.impl.ColumnExpression.Comparison;
+import org.opennms.netmgt.measurements.impl.ColumnExpression.Constant;
+import org.opennms.netmgt.measurements.impl.ColumnExpression.Logical;
+import org.opennms.netmgt.measurements.impl.ColumnExpression.MathFunction;
+import org.opennms.netmgt.measurements.impl.ColumnExpression.Negate;
+import org.opennms.netmgt.measurements.impl.ColumnExpression.Not;
+import org.opennms.netmgt.measurements.impl.ColumnExpression.SampleArrayFunction;
+import org.opennms.netmgt.measurements.impl.ColumnExpression.Ternary;
+import org.opennms.netmgt.measurements.impl.ColumnExpression.Type;
+import org.opennms.netmgt.measurements.impl.ColumnExpression.UnsupportedExpressionException;
+import org.opennms.netmgt.measurements.impl.ColumnExpression.Variable;
+
+/**
+ * Parses the subset of the JEXL syntax that is used by the expressions of
+ * the graph definitions: arithmetic, comparisons, logical operators, the
+ * ternary operator and the functions of the {@code math}, {@code strictmath}
+ * and {@code fn} namespaces.
+ *
+ * Precedence and literals follow the JEXL 2 grammar: integer literals are
+ * Integers, or Longs if they do not fit, and real literals are Floats unless
+ * they end with {@code d}. Anything else, including the {@code jexl}
+ * namespace, is rejected with an {@link UnsupportedExpressionException}.
+ */
+final class ColumnExpressionParser {
+
+    private static final List<String> NAMESPACES = Arrays.asList("math", "strictmath", "fn");
+
+    private static final List<String> RESERVED = Arrays.asList("or", "and", "eq", "ne", "lt", "gt", "le", "ge",
+            "div", "mod", "not", "null", "true", "false", "new", "empty", "size", "if", "else", "for", "foreach",
+            "while", "var", "return", "function", "in");
+
+    private final String m_expression;
+    private int m_pos = 0;
+
+    private ColumnExpressionParser(String expression) {
+        m_expression = expression;
+    }
+
+    static ColumnExpression parse(String expression) throws UnsupportedExpressionException {
+        if (expression == null) {
+            throw new UnsupportedExpressionException("no expression");
+        }
+        final ColumnExpressionParser parser = new ColumnExpressionParser(expression);
+        final ColumnExpression result = parser.parseTernary();
+        parser.skipWhitespace();
+        if (parser.m_pos != expression.length()) {
+            throw parser.unsupported();
+        }
+        return result;
+    }
+
+    private ColumnExpression parseTernary() throws UnsupportedExpressionException {
+        final ColumnExpression condition = parseOr();
+        if (accept("?")) {
+            if (peek(":")) {
+                // Elvis operator
+                throw unsupported();
+            }
+            final ColumnExpression then = parseTernary();
+            expect(":");
+            final ColumnExpression otherwise = parseTernary();
+            return new Ternary(condition, then, otherwise);
+        }
+        return condition;
+    }
+
+    private ColumnExpression parseOr() throws UnsupportedExpressionException {
+        ColumnExpression left = parseAnd();
+        while (accept("||") || acceptWord("or")) {
+            left = new Logical(Logical.Operator.OR, left, parseAnd());
+        }
+        return left;
+    }
+
+    private ColumnExpression parseAnd() throws UnsupportedExpressionException {
+        ColumnExpression left = parseEquality();
+        while (accept("&&") || acceptWord("and")) {
+            left = new Logical(Logical.Operator.AND, left, parseEquality());
+        }
+        return left;
+    }
+
+    private ColumnExpression parseEquality() throws UnsupportedExpressionException {
+        ColumnExpression left = parseRelational();
+        while (true) {
+            if (peek("=~") || peek("!~")) {
+                throw unsupported();
+            } else if (accept("==") || acceptWord("eq")) {
+                left = new Comparison(Comparison.Operator.EQ, left, parseRelational());
+            } else if (accept("!=") || acceptWord("ne")) {
+                left = new Comparison(Comparison.Operator.NE, left, parseRelational());
+            } else {
+                return left;
+            }
+        }
+    }
+
+    private ColumnExpression parseRelational() throws UnsupportedExpressionException {
+        ColumnExpression left = parseAdditive();
+        while (true) {
+            if (accept("<=") || acceptWord("le")) {
+                left = new Comparison(Comparison.Operator.LE, left, parseAdditive());
+            } else if (accept(">=") || acceptWord("ge")) {
+                left = new Comparison(Comparison.Operator.GE, left, parseAdditive());
+            } else if (accept("<") || acceptWord("lt")) {
+                left = new Comparison(Comparison.Operator.LT, left, parseAdditive());
+            } else if (accept(">") || acceptWord("gt")) {
+                left = new Comparison(Comparison.Operator.GT, left, parseAdditive());
+            } else {
+                return left;
+            }
+        }
+    }
+
+    private ColumnExpression parseAdditive() throws UnsupportedExpressionException {
+        ColumnExpression left = parseMultiplicative();
+        while (true) {
+            if (accept("+")) {
+                left = new Arithmetic(Arithmetic.Operator.ADD, left, parseMultiplicative());
+            } else if (accept("-")) {
+                left = new Arithmetic(Arithmetic.Operator.SUBTRACT, left, parseMultiplicative());
+            } else {
+                return left;
+            }
+        }
+    }
+
+    private ColumnExpression parseMultiplicative() throws UnsupportedExpressionException {
+        ColumnExpression left = parseUnary();
+        while (true) {
+            if (peek("//") || peek("/*")) {
+                // Comments
+                throw unsupported();
+            } else if (accept("*")) {
+                left = new Arithmetic(Arithmetic.Operator.MULTIPLY, left, parseUnary());
+            } else if (accept("/") || acceptWord("div")) {
+                left = new Arithmetic(Arithmetic.Operator.DIVIDE, left, parseUnary());
+            } else if (accept("%") || acceptWord("mod")) {
+                left = new Arithmetic(Arithmetic.Operator.MODULO, left, parseUnary());
+            } else {
+                return left;
+            }
+        }
+    }
+
+    private ColumnExpression parseUnary() throws UnsupportedExpressionException {
+        if (accept("-")) {
+            final ColumnExpression operand = parseUnary();
+            if (operand instanceof Constant) {
+                return negate((Constant) operand);
+            }
+            return new Negate(operand);
+        } else if (peek("!=")) {
+            throw unsupported();
+        } else if (accept("!") || acceptWord("not")) {
+            return new Not(parseUnary());
+        }
+        return parsePrimary();
+    }
+
+    private ColumnExpression parsePrimary() throws UnsupportedExpressionException {
+        skipWhitespace();
+        if (m_pos >= m_expression.length()) {
+            throw unsupported();
+        }
+        final char c = m_expression.charAt(m_pos);
+        if (accept("(")) {
+            final ColumnExpression expression = parseTernary();
+            expect(")");
+            return expression;
+        } else if (c >= '0' && c <= '9') {
+            return parseNumber();
+        } else if (c == '\'' || c == '"') {
+            return parseString(c);
+        } else if (isIdentifierStart(c)) {
+            return parseIdentifier();
+        }
+        throw unsupported();
+    }
+
+    private ColumnExpression parseNumber() throws UnsupportedExpressionException {
+        final int start = m_pos;
+        while (m_pos < m_expression.length() && Character.isDigit(m_expression.charAt(m_pos))) {
+            m_pos++;
+        }
+        boolean real = false;
+        if (m_pos + 1 < m_expression.length() && m_expression.charAt(m_pos) == '.' && Character.isDigit(m_expression.charAt(m_pos + 1))) {
+            real = true;
+            m_pos++;
+            while (m_pos < m_expression.length() && Character.isDigit(m_expression.charAt(m_pos))) {
+                m_pos++;
+            }
+        }
+        final String digits = m_expression.substring(start, m_pos);
+        char suffix = 0;
+        if (m_pos < m_expression.length() && Character.isLetter(m_expression.charAt(m_pos))) {
+            suffix = m_expression.charAt(m_pos++);
+        }
+        if (m_pos < m_expression.length() && (isIdentifierPart(m_expression.charAt(m_pos)) || m_expression.charAt(m_pos) == '.')) {
+            throw unsupported();
+        }
+
+        if (real) {
+            if (suffix == 'd' || suffix == 'D') {
+                return new Constant(Double.valueOf(digits), Type.DOUBLE);
+            } else if (suffix == 0 || suffix == 'f' || suffix == 'F') {
+                return new Constant(Float.valueOf(digits), Type.FLOAT);
+            }
+            throw unsupported();
+        }
+        if (digits.length() > 1 && digits.charAt(0) == '0') {
+            // Octal and hexadecimal literals
+            throw unsupported();
+        }
+        try {
+            if (suffix == 'l' || suffix == 'L') {
+                return new Constant(Long.valueOf(digits), Type.LONG);
+            } else if (suffix == 0) {
+                final long value = Long.parseLong(digits);
+                if (value <= Integer.MAX_VALUE) {
+                    return new Constant(Integer.valueOf((int) value), Type.LONG);
+                }
+                return new Constant(value, Type.LONG);
+            }
+        } catch (NumberFormatException e) {
+            // Would be a BigInteger
+        }
+        throw unsupported();
+    }
+
+    private ColumnExpression parseString(char quote) throws UnsupportedExpressionException {
+        final int end = m_expression.indexOf(quote, m_pos + 1);
+        if (end < 0) {
+            throw unsupported();
+        }
+        final String value = m_expression.substring(m_pos + 1, end);
+        if (value.indexOf('\\') >= 0) {
+            // Escape sequences
+            throw unsupported();
+        }
+        m_pos = end + 1;
+        return new Constant(value, Type.STRING);
+    }
+
+    private ColumnExpression parseIdentifier() throws UnsupportedExpressionException {
+        final String name = readIdentifier();
+        if ("true".equals(name) || "false".equals(name)) {
+            return new Constant(Boolean.valueOf(name), Type.BOOLEAN);
+        } else if (RESERVED.contains(name)) {
+            throw unsupported();
+        }
+
+        if (m_pos < m_expression.length() && m_expression.charAt(m_pos) == ':' && !isTernaryColon()) {
+            m_pos++;
+            if (!NAMESPACES.contains(name)) {
+                throw unsupported();
+            }
+            final String function = readIdentifier();
+            final List<ColumnExpression> arguments = parseArguments();
+            if ("fn".equals(name)) {
+                return new SampleArrayFunction(function, arguments);
+            }
+            return new MathFunction(name, function, arguments);
+        }
+
+        final StringBuilder variable = new StringBuilder(name);
+        while (m_pos < m_expression.length() && m_expression.charAt(m_pos) == '.') {
+            m_pos++;
+            variable.append('.').append(readIdentifier());
+        }
+        skipWhitespace();
+        if (peek("(") || peek("[") || peek("=") && !peek("==")) {
+            // Method calls, array access and assignments
+            throw unsupported();
+        }
+        return new Variable(variable.toString());
+    }
+
+    /**
+     * @return true if the colon that follows an identifier is the one of a
+     *         ternary operator and not the one of a namespace
+     */
+    private boolean isTernaryColon() {
+        int next = m_pos + 1;
+        if (next >= m_expression.length() || !isIdentifierStart(m_expression.charAt(next))) {
+            return true;
+        }
+        while (next < m_expression.length() && isIdentifierPart(m_expression.charAt(next))) {
+            next++;
+        }
+        while (next < m_expression.length() && Character.isWhitespace(m_expression.charAt(next))) {
+            next++;
+        }
+        return next >= m_expression.length() || m_expression.charAt(next) != '(';
+    }
+
+    private List<ColumnExpression> parseArguments() throws UnsupportedExpressionException {
+        expect("(");
+        final List<ColumnExpression> arguments = new ArrayList<>();
+        if (accept(")")) {
+            return arguments;
+        }
+        do {
+            arguments.add(parseTernary());
+        } while (accept(","));
+        expect(")");
+        return arguments;
+    }
+
+    private String readIdentifier() throws UnsupportedExpressionException {
+        final int start = m_pos;
+        if (m_pos >= m_expression.length() || !isIdentifierStart(m_expression.charAt(m_pos))) {
+            throw unsupported();
+        }
+        while (m_pos < m_expression.length() && isIdentifierPart(m_expression.charAt(m_pos))) {
+            m_pos++;
+        }
+        return m_expression.substring(start, m_pos);
+    }
+
+    private static Constant negate(Constant constant) throws UnsupportedExpressionException {
+        final Object value = constant.getValue();
+        if (value instanceof Integer) {
+            return new Constant(-((Integer) value), Type.LONG);
+        } else if (value instanceof Long) {
+            return new Constant(-((Long) value), Type.LONG);
+        } else if (value instanceof Float) {
+            return new Constant(-((Float) value), Type.FLOAT);
+        } else if (value instanceof Double) {
+            return new Constant(-((Double) value), Type.DOUBLE);
+        }
+        throw new UnsupportedExpressionException("can not negate " + value);
+    }
+
+    private static boolean isIdentifierStart(char c) {
+        return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c == '_' || c == '$';
+    }
+
+    private static boolean isIdentifierPart(char c) {
+        return isIdentifierStart(c) || c >= '0' && c <= '9';
+    }
+
+    private void skipWhitespace() {
+        while (m_pos < m_expression.length() && Character.isWhitespace(m_expression.charAt(m_pos))) {
+            m_pos++;
+        }
+    }
+
+    private boolean peek(String token) {
+        skipWhitespace();
+        return m_expression.startsWith(token, m_pos);
+    }
+
+    private boolean accept(String token) {
+        if (peek(token)) {
+            // Don't mistake the start of a longer operator for a shorter one
+            final int end = m_pos + token.length();
+            if (end < m_expression.length() && token.length() == 1 && "<>=!&|".indexOf(token.charAt(0)) >= 0) {
+                final char next = m_expression.charAt(end);
+                if (next == '=' || next == token.charAt(0) && (next == '&' || next == '|')) {
+                    return false;
+                }
+            }
+            m_pos = end;
+            return true;
+        }
+        return false;
+    }
+
+    private boolean acceptWord(String word) {
+        if (peek(word)) {
+            final int end = m_pos + word.length();
+            if (end < m_expression.length() && isIdentifierPart(m_expression.charAt(end))) {
+                return false;
+            }
+            m_pos = end;
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(String token) throws UnsupportedExpressionException {
+        if (!accept(token)) {
+            throw unsupported();
+        }
+    }
+
+    private UnsupportedExpressionException unsupported() {
+        return new UnsupportedExpressionException("unsupported syntax at offset " + m_pos + " of '" + m_expression + "'");
+    }
+}
@@ -83,6 +83,14 @@ public class JEXLExpressionEngine implements ExpressionEngine {
         jexl.setFunctions(functions);
     }
 
+    /**
+     * Used by the {@link VectorizedExpressionEngine} to evaluate the expressions
+     * that it can not evaluate column-wise.
+     */
+    OnmsJexlEngine getJexlEngine() {
+        return jexl;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -0,0 +1,404 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2024 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2024 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.measurements.impl;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.jexl2.JexlContext;
+import org.apache.commons.jexl2.JexlException;
+import org.opennms.netmgt.measurements.api.ExpressionEngine;
+import org.opennms.netmgt.measurements.api.FetchResults;
+import org.opennms.netmgt.measurements.api.exceptions.ExpressionException;
+import org.opennms.netmgt.measurements.impl.ColumnExpression.Column;
+import org.opennms.netmgt.measurements.impl.ColumnExpression.Constant;
+import org.opennms.netmgt.measurements.impl.ColumnExpression.NotVectorizableException;
+import org.opennms.netmgt.measurements.impl.ColumnExpression.Type;
+import org.opennms.netmgt.measurements.impl.ColumnExpression.UnsupportedExpressionException;
+import org.opennms.netmgt.measurements.impl.ColumnExpression.Variable;
+import org.opennms.netmgt.measurements.model.Expression;
+import org.opennms.netmgt.measurements.model.QueryRequest;
+import org.opennms.netmgt.measurements.utils.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * An expression engine that evaluates each expression over whole columns
+ * instead of evaluating every expression for every row.
+ *
+ * Expressions that can not be evaluated column-wise with the same results,
+ * for example because they use integer arithmetic or divide by zero, are
+ * evaluated by JEXL one row at a time. Requests with expressions that use
+ * syntax the {@link ColumnExpressionParser} does not support, or that
+ * reference an expression defined after them, are handed to the
+ * {@link JEXLExpressionEngine} as a whole.
+ */
+public class VectorizedExpressionEngine implements ExpressionEngine {
+
+    private static final Logger LOG = LoggerFactory.getLogger(VectorizedExpressionEngine.class);
+
+    /**
+     * Set to false to evaluate all of the expressions with the {@link JEXLExpressionEngine}.
+     */
+    public static final String ENABLED_PROPERTY = "org.opennms.netmgt.measurements.vectorizedExpressions";
+
+    private final JEXLExpressionEngine delegate = new JEXLExpressionEngine();
+
+    private final boolean enabled;
+
+    public VectorizedExpressionEngine() {
+        this(Boolean.parseBoolean(System.getProperty(ENABLED_PROPERTY, "true")));
+    }
+
+    protected VectorizedExpressionEngine(final boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void applyExpressions(final QueryRequest request, final FetchResults results) throws ExpressionException {
+        Preconditions.checkNotNull(request, "request argument");
+        Preconditions.checkNotNull(results, "results argument");
+
+        final List<Expression> expressions = request.getExpressions();
+        if (expressions.isEmpty()) {
+            return;
+        }
+        if (!enabled) {
+            delegate.applyExpressions(request, results);
+            return;
+        }
+
+        final Evaluation evaluation;
+        try {
+            evaluation = new Evaluation(expressions, results);
+        } catch (UnsupportedExpressionException e) {
+            LOG.debug("Evaluating the expressions with JEXL: {}", e.getMessage());
+            delegate.applyExpressions(request, results);
+            return;
+        }
+        evaluation.run();
+    }
+
+    /**
+     * The state of the evaluation of the expressions of a single request.
+     */
+    private class Evaluation {
+        private final List<Expression> expressions;
+        private final Map<String, Integer> labels = new HashMap<>();
+        private final ColumnExpression[] compiled;
+        private final double[][] values;
+
+        private final Map<String, double[]> columns;
+        private final Map<String, double[]> sources;
+        private final Map<String, Object> constants;
+        private final long[] timestamps;
+        private final int numRows;
+        private final Map<String, Object> builtins = new HashMap<>();
+        private double[] timestampColumn;
+        private double[] indexColumn;
+
+        private Evaluation(final List<Expression> expressions, final FetchResults results) throws UnsupportedExpressionException {
+            this.expressions = expressions;
+            columns = results.getColumns();
+            sources = new HashMap<>(columns);
+            constants = results.getConstants();
+            timestamps = results.getTimestamps();
+            numRows = timestamps.length;
+            compiled = new ColumnExpression[expressions.size()];
+            values = new double[expressions.size()][];
+
+            builtins.put("__diff_time", numRows < 1 ? 0d : timestamps[numRows-1] - timestamps[0]);
+            builtins.put("__step", results.getStep());
+            builtins.put("__inf", Double.POSITIVE_INFINITY);
+            builtins.put("__neg_inf", Double.NEGATIVE_INFINITY);
+            builtins.put("NaN", Double.NaN);
+            builtins.put("__E", java.lang.Math.E);
+            builtins.put("__PI", java.lang.Math.PI);
+
+            for (int k = 0; k < expressions.size(); k++) {
+                if (labels.put(expressions.get(k).getLabel(), k) != null) {
+                    throw new UnsupportedExpressionException("duplicate label " + expressions.get(k).getLabel());
+                }
+            }
+            for (final String source : sources.keySet()) {
+                if (sources.containsKey("__" + source)) {
+                    throw new UnsupportedExpressionException("source '__" + source + "' hides the samples of '" + source + "'");
+                }
+            }
+
+            // Bind all of the expressions before evaluating any of them, so that
+            // we can still hand the whole request over to JEXL
+            for (int k = 0; k < compiled.length; k++) {
+                final ColumnExpression expression = ColumnExpressionParser.parse(expressions.get(k).getExpression());
+                try {
+                    final Type type = expression.bind(new ExpressionScope(k));
+                    if (!type.isNumeric()) {
+                        throw new NotVectorizableException("the result is not a number");
+                    }
+                    compiled[k] = expression;
+                } catch (NotVectorizableException e) {
+                    LOG.debug("Evaluating expression with label '{}' row by row: {}", expressions.get(k).getLabel(), e.getMessage());
+                }
+            }
+        }
+
+        private void run() throws ExpressionException {
+            for (int k = 0; k < compiled.length; k++) {
+                if (compiled[k] != null) {
+                    try {
+                        values[k] = evaluate(compiled[k]);
+                        continue;
+                    } catch (NotVectorizableException e) {
+                        LOG.debug("Evaluating expression with label '{}' row by row: {}", expressions.get(k).getLabel(), e.getMessage());
+                    }
+                }
+                values[k] = interpret(k);
+            }
+
+            // Store the results
+            for (int k = 0; k < compiled.length; k++) {
+                final Expression expression = expressions.get(k);
+                if (!expression.getTransient()) {
+                    columns.put(expression.getLabel(), values[k]);
+                }
+            }
+        }
+
+        private double[] evaluate(final ColumnExpression expression) throws NotVectorizableException {
+            final double[] result = expression.evaluate(numRows);
+            if (expression.m_type == Type.FLOAT) {
+                // Floats are converted to doubles through their string representation
+                final double[] converted = new double[numRows];
+                for (int i = 0; i < numRows; i++) {
+                    converted[i] = Utils.toDouble(Float.valueOf((float) result[i]));
+                }
+                return converted;
+            }
+            // Variables return the columns they reference
+            return expression instanceof Variable ? result.clone() : result;
+        }
+
+        private double[] interpret(final int k) throws ExpressionException {
+            final Expression e = expressions.get(k);
+            final org.apache.commons.jexl2.Expression expression;
+            try {
+                expression = delegate.getJexlEngine().createExpression(e.getExpression());
+            } catch (JexlException ex) {
+                throw new ExpressionException(ex, "Failed to parse expression. Label = '{}', Expression'{}'. Please check also the Jexl documentation for details: https://commons.apache.org/proper/commons-jexl/reference/syntax.html", e.getLabel(), e.getExpression());
+            }
+
+            final RowContext context = new RowContext(k);
+            final double[] result = new double[numRows];
+            for (int i = 0; i < numRows; i++) {
+                context.row = i;
+                try {
+                    result[i] = Utils.toDouble(expression.evaluate(context));
+                } catch (NullPointerException|NumberFormatException ex) {
+                    throw new ExpressionException(ex, "The return value from expression with label '" +
+                            e.getLabel() + "' could not be cast to a Double.");
+                } catch (JexlException ex) {
+                    throw new ExpressionException(ex, "Failed to evaluate expression with label '" +
+                            e.getLabel() + "'.");
+                }
+            }
+            return result;
+        }
+
+        /**
+         * @return the index of the expression whose results are referenced by
+         *         the name, or -1 if the name references something else
+         */
+        private int getExpressionIndex(final String name, final int k) throws UnsupportedExpressionException {
+            if (sources.containsKey(name) || "timestamp".equals(name) || "__i".equals(name)
+                    || name.startsWith("__") && sources.containsKey(name.substring(2))) {
+                // These are set before every expression is evaluated
+                return -1;
+            }
+            final Integer j = labels.get(name);
+            if (j == null) {
+                return -1;
+            } else if (j >= k) {
+                // Would be the value of the previous row, or nothing at all in the first one
+                throw new UnsupportedExpressionException("expression " + k + " references '" + name + "' before it is evaluated");
+            }
+            return j;
+        }
+
+        /**
+         * Resolves the names in the same order as the JEXL context that is
+         * populated by the {@link JEXLExpressionEngine}.
+         */
+        private class ExpressionScope implements ColumnExpression.Scope {
+            private final int k;
+
+            private ExpressionScope(final int k) {
+                this.k = k;
+            }
+
+            @Override
+            public int getRowCount() {
+                return numRows;
+            }
+
+            @Override
+            public ColumnExpression resolve(final String name) throws UnsupportedExpressionException, NotVectorizableException {
+                final int dot = name.indexOf('.');
+                if (dot > 0) {
+                    // JEXL tries all of the prefixes of the name before the whole name
+                    for (int i = dot; i > 0; i = name.indexOf('.', i + 1)) {
+                        if (isDefined(name.substring(0, i))) {
+                            throw new NotVectorizableException("property of '" + name.substring(0, i) + "'");
+                        }
+                    }
+                    return constant(name, constants.get(name));
+                }
+
+                final int j = getExpressionIndex(name, k);
+                if (sources.containsKey(name)) {
+                    return new Column(name, () -> sources.get(name), Type.DOUBLE);
+                } else if (name.startsWith("__") && sources.containsKey(name.substring(2))) {
+                    throw new NotVectorizableException("samples of '" + name.substring(2) + "'");
+                } else if ("timestamp".equals(name)) {
+                    return new Column(name, this::getTimestamps, Type.LONG);
+                } else if ("__i".equals(name)) {
+                    return new Column(name, this::getIndexes, Type.LONG);
+                } else if (j >= 0) {
+                    return new Column(name, () -> values[j], Type.DOUBLE);
+                } else if (builtins.containsKey(name)) {
+                    return constant(name, builtins.get(name));
+                }
+                return constant(name, constants.get(name));
+            }
+
+            private boolean isDefined(final String name) throws UnsupportedExpressionException {
+                return getExpressionIndex(name, k) >= 0 || sources.containsKey(name) || "timestamp".equals(name) || "__i".equals(name)
+                        || name.startsWith("__") && sources.containsKey(name.substring(2))
+                        || builtins.containsKey(name) || constants.containsKey(name);
+            }
+
+            private ColumnExpression constant(final String name, final Object value) throws NotVectorizableException {
+                if (value instanceof Double) {
+                    return new Constant(value, Type.DOUBLE);
+                } else if (value instanceof Float) {
+                    return new Constant(value, Type.FLOAT);
+                } else if (value instanceof Integer || value instanceof Long) {
+                    return new Constant(value, Type.LONG);
+                } else if (value instanceof Boolean) {
+                    return new Constant(value, Type.BOOLEAN);
+                }
+                throw new NotVectorizableException("value of '" + name + "' is " + (value == null ? "undefined" : "a " + value.getClass().getSimpleName()));
+            }
+
+            private double[] getTimestamps() {
+                if (timestampColumn == null) {
+                    timestampColumn = new double[numRows];
+                    for (int i = 0; i < numRows; i++) {
+                        timestampColumn[i] = timestamps[i];
+                    }
+                }
+                return timestampColumn;
+            }
+
+            private double[] getIndexes() {
+                if (indexColumn == null) {
+                    indexColumn = new double[numRows];
+                    for (int i = 0; i < numRows; i++) {
+                        indexColumn[i] = i;
+                    }
+                }
+                return indexColumn;
+            }
+
+            @Override
+            public double[] getSourceArray(final String label) throws NotVectorizableException {
+                if (sources.containsKey("__i")) {
+                    throw new NotVectorizableException("source '__i' hides the index of the row");
+                }
+                // Anything else than the samples of a source is not an array, and gives NaN
+                return sources.get(label);
+            }
+        }
+
+        /**
+         * Exposes the values of a single row to JEXL.
+         */
+        private class RowContext implements JexlContext {
+            private final int k;
+            private final Map<String, Object> variables = new HashMap<>();
+            private int row;
+
+            private RowContext(final int k) {
+                this.k = k;
+            }
+
+            @Override
+            public Object get(final String name) {
+                if (variables.containsKey(name)) {
+                    return variables.get(name);
+                } else if (sources.containsKey(name)) {
+                    return sources.get(name)[row];
+                } else if (name.startsWith("__") && sources.containsKey(name.substring(2))) {
+                    return sources.get(name.substring(2));
+                } else if ("timestamp".equals(name)) {
+                    return timestamps[row];
+                } else if ("__i".equals(name)) {
+                    return Integer.valueOf(row);
+                }
+                final Integer j = labels.get(name);
+                if (j != null && j < k) {
+                    return values[j][row];
+                } else if (builtins.containsKey(name)) {
+                    return builtins.get(name);
+                }
+                return constants.get(name);
+            }
+
+            @Override
+            public void set(final String name, final Object value) {
+                variables.put(name, value);
+            }
+
+            @Override
+            public boolean has(final String name) {
+                if (variables.containsKey(name) || sources.containsKey(name) || "timestamp".equals(name) || "__i".equals(name)
+                        || name.startsWith("__") && sources.containsKey(name.substring(2))) {
+                    return true;
+                }
+                final Integer j = labels.get(name);
+                return j != null && j < k || builtins.containsKey(name) || constants.containsKey(name);
+            }
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2024 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2024 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.measurements.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.opennms.netmgt.measurements.api.ExpressionEngine;
+import org.opennms.netmgt.measurements.api.FetchResults;
+import org.opennms.netmgt.measurements.api.exceptions.ExpressionException;
+import org.opennms.netmgt.measurements.model.Expression;
+import org.opennms.netmgt.measurements.model.QueryRequest;
+import org.opennms.netmgt.measurements.model.Source;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+public class VectorizedExpressionEngineTest {
+
+    private static final double DELTA = 0.0001;
+    private final ExpressionEngine vectorizedExpressionEngine = new VectorizedExpressionEngine();
+    private final ExpressionEngine jexlExpressionEngine = new JEXLExpressionEngine();
+
+    @Test
+    public void canPerformArithmetic() throws ExpressionException {
+        double results[] = performExpressions("x * 5 + 7", "-x / 2 - y", "x % 7.0d", "y * 0.1")[0];
+        assertEquals(12, results[1], DELTA);
+        assertTrue(Double.isNaN(results[3]));
+    }
+
+    @Test
+    public void canCompareNaN() throws ExpressionException {
+        double results[] = performExpressions("x == NaN ? 1.0d : 0.0d", "x != NaN && y > 50 ? x : y", "x < 5 || x >= 95 ? x : NaN")[0];
+        assertEquals(0.0d, results[1], DELTA);
+        assertEquals(1.0d, results[3], DELTA);
+    }
+
+    @Test
+    public void canReferencePreviousExpressions() throws ExpressionException {
+        double results[] = performExpressions("x * 8", "y + e0", "math:max(e0, e1) / __step")[2];
+        assertEquals(8.0d + 98.0d, results[1], DELTA);
+    }
+
+    @Test
+    public void canPerformMathFunctions() throws ExpressionException {
+        performExpressions("math:sin(x)", "strictmath:log10(y)", "math:pow(x, 2)", "math:abs(-x)", "math:min(x, 50)", "math:floor(y / 3)");
+    }
+
+    @Test
+    public void canReferenceEarlierSamples() throws ExpressionException {
+        double results[] = performExpressions("fn:arrayNaN('x', 1)", "fn:arrayZero(\"x\", 5)", "fn:arrayFirst('y', 2)",
+                "fn:arrayStart('x', 3, y)", "fn:arrayNaN('x', -1)", "fn:arrayZero('z', 1)")[0];
+        assertTrue(Double.isNaN(results[0]));
+        assertEquals(1.0d, results[2], DELTA);
+    }
+
+    @Test
+    public void canReferenceTimestampIndexAndConstants() throws ExpressionException {
+        final Map<String, Object> constants = Maps.newHashMap();
+        constants.put("speed", 65);
+        constants.put("ratio", 0.5d);
+        constants.put("name", "eth0");
+        performExpressions(constants, "timestamp / 125.0d", "__i * 1.5", "speed / 0.62137", "x * ratio + __diff_time", "1 * __step");
+    }
+
+    @Test
+    public void canEvaluateIntegerArithmetic() throws ExpressionException {
+        // Integer division can't be evaluated column-wise
+        double results[] = performExpressions("__i / 2", "7 / 2 + x")[0];
+        assertEquals(0.0d, results[1], DELTA);
+    }
+
+    @Test
+    public void canEvaluateForwardReferences() throws ExpressionException {
+        // e0 references the value of e1 in the previous row
+        final Map<String, Object> constants = Maps.newHashMap();
+        constants.put("e1", 1.0d);
+        performExpressions(constants, "e1 + x", "x * 2");
+    }
+
+    @Test
+    public void canEvaluateJexlFunctions() throws ExpressionException {
+        final Map<String, Object> constants = Maps.newHashMap();
+        constants.put("__formula", "x * 2");
+        double results[] = performExpressions(constants, "jexl:evaluate(__formula)", "e0 + 1")[1];
+        assertEquals(3.0d, results[1], DELTA);
+    }
+
+    @Test
+    public void failsLikeJexl() {
+        for (String expression : Lists.newArrayList("/", "!(!true)", "x / (y - 99)", "unknown * 2", "x.y * 2")) {
+            assertFails(vectorizedExpressionEngine, expression);
+            assertFails(jexlExpressionEngine, expression);
+        }
+    }
+
+    @Test
+    public void canBeDisabled() throws ExpressionException {
+        final QueryRequest request = buildRequest("x * 2");
+        final FetchResults results = buildResults(Maps.newHashMap());
+        new VectorizedExpressionEngine(false).applyExpressions(request, results);
+        assertEquals(2.0d, results.getColumns().get("e0")[1], DELTA);
+    }
+
+    private void assertFails(ExpressionEngine engine, String expression) {
+        try {
+            engine.applyExpressions(buildRequest(expression), buildResults(Maps.newHashMap()));
+            fail("Expected an ExpressionException for " + expression);
+        } catch (ExpressionException e) {
+            // Expected
+        }
+    }
+
+    private double[][] performExpressions(String... expressions) throws ExpressionException {
+        return performExpressions(Maps.newHashMap(), expressions);
+    }
+
+    /**
+     * Evaluates the expressions with both engines, verifies that they give the same
+     * results and returns these.
+     */
+    private double[][] performExpressions(Map<String, Object> constants, String... expressions) throws ExpressionException {
+        final FetchResults expected = buildResults(constants);
+        jexlExpressionEngine.applyExpressions(buildRequest(expressions), expected);
+
+        final FetchResults actual = buildResults(constants);
+        vectorizedExpressionEngine.applyExpressions(buildRequest(expressions), actual);
+
+        final double[][] results = new double[expressions.length][];
+        for (int k = 0; k < expressions.length; k++) {
+            results[k] = actual.getColumns().get("e" + k);
+            assertArrayEquals(expressions[k], expected.getColumns().get("e" + k), results[k], 0.0d);
+        }
+        return results;
+    }
+
+    private static QueryRequest buildRequest(String... expressions) {
+        QueryRequest request = new QueryRequest();
+
+        Source x = new Source();
+        x.setLabel("x");
+        Source y = new Source();
+        y.setLabel("y");
+        request.setSources(Lists.newArrayList(x, y));
+
+        final List<Expression> exps = Lists.newArrayList();
+        for (int k = 0; k < expressions.length; k++) {
+            Expression exp = new Expression();
+            exp.setLabel("e" + k);
+            exp.setExpression(expressions[k]);
+            exps.add(exp);
+        }
+        request.setExpressions(exps);
+        return request;
+    }
+
+    private static FetchResults buildResults(Map<String, Object> constants) {
+        // x counts up and is unknown every tenth row, y counts down
+        final int N = 100;
+        long timestamps[] = new long[N];
+        double xValues[] = new double[N];
+        double yValues[] = new double[N];
+        for (int i = 0; i < N; i++) {
+            timestamps[i] = i * 1000;
+            xValues[i] = i % 10 == 3 ? Double.NaN : Double.valueOf(i);
+            yValues[i] = Double.valueOf(N - 1 - i);
+        }
+        Map<String, double[]> values = Maps.newHashMap();
+        values.put("x", xValues);
+        values.put("y", yValues);
+        return new FetchResults(timestamps, values, 1, constants, null);
+    }
+}
@@ -29,8 +29,14 @@
 package org.opennms.netmgt.poller.client.rpc;
 
 import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 import java.util.function.Supplier;
 
 import org.opennms.core.rpc.xml.AbstractXmlRpcModule;
@@ -44,6 +50,11 @@ public class PollerClientRpcModule extends AbstractXmlRpcModule<PollerRequestDTO
 
     public static final String RPC_MODULE_ID = "Poller";
 
+    /**
+     * Maximum number of concurrent polls per monitor class, 0 for no limit.
+     */
+    public static final String MAX_CONCURRENT_POLLS_PER_MONITOR_PROPERTY = "org.opennms.netmgt.poller.maxConcurrentPollsPerMonitor";
+
     @Autowired
     private ServiceMonitorRegistry serviceMonitorRegistry;
 
@@ -51,6 +62,10 @@ public class PollerClientRpcModule extends AbstractXmlRpcModule<PollerRequestDTO
     @Qualifier("pollerExecutor")
     private Executor executor;
 
+    private int maxConcurrentPollsPerMonitor = Integer.getInteger(MAX_CONCURRENT_POLLS_PER_MONITOR_PROPERTY, 0);
+
+    private final ConcurrentMap<String, MonitorPermits> permitsByMonitor = new ConcurrentHashMap<>();
+
     public PollerClientRpcModule() {
         super(PollerRequestDTO.class, PollerResponseDTO.class);
     }
@@ -68,7 +83,7 @@ public class PollerClientRpcModule extends AbstractXmlRpcModule<PollerRequestDTO
             return CompletableFuture.completedFuture(new PollerResponseDTO(PollStatus.unknown("No monitor found with class name '" + className + "'.")));
         }
 
-        return CompletableFuture.supplyAsync(new Supplier<PollerResponseDTO>() {
+        final Supplier<PollerResponseDTO> poll = new Supplier<PollerResponseDTO>() {
             @Override
             public PollerResponseDTO get() {
                 PollStatus pollStatus;
@@ -80,7 +95,39 @@ public class PollerClientRpcModule extends AbstractXmlRpcModule<PollerRequestDTO
                 }
                 return new PollerResponseDTO(pollStatus);
             }
-        }, executor);
+        };
+
+        final MonitorPermits permits = getPermits(className);
+        if (permits == null) {
+            return CompletableFuture.supplyAsync(poll, executor);
+        }
+
+        // Only hand the poll to the executor once a permit is available, so that
+        // polls waiting for a permit do not tie up any of the executor's threads
+        final CompletableFuture<PollerResponseDTO> future = new CompletableFuture<>();
+        permits.submit(() -> {
+            try {
+                CompletableFuture.supplyAsync(poll, executor).whenComplete((response, ex) -> {
+                    permits.release();
+                    if (ex != null) {
+                        future.completeExceptionally(ex);
+                    } else {
+                        future.complete(response);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                permits.release();
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    private MonitorPermits getPermits(String className) {
+        if (maxConcurrentPollsPerMonitor <= 0) {
+            return null;
+        }
+        return permitsByMonitor.computeIfAbsent(className, k -> new MonitorPermits(maxConcurrentPollsPerMonitor));
     }
 
     public void setServiceMonitorRegistry(ServiceMonitorRegistry serviceMonitorRegistry) {
@@ -91,9 +138,50 @@ public class PollerClientRpcModule extends AbstractXmlRpcModule<PollerRequestDTO
         this.executor = executor;
     }
 
+    public void setMaxConcurrentPollsPerMonitor(int maxConcurrentPollsPerMonitor) {
+        this.maxConcurrentPollsPerMonitor = maxConcurrentPollsPerMonitor;
+        permitsByMonitor.clear();
+    }
+
     @Override
     public PollerResponseDTO createResponseWithException(Throwable ex) {
         return new PollerResponseDTO(ex);
     }
 
+    /**
+     * Limits the number of polls in flight for a single monitor.
+     *
+     * Polls that can not get a permit right away are queued, and are started
+     * by whichever poll releases the next permit.
+     */
+    private static class MonitorPermits {
+        private final Semaphore permits;
+        private final Queue<Runnable> pending = new ConcurrentLinkedQueue<>();
+
+        private MonitorPermits(int maxConcurrentPolls) {
+            permits = new Semaphore(maxConcurrentPolls);
+        }
+
+        private void submit(Runnable task) {
+            pending.add(task);
+            drain();
+        }
+
+        private void release() {
+            permits.release();
+            drain();
+        }
+
+        private void drain() {
+            while (!pending.isEmpty() && permits.tryAcquire()) {
+                final Runnable task = pending.poll();
+                if (task == null) {
+                    permits.release();
+                } else {
+                    task.run();
+                }
+            }
+        }
+    }
+
 }
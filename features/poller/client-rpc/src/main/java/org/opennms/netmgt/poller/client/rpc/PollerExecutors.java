@@ -0,0 +1,84 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2024 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2024 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.poller.client.rpc;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates the executor used to run the monitors.
+ *
+ * Most monitors block on sockets for the duration of the poll, so the number of
+ * polls in flight is bounded by the number of threads. When the JVM supports
+ * virtual threads and {@value #VIRTUAL_THREADS_PROPERTY} is set to {@code true},
+ * every poll runs on its own virtual thread instead, and blocking in a monitor
+ * no longer ties up a platform thread.
+ */
+public final class PollerExecutors {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PollerExecutors.class);
+
+    public static final String VIRTUAL_THREADS_PROPERTY = "org.opennms.netmgt.poller.virtualThreads";
+
+    private PollerExecutors() {}
+
+    public static ExecutorService newPollerExecutor() {
+        if (Boolean.getBoolean(VIRTUAL_THREADS_PROPERTY)) {
+            final ExecutorService executor = newVirtualThreadPerTaskExecutor();
+            if (executor != null) {
+                LOG.info("Running the monitors on virtual threads.");
+                return executor;
+            }
+            LOG.warn("{} is set, but virtual threads are not supported by this JVM ({}). Using a thread pool instead.",
+                    VIRTUAL_THREADS_PROPERTY, System.getProperty("java.version"));
+        }
+        final AtomicInteger threadNumber = new AtomicInteger();
+        return Executors.newCachedThreadPool(r -> new Thread(r, "Poller-Monitor-" + threadNumber.getAndIncrement()));
+    }
+
+    /**
+     * Looked up by reflection since virtual threads are only available in Java 21+.
+     *
+     * @return the executor, or {@code null} if the JVM does not support virtual threads
+     */
+    protected static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            final Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            LOG.debug("Virtual threads are not available.", e);
+            return null;
+        }
+    }
+}
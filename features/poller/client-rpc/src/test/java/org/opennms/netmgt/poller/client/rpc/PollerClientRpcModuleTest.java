@@ -0,0 +1,147 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2024 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2024 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.poller.client.rpc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+import org.opennms.netmgt.poller.MonitoredService;
+import org.opennms.netmgt.poller.PollStatus;
+import org.opennms.netmgt.poller.ServiceMonitor;
+import org.opennms.netmgt.poller.ServiceMonitorRegistry;
+import org.opennms.netmgt.poller.support.AbstractServiceMonitor;
+
+public class PollerClientRpcModuleTest {
+
+    private final ExecutorService executor = PollerExecutors.newPollerExecutor();
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private static class BlockingMonitor extends AbstractServiceMonitor {
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicInteger maxInFlight = new AtomicInteger();
+        private final CountDownLatch rendezvous;
+
+        /**
+         * @param rendezvous number of polls that wait for each other before returning
+         */
+        private BlockingMonitor(int rendezvous) {
+            this.rendezvous = new CountDownLatch(rendezvous);
+        }
+
+        @Override
+        public PollStatus poll(MonitoredService svc, Map<String, Object> parameters) {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                rendezvous.countDown();
+                if (!rendezvous.await(5, TimeUnit.SECONDS)) {
+                    return PollStatus.down("Timed out waiting for the other polls.");
+                }
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                inFlight.decrementAndGet();
+            }
+            return PollStatus.up();
+        }
+    }
+
+    private PollerClientRpcModule module(final ServiceMonitor monitor) {
+        final PollerClientRpcModule module = new PollerClientRpcModule();
+        module.setExecutor(executor);
+        module.setServiceMonitorRegistry(new ServiceMonitorRegistry() {
+            @Override
+            public ServiceMonitor getMonitorByClassName(String className) {
+                return monitor;
+            }
+
+            @Override
+            public Set<String> getMonitorClassNames() {
+                return Collections.singleton(monitor.getClass().getCanonicalName());
+            }
+        });
+        return module;
+    }
+
+    private static int pollAll(PollerClientRpcModule module, int count) throws Exception {
+        final List<CompletableFuture<PollerResponseDTO>> futures = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            final PollerRequestDTO request = new PollerRequestDTO();
+            request.setClassName("BlockingMonitor");
+            futures.add(module.execute(request));
+        }
+        int up = 0;
+        for (CompletableFuture<PollerResponseDTO> future : futures) {
+            final PollStatus status = future.get(10, TimeUnit.SECONDS).getPollStatus();
+            assertNotNull(status);
+            if (status.isUp()) {
+                up++;
+            }
+        }
+        return up;
+    }
+
+    @Test
+    public void testLimitsConcurrentPollsPerMonitor() throws Exception {
+        // The first three polls only return once all of them are in flight
+        final BlockingMonitor monitor = new BlockingMonitor(3);
+        final PollerClientRpcModule module = module(monitor);
+        module.setMaxConcurrentPollsPerMonitor(3);
+
+        assertEquals(20, pollAll(module, 20));
+        assertEquals(3, monitor.maxInFlight.get());
+    }
+
+    @Test
+    public void testUnlimitedByDefault() throws Exception {
+        final BlockingMonitor monitor = new BlockingMonitor(4);
+        final PollerClientRpcModule module = module(monitor);
+
+        assertEquals(20, pollAll(module, 20));
+        assertTrue(monitor.maxInFlight.get() > 3);
+    }
+}
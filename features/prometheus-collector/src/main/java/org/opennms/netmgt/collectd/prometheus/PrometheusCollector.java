@@ -271,7 +271,7 @@ public class PrometheusCollector extends AbstractRemoteServiceCollector {
                 }
             }
         }
-        return builder.build();
+        return builder.buildCollectionSet();
     }
 
     private static List<Metric> filterMetrics(String filterExpression, List<Metric> metrics) {
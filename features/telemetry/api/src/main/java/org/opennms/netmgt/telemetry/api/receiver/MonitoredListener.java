@@ -0,0 +1,67 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2024 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2024 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.telemetry.api.receiver;
+
+import java.util.List;
+import java.util.OptionalLong;
+
+/**
+ * It extends standard listener with statistics about the sockets it receives on.
+ */
+public interface MonitoredListener extends Listener {
+
+    interface SocketStatistics {
+        /**
+         * A short name identifying the socket.
+         */
+        String getName();
+
+        /**
+         * The number of packets received on the socket.
+         */
+        long getPacketsReceived();
+
+        /**
+         * The number of packets received but not yet handed to a parser.
+         */
+        long getPacketsPending();
+
+        /**
+         * The number of bytes queued in the receive buffer of the socket, if available on the platform.
+         */
+        OptionalLong getReceiveQueue();
+
+        /**
+         * The number of packets dropped by the kernel for this socket, if available on the platform.
+         */
+        OptionalLong getDrops();
+    }
+
+    List<? extends SocketStatistics> getSocketStatistics();
+}
@@ -43,6 +43,7 @@ import org.opennms.netmgt.telemetry.api.receiver.TelemetryMessage;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
 import com.google.protobuf.InvalidProtocolBufferException;
 
 public class TelemetrySinkModule implements SinkModule<TelemetryMessage, TelemetryProtos.TelemetryMessageLog> {
@@ -123,6 +124,19 @@ public class TelemetrySinkModule implements SinkModule<TelemetryMessage, Telemet
                 return telemetryMessage.getSource();
             }
 
+            @Override
+            public int sizeOf(TelemetryProtos.TelemetryMessageLog.Builder accumulator, TelemetryMessage message) {
+                final int count = accumulator.getMessageCount();
+                int size = CodedOutputStream.computeMessageSize(TelemetryProtos.TelemetryMessageLog.MESSAGE_FIELD_NUMBER, accumulator.getMessage(count - 1));
+                if (count == 1) {
+                    size += CodedOutputStream.computeStringSize(TelemetryProtos.TelemetryMessageLog.LOCATION_FIELD_NUMBER, accumulator.getLocation())
+                            + CodedOutputStream.computeStringSize(TelemetryProtos.TelemetryMessageLog.SYSTEM_ID_FIELD_NUMBER, accumulator.getSystemId())
+                            + CodedOutputStream.computeStringSize(TelemetryProtos.TelemetryMessageLog.SOURCE_ADDRESS_FIELD_NUMBER, accumulator.getSourceAddress())
+                            + CodedOutputStream.computeUInt32Size(TelemetryProtos.TelemetryMessageLog.SOURCE_PORT_FIELD_NUMBER, accumulator.getSourcePort());
+                }
+                return size;
+            }
+
             @Override
             public TelemetryProtos.TelemetryMessageLog.Builder aggregate(TelemetryProtos.TelemetryMessageLog.Builder accumulator, TelemetryMessage message) {
                 if (accumulator == null) {
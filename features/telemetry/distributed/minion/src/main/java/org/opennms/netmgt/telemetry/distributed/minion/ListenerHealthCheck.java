@@ -28,21 +28,61 @@
 
 package org.opennms.netmgt.telemetry.distributed.minion;
 
+import org.opennms.core.health.api.Context;
+import org.opennms.core.health.api.Response;
 import org.opennms.core.health.api.SimpleHealthCheck;
+import org.opennms.core.health.api.Status;
+import org.opennms.netmgt.telemetry.api.receiver.Listener;
+import org.opennms.netmgt.telemetry.api.receiver.MonitoredListener;
 import org.opennms.netmgt.telemetry.config.api.ListenerDefinition;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.OptionalLong;
+import java.util.stream.Collectors;
 
 import static org.opennms.core.health.api.HealthCheckConstants.LOCAL;
 import static org.opennms.core.health.api.HealthCheckConstants.TELEMETRY;
 
 public class ListenerHealthCheck extends SimpleHealthCheck {
 
+    private volatile Listener listener;
+
     public ListenerHealthCheck(ListenerDefinition listenerDefinition) {
         super(() -> "Verifying Listener " + listenerDefinition.getName() + " (" + listenerDefinition.getClassName() + ")");
     }
 
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public Response perform(Context context) throws Exception {
+        final Response response = super.perform(context);
+        if (!response.isSuccess() || !(this.listener instanceof MonitoredListener)) {
+            return response;
+        }
+
+        // Report the per socket statistics, so an overloaded socket can be spotted
+        final List<? extends MonitoredListener.SocketStatistics> sockets = ((MonitoredListener) this.listener).getSocketStatistics();
+        if (sockets.isEmpty()) {
+            return response;
+        }
+
+        return new Response(Status.Success, sockets.stream()
+                .map(socket -> String.format("%s: received=%d, pending=%d, receiveQueue=%s, drops=%s",
+                        socket.getName(),
+                        socket.getPacketsReceived(),
+                        socket.getPacketsPending(),
+                        format(socket.getReceiveQueue()),
+                        format(socket.getDrops())))
+                .collect(Collectors.joining("; ")));
+    }
+
+    private static String format(final OptionalLong value) {
+        return value.isPresent() ? Long.toString(value.getAsLong()) : "n/a";
+    }
+
     @Override
     public List<String> getTags() {
         return Arrays.asList(LOCAL, TELEMETRY);
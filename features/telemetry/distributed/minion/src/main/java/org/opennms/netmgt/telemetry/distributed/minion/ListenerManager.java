@@ -128,6 +128,7 @@ public class ListenerManager implements ManagedServiceFactory, TelemetryManager
             // Start listener
             entity.listener = telemetryRegistry.getListener(listenerDef);
             entity.listener.start();
+            healthCheck.setListener(entity.listener);
 
             // At this point the listener should be up and running,
             // so we mark the underlying health check as success
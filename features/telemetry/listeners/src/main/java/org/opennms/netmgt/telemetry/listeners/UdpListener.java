@@ -30,36 +30,49 @@ package org.opennms.netmgt.telemetry.listeners;
 
 import java.net.InetSocketAddress;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
+import java.util.OptionalLong;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.opennms.netmgt.telemetry.api.receiver.GracefulShutdownListener;
-import org.opennms.netmgt.telemetry.api.receiver.Listener;
+import org.opennms.netmgt.telemetry.api.receiver.MonitoredListener;
 import org.opennms.netmgt.telemetry.api.receiver.Parser;
 import org.opennms.netmgt.telemetry.listeners.utils.BufferUtils;
 import org.opennms.netmgt.telemetry.listeners.utils.NettyEventListener;
+import org.opennms.netmgt.telemetry.listeners.utils.UdpSocketTable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.codahale.metrics.Gauge;
 import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricFilter;
 import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.MoreObjects;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.swrve.ratelimitedlogger.RateLimitedLog;
 
 import io.netty.bootstrap.Bootstrap;
-import io.netty.channel.ChannelFuture;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoop;
 import io.netty.channel.EventLoopGroup;
 import io.netty.channel.FixedRecvByteBufAllocator;
 import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollDatagramChannel;
+import io.netty.channel.epoll.EpollEventLoopGroup;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.DatagramChannel;
 import io.netty.channel.socket.DatagramPacket;
@@ -67,7 +80,7 @@ import io.netty.channel.socket.nio.NioDatagramChannel;
 import io.netty.util.ReferenceCountUtil;
 import io.netty.util.internal.SocketUtils;
 
-public class UdpListener implements GracefulShutdownListener {
+public class UdpListener implements GracefulShutdownListener, MonitoredListener {
     private static final Logger LOG = LoggerFactory.getLogger(UdpListener.class);
 
     public static final RateLimitedLog RATE_LIMITED_LOG = RateLimitedLog
@@ -78,21 +91,23 @@ public class UdpListener implements GracefulShutdownListener {
     private final String name;
     private final List<UdpParser> parsers;
 
+    private final MetricRegistry metrics;
     private final Meter packetsReceived;
 
     private EventLoopGroup bossGroup;
-    private ChannelFuture socketFuture;
+    private List<Socket> sockets = Collections.emptyList();
 
     private String host = null;
     private int port = 50000;
     private int maxPacketSize = 8096;
+    private int socketCount = 1;
 
     private Future<String> stopFuture;
 
     public UdpListener(final String name, final List<UdpParser> parsers, final MetricRegistry metrics) {
         this.name = Objects.requireNonNull(name);
         this.parsers = Objects.requireNonNull(parsers);
-        Objects.requireNonNull(metrics);
+        this.metrics = Objects.requireNonNull(metrics);
 
         if (this.parsers.isEmpty()) {
             throw new IllegalArgumentException("At least 1 parsers must be defined");
@@ -107,10 +122,18 @@ public class UdpListener implements GracefulShutdownListener {
     }
 
     public void start() throws InterruptedException {
+        final boolean reusePort = this.socketCount > 1 && Epoll.isAvailable();
+        if (this.socketCount > 1 && !reusePort) {
+            LOG.warn("Listener {} is configured to use {} sockets, but native transport is not available: {}. Falling back to a single socket.",
+                    this.name, this.socketCount, Epoll.unavailabilityCause().getMessage());
+        }
+
         // Netty defaults to 2 * num cores when the number of threads is set to 0
-        this.bossGroup = new NioEventLoopGroup(0, new ThreadFactoryBuilder()
-                .setNameFormat("telemetryd-nio-" + name + "-%d")
-                .build() );
+        final ThreadFactoryBuilder threadFactory = new ThreadFactoryBuilder()
+                .setNameFormat("telemetryd-nio-" + name + "-%d");
+        this.bossGroup = reusePort
+                ? new EpollEventLoopGroup(0, threadFactory.build())
+                : new NioEventLoopGroup(0, threadFactory.build());
 
         this.parsers.forEach(parser -> parser.start(this.bossGroup));
 
@@ -118,15 +141,34 @@ public class UdpListener implements GracefulShutdownListener {
                 ? SocketUtils.socketAddress(this.host, this.port)
                 : new InetSocketAddress(this.port);
 
-        this.socketFuture = new Bootstrap()
+        final Bootstrap bootstrap = new Bootstrap()
                 .group(this.bossGroup)
-                .channel(NioDatagramChannel.class)
                 .option(ChannelOption.SO_REUSEADDR, true)
                 .option(ChannelOption.SO_RCVBUF, Integer.MAX_VALUE)
-                .option(ChannelOption.RCVBUF_ALLOCATOR, new FixedRecvByteBufAllocator(this.maxPacketSize))
-                .handler(new DefaultChannelInitializer())
-                .bind(address)
-                .sync();
+                .option(ChannelOption.RCVBUF_ALLOCATOR, new FixedRecvByteBufAllocator(this.maxPacketSize));
+
+        if (reusePort) {
+            bootstrap.channel(EpollDatagramChannel.class)
+                    .option(EpollChannelOption.SO_REUSEPORT, true);
+        } else {
+            bootstrap.channel(NioDatagramChannel.class);
+        }
+
+        // Each socket is bound to its own event loop as the group hands out its loops in turn
+        final int count = reusePort ? this.socketCount : 1;
+        final List<Socket> sockets = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final Socket socket = new Socket(i);
+            socket.channel = bootstrap.clone()
+                    .handler(new DefaultChannelInitializer(socket, count > 1))
+                    .bind(address)
+                    .sync()
+                    .channel();
+            sockets.add(socket);
+        }
+        this.sockets = Collections.unmodifiableList(sockets);
+
+        this.sockets.forEach(Socket::registerMetrics);
     }
 
     public void stop() throws InterruptedException {
@@ -138,13 +180,16 @@ public class UdpListener implements GracefulShutdownListener {
             this.bossGroup.shutdownGracefully().addListener(bossListener);
         }
 
-        if (this.socketFuture != null) {
+        for (final Socket socket : this.sockets) {
             LOG.info("Closing channel...");
-            this.socketFuture.channel().close().sync();
-            if (this.socketFuture.channel().parent() != null) {
-                this.socketFuture.channel().parent().close().sync();
+            socket.channel.close().sync();
+            if (socket.channel.parent() != null) {
+                socket.channel.parent().close().sync();
             }
         }
+        this.sockets = Collections.emptyList();
+
+        this.metrics.removeMatching(MetricFilter.startsWith(MetricRegistry.name("listeners", this.name, "sockets")));
 
         this.parsers.forEach(Parser::stop);
 
@@ -200,6 +245,14 @@ public class UdpListener implements GracefulShutdownListener {
         this.maxPacketSize = maxPacketSize;
     }
 
+    public int getSockets() {
+        return socketCount;
+    }
+
+    public void setSockets(int sockets) {
+        this.socketCount = Math.max(1, sockets);
+    }
+
     @Override
     public String getName() {
         return name;
@@ -220,21 +273,34 @@ public class UdpListener implements GracefulShutdownListener {
         return stopFuture;
     }
 
+    @Override
+    public List<? extends SocketStatistics> getSocketStatistics() {
+        return this.sockets;
+    }
+
 
     private class DefaultChannelInitializer extends ChannelInitializer<DatagramChannel> {
+        private final Socket socket;
+        private final boolean exporterAffinity;
+
+        private DefaultChannelInitializer(final Socket socket, final boolean exporterAffinity) {
+            this.socket = Objects.requireNonNull(socket);
+            this.exporterAffinity = exporterAffinity;
+        }
 
         @Override
         protected void initChannel(DatagramChannel ch) {
             // Accounting
-            ch.pipeline().addFirst(new AccountingHandler());
+            ch.pipeline().addFirst(new AccountingHandler(this.socket));
 
+            final DatagramPacketHandler handler;
             if (parsers.size() == 1) {
                 final UdpParser parser = parsers.get(0);
                 // If only one parser is defined, we can directly use the handler
-                ch.pipeline().addLast(new SingleDatagramPacketParserHandler(parser));
+                handler = new SingleDatagramPacketParserHandler(parser);
             } else {
                 // Otherwise dispatch
-                ch.pipeline().addLast(new SimpleChannelInboundHandler<DatagramPacket>() {
+                handler = new DatagramPacketHandler() {
                     @Override
                     protected void channelRead0(final ChannelHandlerContext ctx, final DatagramPacket msg) throws Exception {
                         for (final UdpParser parser : parsers) {
@@ -245,7 +311,14 @@ public class UdpListener implements GracefulShutdownListener {
                         }
                         LOG.warn("Unhandled packet from {}", msg.sender());
                     }
-                });
+                };
+            }
+
+            if (this.exporterAffinity) {
+                // Multiple sockets are receiving, keep the packets of each exporter on a single thread
+                ch.pipeline().addLast(new ExporterAffinityHandler(this.socket, handler));
+            } else {
+                ch.pipeline().addLast(handler);
             }
 
             // Add error handling
@@ -260,15 +333,147 @@ public class UdpListener implements GracefulShutdownListener {
     }
 
     private class AccountingHandler extends ChannelInboundHandlerAdapter {
+        private final Socket socket;
+
+        private AccountingHandler(final Socket socket) {
+            this.socket = Objects.requireNonNull(socket);
+        }
+
         @Override
         public  void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
             packetsReceived.mark();
+            this.socket.packetsReceived.increment();
             super.channelRead(ctx, msg);
         }
     }
 
+    /**
+     * Hands each packet over to the event loop of the socket selected by the address of the exporter.
+     *
+     * The kernel distributes packets across the sockets by hashing the full address tuple. Exporters sending from
+     * varying source ports would therefore be handled by multiple threads, which breaks the assumption of parsers
+     * that the session state of an exporter is only touched by a single thread.
+     */
+    private class ExporterAffinityHandler extends SimpleChannelInboundHandler<DatagramPacket> {
+        private final Socket socket;
+        private final DatagramPacketHandler delegate;
+
+        private ExporterAffinityHandler(final Socket socket, final DatagramPacketHandler delegate) {
+            this.socket = Objects.requireNonNull(socket);
+            this.delegate = Objects.requireNonNull(delegate);
+        }
+
+        @Override
+        protected void channelRead0(final ChannelHandlerContext ctx, final DatagramPacket msg) throws Exception {
+            final List<Socket> sockets = UdpListener.this.sockets;
+            final EventLoop eventLoop = sockets.isEmpty()
+                    ? ctx.channel().eventLoop()
+                    : sockets.get(Math.floorMod(msg.sender().getAddress().hashCode(), sockets.size())).channel.eventLoop();
+
+            if (eventLoop.inEventLoop()) {
+                this.delegate.channelRead0(ctx, msg);
+                return;
+            }
+
+            msg.retain();
+            this.socket.packetsPending.increment();
+            eventLoop.execute(() -> {
+                this.socket.packetsPending.decrement();
+                try {
+                    this.delegate.channelRead0(ctx, msg);
+                } catch (final Exception e) {
+                    ctx.fireExceptionCaught(e);
+                } finally {
+                    msg.release();
+                }
+            });
+        }
+    }
+
+    private class Socket implements SocketStatistics {
+        private final int index;
+
+        private final LongAdder packetsReceived = new LongAdder();
+        private final LongAdder packetsPending = new LongAdder();
+
+        private Channel channel;
+
+        private Socket(final int index) {
+            this.index = index;
+        }
+
+        private void registerMetrics() {
+            final String prefix = MetricRegistry.name("listeners", name, "sockets", Integer.toString(this.index));
+            metrics.register(MetricRegistry.name(prefix, "packetsReceived"), (Gauge<Long>) this::getPacketsReceived);
+            metrics.register(MetricRegistry.name(prefix, "packetsPending"), (Gauge<Long>) this::getPacketsPending);
+            metrics.register(MetricRegistry.name(prefix, "receiveQueue"), (Gauge<Long>) () -> this.getReceiveQueue().orElse(-1));
+            metrics.register(MetricRegistry.name(prefix, "drops"), (Gauge<Long>) () -> this.getDrops().orElse(-1));
+        }
+
+        private List<UdpSocketTable.Entry> entries() {
+            if (this.channel instanceof EpollDatagramChannel) {
+                final OptionalLong inode = UdpSocketTable.inodeOf(((EpollDatagramChannel) this.channel).fd().intValue());
+                if (inode.isPresent()) {
+                    return UdpSocketTable.lookup(e -> e.inode == inode.getAsLong());
+                }
+                return Collections.emptyList();
+            }
+
+            // The socket is not shared, so all sockets bound to the port belong to it
+            final int port = ((InetSocketAddress) this.channel.localAddress()).getPort();
+            return UdpSocketTable.lookup(e -> e.localPort == port);
+        }
+
+        @Override
+        public String getName() {
+            return String.format("%s#%d", this.channel.localAddress(), this.index);
+        }
+
+        @Override
+        public long getPacketsReceived() {
+            return this.packetsReceived.sum();
+        }
+
+        @Override
+        public long getPacketsPending() {
+            return this.packetsPending.sum();
+        }
+
+        @Override
+        public OptionalLong getReceiveQueue() {
+            final List<UdpSocketTable.Entry> entries = this.entries();
+            return entries.isEmpty()
+                    ? OptionalLong.empty()
+                    : OptionalLong.of(entries.stream().mapToLong(e -> e.receiveQueue).sum());
+        }
+
+        @Override
+        public OptionalLong getDrops() {
+            final List<UdpSocketTable.Entry> entries = this.entries();
+            return entries.isEmpty()
+                    ? OptionalLong.empty()
+                    : OptionalLong.of(entries.stream().mapToLong(e -> e.drops).sum());
+        }
+
+        @Override
+        public String toString() {
+            return MoreObjects.toStringHelper(this)
+                    .add("index", this.index)
+                    .add("channel", this.channel)
+                    .add("packetsReceived", this.getPacketsReceived())
+                    .add("packetsPending", this.getPacketsPending())
+                    .toString();
+        }
+    }
+
+    // Allows handlers to be invoked directly by other handlers of this listener
+    private static abstract class DatagramPacketHandler extends SimpleChannelInboundHandler<DatagramPacket> {
+        @Override
+        protected abstract void channelRead0(ChannelHandlerContext ctx, DatagramPacket msg) throws Exception;
+    }
+
     // Invokes parse of the provided parsers and also adds some error handling
-    private static class SingleDatagramPacketParserHandler extends SimpleChannelInboundHandler<DatagramPacket> {
+    private static class SingleDatagramPacketParserHandler extends DatagramPacketHandler {
 
         final UdpParser parser;
 
@@ -0,0 +1,171 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2024 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2024 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.telemetry.listeners.utils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+
+/**
+ * Reads the receive queue and drop counters of UDP sockets from the Linux proc filesystem.
+ *
+ * The tables are re-read at most once per second, regardless of how many sockets are queried. On platforms without
+ * these tables, no entries are reported.
+ */
+public final class UdpSocketTable {
+    private static final Logger LOG = LoggerFactory.getLogger(UdpSocketTable.class);
+
+    private static final List<Path> TABLES = Arrays.asList(
+            Paths.get("/proc/net/udp"),
+            Paths.get("/proc/net/udp6"));
+
+    private static final Pattern SOCKET_LINK = Pattern.compile("socket:\\[(\\d+)]");
+
+    private static final Supplier<List<Entry>> ENTRIES = Suppliers.memoizeWithExpiration(() -> read(TABLES), 1, TimeUnit.SECONDS);
+
+    public static final class Entry {
+        public final int localPort;
+        public final long inode;
+        public final long receiveQueue;
+        public final long drops;
+
+        private Entry(final int localPort, final long inode, final long receiveQueue, final long drops) {
+            this.localPort = localPort;
+            this.inode = inode;
+            this.receiveQueue = receiveQueue;
+            this.drops = drops;
+        }
+
+        @Override
+        public String toString() {
+            return MoreObjects.toStringHelper(this)
+                    .add("localPort", this.localPort)
+                    .add("inode", this.inode)
+                    .add("receiveQueue", this.receiveQueue)
+                    .add("drops", this.drops)
+                    .toString();
+        }
+    }
+
+    private UdpSocketTable() {}
+
+    /**
+     * Resolves the inode of the socket behind the given file descriptor of this process.
+     */
+    public static OptionalLong inodeOf(final int fd) {
+        return inodeOf(Paths.get("/proc/self/fd", Integer.toString(fd)));
+    }
+
+    static OptionalLong inodeOf(final Path fdLink) {
+        try {
+            final Matcher matcher = SOCKET_LINK.matcher(Files.readSymbolicLink(fdLink).toString());
+            if (matcher.matches()) {
+                return OptionalLong.of(Long.parseLong(matcher.group(1)));
+            }
+        } catch (final IOException | UnsupportedOperationException e) {
+            LOG.debug("Unable to resolve inode of file descriptor {}", fdLink, e);
+        }
+        return OptionalLong.empty();
+    }
+
+    public static List<Entry> lookup(final Predicate<Entry> filter) {
+        final List<Entry> result = new ArrayList<>();
+        for (final Entry entry : ENTRIES.get()) {
+            if (filter.test(entry)) {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    static List<Entry> read(final List<Path> tables) {
+        final List<Entry> entries = new ArrayList<>();
+        for (final Path table : tables) {
+            if (!Files.isReadable(table)) {
+                continue;
+            }
+
+            try (final Stream<String> lines = Files.lines(table)) {
+                lines.skip(1).forEach(line -> {
+                    final Entry entry = parse(line);
+                    if (entry != null) {
+                        entries.add(entry);
+                    }
+                });
+            } catch (final IOException e) {
+                LOG.debug("Failed to read {}", table, e);
+            }
+        }
+        return entries;
+    }
+
+    /*
+       sl  local_address rem_address   st tx_queue rx_queue tr tm->when retrnsmt   uid  timeout inode ref pointer drops
+       0: 00000000:0FC8 00000000:0000 07 00000000:00000000 00:00000000 00000000     0        0 12345 2 0000000000000000 0
+    */
+    static Entry parse(final String line) {
+        final String[] columns = line.trim().split("\\s+");
+        if (columns.length < 13) {
+            return null;
+        }
+
+        try {
+            final String localAddress = columns[1];
+            final int localPort = Integer.parseInt(localAddress.substring(localAddress.lastIndexOf(':') + 1), 16);
+
+            final String queues = columns[4];
+            final long receiveQueue = Long.parseLong(queues.substring(queues.indexOf(':') + 1), 16);
+
+            final long inode = Long.parseLong(columns[9]);
+            final long drops = Long.parseLong(columns[12]);
+
+            return new Entry(localPort, inode, receiveQueue, drops);
+        } catch (final NumberFormatException | IndexOutOfBoundsException e) {
+            LOG.debug("Unexpected line in UDP socket table: {}", line);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2024 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2024 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.telemetry.listeners;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeFalse;
+import static org.junit.Assume.assumeTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.netmgt.telemetry.api.receiver.MonitoredListener;
+
+import com.codahale.metrics.MetricRegistry;
+
+import io.netty.channel.epoll.Epoll;
+
+public class UdpListenerTest {
+
+    private final MetricRegistry metrics = new MetricRegistry();
+
+    private UdpParser parser;
+
+    private int port;
+
+    @Before
+    public void setUp() throws Exception {
+        parser = mock(UdpParser.class);
+        when(parser.parse(any(), any(), any())).thenAnswer(invocation -> CompletableFuture.completedFuture(null));
+
+        try (DatagramSocket socket = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+            port = socket.getLocalPort();
+        }
+    }
+
+    @Test
+    public void canBindAndCloseReusePortSockets() throws Exception {
+        assumeTrue("native transport is not available", Epoll.isAvailable());
+
+        final UdpListener listener = createListener(4);
+        listener.start();
+        try {
+            final List<? extends MonitoredListener.SocketStatistics> sockets = listener.getSocketStatistics();
+            assertEquals(4, sockets.size());
+            for (final MonitoredListener.SocketStatistics socket : sockets) {
+                assertTrue(socket.getName(), socket.getName().contains(":" + port + "#"));
+                // Each socket is found by its own inode
+                assertTrue(socket.getDrops().isPresent());
+                assertTrue(socket.getReceiveQueue().isPresent());
+            }
+            assertEquals(4, metrics.getGauges((name, metric) -> name.endsWith(".drops")).size());
+
+            // Packets from varying source ports are spread across the sockets
+            for (int i = 0; i < 16; i++) {
+                send();
+            }
+            verify(parser, timeout(5000).times(16)).parse(any(), any(), any());
+            assertEquals(16, sockets.stream().mapToLong(MonitoredListener.SocketStatistics::getPacketsReceived).sum());
+        } finally {
+            listener.stop();
+        }
+
+        assertTrue(listener.getSocketStatistics().isEmpty());
+        assertTrue(metrics.getGauges().isEmpty());
+        assertPortIsFree();
+    }
+
+    @Test
+    public void shouldFallBackToSingleSocket() throws Exception {
+        assumeFalse("native transport is available", Epoll.isAvailable());
+
+        final UdpListener listener = createListener(4);
+        listener.start();
+        try {
+            assertEquals(1, listener.getSocketStatistics().size());
+
+            send();
+            verify(parser, timeout(5000)).parse(any(), any(), any());
+            assertEquals(1, listener.getSocketStatistics().get(0).getPacketsReceived());
+        } finally {
+            listener.stop();
+        }
+
+        assertTrue(listener.getSocketStatistics().isEmpty());
+        assertPortIsFree();
+    }
+
+    private UdpListener createListener(final int sockets) {
+        final UdpListener listener = new UdpListener("test", Collections.singletonList(parser), metrics);
+        listener.setHost(InetAddress.getLoopbackAddress().getHostAddress());
+        listener.setPort(port);
+        listener.setSockets(sockets);
+        return listener;
+    }
+
+    private void send() throws IOException {
+        try (DatagramSocket socket = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+            final byte[] data = new byte[] { 1, 2, 3, 4 };
+            socket.send(new DatagramPacket(data, data.length, new InetSocketAddress(InetAddress.getLoopbackAddress(), port)));
+        }
+    }
+
+    private void assertPortIsFree() throws SocketException {
+        // Fails to bind without SO_REUSEADDR if any of the sockets is still open
+        try (DatagramSocket socket = new DatagramSocket(null)) {
+            socket.setReuseAddress(false);
+            socket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        }
+    }
+}
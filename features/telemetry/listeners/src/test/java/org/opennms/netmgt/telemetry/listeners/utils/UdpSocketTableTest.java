@@ -0,0 +1,112 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2024 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2024 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.telemetry.listeners.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.OptionalLong;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class UdpSocketTableTest {
+
+    private static final String HEADER = "   sl  local_address rem_address   st tx_queue rx_queue tr tm->when retrnsmt   uid  timeout inode ref pointer drops";
+
+    private static final String IPV4_ROW = "  847: 00000000:0FC8 00000000:0000 07 00000000:00000A00 00:00000000 00000000   995        0 12345 2 0000000000000000 7";
+
+    private static final String IPV6_ROW = " 1123: 00000000000000000000000000000000:1F90 00000000000000000000000000000000:0000 07 00000000:00000100 00:00000000 00000000   995        0 67890 2 0000000000000000 3";
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void canParseIpv4Row() {
+        final UdpSocketTable.Entry entry = UdpSocketTable.parse(IPV4_ROW);
+        assertEquals(4040, entry.localPort);
+        assertEquals(12345L, entry.inode);
+        assertEquals(2560L, entry.receiveQueue);
+        assertEquals(7L, entry.drops);
+    }
+
+    @Test
+    public void canParseIpv6Row() {
+        final UdpSocketTable.Entry entry = UdpSocketTable.parse(IPV6_ROW);
+        assertEquals(8080, entry.localPort);
+        assertEquals(67890L, entry.inode);
+        assertEquals(256L, entry.receiveQueue);
+        assertEquals(3L, entry.drops);
+    }
+
+    @Test
+    public void shouldSkipMalformedRows() {
+        assertNull(UdpSocketTable.parse(HEADER));
+        assertNull(UdpSocketTable.parse(""));
+        // Kernels before 2.6.27 have no drops column
+        assertNull(UdpSocketTable.parse("  847: 00000000:0FC8 00000000:0000 07 00000000:00000A00 00:00000000 00000000   995        0 12345 2 0000000000000000"));
+        assertNull(UdpSocketTable.parse("  847: 00000000:ZZZZ 00000000:0000 07 00000000:00000A00 00:00000000 00000000   995        0 12345 2 0000000000000000 7"));
+        assertNull(UdpSocketTable.parse("  847: 00000000:0FC8 00000000:0000 07 00000000:00000A00 00:00000000 00000000   995        0 12345 2 0000000000000000 many"));
+    }
+
+    @Test
+    public void canReadTables() throws IOException {
+        final Path udp = tempFolder.newFile("udp").toPath();
+        Files.write(udp, Arrays.asList(HEADER, IPV4_ROW, "garbage"));
+        final Path udp6 = tempFolder.newFile("udp6").toPath();
+        Files.write(udp6, Arrays.asList(HEADER, IPV6_ROW));
+
+        final List<UdpSocketTable.Entry> entries = UdpSocketTable.read(Arrays.asList(udp, udp6, tempFolder.getRoot().toPath().resolve("udplite")));
+        assertEquals(2, entries.size());
+        assertEquals(12345L, entries.get(0).inode);
+        assertEquals(67890L, entries.get(1).inode);
+    }
+
+    @Test
+    public void canResolveInodeOfSocket() throws IOException {
+        final Path fd = tempFolder.getRoot().toPath().resolve("7");
+        Files.createSymbolicLink(fd, Paths.get("socket:[12345]"));
+        assertEquals(OptionalLong.of(12345L), UdpSocketTable.inodeOf(fd));
+
+        final Path file = tempFolder.getRoot().toPath().resolve("8");
+        Files.createSymbolicLink(file, Paths.get("/dev/null"));
+        assertFalse(UdpSocketTable.inodeOf(file).isPresent());
+
+        assertFalse(UdpSocketTable.inodeOf(tempFolder.getRoot().toPath().resolve("9")).isPresent());
+        assertFalse(UdpSocketTable.inodeOf(-1).isPresent());
+    }
+}
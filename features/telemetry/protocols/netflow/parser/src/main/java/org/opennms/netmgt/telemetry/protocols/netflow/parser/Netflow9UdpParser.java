@@ -34,6 +34,9 @@ import static org.opennms.netmgt.telemetry.listeners.utils.BufferUtils.uint16;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import org.opennms.core.ipc.sink.api.AsyncDispatcher;
 import org.opennms.core.utils.InetAddressUtils;
@@ -49,11 +52,14 @@ import org.opennms.netmgt.telemetry.protocols.netflow.parser.netflow9.proto.Head
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.netflow9.proto.Packet;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.session.Session;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.session.UdpSessionManager;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.transport.DecodedFlow;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.transport.MessageUtils;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.transport.Netflow9MessageBuilder;
 
 import com.codahale.metrics.MetricRegistry;
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Objects;
+import com.google.protobuf.UInt32Value;
 
 import io.netty.buffer.ByteBuf;
 
@@ -61,6 +67,8 @@ public class Netflow9UdpParser extends UdpParserBase implements UdpParser, Dispa
 
     private final Netflow9MessageBuilder messageBuilder = new Netflow9MessageBuilder();
 
+    private boolean flyweightParsing = false;
+
     public Netflow9UdpParser(final String name,
                              final AsyncDispatcher<TelemetryMessage> dispatcher,
                              final EventForwarder eventForwarder,
@@ -84,6 +92,30 @@ public class Netflow9UdpParser extends UdpParserBase implements UdpParser, Dispa
         return packet;
     }
 
+    @Override
+    protected CompletableFuture<?> parseAndTransmit(final Session session,
+                                                    final ByteBuf buffer,
+                                                    final InetSocketAddress remoteAddress) throws Exception {
+        if (!this.flyweightParsing) {
+            return super.parseAndTransmit(session, buffer, remoteAddress);
+        }
+
+        final Header header = new Header(slice(buffer, Header.SIZE));
+
+        final List<DecodedFlow> flows = new ArrayList<>(header.count);
+        final Packet packet = new Packet(session, header, buffer,
+                (record, options) -> flows.add(this.messageBuilder.buildMessage(header, record, options)));
+
+        detectClockSkew(header.unixSecs * 1000L, session.getRemoteAddress());
+
+        final UInt32Value recordCount = MessageUtils.setIntValue(packet.getFlyweightRecordCount());
+        for (final DecodedFlow flow : flows) {
+            flow.getBuilder().setNumFlowRecords(recordCount);
+        }
+
+        return this.transmit(packet.getObservationDomainId(), packet.getSequenceNumber(), flows, session, remoteAddress);
+    }
+
     @Override
     public boolean handles(final ByteBuf buffer) {
         return uint16(buffer) == Header.VERSION;
@@ -136,6 +168,14 @@ public class Netflow9UdpParser extends UdpParserBase implements UdpParser, Dispa
         }
     }
 
+    public boolean getFlyweightParsing() {
+        return this.flyweightParsing;
+    }
+
+    public void setFlyweightParsing(final boolean flyweightParsing) {
+        this.flyweightParsing = flyweightParsing;
+    }
+
     public Long getFlowActiveTimeoutFallback() {
         return this.messageBuilder.getFlowActiveTimeoutFallback();
     }
@@ -45,6 +45,9 @@ import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 import org.opennms.core.concurrent.LogPreservingThreadFactory;
 import org.opennms.core.ipc.sink.api.AsyncDispatcher;
@@ -57,6 +60,7 @@ import org.opennms.netmgt.telemetry.api.receiver.TelemetryMessage;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.RecordProvider;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.session.SequenceNumberTracker;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.session.Session;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.transport.DecodedFlow;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.transport.MessageBuilder;
 import org.opennms.netmgt.telemetry.protocols.netflow.transport.FlowMessage;
 import org.slf4j.Logger;
@@ -292,8 +296,37 @@ public abstract class ParserBase implements Parser {
     }
 
     protected CompletableFuture<?> transmit(final RecordProvider packet, final Session session, final InetSocketAddress remoteAddress) {
+        return this.transmit(packet.getObservationDomainId(), packet.getSequenceNumber(),
+                packet::getRecords,
+                (recordEnricher, record) -> recordEnricher.enrich(record),
+                (record, enrichment) -> this.getMessageBuilder().buildMessage(record, enrichment),
+                session, remoteAddress);
+    }
+
+    /**
+     * Transmits flows which have already been decoded from the packet buffer while parsing.
+     */
+    protected CompletableFuture<?> transmit(final long observationDomainId,
+                                            final long sequenceNumber,
+                                            final List<DecodedFlow> flows,
+                                            final Session session,
+                                            final InetSocketAddress remoteAddress) {
+        return this.transmit(observationDomainId, sequenceNumber,
+                flows::stream,
+                (recordEnricher, flow) -> recordEnricher.enrich(flow.getAddresses()),
+                DecodedFlow::enrich,
+                session, remoteAddress);
+    }
+
+    private <R> CompletableFuture<?> transmit(final long observationDomainId,
+                                              final long sequenceNumber,
+                                              final Supplier<Stream<R>> records,
+                                              final BiFunction<RecordEnricher, R, CompletableFuture<RecordEnrichment>> enricher,
+                                              final BiFunction<R, RecordEnrichment, FlowMessage.Builder> messageBuilder,
+                                              final Session session,
+                                              final InetSocketAddress remoteAddress) {
         // Verify that flows sequences are in order
-        if (!session.verifySequenceNumber(packet.getObservationDomainId(), packet.getSequenceNumber())) {
+        if (!session.verifySequenceNumber(observationDomainId, sequenceNumber)) {
             SEQUENCE_ERRORS_LOGGER.warn("Error in flow sequence detected: from {}", session.getRemoteAddress());
             this.sequenceErrors.inc();
         }
@@ -302,14 +335,14 @@ public abstract class ParserBase implements Parser {
         //   LOG.trace("Got packet: {}", packet);
         // Perform the record enrichment and serialization in a thread pool allowing these to be parallelized
         final CompletableFuture<CompletableFuture[]> futureOfFutures = CompletableFuture.supplyAsync(() -> {
-            return packet.getRecords().map(record -> {
+            return records.get().map(record -> {
                 this.recordsReceived.mark();
 
                 final CompletableFuture<Void> future = new CompletableFuture<>();
                 final Timer.Context timerContext = recordEnrichmentTimer.time();
                 // Trigger record enrichment (performing DNS reverse lookups for example)
                 final RecordEnricher recordEnricher = new RecordEnricher(dnsResolver, getDnsLookupsEnabled());
-                recordEnricher.enrich(record).whenComplete((enrichment, ex) -> {
+                enricher.apply(recordEnricher, record).whenComplete((enrichment, ex) -> {
                     timerContext.close();
                     if (ex != null) {
                         this.recordEnrichmentErrors.inc();
@@ -328,7 +361,7 @@ public abstract class ParserBase implements Parser {
                         // Let's serialize
                         final FlowMessage.Builder flowMessage;
                         try {
-                            flowMessage = this.getMessageBuilder().buildMessage(record, enrichment);
+                            flowMessage = messageBuilder.apply(record, enrichment);
                         } catch (final  Exception e) {
                             throw new RuntimeException(e);
                         }
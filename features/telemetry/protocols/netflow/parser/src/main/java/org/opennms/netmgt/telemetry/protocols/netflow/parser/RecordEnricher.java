@@ -29,6 +29,7 @@
 package org.opennms.netmgt.telemetry.protocols.netflow.parser;
 
 import java.net.InetAddress;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -80,7 +81,17 @@ public class RecordEnricher {
         for (final Value<?> value : record) {
             value.visit(ipAddressCapturingVisitor);
         }
-        final Set<InetAddress> addressesToReverseLookup = ipAddressCapturingVisitor.getAddresses();
+        return this.lookup(ipAddressCapturingVisitor.getAddresses());
+    }
+
+    public CompletableFuture<RecordEnrichment> enrich(final Collection<InetAddress> addresses) {
+        if (!this.dnsLookupsEnabled) {
+            return CompletableFuture.completedFuture(new DefaultRecordEnrichment(Collections.<InetAddress, String>emptyMap()));
+        }
+        return this.lookup(new HashSet<>(addresses));
+    }
+
+    private CompletableFuture<RecordEnrichment> lookup(final Set<InetAddress> addressesToReverseLookup) {
         final Map<InetAddress, String> hostnamesByAddress = new HashMap<>(addressesToReverseLookup.size());
         final CompletableFuture reverseLookupFutures[] = addressesToReverseLookup.stream()
                 .map(addr -> {
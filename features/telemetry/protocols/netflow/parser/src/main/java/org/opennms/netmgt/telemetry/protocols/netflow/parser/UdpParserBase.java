@@ -96,7 +96,7 @@ public abstract class UdpParserBase extends ParserBase implements UdpParser {
         final Session session = this.sessionManager.getSession(sessionKey);
 
         try {
-            return this.transmit(this.parse(session, buffer), session, remoteAddress);
+            return this.parseAndTransmit(session, buffer, remoteAddress);
         } catch (Exception e) {
             this.sessionManager.drop(sessionKey);
             this.parserErrors.inc();
@@ -104,6 +104,17 @@ public abstract class UdpParserBase extends ParserBase implements UdpParser {
         }
     }
 
+    /**
+     * Parses the packet and hands the resulting records over for enrichment and dispatching.
+     *
+     * Parsers which are able to decode flows directly from the buffer can override this to bypass building records.
+     */
+    protected CompletableFuture<?> parseAndTransmit(final Session session,
+                                                    final ByteBuf buffer,
+                                                    final InetSocketAddress remoteAddress) throws Exception {
+        return this.transmit(this.parse(session, buffer), session, remoteAddress);
+    }
+
     @Override
     public void start(final ScheduledExecutorService executorService) {
         super.start(executorService);
@@ -40,6 +40,7 @@ import java.util.Objects;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.InvalidPacketException;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.MissingTemplateException;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Value;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.session.ExtractorPlan;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.session.Field;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.session.Session;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.session.Template;
@@ -93,21 +94,15 @@ public final class DataRecord implements Record {
 
     public DataRecord(final DataSet set,
                       final Session.Resolver resolver,
-                      final Template template,
+                      final ExtractorPlan plan,
                       final ByteBuf buffer) throws InvalidPacketException, MissingTemplateException {
         this.set = Objects.requireNonNull(set);
 
-        this.template = Objects.requireNonNull(template);
+        this.template = plan.template;
 
-        final List<Value<?>> scopes = new ArrayList<>(this.template.scopes.size());
-        for (final Field scope : this.template.scopes) {
-            scopes.add(parseField(scope, resolver, buffer));
-        }
-
-        final List<Value<?>> fields = new ArrayList<>(this.template.fields.size());
-        for (final Field field : this.template.fields) {
-            fields.add(parseField(field, resolver, buffer));
-        }
+        final List<Value<?>> scopes = new ArrayList<>(plan.scopeCount());
+        final List<Value<?>> fields = new ArrayList<>(plan.count());
+        plan.extract(resolver, buffer, scopes, fields);
 
         this.scopes = Collections.unmodifiableList(scopes);
         this.fields = Collections.unmodifiableList(fields);
@@ -36,6 +36,7 @@ import java.util.Objects;
 
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.InvalidPacketException;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.MissingTemplateException;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.session.ExtractorPlan;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.session.Template;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.session.Session;
 
@@ -57,15 +58,14 @@ public class DataSet extends FlowSet<DataRecord> {
         super(packet, header);
 
         this.resolver = Objects.requireNonNull(resolver);
-        this.template = this.resolver.lookupTemplate(this.header.setId);
 
-        // For variable length fields we assume at least the length value (1 byte) to be present
-        final int minimumRecordLength = this.template.stream()
-                .mapToInt(f -> f.length() != DataRecord.VARIABLE_SIZED ? f.length() : 1).sum();
+        // For variable length fields the plan assumes at least the length value (1 byte) to be present
+        final ExtractorPlan plan = this.resolver.lookupPlan(this.header.setId);
+        this.template = plan.template;
 
         final List<DataRecord> records = new LinkedList();
-        while (buffer.isReadable(minimumRecordLength)) {
-            records.add(new DataRecord(this, this.resolver, this.template, buffer));
+        while (buffer.isReadable(plan.length)) {
+            records.add(new DataRecord(this, this.resolver, plan, buffer));
         }
 
         if (records.size() == 0) {
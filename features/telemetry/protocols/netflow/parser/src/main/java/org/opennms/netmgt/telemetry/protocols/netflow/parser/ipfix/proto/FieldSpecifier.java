@@ -108,6 +108,17 @@ public final class FieldSpecifier implements Field, Scope {
         return this.fieldLength;
     }
 
+    @Override
+    public boolean isVariableLength() {
+        return this.fieldLength == DataRecord.VARIABLE_SIZED;
+    }
+
+    @Override
+    public int type() {
+        // Enterprise specific elements share the identifier space with the IANA assigned ones
+        return this.enterpriseNumber.isPresent() ? -1 : this.informationElementId;
+    }
+
     @Override
     public String getName() {
         return this.informationElement.getName();
@@ -28,8 +28,6 @@
 
 package org.opennms.netmgt.telemetry.protocols.netflow.parser.netflow9.proto;
 
-import static org.opennms.netmgt.telemetry.listeners.utils.BufferUtils.slice;
-
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -38,7 +36,7 @@ import java.util.Objects;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.InvalidPacketException;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.MissingTemplateException;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Value;
-import org.opennms.netmgt.telemetry.protocols.netflow.parser.session.Field;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.session.ExtractorPlan;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.session.Session;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.session.Template;
 
@@ -70,27 +68,21 @@ public final class DataRecord implements Record {
 
     public DataRecord(final DataSet set,
                       final Session.Resolver resolver,
-                      final Template template,
+                      final ExtractorPlan plan,
+                      final List<Value<?>> options,
                       final ByteBuf buffer) throws InvalidPacketException, MissingTemplateException {
         this.set = Objects.requireNonNull(set);
 
-        this.template = Objects.requireNonNull(template);
-
-        final List<Value<?>> scopes = new ArrayList<>(this.template.scopes.size());
-        for (final Field scope : template.scopes) {
-            scopes.add(scope.parse(resolver, slice(buffer, scope.length())));
-        }
+        this.template = plan.template;
 
-        final List<Value<?>> fields = new ArrayList<>(this.template.fields.size());
-        for (final Field field : template.fields) {
-            fields.add(field.parse(resolver, slice(buffer, field.length())));
-        }
+        final List<Value<?>> scopes = new ArrayList<>(plan.scopeCount());
+        final List<Value<?>> fields = new ArrayList<>(plan.count());
+        plan.extract(resolver, buffer, scopes, fields);
 
         this.scopes = Collections.unmodifiableList(scopes);
         this.fields = Collections.unmodifiableList(fields);
 
-        // Expand the data record by appending values from
-        this.options = resolver.lookupOptions(ScopeFieldSpecifier.buildScopeValues(this));
+        this.options = Objects.requireNonNull(options);
     }
 
     @Override
@@ -0,0 +1,121 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2024 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2024 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.telemetry.protocols.netflow.parser.netflow9.proto;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.List;
+
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.InvalidPacketException;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Value;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.session.ExtractorPlan;
+
+import com.google.common.base.MoreObjects;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Reusable view on a single data record inside a packet buffer.
+ *
+ * The flyweight is re-positioned for every record of a data set and reads field values on demand using the offsets
+ * from the {@link ExtractorPlan} of the template. It is only valid while the handler is called - the underlying buffer must not be
+ * accessed afterwards.
+ */
+public final class DataRecordFlyweight {
+
+    @FunctionalInterface
+    public interface Handler {
+        void handle(final DataRecordFlyweight record, final List<Value<?>> options) throws InvalidPacketException;
+    }
+
+    private ByteBuf buffer;
+    private int base;
+
+    private ExtractorPlan plan;
+
+    DataRecordFlyweight wrap(final ExtractorPlan plan, final ByteBuf buffer, final int base) {
+        this.plan = plan;
+        this.buffer = buffer;
+        this.base = base;
+        return this;
+    }
+
+    public ExtractorPlan getPlan() {
+        return this.plan;
+    }
+
+    public boolean has(final int type) {
+        return this.plan.indexOf(type) >= 0;
+    }
+
+    /**
+     * Reads the field at the given position of the plan as an unsigned big-endian integer.
+     * Fields longer than eight octets are truncated to their lower 64 bits.
+     */
+    public long getUnsigned(final int i) {
+        final int offset = this.base + this.plan.offset(i);
+        final int length = this.plan.length(i);
+
+        switch (length) {
+            case 0: return 0L;
+            case 1: return this.buffer.getUnsignedByte(offset);
+            case 2: return this.buffer.getUnsignedShort(offset);
+            case 4: return this.buffer.getUnsignedInt(offset);
+            case 8: return this.buffer.getLong(offset);
+            default:
+                long result = 0;
+                for (int o = Math.max(0, length - 8); o < length; o++) {
+                    result = (result << 8L) | this.buffer.getUnsignedByte(offset + o);
+                }
+                return result;
+        }
+    }
+
+    /**
+     * Reads the field at the given position of the plan as an IPv4 or IPv6 address.
+     */
+    public InetAddress getAddress(final int i) throws InvalidPacketException {
+        final byte[] bytes = new byte[this.plan.length(i)];
+        this.buffer.getBytes(this.base + this.plan.offset(i), bytes);
+
+        try {
+            return InetAddress.getByAddress(bytes);
+        } catch (final UnknownHostException e) {
+            throw new InvalidPacketException(this.buffer, "Error parsing address value", e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("plan", this.plan)
+                .add("base", this.base)
+                .toString();
+    }
+}
@@ -36,6 +36,8 @@ import java.util.Objects;
 
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.InvalidPacketException;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.MissingTemplateException;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Value;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.session.ExtractorPlan;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.session.Template;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.session.Session;
 
@@ -57,14 +59,16 @@ public final class DataSet extends FlowSet<DataRecord> {
         super(packet, header);
 
         this.resolver = Objects.requireNonNull(resolver);
-        this.template = this.resolver.lookupTemplate(this.header.setId);
 
-        final int minimumRecordLength = template.stream()
-                .mapToInt(f -> f.length()).sum();
+        final ExtractorPlan plan = this.resolver.lookupPlan(this.header.setId);
+        this.template = plan.template;
+
+        // Options are bound to the template and therefore the same for all records in this set
+        final List<Value<?>> options = this.resolver.lookupOptions(ScopeFieldSpecifier.buildScopeValues(packet.header.sourceId, this.template.id));
 
         final List<DataRecord> records = new LinkedList();
-        while (buffer.isReadable(minimumRecordLength)) {
-            records.add(new DataRecord(this, resolver, template, buffer));
+        while (buffer.isReadable(plan.length)) {
+            records.add(new DataRecord(this, resolver, plan, options, buffer));
         }
 
         if (records.size() == 0) {
@@ -95,6 +95,11 @@ public final class FieldSpecifier implements Field {
         return this.fieldLength;
     }
 
+    @Override
+    public int type() {
+        return this.fieldType;
+    }
+
     @Override
     public String toString() {
         return MoreObjects.toStringHelper(this)
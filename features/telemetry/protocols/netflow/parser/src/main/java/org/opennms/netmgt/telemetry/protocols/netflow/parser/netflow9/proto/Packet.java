@@ -42,6 +42,7 @@ import org.opennms.netmgt.telemetry.protocols.netflow.parser.MissingTemplateExce
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.RecordProvider;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Value;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.values.UnsignedValue;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.session.ExtractorPlan;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.session.Session;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.session.Template;
 import org.slf4j.Logger;
@@ -73,11 +74,28 @@ public final class Packet implements Iterable<FlowSet<?>>, RecordProvider {
     public final List<OptionsTemplateSet> optionTemplateSets;
     public final List<DataSet> dataSets;
 
+    private int flyweightRecordCount = 0;
+
     public Packet(final Session session,
                   final Header header,
                   final ByteBuf buffer) throws InvalidPacketException {
+        this(session, header, buffer, null);
+    }
+
+    /**
+     * Parses the packet while handing the records of all data sets directly to the given handler.
+     *
+     * If a handler is given, records of data sets are not materialized but passed to the handler using a reused
+     * {@link DataRecordFlyweight}. Option data sets are still materialized as they are kept in the session.
+     */
+    public Packet(final Session session,
+                  final Header header,
+                  final ByteBuf buffer,
+                  final DataRecordFlyweight.Handler handler) throws InvalidPacketException {
         this.header = Objects.requireNonNull(header);
 
+        final DataRecordFlyweight flyweight = handler != null ? new DataRecordFlyweight() : null;
+
         final List<TemplateSet> templateSets = new LinkedList<>();
         final List<OptionsTemplateSet> optionTemplateSets = new LinkedList<>();
         final List<DataSet> dataSets = new LinkedList<>();
@@ -134,6 +152,21 @@ public final class Packet implements Iterable<FlowSet<?>>, RecordProvider {
                 case DATA_FLOWSET: {
                     final Session.Resolver resolver = session.getResolver(header.sourceId);
 
+                    if (handler != null) {
+                        final ExtractorPlan plan;
+                        try {
+                            plan = resolver.lookupPlan(setHeader.setId);
+                        } catch (final MissingTemplateException ex) {
+                            LOG.debug("Skipping data-set due to missing template: {}", ex.getMessage());
+                            break;
+                        }
+
+                        if (plan.template.type == Template.Type.TEMPLATE) {
+                            this.flyweightRecordCount += this.handleDataSet(resolver, plan, payloadBuffer, flyweight, handler);
+                            break;
+                        }
+                    }
+
                     final DataSet dataSet;
                     try {
                         dataSet = new DataSet(this, setHeader, resolver, payloadBuffer);
@@ -164,6 +197,39 @@ public final class Packet implements Iterable<FlowSet<?>>, RecordProvider {
         this.dataSets = Collections.unmodifiableList(dataSets);
     }
 
+    private int handleDataSet(final Session.Resolver resolver,
+                              final ExtractorPlan plan,
+                              final ByteBuf buffer,
+                              final DataRecordFlyweight flyweight,
+                              final DataRecordFlyweight.Handler handler) throws InvalidPacketException {
+        if (plan.length == 0) {
+            throw new InvalidPacketException(buffer, "Empty template: %d", plan.template.id);
+        }
+
+        // Options are bound to the template and therefore the same for all records in this set
+        final List<Value<?>> options = resolver.lookupOptions(ScopeFieldSpecifier.buildScopeValues(this.header.sourceId, plan.template.id));
+
+        int count = 0;
+        while (buffer.isReadable(plan.length)) {
+            handler.handle(flyweight.wrap(plan, buffer, buffer.readerIndex()), options);
+            buffer.skipBytes(plan.length);
+            count++;
+        }
+
+        if (count == 0) {
+            throw new InvalidPacketException(buffer, "Empty set");
+        }
+
+        return count;
+    }
+
+    /**
+     * Returns the number of records passed to the handler while parsing.
+     */
+    public int getFlyweightRecordCount() {
+        return this.flyweightRecordCount;
+    }
+
     @Override
     public Iterator<FlowSet<?>> iterator() {
         return Iterators.concat(this.templateSets.iterator(),
@@ -0,0 +1,251 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2024 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2024 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.telemetry.protocols.netflow.parser.session;
+
+import static org.opennms.netmgt.telemetry.listeners.utils.BufferUtils.slice;
+import static org.opennms.netmgt.telemetry.listeners.utils.BufferUtils.uint16;
+import static org.opennms.netmgt.telemetry.listeners.utils.BufferUtils.uint8;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.InvalidPacketException;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.MissingTemplateException;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Value;
+
+import com.google.common.base.MoreObjects;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Decoding plan compiled from a template when the template arrives.
+ *
+ * The plan flattens the scopes and fields of the template into arrays and pre-calculates the record length and the
+ * offset of each field. Templates consisting of fixed-length fields only are decoded without any per-field length
+ * handling and allow random access to the fields of a record. Templates containing variable-length fields fall back
+ * to reading the length prefix of these fields.
+ *
+ * Plans are cached by the session together with the template and are dropped whenever the template is withdrawn or
+ * replaced.
+ */
+public final class ExtractorPlan {
+
+    /**
+     * Field types above this limit are not indexed. None of the fields evaluated when building flow messages is
+     * affected by this, but it keeps the lookup table small for templates using vendor specific field types.
+     */
+    public static final int MAX_INDEXED_TYPE = 255;
+
+    /**
+     * Marker for lengths and offsets not known before the record is decoded.
+     */
+    public static final int VARIABLE = -1;
+
+    private static final int VARIABLE_SIZED_EXTENDED = 0xFF;
+
+    public final Template template;
+
+    /**
+     * Whether all scopes and fields of the template have a fixed length.
+     */
+    public final boolean fixedLength;
+
+    /**
+     * The length of each record for fixed-length templates. For templates with variable-length fields, this is the
+     * minimum length of a record assuming a single length octet for each variable-length field.
+     */
+    public final int length;
+
+    private final Field[] scopes;
+    private final int[] scopeLengths;
+
+    private final Field[] fields;
+    private final int[] types;
+    private final int[] offsets;
+    private final int[] lengths;
+
+    private final int[] index;
+
+    private ExtractorPlan(final Template template) {
+        this.template = Objects.requireNonNull(template);
+
+        this.scopes = template.scopes.toArray(new Field[0]);
+        this.scopeLengths = new int[this.scopes.length];
+
+        this.fields = template.fields.toArray(new Field[0]);
+        this.types = new int[this.fields.length];
+        this.offsets = new int[this.fields.length];
+        this.lengths = new int[this.fields.length];
+
+        boolean fixedLength = true;
+        int offset = 0;
+        int length = 0;
+
+        for (int i = 0; i < this.scopes.length; i++) {
+            this.scopeLengths[i] = lengthOf(this.scopes[i]);
+
+            if (this.scopeLengths[i] == VARIABLE) {
+                fixedLength = false;
+                offset = VARIABLE;
+                length += 1;
+            } else {
+                offset = offset != VARIABLE ? offset + this.scopeLengths[i] : VARIABLE;
+                length += this.scopeLengths[i];
+            }
+        }
+
+        int maxType = -1;
+        for (int i = 0; i < this.fields.length; i++) {
+            this.types[i] = this.fields[i].type();
+            this.lengths[i] = lengthOf(this.fields[i]);
+            this.offsets[i] = offset;
+
+            if (this.lengths[i] == VARIABLE) {
+                fixedLength = false;
+                offset = VARIABLE;
+                length += 1;
+            } else {
+                offset = offset != VARIABLE ? offset + this.lengths[i] : VARIABLE;
+                length += this.lengths[i];
+            }
+
+            if (this.types[i] <= MAX_INDEXED_TYPE) {
+                maxType = Math.max(maxType, this.types[i]);
+            }
+        }
+
+        this.fixedLength = fixedLength;
+        this.length = length;
+
+        this.index = new int[maxType + 1];
+        Arrays.fill(this.index, -1);
+
+        // Later fields win if a template contains a field type multiple times
+        for (int i = 0; i < this.fields.length; i++) {
+            if (this.types[i] >= 0 && this.types[i] <= MAX_INDEXED_TYPE) {
+                this.index[this.types[i]] = i;
+            }
+        }
+    }
+
+    public static ExtractorPlan compile(final Template template) {
+        return new ExtractorPlan(template);
+    }
+
+    /**
+     * Decodes a single record starting at the reader index of the buffer and advances the buffer past the record.
+     */
+    public void extract(final Session.Resolver resolver,
+                        final ByteBuf buffer,
+                        final List<Value<?>> scopes,
+                        final List<Value<?>> fields) throws InvalidPacketException, MissingTemplateException {
+        if (this.fixedLength) {
+            for (int i = 0; i < this.scopes.length; i++) {
+                scopes.add(this.scopes[i].parse(resolver, slice(buffer, this.scopeLengths[i])));
+            }
+            for (int i = 0; i < this.fields.length; i++) {
+                fields.add(this.fields[i].parse(resolver, slice(buffer, this.lengths[i])));
+            }
+        } else {
+            for (int i = 0; i < this.scopes.length; i++) {
+                scopes.add(this.scopes[i].parse(resolver, slice(buffer, actualLength(buffer, this.scopeLengths[i]))));
+            }
+            for (int i = 0; i < this.fields.length; i++) {
+                fields.add(this.fields[i].parse(resolver, slice(buffer, actualLength(buffer, this.lengths[i]))));
+            }
+        }
+    }
+
+    public int scopeCount() {
+        return this.scopes.length;
+    }
+
+    public int count() {
+        return this.fields.length;
+    }
+
+    public int type(final int i) {
+        return this.types[i];
+    }
+
+    /**
+     * Returns the offset of the field at the given position relative to the start of the record or {@link #VARIABLE}
+     * if the field is preceded by a variable-length field.
+     */
+    public int offset(final int i) {
+        return this.offsets[i];
+    }
+
+    /**
+     * Returns the length of the field at the given position or {@link #VARIABLE} for variable-length fields.
+     */
+    public int length(final int i) {
+        return this.lengths[i];
+    }
+
+    /**
+     * Returns the position of the field with the given type inside the plan or {@code -1} if the template does not
+     * contain such a field.
+     */
+    public int indexOf(final int type) {
+        if (type < 0 || type >= this.index.length) {
+            return -1;
+        }
+        return this.index[type];
+    }
+
+    private static int lengthOf(final Field field) {
+        return field.isVariableLength() ? VARIABLE : field.length();
+    }
+
+    private static int actualLength(final ByteBuf buffer, final int length) {
+        if (length != VARIABLE) {
+            return length;
+        }
+
+        // See RFC 7011, section 7: Variable-Length Information Element
+        final int actual = uint8(buffer);
+        if (actual == VARIABLE_SIZED_EXTENDED) {
+            return uint16(buffer);
+        }
+        return actual;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("templateId", this.template.id)
+                .add("fixedLength", this.fixedLength)
+                .add("length", this.length)
+                .add("scopes", this.scopes.length)
+                .add("fields", this.fields.length)
+                .toString();
+    }
+}
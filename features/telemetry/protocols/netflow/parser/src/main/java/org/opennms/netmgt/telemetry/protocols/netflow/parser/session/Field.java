@@ -37,6 +37,20 @@ import io.netty.buffer.ByteBuf;
 public interface Field {
     int length();
 
+    /**
+     * Returns whether the length of the field is encoded in each record instead of the template.
+     */
+    default boolean isVariableLength() {
+        return false;
+    }
+
+    /**
+     * Returns the protocol specific type of the field or {@code -1} if the field has no numeric type.
+     */
+    default int type() {
+        return -1;
+    }
+
     Value<?> parse(final Session.Resolver resolver,
                    final ByteBuf buffer) throws InvalidPacketException, MissingTemplateException;
 }
@@ -38,7 +38,12 @@ import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Value;
 public interface Session {
 
     interface Resolver {
-        Template lookupTemplate(final int templateId) throws MissingTemplateException;
+        ExtractorPlan lookupPlan(final int templateId) throws MissingTemplateException;
+
+        default Template lookupTemplate(final int templateId) throws MissingTemplateException {
+            return this.lookupPlan(templateId).template;
+        }
+
         List<Value<?>> lookupOptions(final List<Value<?>> values);
     }
 
@@ -62,12 +62,12 @@ public class TcpSession implements Session {
         }
 
         @Override
-        public Template lookupTemplate(final int templateId) throws MissingTemplateException {
+        public ExtractorPlan lookupPlan(final int templateId) throws MissingTemplateException {
             final TemplateKey key = new TemplateKey(this.observationDomainId, templateId);
 
-            final Template template = TcpSession.this.templates.get(key);
-            if (template != null) {
-                return template;
+            final ExtractorPlan plan = TcpSession.this.templates.get(key);
+            if (plan != null) {
+                return plan;
             } else {
                 throw new MissingTemplateException(templateId);
             }
@@ -81,7 +81,7 @@ public class TcpSession implements Session {
 
             for (final Map.Entry<TemplateKey, Map<Set<Value<?>>, List<Value<?>>>> e : Iterables.filter(TcpSession.this.options.entrySet(),
                                                                                                e -> e.getKey().observationDomainId == this.observationDomainId)) {
-                final Template template = TcpSession.this.templates.get(e.getKey());
+                final Template template = TcpSession.this.templates.get(e.getKey()).template;
 
                 final Set<String> scopes = template.scopes.stream().map(Scope::getName).collect(Collectors.toSet());
 
@@ -130,7 +130,7 @@ public class TcpSession implements Session {
     }
 
     private final InetAddress remoteAddress;
-    private final Map<TemplateKey, Template> templates = Maps.newHashMap();
+    private final Map<TemplateKey, ExtractorPlan> templates = Maps.newHashMap();
     private final Map<TemplateKey, Map<Set<Value<?>>, List<Value<?>>>> options = Maps.newHashMap();
     private final Map<Long, SequenceNumberTracker> sequenceNumbers = Maps.newHashMap();
 
@@ -143,7 +143,7 @@ public class TcpSession implements Session {
 
     @Override
     public void addTemplate(final long observationDomainId, final Template template) {
-        this.templates.put(new TemplateKey(observationDomainId, template.id), template);
+        this.templates.put(new TemplateKey(observationDomainId, template.id), ExtractorPlan.compile(template));
     }
 
     @Override
@@ -153,7 +153,7 @@ public class TcpSession implements Session {
 
     @Override
     public void removeAllTemplate(final long observationDomainId, final Template.Type type) {
-        this.templates.entrySet().removeIf(e -> e.getKey().observationDomainId == observationDomainId && e.getValue().type == type);
+        this.templates.entrySet().removeIf(e -> e.getKey().observationDomainId == observationDomainId && e.getValue().template.type == type);
     }
 
     @Override
@@ -193,15 +193,16 @@ public class UdpSessionManager {
 
     public static class TemplateOptions {
         public final Template template;
+        public final ExtractorPlan plan;
         public final Map<Set<Value<?>>, TimeWrapper<List<Value<?>>>> options;
 
         public TemplateOptions(final Template template) {
-            this.template = Objects.requireNonNull(template);
-            this.options = Maps.newConcurrentMap();
+            this(template, Maps.newConcurrentMap());
         }
 
         public TemplateOptions(final Template template, Map<Set<Value<?>>, TimeWrapper<List<Value<?>>>> options) {
             this.template = Objects.requireNonNull(template);
+            this.plan = ExtractorPlan.compile(template);
             this.options = Objects.requireNonNull(options);
         }
     }
@@ -278,10 +279,10 @@ public class UdpSessionManager {
             }
 
             @Override
-            public Template lookupTemplate(final int templateId) throws MissingTemplateException {
+            public ExtractorPlan lookupPlan(final int templateId) throws MissingTemplateException {
                 final TimeWrapper<TemplateOptions> templateOptions = UdpSessionManager.this.templates.get(key(templateId));
                 if (templateOptions != null) {
-                    return templateOptions.wrapped.template;
+                    return templateOptions.wrapped.plan;
                 } else {
                     throw new MissingTemplateException(templateId);
                 }
@@ -0,0 +1,104 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2024 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2024 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.telemetry.protocols.netflow.parser.transport;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Objects;
+
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.RecordEnrichment;
+import org.opennms.netmgt.telemetry.protocols.netflow.transport.FlowMessage;
+
+import com.google.common.base.MoreObjects;
+
+/**
+ * A flow message decoded from a record which is still missing the hostnames of its addresses.
+ */
+public final class DecodedFlow {
+    private final FlowMessage.Builder builder;
+
+    private final InetAddress srcAddress;
+    private final InetAddress dstAddress;
+    private final InetAddress nextHopAddress;
+
+    public DecodedFlow(final FlowMessage.Builder builder,
+                       final InetAddress srcAddress,
+                       final InetAddress dstAddress,
+                       final InetAddress nextHopAddress) {
+        this.builder = Objects.requireNonNull(builder);
+        this.srcAddress = srcAddress;
+        this.dstAddress = dstAddress;
+        this.nextHopAddress = nextHopAddress;
+    }
+
+    public FlowMessage.Builder getBuilder() {
+        return this.builder;
+    }
+
+    /**
+     * Returns the addresses which must be resolved to enrich the flow.
+     */
+    public Collection<InetAddress> getAddresses() {
+        final Collection<InetAddress> addresses = new ArrayList<>(3);
+        if (this.srcAddress != null) {
+            addresses.add(this.srcAddress);
+        }
+        if (this.dstAddress != null) {
+            addresses.add(this.dstAddress);
+        }
+        if (this.nextHopAddress != null) {
+            addresses.add(this.nextHopAddress);
+        }
+        return addresses;
+    }
+
+    public FlowMessage.Builder enrich(final RecordEnrichment enrichment) {
+        if (this.srcAddress != null) {
+            enrichment.getHostnameFor(this.srcAddress).ifPresent(this.builder::setSrcHostname);
+        }
+        if (this.dstAddress != null) {
+            enrichment.getHostnameFor(this.dstAddress).ifPresent(this.builder::setDstHostname);
+        }
+        if (this.nextHopAddress != null) {
+            enrichment.getHostnameFor(this.nextHopAddress).ifPresent(this.builder::setNextHopHostname);
+        }
+        return this.builder;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("builder", this.builder)
+                .add("srcAddress", this.srcAddress)
+                .add("dstAddress", this.dstAddress)
+                .add("nextHopAddress", this.nextHopAddress)
+                .toString();
+    }
+}
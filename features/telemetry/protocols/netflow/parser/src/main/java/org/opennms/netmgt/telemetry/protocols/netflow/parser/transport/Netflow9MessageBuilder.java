@@ -29,7 +29,6 @@
 package org.opennms.netmgt.telemetry.protocols.netflow.parser.transport;
 
 import static org.opennms.netmgt.telemetry.protocols.netflow.parser.transport.MessageUtils.first;
-import static org.opennms.netmgt.telemetry.protocols.netflow.parser.transport.MessageUtils.getDoubleValue;
 import static org.opennms.netmgt.telemetry.protocols.netflow.parser.transport.MessageUtils.getInetAddress;
 import static org.opennms.netmgt.telemetry.protocols.netflow.parser.transport.MessageUtils.getLongValue;
 import static org.opennms.netmgt.telemetry.protocols.netflow.parser.transport.MessageUtils.getUInt32Value;
@@ -39,301 +38,469 @@ import static org.opennms.netmgt.telemetry.protocols.netflow.parser.transport.Me
 import static org.opennms.netmgt.telemetry.protocols.netflow.parser.transport.MessageUtils.setLongValue;
 
 import java.net.InetAddress;
+import java.util.List;
+import java.util.Map;
 
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.InvalidPacketException;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.RecordEnrichment;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Value;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.netflow9.proto.DataRecordFlyweight;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.netflow9.proto.Header;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.session.ExtractorPlan;
 import org.opennms.netmgt.telemetry.protocols.netflow.transport.Direction;
 import org.opennms.netmgt.telemetry.protocols.netflow.transport.FlowMessage;
 import org.opennms.netmgt.telemetry.protocols.netflow.transport.NetflowVersion;
 import org.opennms.netmgt.telemetry.protocols.netflow.transport.SamplingAlgorithm;
 
+import com.google.common.collect.ImmutableMap;
 import com.google.protobuf.UInt32Value;
 
 @SuppressWarnings("java:S109")
 public class Netflow9MessageBuilder implements MessageBuilder {
 
+    // Field types as defined by the Netflow v9 information element database
+    private static final int IN_BYTES = 1;
+    private static final int IN_PKTS = 2;
+    private static final int PROTOCOL = 4;
+    private static final int TOS = 5;
+    private static final int TCP_FLAGS = 6;
+    private static final int L4_SRC_PORT = 7;
+    private static final int IPV4_SRC_ADDR = 8;
+    private static final int SRC_MASK = 9;
+    private static final int INPUT_SNMP = 10;
+    private static final int L4_DST_PORT = 11;
+    private static final int IPV4_DST_ADDR = 12;
+    private static final int DST_MASK = 13;
+    private static final int OUTPUT_SNMP = 14;
+    private static final int IPV4_NEXT_HOP = 15;
+    private static final int SRC_AS = 16;
+    private static final int DST_AS = 17;
+    private static final int LAST_SWITCHED = 21;
+    private static final int FIRST_SWITCHED = 22;
+    private static final int IPV6_SRC_ADDR = 27;
+    private static final int IPV6_DST_ADDR = 28;
+    private static final int IPV6_SRC_MASK = 29;
+    private static final int IPV6_DST_MASK = 30;
+    private static final int SAMPLING_INTERVAL = 34;
+    private static final int SAMPLING_ALGORITHM = 35;
+    private static final int FLOW_ACTIVE_TIMEOUT = 36;
+    private static final int FLOW_INACTIVE_TIMEOUT = 37;
+    private static final int ENGINE_TYPE = 38;
+    private static final int ENGINE_ID = 39;
+    private static final int SRC_VLAN = 58;
+    private static final int DST_VLAN = 59;
+    private static final int IP_PROTOCOL_VERSION = 60;
+    private static final int DIRECTION = 61;
+    private static final int IPV6_NEXT_HOP = 62;
+    private static final int FLOW_START_MILLISECONDS = 152;
+    private static final int FLOW_END_MILLISECONDS = 153;
+    private static final int INGRESS_PHYSICAL_INTERFACE = 252;
+    private static final int EGRESS_PHYSICAL_INTERFACE = 253;
+
+    private static final Map<String, Integer> FIELD_TYPES = ImmutableMap.<String, Integer>builder()
+            .put("IN_BYTES", IN_BYTES)
+            .put("IN_PKTS", IN_PKTS)
+            .put("PROTOCOL", PROTOCOL)
+            .put("TOS", TOS)
+            .put("TCP_FLAGS", TCP_FLAGS)
+            .put("L4_SRC_PORT", L4_SRC_PORT)
+            .put("IPV4_SRC_ADDR", IPV4_SRC_ADDR)
+            .put("SRC_MASK", SRC_MASK)
+            .put("INPUT_SNMP", INPUT_SNMP)
+            .put("L4_DST_PORT", L4_DST_PORT)
+            .put("IPV4_DST_ADDR", IPV4_DST_ADDR)
+            .put("DST_MASK", DST_MASK)
+            .put("OUTPUT_SNMP", OUTPUT_SNMP)
+            .put("IPV4_NEXT_HOP", IPV4_NEXT_HOP)
+            .put("SRC_AS", SRC_AS)
+            .put("DST_AS", DST_AS)
+            .put("LAST_SWITCHED", LAST_SWITCHED)
+            .put("FIRST_SWITCHED", FIRST_SWITCHED)
+            .put("IPV6_SRC_ADDR", IPV6_SRC_ADDR)
+            .put("IPV6_DST_ADDR", IPV6_DST_ADDR)
+            .put("IPV6_SRC_MASK", IPV6_SRC_MASK)
+            .put("IPV6_DST_MASK", IPV6_DST_MASK)
+            .put("SAMPLING_INTERVAL", SAMPLING_INTERVAL)
+            .put("SAMPLING_ALGORITHM", SAMPLING_ALGORITHM)
+            .put("FLOW_ACTIVE_TIMEOUT", FLOW_ACTIVE_TIMEOUT)
+            .put("FLOW_INACTIVE_TIMEOUT", FLOW_INACTIVE_TIMEOUT)
+            .put("ENGINE_TYPE", ENGINE_TYPE)
+            .put("ENGINE_ID", ENGINE_ID)
+            .put("SRC_VLAN", SRC_VLAN)
+            .put("DST_VLAN", DST_VLAN)
+            .put("IP_PROTOCOL_VERSION", IP_PROTOCOL_VERSION)
+            .put("DIRECTION", DIRECTION)
+            .put("IPV6_NEXT_HOP", IPV6_NEXT_HOP)
+            .put("flowStartMilliseconds", FLOW_START_MILLISECONDS)
+            .put("flowEndMilliseconds", FLOW_END_MILLISECONDS)
+            .put("ingressPhysicalInterface", INGRESS_PHYSICAL_INTERFACE)
+            .put("egressPhysicalInterface", EGRESS_PHYSICAL_INTERFACE)
+            .build();
+
+    private static final byte IGNORED = 0;
+    private static final byte UNSIGNED = 1;
+    private static final byte ADDRESS = 2;
+
+    // Lookup table used to decide how to read a field from a flyweight record
+    private static final byte[] FIELD_KINDS = new byte[ExtractorPlan.MAX_INDEXED_TYPE + 1];
+
+    static {
+        for (final int type : FIELD_TYPES.values()) {
+            FIELD_KINDS[type] = UNSIGNED;
+        }
+        for (final int type : new int[]{IPV4_SRC_ADDR, IPV4_DST_ADDR, IPV4_NEXT_HOP, IPV6_SRC_ADDR, IPV6_DST_ADDR, IPV6_NEXT_HOP}) {
+            FIELD_KINDS[type] = ADDRESS;
+        }
+    }
+
     private Long flowActiveTimeoutFallback;
     private Long flowInactiveTimeoutFallback;
     private Long flowSamplingIntervalFallback;
 
     @Override
     public FlowMessage.Builder buildMessage(final Iterable<Value<?>> values, final RecordEnrichment enrichment) {
-        final FlowMessage.Builder builder = FlowMessage.newBuilder();
-        builder.setDirection(Direction.UNKNOWN);
-
-        InetAddress ipv4DstAddress = null;
-        InetAddress ipv6DstAddress = null;
-        Long dstMask = null;
-        Long ipv6DstMask = null;
-        InetAddress ipv4NextHop = null;
-        InetAddress ipv6NextHop = null;
-        InetAddress bgpIpv4NextHop = null;
-        InetAddress bgpIpv6NextHop = null;
-        InetAddress ipv4SrcAddress = null;
-        InetAddress ipv6SrcAddress = null;
-        Long srcMask = null;
-        Long ipv6SrcMask = null;
-        Long srcVlan = null;
-        Long dstVlan = null;
-        Long flowActiveTimeout = this.flowActiveTimeoutFallback;
-        Long flowInActiveTimeout = this.flowInactiveTimeoutFallback;
-        long sysUpTime = 0;
-        long unixSecs = 0;
-        Long firstSwitched = null;
-        Long lastSwitched = null;
-        Long flowStartMilliseconds = null;
-        Long flowEndMilliseconds = null;
-        UInt32Value ingressPhysicalInterface = null;
-        UInt32Value egressPhysicalInterface = null;
-        UInt32Value inputSnmp = null;
-        UInt32Value outputSnmp = null;
-
-	if (this.flowSamplingIntervalFallback != null) {
-	    builder.setSamplingInterval(setDoubleValue(this.flowSamplingIntervalFallback));
-	}
+        final Fields fields = new Fields();
 
         for (final Value<?> value : values) {
             switch (value.getName()) {
                 // Header
                 case "@recordCount":
-                    getUInt32Value(value).ifPresent(builder::setNumFlowRecords);
+                    getUInt32Value(value).ifPresent(fields.builder::setNumFlowRecords);
                     break;
                 case "@sequenceNumber":
-                    getUInt64Value(value).ifPresent(builder::setFlowSeqNum);
+                    getUInt64Value(value).ifPresent(fields.builder::setFlowSeqNum);
                     break;
                 case "@sourceId":
-                    getUInt64Value(value).ifPresent(srcId -> builder.setNodeIdentifier(String.valueOf(srcId.getValue())));
+                    getUInt64Value(value).ifPresent(srcId -> fields.builder.setNodeIdentifier(String.valueOf(srcId.getValue())));
                     break;
                 case "@sysUpTime":
-                    sysUpTime = getLongValue(value);
+                    fields.sysUpTime = getLongValue(value);
                     break;
                 case "@unixSecs":
-                    unixSecs = getLongValue(value);
+                    fields.unixSecs = getLongValue(value);
+                    break;
+                default:
+                    fields.apply(value);
+                    break;
+            }
+        }
+
+        return fields.finish().enrich(enrichment);
+    }
+
+    /**
+     * Builds the flow message directly from a record in the packet buffer.
+     *
+     * The resulting message is not enriched and the number of flow records in the packet is not set, as this is only
+     * known after all records of the packet have been decoded.
+     */
+    public DecodedFlow buildMessage(final Header header,
+                                    final DataRecordFlyweight record,
+                                    final List<Value<?>> options) throws InvalidPacketException {
+        final Fields fields = new Fields();
+
+        fields.builder.setFlowSeqNum(setLongValue(header.sequenceNumber));
+        fields.builder.setNodeIdentifier(String.valueOf(header.sourceId));
+        fields.sysUpTime = header.sysUpTime;
+        fields.unixSecs = header.unixSecs;
+
+        final ExtractorPlan plan = record.getPlan();
+        for (int i = 0; i < plan.count(); i++) {
+            final int type = plan.type(i);
+            if (type < 0 || type >= FIELD_KINDS.length) {
+                continue;
+            }
+
+            switch (FIELD_KINDS[type]) {
+                case UNSIGNED:
+                    fields.set(type, record.getUnsigned(i));
                     break;
-                case "IN_BYTES":
-                    getUInt64Value(value).ifPresent(builder::setNumBytes);
+                case ADDRESS:
+                    fields.setAddress(type, record.getAddress(i));
+                    break;
+                default:
                     break;
-                case "DIRECTION":
-                builder.setDirection(getDirection(value));
+            }
+        }
+
+        // Values from option data override the values of the record
+        for (final Value<?> value : options) {
+            fields.apply(value);
+        }
+
+        return fields.finish();
+    }
+
+    private final class Fields {
+        private final FlowMessage.Builder builder = FlowMessage.newBuilder();
+
+        private InetAddress ipv4DstAddress = null;
+        private InetAddress ipv6DstAddress = null;
+        private Long dstMask = null;
+        private Long ipv6DstMask = null;
+        private InetAddress ipv4NextHop = null;
+        private InetAddress ipv6NextHop = null;
+        private InetAddress ipv4SrcAddress = null;
+        private InetAddress ipv6SrcAddress = null;
+        private Long srcMask = null;
+        private Long ipv6SrcMask = null;
+        private Long srcVlan = null;
+        private Long dstVlan = null;
+        private Long flowActiveTimeout = Netflow9MessageBuilder.this.flowActiveTimeoutFallback;
+        private Long flowInActiveTimeout = Netflow9MessageBuilder.this.flowInactiveTimeoutFallback;
+        private long sysUpTime = 0;
+        private long unixSecs = 0;
+        private Long firstSwitched = null;
+        private Long lastSwitched = null;
+        private Long flowStartMilliseconds = null;
+        private Long flowEndMilliseconds = null;
+        private UInt32Value ingressPhysicalInterface = null;
+        private UInt32Value egressPhysicalInterface = null;
+        private UInt32Value inputSnmp = null;
+        private UInt32Value outputSnmp = null;
+
+        private Fields() {
+            this.builder.setDirection(Direction.UNKNOWN);
+
+            if (Netflow9MessageBuilder.this.flowSamplingIntervalFallback != null) {
+                this.builder.setSamplingInterval(setDoubleValue(Netflow9MessageBuilder.this.flowSamplingIntervalFallback));
+            }
+        }
+
+        private void apply(final Value<?> value) {
+            final Integer type = FIELD_TYPES.get(value.getName());
+            if (type == null) {
+                return;
+            }
+
+            if (FIELD_KINDS[type] == ADDRESS) {
+                this.setAddress(type, getInetAddress(value));
+            } else {
+                final Long longValue = getLongValue(value);
+                if (longValue != null) {
+                    this.set(type, longValue);
+                }
+            }
+        }
+
+        private void setAddress(final int type, final InetAddress address) {
+            switch (type) {
+                case IPV4_DST_ADDR:
+                    this.ipv4DstAddress = address;
                     break;
-                case "IPV4_DST_ADDR":
-                    ipv4DstAddress = getInetAddress(value);
+                case IPV6_DST_ADDR:
+                    this.ipv6DstAddress = address;
                     break;
-                case "IPV6_DST_ADDR":
-                    ipv6DstAddress = getInetAddress(value);
+                case IPV4_SRC_ADDR:
+                    this.ipv4SrcAddress = address;
                     break;
-                case "DST_AS":
-                    getUInt64Value(value).ifPresent(builder::setDstAs);
+                case IPV6_SRC_ADDR:
+                    this.ipv6SrcAddress = address;
                     break;
-                case "IPV6_DST_MASK":
-                    ipv6DstMask = getLongValue(value);
+                case IPV4_NEXT_HOP:
+                    this.ipv4NextHop = address;
                     break;
-                case "DST_MASK":
-                    dstMask = getLongValue(value);
+                case IPV6_NEXT_HOP:
+                    this.ipv6NextHop = address;
                     break;
-                case "L4_DST_PORT":
-                    getUInt32Value(value).ifPresent(builder::setDstPort);
+                default:
                     break;
-                case "ENGINE_ID":
-                    getUInt32Value(value).ifPresent(builder::setEngineId);
+            }
+        }
+
+        private void set(final int type, final long value) {
+            switch (type) {
+                case IN_BYTES:
+                    this.builder.setNumBytes(setLongValue(value));
                     break;
-                case "ENGINE_TYPE":
-                    getUInt32Value(value).ifPresent(builder::setEngineType);
+                case DIRECTION:
+                    this.builder.setDirection(getDirection(value));
                     break;
-                case "FIRST_SWITCHED":
-                    firstSwitched = getLongValue(value);
+                case DST_AS:
+                    this.builder.setDstAs(setLongValue(value));
                     break;
-                case "LAST_SWITCHED":
-                    lastSwitched = getLongValue(value);
+                case IPV6_DST_MASK:
+                    this.ipv6DstMask = value;
                     break;
-                case "INPUT_SNMP":
-                    inputSnmp = getUInt32Value(value).orElse(null);
+                case DST_MASK:
+                    this.dstMask = value;
                     break;
-                case "IP_PROTOCOL_VERSION":
-                    getUInt32Value(value).ifPresent(builder::setIpProtocolVersion);
+                case L4_DST_PORT:
+                    this.builder.setDstPort(setIntValue((int) value));
                     break;
-                case "OUTPUT_SNMP":
-                    outputSnmp = getUInt32Value(value).orElse(null);
+                case ENGINE_ID:
+                    this.builder.setEngineId(setIntValue((int) value));
                     break;
-                case "IPV6_NEXT_HOP":
-                    ipv6NextHop = getInetAddress(value);
+                case ENGINE_TYPE:
+                    this.builder.setEngineType(setIntValue((int) value));
                     break;
-                case "IPV4_NEXT_HOP":
-                    ipv4NextHop = getInetAddress(value);
+                case FIRST_SWITCHED:
+                    this.firstSwitched = value;
                     break;
-                case "BPG_IPV6_NEXT_HOP":
-                    bgpIpv6NextHop = getInetAddress(value);
+                case LAST_SWITCHED:
+                    this.lastSwitched = value;
                     break;
-                case "BPG_IPV4_NEXT_HOP":
-                    bgpIpv4NextHop = getInetAddress(value);
+                case INPUT_SNMP:
+                    this.inputSnmp = setIntValue((int) value);
                     break;
-                case "IN_PKTS":
-                    getUInt64Value(value).ifPresent(builder::setNumPackets);
+                case IP_PROTOCOL_VERSION:
+                    this.builder.setIpProtocolVersion(setIntValue((int) value));
                     break;
-                case "PROTOCOL":
-                    getUInt32Value(value).ifPresent(builder::setProtocol);
+                case OUTPUT_SNMP:
+                    this.outputSnmp = setIntValue((int) value);
                     break;
-                case "SAMPLING_ALGORITHM":
-                builder.setSamplingAlgorithm(getSamplingAlgorithm(value));
+                case IN_PKTS:
+                    this.builder.setNumPackets(setLongValue(value));
                     break;
-                case "SAMPLING_INTERVAL":
-                    getDoubleValue(value).ifPresent(builder::setSamplingInterval);
+                case PROTOCOL:
+                    this.builder.setProtocol(setIntValue((int) value));
                     break;
-                case "IPV6_SRC_ADDR":
-                    ipv6SrcAddress = getInetAddress(value);
+                case SAMPLING_ALGORITHM:
+                    this.builder.setSamplingAlgorithm(getSamplingAlgorithm(value));
                     break;
-                case "IPV4_SRC_ADDR":
-                    ipv4SrcAddress = getInetAddress(value);
+                case SAMPLING_INTERVAL:
+                    this.builder.setSamplingInterval(setDoubleValue((double) value));
                     break;
-                case "IPV6_SRC_MASK":
-                    ipv6SrcMask = getLongValue(value);
+                case IPV6_SRC_MASK:
+                    this.ipv6SrcMask = value;
                     break;
-                case "SRC_MASK":
-                    srcMask = getLongValue(value);
+                case SRC_MASK:
+                    this.srcMask = value;
                     break;
-                case "SRC_AS":
-                    getUInt64Value(value).ifPresent(builder::setSrcAs);
+                case SRC_AS:
+                    this.builder.setSrcAs(setLongValue(value));
                     break;
-                case "L4_SRC_PORT":
-                    getUInt32Value(value).ifPresent(builder::setSrcPort);
+                case L4_SRC_PORT:
+                    this.builder.setSrcPort(setIntValue((int) value));
                     break;
-                case "TCP_FLAGS":
-                    getUInt32Value(value).ifPresent(builder::setTcpFlags);
+                case TCP_FLAGS:
+                    this.builder.setTcpFlags(setIntValue((int) value));
                     break;
-                case "TOS":
-                    getUInt32Value(value).ifPresent(builder::setTos);
+                case TOS:
+                    this.builder.setTos(setIntValue((int) value));
                     break;
-                case "SRC_VLAN":
-                    srcVlan = getLongValue(value);
+                case SRC_VLAN:
+                    this.srcVlan = value;
                     break;
-                case "DST_VLAN":
-                    dstVlan = getLongValue(value);
+                case DST_VLAN:
+                    this.dstVlan = value;
                     break;
-                case "FLOW_ACTIVE_TIMEOUT":
-                    flowActiveTimeout = getLongValue(value);
+                case FLOW_ACTIVE_TIMEOUT:
+                    this.flowActiveTimeout = value;
                     break;
-                case "FLOW_INACTIVE_TIMEOUT":
-                    flowInActiveTimeout = getLongValue(value);
+                case FLOW_INACTIVE_TIMEOUT:
+                    this.flowInActiveTimeout = value;
                     break;
-                case "flowStartMilliseconds":
-                    flowStartMilliseconds = getLongValue(value);
+                case FLOW_START_MILLISECONDS:
+                    this.flowStartMilliseconds = value;
                     break;
-                case "flowEndMilliseconds":
-                    flowEndMilliseconds = getLongValue(value);
+                case FLOW_END_MILLISECONDS:
+                    this.flowEndMilliseconds = value;
                     break;
-                case "ingressPhysicalInterface":
-                    ingressPhysicalInterface = getUInt32Value(value).orElse(null);
+                case INGRESS_PHYSICAL_INTERFACE:
+                    this.ingressPhysicalInterface = setIntValue((int) value);
                     break;
-                case "egressPhysicalInterface":
-                    egressPhysicalInterface = getUInt32Value(value).orElse(null);
+                case EGRESS_PHYSICAL_INTERFACE:
+                    this.egressPhysicalInterface = setIntValue((int) value);
                     break;
                 default:
                     break;
             }
         }
 
-        long timeStampInMsecs = unixSecs * 1000;
-        builder.setTimestamp(timeStampInMsecs);
+        private DecodedFlow finish() {
+            final FlowMessage.Builder builder = this.builder;
 
-        long bootTime = timeStampInMsecs - sysUpTime;
+            long timeStampInMsecs = this.unixSecs * 1000;
+            builder.setTimestamp(timeStampInMsecs);
 
-        if (firstSwitched != null) {
-            builder.setFirstSwitched(setLongValue(firstSwitched + bootTime));
-        } else {
-            // Some Cisco platforms also support absolute timestamps in NetFlow v9 (like defined in IPFIX). See NMS-13006
-            if (flowStartMilliseconds != null) {
-                builder.setFirstSwitched(setLongValue(flowStartMilliseconds));
+            long bootTime = timeStampInMsecs - this.sysUpTime;
+
+            if (this.firstSwitched != null) {
+                builder.setFirstSwitched(setLongValue(this.firstSwitched + bootTime));
+            } else {
+                // Some Cisco platforms also support absolute timestamps in NetFlow v9 (like defined in IPFIX). See NMS-13006
+                if (this.flowStartMilliseconds != null) {
+                    builder.setFirstSwitched(setLongValue(this.flowStartMilliseconds));
+                }
             }
-        }
-        if(lastSwitched != null) {
-            builder.setLastSwitched(setLongValue(lastSwitched + bootTime));
-        } else {
-            // Some Cisco platforms also support absolute timestamps in NetFlow v9 (like defined in IPFIX). See NMS-13006
-            if (flowEndMilliseconds != null) {
-                builder.setLastSwitched(setLongValue(flowEndMilliseconds));
+            if (this.lastSwitched != null) {
+                builder.setLastSwitched(setLongValue(this.lastSwitched + bootTime));
+            } else {
+                // Some Cisco platforms also support absolute timestamps in NetFlow v9 (like defined in IPFIX). See NMS-13006
+                if (this.flowEndMilliseconds != null) {
+                    builder.setLastSwitched(setLongValue(this.flowEndMilliseconds));
+                }
             }
-        }
 
-        // Set input interface
-        first(ingressPhysicalInterface, inputSnmp).ifPresent(builder::setInputSnmpIfindex);
-
-        // Set output interface
-        first(egressPhysicalInterface, outputSnmp).ifPresent(builder::setOutputSnmpIfindex);
-
-
-        // Set Destination address and host name.
-        first(ipv6DstAddress, ipv4DstAddress).ifPresent((final InetAddress inetAddress) -> {
-            enrichment.getHostnameFor(inetAddress).ifPresent(builder::setDstHostname);
-            builder.setDstAddress(inetAddress.getHostAddress());
-        });
-
-        // dst mask
-        first(ipv6DstMask, dstMask).ifPresent(dstMaskLen ->
-            builder.setDstMaskLen(setIntValue(dstMaskLen.intValue())));
-
-        // Set Source address and host name.
-        first(ipv6SrcAddress, ipv4SrcAddress).ifPresent((final InetAddress inetAddress) -> {
-            enrichment.getHostnameFor(inetAddress).ifPresent(builder::setSrcHostname);
-            builder.setSrcAddress(inetAddress.getHostAddress());
-        });
-        // src mask
-        first(ipv6SrcMask, srcMask).ifPresent(srcMaskLen -> builder.setSrcMaskLen(setIntValue(srcMaskLen.intValue())));
-
-        // Set next hop address, hostname.
-        first(ipv6NextHop, ipv4NextHop, bgpIpv6NextHop, bgpIpv4NextHop).ifPresent((final InetAddress inetAddress) -> {
-            enrichment.getHostnameFor(inetAddress).ifPresent(builder::setNextHopHostname);
-            builder.setNextHopAddress(inetAddress.getHostAddress());
-        });
-
-        // set vlan
-        first(srcVlan, dstVlan).ifPresent( vlan -> builder.setVlan(setIntValue(vlan.intValue())));
-
-        Timeout timeout = new Timeout(flowActiveTimeout, flowInActiveTimeout);
-        timeout.setFirstSwitched(builder.hasFirstSwitched() ? builder.getFirstSwitched().getValue() : null);
-        timeout.setLastSwitched(builder.hasLastSwitched() ? builder.getLastSwitched().getValue() : null);
-        timeout.setNumBytes(builder.getNumBytes().getValue());
-        timeout.setNumPackets(builder.getNumPackets().getValue());
-        Long deltaSwitched = timeout.getDeltaSwitched();
-        getUInt64Value(deltaSwitched).ifPresent(builder::setDeltaSwitched);
-
-        builder.setNetflowVersion(NetflowVersion.V9);
-        return builder;
-    }
+            // Set input interface
+            first(this.ingressPhysicalInterface, this.inputSnmp).ifPresent(builder::setInputSnmpIfindex);
 
-    private static Direction getDirection(final Value<?> value) {
-        Long directionValue = getLongValue(value);
-        Direction direction = Direction.UNKNOWN;
-        if (directionValue != null) {
-            switch (directionValue.intValue()) {
-                case 0:
-                    direction = Direction.INGRESS;
-                    break;
-                case 1:
-                    direction = Direction.EGRESS;
-                    break;
-                default:
-                    break;
+            // Set output interface
+            first(this.egressPhysicalInterface, this.outputSnmp).ifPresent(builder::setOutputSnmpIfindex);
+
+            // Set Destination address - the host name is set on enrichment
+            final InetAddress dstAddress = first(this.ipv6DstAddress, this.ipv4DstAddress).orElse(null);
+            if (dstAddress != null) {
+                builder.setDstAddress(dstAddress.getHostAddress());
+            }
+
+            // dst mask
+            first(this.ipv6DstMask, this.dstMask).ifPresent(dstMaskLen ->
+                builder.setDstMaskLen(setIntValue(dstMaskLen.intValue())));
+
+            // Set Source address - the host name is set on enrichment
+            final InetAddress srcAddress = first(this.ipv6SrcAddress, this.ipv4SrcAddress).orElse(null);
+            if (srcAddress != null) {
+                builder.setSrcAddress(srcAddress.getHostAddress());
             }
+
+            // src mask
+            first(this.ipv6SrcMask, this.srcMask).ifPresent(srcMaskLen -> builder.setSrcMaskLen(setIntValue(srcMaskLen.intValue())));
+
+            // Set next hop address - the host name is set on enrichment
+            final InetAddress nextHopAddress = first(this.ipv6NextHop, this.ipv4NextHop).orElse(null);
+            if (nextHopAddress != null) {
+                builder.setNextHopAddress(nextHopAddress.getHostAddress());
+            }
+
+            // set vlan
+            first(this.srcVlan, this.dstVlan).ifPresent( vlan -> builder.setVlan(setIntValue(vlan.intValue())));
+
+            Timeout timeout = new Timeout(this.flowActiveTimeout, this.flowInActiveTimeout);
+            timeout.setFirstSwitched(builder.hasFirstSwitched() ? builder.getFirstSwitched().getValue() : null);
+            timeout.setLastSwitched(builder.hasLastSwitched() ? builder.getLastSwitched().getValue() : null);
+            timeout.setNumBytes(builder.getNumBytes().getValue());
+            timeout.setNumPackets(builder.getNumPackets().getValue());
+            Long deltaSwitched = timeout.getDeltaSwitched();
+            getUInt64Value(deltaSwitched).ifPresent(builder::setDeltaSwitched);
+
+            builder.setNetflowVersion(NetflowVersion.V9);
+
+            return new DecodedFlow(builder, srcAddress, dstAddress, nextHopAddress);
         }
-        return direction;
     }
 
-    private static SamplingAlgorithm getSamplingAlgorithm(final Value<?> value) {
-        Long saValue = getLongValue(value);
-        SamplingAlgorithm samplingAlgorithm = SamplingAlgorithm.UNASSIGNED;
-        if (saValue != null) {
-            switch(saValue.intValue()) {
-                case 1:
-                    samplingAlgorithm = SamplingAlgorithm.SYSTEMATIC_COUNT_BASED_SAMPLING;
-                    break;
-                case 2:
-                    samplingAlgorithm = SamplingAlgorithm.RANDOM_N_OUT_OF_N_SAMPLING;
-                    break;
-                default:
-                    break;
-            }
+    private static Direction getDirection(final long directionValue) {
+        switch ((int) directionValue) {
+            case 0:
+                return Direction.INGRESS;
+            case 1:
+                return Direction.EGRESS;
+            default:
+                return Direction.UNKNOWN;
+        }
+    }
+
+    private static SamplingAlgorithm getSamplingAlgorithm(final long saValue) {
+        switch ((int) saValue) {
+            case 1:
+                return SamplingAlgorithm.SYSTEMATIC_COUNT_BASED_SAMPLING;
+            case 2:
+                return SamplingAlgorithm.RANDOM_N_OUT_OF_N_SAMPLING;
+            default:
+                return SamplingAlgorithm.UNASSIGNED;
         }
-        return samplingAlgorithm;
     }
 
     public Long getFlowActiveTimeoutFallback() {
@@ -0,0 +1,158 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2024 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2024 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.telemetry.protocols.netflow.parser.netflow9;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.opennms.netmgt.telemetry.listeners.utils.BufferUtils.slice;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.RecordEnrichment;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.netflow9.proto.Header;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.netflow9.proto.Packet;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.session.SequenceNumberTracker;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.session.Session;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.session.TcpSession;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.transport.DecodedFlow;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.transport.MessageUtils;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.transport.Netflow9MessageBuilder;
+import org.opennms.netmgt.telemetry.protocols.netflow.transport.FlowMessage;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+/**
+ * Verifies that decoding records directly from the buffer yields the same flow messages as building them from the
+ * parsed values.
+ */
+@RunWith(Parameterized.class)
+public class FlyweightTest {
+    private final static Path FOLDER = Paths.get("src/test/resources/flows");
+
+    private final static RecordEnrichment ENRICHMENT = address -> Optional.of("host-" + address.getHostAddress());
+
+    @Parameterized.Parameters(name = "file: {0}")
+    public static Iterable<Object[]> data() throws IOException {
+        return Arrays.asList(
+                new Object[]{Arrays.asList("netflow9_test_valid01.dat")},
+                new Object[]{Arrays.asList("netflow9_test_macaddr_tpl.dat", "netflow9_test_macaddr_data.dat")},
+                new Object[]{Arrays.asList("netflow9_test_cisco_asa_1_tpl.dat", "netflow9_test_cisco_asa_1_data.dat")},
+                new Object[]{Arrays.asList("netflow9_test_nprobe_tpl.dat", "netflow9_test_softflowd_tpl_data.dat", "netflow9_test_nprobe_data.dat")},
+                new Object[]{Arrays.asList("netflow9_test_cisco_asa_2_tpl_26x.dat", "netflow9_test_cisco_asa_2_tpl_27x.dat", "netflow9_test_cisco_asa_2_data.dat")},
+                new Object[]{Arrays.asList("netflow9_test_ubnt_edgerouter_tpl.dat", "netflow9_test_ubnt_edgerouter_data1024.dat", "netflow9_test_ubnt_edgerouter_data1025.dat")},
+                new Object[]{Arrays.asList("netflow9_test_nprobe_dpi.dat")},
+                new Object[]{Arrays.asList("netflow9_test_fortigate_fortios_521_tpl.dat", "netflow9_test_fortigate_fortios_521_data256.dat", "netflow9_test_fortigate_fortios_521_data257.dat")},
+                new Object[]{Arrays.asList("netflow9_test_streamcore_tpl_data256.dat", "netflow9_test_streamcore_tpl_data260.dat")},
+                new Object[]{Arrays.asList("netflow9_test_juniper_srx_tplopt.dat")},
+                new Object[]{Arrays.asList("netflow9_test_cisco_asr9k_opttpl256.dat", "netflow9_test_cisco_asr9k_data256.dat")},
+                new Object[]{Arrays.asList("netflow9_test_cisco_asr9k_tpl260.dat", "netflow9_test_cisco_asr9k_data260.dat")},
+                new Object[]{Arrays.asList("netflow9_test_cisco_nbar_tpl262.dat", "netflow9_test_cisco_nbar_data262.dat")},
+                new Object[]{Arrays.asList("netflow9_test_cisco_wlc_tpl.dat", "netflow9_test_cisco_wlc_data261.dat")},
+                new Object[]{Arrays.asList("netflow9_test_cisco_1941K9.dat")},
+                new Object[]{Arrays.asList("netflow9_test_paloalto_panos_tpl.dat", "netflow9_test_paloalto_panos_data.dat")},
+                new Object[]{Arrays.asList("netflow9_template.dat", "netflow9_records.dat")},
+                new Object[]{Arrays.asList("nf9_template.dat", "nf9_valid.dat")},
+                new Object[]{Arrays.asList("nms-13006.dat")},
+                new Object[]{Arrays.asList("nms-14130.dat")}
+        );
+    }
+
+    private final List<String> files;
+
+    public FlyweightTest(final List<String> files) {
+        this.files = files;
+    }
+
+    @Test
+    public void verifyFlyweightMatchesValues() throws Exception {
+        final Netflow9MessageBuilder messageBuilder = new Netflow9MessageBuilder();
+        messageBuilder.setFlowActiveTimeoutFallback(120L);
+        messageBuilder.setFlowInactiveTimeoutFallback(15L);
+
+        final Session valueSession = new TcpSession(InetAddress.getLoopbackAddress(), () -> new SequenceNumberTracker(32));
+        final Session flyweightSession = new TcpSession(InetAddress.getLoopbackAddress(), () -> new SequenceNumberTracker(32));
+
+        for (final String file : this.files) {
+            final ByteBuf valueBuffer = read(file);
+            final ByteBuf flyweightBuffer = read(file);
+
+            do {
+                final Header valueHeader = new Header(slice(valueBuffer, Header.SIZE));
+                final Packet valuePacket = new Packet(valueSession, valueHeader, valueBuffer);
+
+                final List<FlowMessage> expected = valuePacket.getRecords()
+                        .map(record -> messageBuilder.buildMessage(record, ENRICHMENT).build())
+                        .collect(Collectors.toList());
+
+                final Header flyweightHeader = new Header(slice(flyweightBuffer, Header.SIZE));
+                final List<DecodedFlow> flows = new ArrayList<>();
+                final Packet flyweightPacket = new Packet(flyweightSession, flyweightHeader, flyweightBuffer,
+                        (record, options) -> flows.add(messageBuilder.buildMessage(flyweightHeader, record, options)));
+
+                assertThat(flyweightPacket.dataSets.isEmpty(), is(true));
+                assertThat(flyweightPacket.getFlyweightRecordCount(), is(flows.size()));
+
+                final List<FlowMessage> actual = flows.stream()
+                        .map(flow -> {
+                            flow.getBuilder().setNumFlowRecords(MessageUtils.setIntValue(flows.size()));
+                            return flow.enrich(ENRICHMENT).build();
+                        })
+                        .collect(Collectors.toList());
+
+                assertThat(actual, is(expected));
+            } while (valueBuffer.isReadable());
+
+            assertThat(flyweightBuffer.isReadable(), is(false));
+        }
+    }
+
+    private static ByteBuf read(final String file) throws IOException {
+        try (final FileChannel channel = FileChannel.open(FOLDER.resolve(file))) {
+            final ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+            channel.read(buffer);
+            buffer.flip();
+
+            return Unpooled.wrappedBuffer(buffer);
+        }
+    }
+}
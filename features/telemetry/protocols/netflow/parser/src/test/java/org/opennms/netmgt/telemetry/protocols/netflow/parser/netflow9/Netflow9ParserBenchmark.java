@@ -0,0 +1,136 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2024 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2024 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.telemetry.protocols.netflow.parser.netflow9;
+
+import static org.opennms.netmgt.telemetry.listeners.utils.BufferUtils.slice;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Optional;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.InvalidPacketException;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.RecordEnrichment;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.netflow9.proto.Header;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.netflow9.proto.Packet;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.session.SequenceNumberTracker;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.session.Session;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.session.TcpSession;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.transport.Netflow9MessageBuilder;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+/**
+ * Use the Java Microbenchmarking Harness (JMH) to compare building flow messages from parsed values with decoding
+ * them directly from the packet buffer.
+ * <p>
+ * The captured packets are parsed and converted to serialized flow messages. Templates are learned from the template
+ * captures during setup, so each invocation only decodes the data packets.
+ */
+public class Netflow9ParserBenchmark {
+
+    private final static Path FOLDER = Paths.get("src/test/resources/flows");
+
+    private final static RecordEnrichment ENRICHMENT = address -> Optional.empty();
+
+    public static void main(String[] args) throws Exception {
+        org.openjdk.jmh.Main.main(args);
+    }
+
+    @State(Scope.Benchmark)
+    public static class BState {
+
+        @Param({
+                "netflow9_test_cisco_asa_1_tpl.dat:netflow9_test_cisco_asa_1_data.dat",
+                "netflow9_test_nprobe_tpl.dat:netflow9_test_nprobe_data.dat",
+                "netflow9_test_ubnt_edgerouter_tpl.dat:netflow9_test_ubnt_edgerouter_data1024.dat",
+        })
+        public String capture;
+
+        private final Netflow9MessageBuilder messageBuilder = new Netflow9MessageBuilder();
+
+        private Session session;
+
+        private byte[] data;
+
+        @Setup
+        public void setup() throws IOException, InvalidPacketException {
+            this.session = new TcpSession(InetAddress.getLoopbackAddress(), () -> new SequenceNumberTracker(32));
+
+            final String[] files = this.capture.split(":");
+            for (final String file : files) {
+                final ByteBuf buffer = Unpooled.wrappedBuffer(Files.readAllBytes(FOLDER.resolve(file)));
+                do {
+                    new Packet(this.session, new Header(slice(buffer, Header.SIZE)), buffer);
+                } while (buffer.isReadable());
+            }
+
+            this.data = Files.readAllBytes(FOLDER.resolve(files[files.length - 1]));
+        }
+    }
+
+    @Benchmark
+    @Fork(value = 1, warmups = 1)
+    @Warmup(iterations = 3, time = 5)
+    @Measurement(iterations = 5, time = 5)
+    public void values(final BState state, final Blackhole blackhole) throws InvalidPacketException {
+        final ByteBuf buffer = Unpooled.wrappedBuffer(state.data);
+        do {
+            final Header header = new Header(slice(buffer, Header.SIZE));
+            final Packet packet = new Packet(state.session, header, buffer);
+
+            packet.getRecords().forEach(record -> blackhole.consume(state.messageBuilder.buildMessage(record, ENRICHMENT).build().toByteArray()));
+        } while (buffer.isReadable());
+    }
+
+    @Benchmark
+    @Fork(value = 1, warmups = 1)
+    @Warmup(iterations = 3, time = 5)
+    @Measurement(iterations = 5, time = 5)
+    public void flyweight(final BState state, final Blackhole blackhole) throws InvalidPacketException {
+        final ByteBuf buffer = Unpooled.wrappedBuffer(state.data);
+        do {
+            final Header header = new Header(slice(buffer, Header.SIZE));
+            new Packet(state.session, header, buffer,
+                    (record, options) -> blackhole.consume(state.messageBuilder.buildMessage(header, record, options).enrich(ENRICHMENT).build().toByteArray()));
+        } while (buffer.isReadable());
+    }
+}
@@ -45,7 +45,9 @@ import java.util.List;
 import java.util.Optional;
 
 import static org.hamcrest.CoreMatchers.hasItem;
+import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
 import static org.hamcrest.Matchers.empty;
 import static org.hamcrest.Matchers.nullValue;
 import static org.junit.Assert.assertThat;
@@ -202,6 +204,49 @@ public class UdpSessionManagerTest {
         assertThat(udpSessionManager.templates.get(new UdpSessionManager.TemplateKey(sessionKey, observationId1, template.id)), nullValue());
     }
 
+    @Test
+    public void planInvalidationTest() throws Exception {
+        final UdpSessionManager.SessionKey sessionKey = new Netflow9UdpParser.SessionKey(remoteAddress1.getAddress(), localAddress1);
+
+        final UdpSessionManager udpSessionManager = new UdpSessionManager(Duration.ofMinutes(30), () -> new SequenceNumberTracker(32));
+        final Session session = udpSessionManager.getSession(sessionKey);
+
+        final List<Field> fields = new ArrayList<>();
+        fields.add(field("field1", null));
+        fields.add(field("field2", null));
+
+        final Template template1 = Template.builder(templateId1, Template.Type.TEMPLATE).withFields(fields).build();
+        session.addTemplate(observationId1, template1);
+
+        final ExtractorPlan plan1 = session.getResolver(observationId1).lookupPlan(templateId1);
+        assertThat(plan1.template, is(template1));
+        assertThat(plan1.count(), is(2));
+        assertThat(session.getResolver(observationId1).lookupPlan(templateId1), is(sameInstance(plan1)));
+
+        // Re-announcing the template replaces the plan
+        final Template template2 = Template.builder(templateId1, Template.Type.TEMPLATE).withFields(fields.subList(0, 1)).build();
+        session.addTemplate(observationId1, template2);
+
+        final ExtractorPlan plan2 = session.getResolver(observationId1).lookupPlan(templateId1);
+        assertThat(plan2.template, is(template2));
+        assertThat(plan2.count(), is(1));
+
+        // Plans are bound to the observation domain
+        try {
+            session.getResolver(observationId2).lookupPlan(templateId1);
+            Assert.fail();
+        } catch (final MissingTemplateException e) {
+        }
+
+        // Withdrawing the template drops the plan
+        session.removeTemplate(observationId1, templateId1);
+        try {
+            session.getResolver(observationId1).lookupPlan(templateId1);
+            Assert.fail();
+        } catch (final MissingTemplateException e) {
+        }
+    }
+
     @Test
     public void testNetflow9() {
         testNetflow9SessionKeys(remoteAddress1, localAddress1, remoteAddress1, localAddress1, true);
@@ -0,0 +1,353 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2024 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2024 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.timeseries.resource;
+
+import static org.opennms.netmgt.timeseries.util.TimeseriesUtils.toResourceId;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+import org.opennms.integration.api.v1.timeseries.IntrinsicTagNames;
+import org.opennms.integration.api.v1.timeseries.Metric;
+import org.opennms.integration.api.v1.timeseries.Sample;
+import org.opennms.integration.api.v1.timeseries.Tag;
+import org.opennms.netmgt.model.ResourcePath;
+
+/**
+ * In-memory index of the known metrics by their position in the resource tree.
+ *
+ * Resource tree lookups are issued as regular expressions over the resource id (see
+ * {@link org.opennms.netmgt.timeseries.util.TimeseriesUtils#toSearchRegex(ResourcePath, int)}), which every
+ * {@link org.opennms.integration.api.v1.timeseries.TimeSeriesStorage} has to evaluate against all of its metrics.
+ * Here each metric is instead registered once under all of its ancestors, together with the number of levels it
+ * sits below them, so that the same question becomes a single map lookup.
+ *
+ * Only the metrics of the nodes which were searched lately are kept. The {@link TimeseriesSearcher} loads all
+ * metrics of a node from the storage before its first search and again whenever its cache entry expired, which
+ * also drops the metrics that are gone from the storage. In between, the
+ * {@link org.opennms.netmgt.timeseries.samplewrite.TimeseriesWriter} adds the metrics of every persisted batch.
+ * Nodes which were not searched for longer than {@link #setExpireAfterRead(long)} are evicted with their metrics.
+ *
+ * This is not a general tag to metric index: metrics are only keyed by their position in the resource tree, so
+ * it can't answer arbitrary {@link org.opennms.integration.api.v1.timeseries.TagMatcher} sets. Resource tree
+ * searches are the only metric lookups the {@link TimeseriesSearcher} issues. Searches above the node level, and
+ * any other matchers, still go to the storage through
+ * {@link org.opennms.integration.api.v1.timeseries.TimeSeriesStorage#findMetrics(Collection)}, with the results
+ * cached by the matcher.
+ */
+public class TimeseriesMetricIndex {
+
+    private static final long DEFAULT_EXPIRE_AFTER_READ_SECONDS = 300;
+
+    private static final long SWEEP_INTERVAL_MS = TimeUnit.SECONDS.toMillis(30);
+
+    /** Metric key -> latest known version of the metric. */
+    private final Map<String, Entry> metricsByKey = new ConcurrentHashMap<>();
+
+    /** Ancestor resource id and distance -> keys of the metrics below it. */
+    private final Map<Level, Set<String>> metricKeysByLevel = new ConcurrentHashMap<>();
+
+    /** Resource id of the loaded nodes -> keys of the metrics below them. */
+    private final Map<String, Root> roots = new ConcurrentHashMap<>();
+
+    private final AtomicLong lastSweep = new AtomicLong();
+
+    private final LongSupplier clock;
+
+    private volatile long expireAfterReadMs = TimeUnit.SECONDS.toMillis(DEFAULT_EXPIRE_AFTER_READ_SECONDS);
+
+    public TimeseriesMetricIndex() {
+        this(System::currentTimeMillis);
+    }
+
+    TimeseriesMetricIndex(final LongSupplier clock) {
+        this.clock = Objects.requireNonNull(clock);
+        this.lastSweep.set(clock.getAsLong());
+    }
+
+    /**
+     * @param expireAfterRead time in seconds after which a node that was not searched is evicted
+     */
+    public void setExpireAfterRead(final long expireAfterRead) {
+        this.expireAfterReadMs = TimeUnit.SECONDS.toMillis(expireAfterRead);
+    }
+
+    public void index(final Collection<Sample> samples) {
+        for (Sample sample : samples) {
+            index(sample.getMetric());
+        }
+    }
+
+    /**
+     * Adds the metric if its node is loaded. The metrics of the other nodes are read from the storage when they
+     * are searched.
+     */
+    public void index(final Metric metric) {
+        final Tag resourceId = metric.getFirstTagByKey(IntrinsicTagNames.resourceId);
+        if (resourceId == null) {
+            return;
+        }
+        final Root root = findRoot(resourceId.getValue());
+        if (root != null) {
+            add(root, resourceId.getValue(), metric, clock.getAsLong());
+        }
+    }
+
+    public void remove(final Metric metric) {
+        final Tag resourceId = metric.getFirstTagByKey(IntrinsicTagNames.resourceId);
+        if (resourceId == null) {
+            return;
+        }
+        removeKey(metric.getKey(), resourceId.getValue());
+        final Root root = findRoot(resourceId.getValue());
+        if (root != null) {
+            root.keys.remove(metric.getKey());
+        }
+    }
+
+    /**
+     * Marks the node as loaded before its metrics are read from the storage, so that the metrics persisted in
+     * the meantime are indexed as well.
+     *
+     * @return the time to pass on to {@link #load(String, Collection, long)}
+     */
+    public long startLoading(final String rootResourceId) {
+        final long now = clock.getAsLong();
+        sweep(now);
+        getOrCreateRoot(rootResourceId, now);
+        return now;
+    }
+
+    /**
+     * Replaces the metrics below the node with the given ones. Metrics that were indexed before {@code since}
+     * but are missing from the given ones are dropped.
+     */
+    public void load(final String rootResourceId, final Collection<Metric> metrics, final long since) {
+        final long now = clock.getAsLong();
+        final Root root = getOrCreateRoot(rootResourceId, now);
+        synchronized (root) {
+            for (Metric metric : metrics) {
+                final Tag resourceId = metric.getFirstTagByKey(IntrinsicTagNames.resourceId);
+                if (resourceId != null) {
+                    add(root, resourceId.getValue(), metric, now);
+                }
+            }
+            for (String key : new ArrayList<>(root.keys)) {
+                final Entry entry = metricsByKey.get(key);
+                if (entry == null || entry.indexedAt < since) {
+                    root.keys.remove(key);
+                    if (entry != null) {
+                        removeKey(key, entry.metric.getFirstTagByKey(IntrinsicTagNames.resourceId).getValue());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Records a search below the node.
+     *
+     * @return false if the node is not loaded
+     */
+    public boolean touch(final String rootResourceId) {
+        final long now = clock.getAsLong();
+        sweep(now);
+        final Root root = roots.get(rootResourceId);
+        if (root == null || root.evicted) {
+            return false;
+        }
+        root.lastRead = now;
+        return true;
+    }
+
+    /**
+     * Returns the metrics whose resource id is exactly {@code depth} levels below the given path. This is equivalent
+     * to a {@link org.opennms.integration.api.v1.timeseries.TagMatcher.Type#EQUALS_REGEX} search on the resource id
+     * with {@link org.opennms.netmgt.timeseries.util.TimeseriesUtils#toSearchRegex(ResourcePath, int)}, as long as
+     * the node of the path is loaded.
+     */
+    public Set<Metric> findBelow(final ResourcePath path, final int depth) {
+        final Set<String> keys = metricKeysByLevel.get(new Level(toResourceId(path), depth));
+        final Set<Metric> metrics = new HashSet<>();
+        if (keys != null) {
+            for (String key : keys) {
+                final Entry entry = metricsByKey.get(key);
+                if (entry != null) {
+                    metrics.add(entry.metric);
+                }
+            }
+        }
+        return metrics;
+    }
+
+    public int size() {
+        return metricsByKey.size();
+    }
+
+    private void add(final Root root, final String resourceId, final Metric metric, final long now) {
+        synchronized (root) {
+            if (root.evicted) {
+                return;
+            }
+            root.keys.add(metric.getKey());
+            metricsByKey.compute(metric.getKey(), (key, previous) -> {
+                if (previous == null) {
+                    forEachLevel(resourceId, level -> metricKeysByLevel
+                            .computeIfAbsent(level, l -> ConcurrentHashMap.newKeySet())
+                            .add(key));
+                }
+                // always keep the latest version, the meta and external tags may have changed
+                return new Entry(metric, now);
+            });
+        }
+    }
+
+    private void removeKey(final String metricKey, final String resourceId) {
+        metricsByKey.computeIfPresent(metricKey, (key, previous) -> {
+            forEachLevel(resourceId, level -> metricKeysByLevel.computeIfPresent(level, (l, keys) -> {
+                keys.remove(key);
+                return keys.isEmpty() ? null : keys;
+            }));
+            return null;
+        });
+    }
+
+    private Root getOrCreateRoot(final String rootResourceId, final long now) {
+        return roots.compute(rootResourceId, (id, root) -> {
+            if (root == null || root.evicted) {
+                root = new Root();
+            }
+            root.lastRead = now;
+            return root;
+        });
+    }
+
+    private Root findRoot(final String resourceId) {
+        for (int i = resourceId.indexOf('/'); i > 0; i = resourceId.indexOf('/', i + 1)) {
+            final Root root = roots.get(resourceId.substring(0, i));
+            if (root != null) {
+                return root;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Evicts the nodes which were not searched lately, together with their metrics.
+     */
+    private void sweep(final long now) {
+        final long previousSweep = lastSweep.get();
+        if (now - previousSweep < SWEEP_INTERVAL_MS || !lastSweep.compareAndSet(previousSweep, now)) {
+            return;
+        }
+        for (Map.Entry<String, Root> e : roots.entrySet()) {
+            final Root root = e.getValue();
+            synchronized (root) {
+                if (now - root.lastRead <= expireAfterReadMs) {
+                    continue;
+                }
+                root.evicted = true;
+                for (String key : root.keys) {
+                    final Entry entry = metricsByKey.get(key);
+                    if (entry != null) {
+                        removeKey(key, entry.metric.getFirstTagByKey(IntrinsicTagNames.resourceId).getValue());
+                    }
+                }
+                root.keys.clear();
+            }
+            roots.remove(e.getKey(), root);
+        }
+    }
+
+    private static void forEachLevel(final String resourceId, final Consumer<Level> consumer) {
+        final String[] elements = resourceId.split("/");
+        // the search regex does not match any dot below the searched path, so we stop at the first element containing one
+        int depth = 0;
+        for (int i = elements.length; i > 0; i--) {
+            consumer.accept(new Level(String.join("/", Arrays.asList(elements).subList(0, i)), depth));
+            if (elements[i - 1].indexOf('.') >= 0) {
+                return;
+            }
+            depth++;
+        }
+    }
+
+    private static final class Entry {
+        private final Metric metric;
+        private final long indexedAt;
+
+        private Entry(final Metric metric, final long indexedAt) {
+            this.metric = metric;
+            this.indexedAt = indexedAt;
+        }
+    }
+
+    private static final class Root {
+        private final Set<String> keys = ConcurrentHashMap.newKeySet();
+        private volatile long lastRead;
+        private volatile boolean evicted;
+    }
+
+    private static final class Level {
+        private final String resourceId;
+        private final int depth;
+
+        private Level(final String resourceId, final int depth) {
+            this.resourceId = resourceId;
+            this.depth = depth;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Level)) {
+                return false;
+            }
+            final Level that = (Level) o;
+            return depth == that.depth && resourceId.equals(that.resourceId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(resourceId, depth);
+        }
+    }
+}
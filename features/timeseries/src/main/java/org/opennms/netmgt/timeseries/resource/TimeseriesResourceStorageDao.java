@@ -50,6 +50,7 @@ import org.opennms.netmgt.model.ResourceTypeUtils;
 import org.opennms.netmgt.model.RrdGraphAttribute;
 import org.opennms.netmgt.model.StringPropertyAttribute;
 import org.opennms.netmgt.timeseries.TimeseriesStorageManager;
+import org.opennms.netmgt.timeseries.rollup.RollupTier;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -127,6 +128,7 @@ public class TimeseriesResourceStorageDao implements ResourceStorageDao {
         for (final Metric metric : results) {
                 try {
                     storageManager.get().delete(metric);
+                    searcher.onDelete(metric);
                 } catch (StorageException e) {
                     LOG.error("Could not delete {}, will ignore problem and continue ", metric, e);
                 }
@@ -139,8 +141,8 @@ public class TimeseriesResourceStorageDao implements ResourceStorageDao {
     public Set<OnmsAttribute> getAttributes(ResourcePath path) {
         Set<OnmsAttribute> attributes = Sets.newHashSet();
 
-        // Gather the list of metrics available under the resource path
-        Set<Metric> metrics = searchFor(path, 0);
+        // Gather the list of metrics available under the resource path, the rollups are not attributes of their own
+        Set<Metric> metrics = withoutRollups(searchFor(path, 0));
         for (Metric metric : metrics) {
             final String resourceId = metric.getFirstTagByKey(IntrinsicTagNames.resourceId).getValue();
             final ResourcePath resultPath = toResourcePath(resourceId);
@@ -171,7 +173,7 @@ public class TimeseriesResourceStorageDao implements ResourceStorageDao {
 
         // Add the resource level attributes to the result set
         Set<Metric> metricsWithStringAttributes = new HashSet<>(metrics);
-        metricsWithStringAttributes.addAll(searchFor(path, -1));
+        metricsWithStringAttributes.addAll(withoutRollups(searchFor(path, -1)));
         if (!metricsWithStringAttributes.isEmpty()) {
             metricsWithStringAttributes.iterator().next()
                     .getExternalTags().stream()
@@ -226,6 +228,12 @@ public class TimeseriesResourceStorageDao implements ResourceStorageDao {
         return results;
     }
 
+    private static Set<Metric> withoutRollups(Set<Metric> metrics) {
+        return metrics.stream()
+                .filter(metric -> !RollupTier.isRollup(metric))
+                .collect(Collectors.toSet());
+    }
+
     protected static ResourcePath toChildResourcePath(ResourcePath parent, String resourceId) {
         final ResourcePath child = toResourcePath(resourceId);
         final String childEls[] = child.elements();
@@ -38,8 +38,7 @@ import java.util.List;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.inject.Named;
 
@@ -69,10 +68,19 @@ public class TimeseriesSearcher {
 
     private final MetricCacheLoader metricCacheLoader;
 
+    private final TimeseriesMetricIndex metricIndex;
+
+    public TimeseriesSearcher(TimeseriesStorageManager timeseriesStorageManager,
+                              final CacheConfig cacheConfig) {
+        this(timeseriesStorageManager, cacheConfig, new TimeseriesMetricIndex());
+    }
+
     @Autowired
     public TimeseriesSearcher(TimeseriesStorageManager timeseriesStorageManager,
-                              @Named("timeseriesSearcherCache") final CacheConfig cacheConfig) {
+                              @Named("timeseriesSearcherCache") final CacheConfig cacheConfig,
+                              final TimeseriesMetricIndex metricIndex) {
         this.timeseriesStorageManager = Objects.requireNonNull(timeseriesStorageManager, "timeseriesStorageManager must not be null");
+        this.metricIndex = Objects.requireNonNull(metricIndex, "metricIndex must not be null");
         this.metricCacheLoader = new MetricCacheLoader(timeseriesStorageManager);
         indexMetricsByTagMatcher = new org.opennms.core.cache.CacheBuilder<>()
                 .withConfig(cacheConfig)
@@ -81,96 +89,74 @@ public class TimeseriesSearcher {
     }
 
     /**
-     * Gets all metrics that reside under the given path
+     * Makes sure the index knows all metrics that reside under the given node path
      */
-    private Set<Metric> getMetricsBelowWildcardPath(final String wildcardPath) throws StorageException {
+    private void loadMetricsBelowWildcardPath(final String wildcardPath) throws StorageException {
         TagMatcher tagMatcher = ImmutableTagMatcher.builder()
                 .type(TagMatcher.Type.EQUALS_REGEX)
                 .key(IntrinsicTagNames.resourceId)
                 .value(wildcardPath + "/.*$")
                 .build();
-        return getMetricFromCacheOrLoad(tagMatcher);
+        try {
+            AtomicLong loadStart = new AtomicLong(Long.MIN_VALUE);
+            Set<Metric> metrics = indexMetricsByTagMatcher.get(tagMatcher, () -> {
+                loadStart.set(metricIndex.startLoading(wildcardPath));
+                return this.metricCacheLoader.load(tagMatcher);
+            });
+            if (loadStart.get() != Long.MIN_VALUE || !metricIndex.touch(wildcardPath)) {
+                // either freshly loaded or the index evicted the node before the cache did
+                this.buildCache(wildcardPath, metrics, loadStart.get());
+            }
+        } catch (Exception e) {
+            throw new StorageException(e);
+        }
     }
 
     /**
      * We opt to make a single call to the TimeseriesStorage implementation
-     * to retrieve all resources for that node in one sweep, cache all the results, and
-     * build cache results for for resources bellow a node
-     * @param metrics
+     * to retrieve all resources for that node in one sweep and add them to the metric index,
+     * which answers all searches for resources below the node
+     * @param wildcardPath resource id of the node
+     * @param metrics all metrics below the node
+     * @param since metrics indexed before that time which are not part of the given ones are stale
      */
-    protected void buildCache(Set<Metric> metrics) {
-        for (Metric metric : metrics) {
-            ResourcePath pathOfMetric = ResourcePath.fromString(metric.getFirstTagByKey(IntrinsicTagNames.resourceId).getValue());
-            ResourcePath currentPath = pathOfMetric;
-            while (true) {
-                TagMatcher matcher = ImmutableTagMatcher.builder()
-                        .type(TagMatcher.Type.EQUALS_REGEX)
-                        .key(IntrinsicTagNames.resourceId)
-                        .value(toSearchRegex(currentPath, pathOfMetric.elements().length - currentPath.elements().length))
-                        .build();
-
-                getMetricsFromCacheOrAddEmptySet(matcher).add(metric);
-
-                if (currentPath.hasParent()) {
-                    currentPath = currentPath.getParent();
-                } else {
-                    break;
-                }
-            }
-        }
+    protected void buildCache(String wildcardPath, Set<Metric> metrics, long since) {
+        metricIndex.load(wildcardPath, metrics, since);
     }
 
     public Set<Metric> search(ResourcePath path, int depth) throws StorageException {
+        int numPathElementsToNodeLevel = getNumPathElementsToNodeLevel(path);
+        if (numPathElementsToNodeLevel > 0) {
+            // make sure the index knows all metrics of the node, this hits the storage only once per cache expiry
+            String wildcardPath = toResourceId(ResourcePath.get(Arrays.asList(path.elements()).subList(0, numPathElementsToNodeLevel)));
+            loadMetricsBelowWildcardPath(wildcardPath);
+            return metricIndex.findBelow(path, depth + 1);
+        }
+
+        // we are above the wildcard level -> let's just get metrics that are associated with the index matcher
         TagMatcher indexMatcher = ImmutableTagMatcher.builder()
                 .type(TagMatcher.Type.EQUALS_REGEX)
                 .key(IntrinsicTagNames.resourceId)
                 .value(toSearchRegex(path, depth + 1))
                 .build();
-        Set<Metric> metrics = indexMetricsByTagMatcher.getIfCached(indexMatcher);
-
-        // found in cache => we are done
-        if (metrics != null) {
-            return metrics;
-        }
+        return getMetricFromCacheOrLoad(indexMatcher);
+    }
 
-        int numPathElementsToNodeLevel = getNumPathElementsToNodeLevel(path);
-        if (numPathElementsToNodeLevel > 0) {
-            String wildcardPath = toResourceId(ResourcePath.get(Arrays.asList(path.elements()).subList(0, numPathElementsToNodeLevel)));
-            getMetricsBelowWildcardPath(wildcardPath);
-            // assume result is already calculate in getMetricsBelowWildcardPath, return empty list if nothing find in cache
-            metrics = getMetricsFromCacheOrAddEmptySet(indexMatcher);
-        } else {
-            // we are above the wildcard level -> let's just get metrics that are associated with the index matcher
-            metrics = getMetricFromCacheOrLoad(indexMatcher);
-        }
-        return metrics;
+    /**
+     * Removes the metric from the index, to be called after it was deleted from the storage.
+     */
+    public void onDelete(Metric metric) {
+        metricIndex.remove(metric);
     }
 
     private Set<Metric> getMetricFromCacheOrLoad(TagMatcher matcher) throws StorageException {
         try {
-            AtomicBoolean loaded = new AtomicBoolean(false);
-            Set<Metric> metrics = indexMetricsByTagMatcher.get(matcher, () -> {
-                loaded.set(true);
-                return this.metricCacheLoader.load(matcher);
-            });
-            if (loaded.get()) {
-                this.buildCache(metrics);
-            }
-            return metrics;
+            return indexMetricsByTagMatcher.get(matcher, () -> this.metricCacheLoader.load(matcher));
         } catch (Exception e) {
             throw new StorageException(e);
         }
     }
 
-    private Set<Metric> getMetricsFromCacheOrAddEmptySet(TagMatcher tagMatcher) {
-        try {
-            return indexMetricsByTagMatcher.get(tagMatcher, ConcurrentHashMap::newKeySet);
-        } catch (ExecutionException e) {
-            // should never happen
-            throw new RuntimeException("Error creating ConcurrentHashMap.newKeySet()", e);
-        }
-    }
-
     private final static class MetricCacheLoader extends CacheLoader<TagMatcher, Set<Metric>> {
 
         private TimeseriesStorageManager timeseriesStorageManager;
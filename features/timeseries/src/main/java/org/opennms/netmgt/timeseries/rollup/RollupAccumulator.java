@@ -0,0 +1,307 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2024 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2024 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.timeseries.rollup;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import org.opennms.integration.api.v1.timeseries.Aggregation;
+import org.opennms.integration.api.v1.timeseries.MetaTagNames;
+import org.opennms.integration.api.v1.timeseries.Metric;
+import org.opennms.integration.api.v1.timeseries.Sample;
+import org.opennms.integration.api.v1.timeseries.Tag;
+import org.opennms.integration.api.v1.timeseries.immutables.ImmutableSample;
+import org.opennms.netmgt.timeseries.sampleread.LateAggregationParams;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * Maintains the {@link RollupTier}s of the metrics as their samples are persisted.
+ *
+ * The samples of every metric are folded into the current bucket of each tier. When a sample
+ * falls into a later bucket, the minimum, maximum and average of the previous one are returned
+ * to the writer, which stores them along with the raw samples. Counters are rolled up as the
+ * per second rates between consecutive samples, which is what the late aggregation computes
+ * from the raw samples as well.
+ *
+ * The buckets live in memory: the buckets of metrics that stop being collected are closed by
+ * periodic sweeps, and the buckets that are still open when OpenNMS stops are closed by
+ * {@link #flush()}. Only the buckets that were observed from their start are stored, i.e. not
+ * the first ones after the rollups were enabled or after a restart. The reads aggregate the
+ * raw samples for the buckets without rollups instead.
+ */
+public class RollupAccumulator {
+
+    /** Enables the rollups, both when writing and when reading the samples */
+    public static final String ENABLED_PROPERTY = "org.opennms.timeseries.config.rollups";
+
+    private static final long SWEEP_INTERVAL_MS = Duration.ofMinutes(1).toMillis();
+
+    // Time after the end of a bucket during which late samples are still expected
+    private static final long SWEEP_GRACE_MS = Duration.ofMinutes(10).toMillis();
+
+    private static final long IDLE_SERIES_MS = Duration.ofDays(2).toMillis();
+
+    // Maximum time between samples for a bucket to count as observed from its start or until its end
+    private static final long HEARTBEAT_MS = LateAggregationParams.DEFAULT_HEARTBEAT_MS;
+
+    private static final long NO_SAMPLE = Long.MIN_VALUE;
+
+    private static final RollupTier[] TIERS = RollupTier.values();
+
+    private final Map<String, Series> series = new ConcurrentHashMap<>();
+
+    private final AtomicLong lastSweep = new AtomicLong();
+
+    private final LongSupplier clock;
+
+    private final Meter rollupSamples;
+
+    private final Meter lateSamples;
+
+    public RollupAccumulator(final MetricRegistry registry) {
+        this(registry, System::currentTimeMillis);
+    }
+
+    RollupAccumulator(final MetricRegistry registry, final LongSupplier clock) {
+        this.clock = Objects.requireNonNull(clock);
+        this.lastSweep.set(clock.getAsLong());
+        registry.register(MetricRegistry.name("rollups", "series"), (Gauge<Integer>) series::size);
+        rollupSamples = registry.meter(MetricRegistry.name("rollups", "samples"));
+        lateSamples = registry.meter(MetricRegistry.name("rollups", "late-samples"));
+    }
+
+    /**
+     * Folds the given samples into the buckets of their metrics.
+     *
+     * @return the rollup samples of the buckets that were closed, to be stored
+     */
+    public List<Sample> accumulate(final List<Sample> samples) {
+        final long now = clock.getAsLong();
+        final List<Sample> rollups = new ArrayList<>();
+        for (Sample sample : samples) {
+            if (sample.getValue() == null || RollupTier.isRollup(sample.getMetric())) {
+                continue;
+            }
+            final Series s = series.computeIfAbsent(sample.getMetric().getKey(), k -> new Series(isCounter(sample.getMetric())));
+            synchronized (s) {
+                s.lastSeen = now;
+                s.add(sample, rollups);
+            }
+        }
+
+        final long previousSweep = lastSweep.get();
+        if (now - previousSweep >= SWEEP_INTERVAL_MS && lastSweep.compareAndSet(previousSweep, now)) {
+            sweep(now, rollups);
+        }
+        rollupSamples.mark(rollups.size());
+        return rollups;
+    }
+
+    /**
+     * Closes all of the open buckets, once no more samples will be accumulated.
+     *
+     * Only the buckets that were observed until their end are stored, the others are dropped:
+     * they are continued after a restart without the samples before it, so neither part has
+     * rollups and the reads aggregate the raw samples of the bucket instead.
+     *
+     * @return the rollup samples of the buckets, to be stored
+     */
+    public List<Sample> flush() {
+        final List<Sample> rollups = new ArrayList<>();
+        final Iterator<Series> it = series.values().iterator();
+        while (it.hasNext()) {
+            final Series s = it.next();
+            synchronized (s) {
+                s.flush(rollups);
+            }
+            it.remove();
+        }
+        rollupSamples.mark(rollups.size());
+        return rollups;
+    }
+
+    /**
+     * Closes the buckets which no sample has been added to after their end.
+     */
+    private void sweep(final long now, final List<Sample> rollups) {
+        final Iterator<Series> it = series.values().iterator();
+        while (it.hasNext()) {
+            final Series s = it.next();
+            synchronized (s) {
+                final boolean open = s.closeBefore(now - SWEEP_GRACE_MS, rollups);
+                if (!open && now - s.lastSeen > IDLE_SERIES_MS) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    private static boolean isCounter(final Metric metric) {
+        final Tag mtype = metric.getFirstTagByKey(MetaTagNames.mtype);
+        return mtype != null && Metric.Mtype.count.name().equals(mtype.getValue());
+    }
+
+    private final class Series {
+        private final boolean counter;
+        private final Bucket[] buckets = new Bucket[TIERS.length];
+        private Metric metric;
+        private double lastCounterValue = Double.NaN;
+        private long lastCounterTime;
+        private long lastTime = NO_SAMPLE;
+        private long lastSeen;
+
+        private Series(final boolean counter) {
+            this.counter = counter;
+        }
+
+        private void add(final Sample sample, final List<Sample> rollups) {
+            metric = sample.getMetric();
+            final long time = sample.getTime().toEpochMilli();
+            double value = sample.getValue();
+            final long previousSampleTime = lastTime;
+            lastTime = Math.max(lastTime, time);
+            if (counter) {
+                if (!Double.isNaN(lastCounterValue) && time <= lastCounterTime) {
+                    lateSamples.mark();
+                    return;
+                }
+                final double previousValue = lastCounterValue;
+                final long previousTime = lastCounterTime;
+                lastCounterValue = value;
+                lastCounterTime = time;
+                if (Double.isNaN(previousValue) || value < previousValue) {
+                    // We need two samples for a rate, and treat a counter that went backwards as reset
+                    return;
+                }
+                value = (value - previousValue) * 1000d / (time - previousTime);
+            }
+
+            for (int i = 0; i < TIERS.length; i++) {
+                final long end = TIERS[i].getBucketEnd(time);
+                Bucket bucket = buckets[i];
+                if (bucket != null && end < bucket.end) {
+                    // The bucket of this sample was already stored
+                    lateSamples.mark();
+                    continue;
+                }
+                if (bucket != null && end > bucket.end) {
+                    bucket.close(TIERS[i], metric, rollups);
+                    bucket = null;
+                }
+                if (bucket == null) {
+                    final long start = end - TIERS[i].getResolution();
+                    // Otherwise the samples at the start of the bucket were missed, e.g. while OpenNMS was stopped
+                    final boolean fromStart = time <= start || (previousSampleTime != NO_SAMPLE && start - previousSampleTime <= HEARTBEAT_MS);
+                    bucket = new Bucket(end, fromStart);
+                    buckets[i] = bucket;
+                }
+                bucket.add(time, value);
+            }
+        }
+
+        /**
+         * @return true if some buckets are still open
+         */
+        private boolean closeBefore(final long time, final List<Sample> rollups) {
+            boolean open = false;
+            for (int i = 0; i < TIERS.length; i++) {
+                if (buckets[i] != null && buckets[i].end < time) {
+                    buckets[i].close(TIERS[i], metric, rollups);
+                    buckets[i] = null;
+                }
+                open |= buckets[i] != null;
+            }
+            return open;
+        }
+
+        private void flush(final List<Sample> rollups) {
+            for (int i = 0; i < TIERS.length; i++) {
+                if (buckets[i] != null && buckets[i].end - buckets[i].lastTime <= HEARTBEAT_MS) {
+                    buckets[i].close(TIERS[i], metric, rollups);
+                }
+                buckets[i] = null;
+            }
+        }
+    }
+
+    private static final class Bucket {
+        private final long end;
+        private final boolean fromStart;
+        private long lastTime = NO_SAMPLE;
+        private double min = Double.NaN;
+        private double max = Double.NaN;
+        private double sum;
+        private int count;
+
+        private Bucket(final long end, final boolean fromStart) {
+            this.end = end;
+            this.fromStart = fromStart;
+        }
+
+        private void add(final long time, final double value) {
+            lastTime = Math.max(lastTime, time);
+            if (Double.isNaN(value)) {
+                return;
+            }
+            min = count == 0 ? value : Math.min(min, value);
+            max = count == 0 ? value : Math.max(max, value);
+            sum += value;
+            count++;
+        }
+
+        private void close(final RollupTier tier, final Metric metric, final List<Sample> rollups) {
+            if (count == 0 || !fromStart) {
+                return;
+            }
+            final Instant time = Instant.ofEpochMilli(end);
+            rollups.add(toSample(tier.getMetric(metric, Aggregation.MIN), time, min));
+            rollups.add(toSample(tier.getMetric(metric, Aggregation.MAX), time, max));
+            rollups.add(toSample(tier.getMetric(metric, Aggregation.AVERAGE), time, sum / count));
+        }
+
+        private static Sample toSample(final Metric metric, final Instant time, final double value) {
+            return ImmutableSample.builder()
+                    .metric(metric)
+                    .time(time)
+                    .value(value)
+                    .build();
+        }
+    }
+}
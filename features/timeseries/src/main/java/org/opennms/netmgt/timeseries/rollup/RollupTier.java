@@ -0,0 +1,128 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2024 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2024 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.timeseries.rollup;
+
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Optional;
+
+import org.opennms.integration.api.v1.timeseries.Aggregation;
+import org.opennms.integration.api.v1.timeseries.IntrinsicTagNames;
+import org.opennms.integration.api.v1.timeseries.MetaTagNames;
+import org.opennms.integration.api.v1.timeseries.Metric;
+import org.opennms.integration.api.v1.timeseries.Tag;
+import org.opennms.integration.api.v1.timeseries.immutables.ImmutableMetric;
+
+/**
+ * The resolutions at which the samples are pre-aggregated by the {@link RollupAccumulator}.
+ *
+ * Every tier is stored as three gauges next to the raw metric: the minimum, the maximum and the
+ * average of the samples, or of the rates of a counter, in each bucket. They share the intrinsic
+ * tags of the raw metric and are told apart by the additional {@value #TAG} tag.
+ */
+public enum RollupTier {
+    FIVE_MINUTES("5m", Duration.ofMinutes(5)),
+    ONE_HOUR("1h", Duration.ofHours(1)),
+    ONE_DAY("1d", Duration.ofDays(1));
+
+    /** Intrinsic tag that identifies the rollups of a metric */
+    public static final String TAG = "rollup";
+
+    private final String name;
+    private final long resolution;
+
+    RollupTier(final String name, final Duration resolution) {
+        this.name = name;
+        this.resolution = resolution.toMillis();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the width of the buckets, in milliseconds
+     */
+    public long getResolution() {
+        return resolution;
+    }
+
+    /**
+     * @return the end of the bucket which the given time falls into, the aggregated
+     * values of the bucket are stored at this time
+     */
+    public long getBucketEnd(final long timeMs) {
+        return Math.floorDiv(timeMs, resolution) * resolution + resolution;
+    }
+
+    /**
+     * Builds the metric under which the given aggregation of the raw metric is stored for this tier.
+     */
+    public Metric getMetric(final Metric metric, final Aggregation aggregation) {
+        final ImmutableMetric.MetricBuilder builder = ImmutableMetric.builder();
+        for (Tag tag : metric.getIntrinsicTags()) {
+            if (!TAG.equals(tag.getKey())) {
+                builder.intrinsicTag(tag);
+            }
+        }
+        return builder.intrinsicTag(TAG, name + "_" + aggregation.name().toLowerCase(Locale.ENGLISH))
+                .metaTag(MetaTagNames.mtype, Metric.Mtype.gauge.name())
+                .build();
+    }
+
+    /**
+     * Builds the metric under which the given aggregation of the raw metric is stored for this tier.
+     */
+    public Metric getMetric(final String resourceId, final String name, final Aggregation aggregation) {
+        return getMetric(ImmutableMetric.builder()
+                .intrinsicTag(IntrinsicTagNames.resourceId, resourceId)
+                .intrinsicTag(IntrinsicTagNames.name, name)
+                .build(), aggregation);
+    }
+
+    /**
+     * Finds the coarsest tier which still provides at least one value per interval.
+     *
+     * @param interval the interval of the late aggregation, in milliseconds
+     * @return the tier to read from, or empty if the raw samples must be used
+     */
+    public static Optional<RollupTier> forInterval(final long interval) {
+        RollupTier match = null;
+        for (RollupTier tier : values()) {
+            if (tier.resolution <= interval) {
+                match = tier;
+            }
+        }
+        return Optional.ofNullable(match);
+    }
+
+    public static boolean isRollup(final Metric metric) {
+        return metric.getFirstTagByKey(TAG) != null;
+    }
+}
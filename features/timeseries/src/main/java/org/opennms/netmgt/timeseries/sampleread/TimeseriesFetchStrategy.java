@@ -39,6 +39,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Optional;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
@@ -55,11 +56,14 @@ import org.opennms.core.sysprops.SystemProperties;
 import org.opennms.integration.api.v1.timeseries.Aggregation;
 import org.opennms.integration.api.v1.timeseries.DataPoint;
 import org.opennms.integration.api.v1.timeseries.IntrinsicTagNames;
+import org.opennms.integration.api.v1.timeseries.Metric;
 import org.opennms.integration.api.v1.timeseries.Sample;
 import org.opennms.integration.api.v1.timeseries.StorageException;
 import org.opennms.integration.api.v1.timeseries.TimeSeriesData;
 import org.opennms.integration.api.v1.timeseries.TimeSeriesFetchRequest;
+import org.opennms.integration.api.v1.timeseries.immutables.ImmutableDataPoint;
 import org.opennms.integration.api.v1.timeseries.immutables.ImmutableMetric;
+import org.opennms.integration.api.v1.timeseries.immutables.ImmutableTimeSeriesData;
 import org.opennms.integration.api.v1.timeseries.immutables.ImmutableTimeSeriesFetchRequest;
 import org.opennms.netmgt.dao.api.ResourceDao;
 import org.opennms.netmgt.measurements.api.FetchResults;
@@ -76,6 +80,8 @@ import org.opennms.netmgt.model.ResourceTypeUtils;
 import org.opennms.netmgt.model.RrdGraphAttribute;
 import org.opennms.netmgt.timeseries.TimeseriesStorageManager;
 import org.opennms.netmgt.timeseries.TimeseriesStorageManagerImpl;
+import org.opennms.netmgt.timeseries.rollup.RollupAccumulator;
+import org.opennms.netmgt.timeseries.rollup.RollupTier;
 import org.opennms.netmgt.timeseries.sampleread.aggregation.NewtsLikeSampleAggregator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -101,6 +107,9 @@ import com.google.common.util.concurrent.ThreadFactoryBuilder;
  * cores, but can be reduced if the operator wishes to ensure cores are available
  * for other purposes.
  *
+ * When the rollups are enabled, and the storage doesn't aggregate natively, long ranges are aggregated
+ * from the coarsest {@link RollupTier} which still fills every interval, rather than from the raw samples.
+ *
  * @author jwhite
  */
 public class TimeseriesFetchStrategy implements MeasurementFetchStrategy {
@@ -121,6 +130,7 @@ public class TimeseriesFetchStrategy implements MeasurementFetchStrategy {
     private TimeseriesStorageManager storageManager;
     private Timer sampleReadTsTimer;
     private Timer sampleReadIntegrationTimer;
+    private boolean rollupsEnabled = Boolean.getBoolean(RollupAccumulator.ENABLED_PROPERTY);
 
     // we can only have a non args constructor in order for MeasurementFetchStrategyFactory to instantiate us
     public TimeseriesFetchStrategy(){}
@@ -277,37 +287,133 @@ public class TimeseriesFetchStrategy implements MeasurementFetchStrategy {
                     .intrinsicTag(IntrinsicTagNames.name, metricName)
                     .build();
 
-            Aggregation aggregationToUse = shouldAggregateNatively ? aggregation : Aggregation.NONE;
-            TimeSeriesFetchRequest request = ImmutableTimeSeriesFetchRequest.builder()
-                    .metric(metric)
-                    .start(start)
-                    .end(end)
-                    .step(Duration.ofMillis(lag.getStep()))
-                    .aggregation(aggregationToUse)
-                    .build();
-
-            TimeSeriesData timeSeriesData;
-            try (Timer.Context context = sampleReadTsTimer.time()) {
-                LOG.debug("Querying TimeseriesStorage for resource id {} with request: {}", resourceId, request);
-                timeSeriesData = storageManager.get().getTimeSeriesData(request);
+            TimeSeriesData timeSeriesData = null;
+            if (!shouldAggregateNatively && rollupsEnabled) {
+                final Optional<RollupTier> tier = RollupTier.forInterval(lag.getInterval());
+                if (tier.isPresent()) {
+                    timeSeriesData = getRollupData(resourceId, source, metric, tier.get(), aggregation, start, end, lag);
+                }
             }
-            // aggregate if timeseries implementation didn't do it natively
-            if (!shouldAggregateNatively) {
-                final List<Source> currentSources = Collections.singletonList(source);
-                timeSeriesData = NewtsLikeSampleAggregator.builder()
-                        .resource(resourceId)
-                        .start(start)
-                        .end(end)
-                        .metric(metric)
-                        .currentSources(currentSources)
-                        .lag(lag)
-                        .build().process(samplesToNewtsRowIterator(timeSeriesData));
+            if (timeSeriesData == null) {
+                timeSeriesData = getRawData(resourceId, source, metric, shouldAggregateNatively ? aggregation : Aggregation.NONE, start, end, lag);
             }
             allDataPoints.put(source, timeSeriesData.getDataPoints());
         }
         return allDataPoints;
     }
 
+    private TimeSeriesData getRawData(final String resourceId, final Source source, final ImmutableMetric metric, final Aggregation aggregationToUse,
+                                      final Instant start, final Instant end, final LateAggregationParams lag) throws StorageException {
+        TimeSeriesFetchRequest request = ImmutableTimeSeriesFetchRequest.builder()
+                .metric(metric)
+                .start(start)
+                .end(end)
+                .step(Duration.ofMillis(lag.getStep()))
+                .aggregation(aggregationToUse)
+                .build();
+
+        TimeSeriesData timeSeriesData;
+        try (Timer.Context context = sampleReadTsTimer.time()) {
+            LOG.debug("Querying TimeseriesStorage for resource id {} with request: {}", resourceId, request);
+            timeSeriesData = storageManager.get().getTimeSeriesData(request);
+        }
+        // aggregate if timeseries implementation didn't do it natively
+        if (aggregationToUse == Aggregation.NONE) {
+            timeSeriesData = aggregate(resourceId, source, metric, start, end, lag, timeSeriesData);
+        }
+        return timeSeriesData;
+    }
+
+    /**
+     * Aggregates the rollups of the given tier instead of the raw samples. The parts of the range for which
+     * there are no rollups are still aggregated from the raw samples: before the first rollup, i.e. from before
+     * the rollups were enabled, between rollups that are not consecutive, e.g. for the buckets around a restart
+     * of OpenNMS which were only partially observed, and after the last rollup, where the buckets are still open.
+     *
+     * @return the aggregated data points, or null if there are no rollups in the range
+     */
+    private TimeSeriesData getRollupData(final String resourceId, final Source source, final ImmutableMetric metric, final RollupTier tier,
+                                         final Aggregation aggregation, final Instant start, final Instant end, final LateAggregationParams lag) throws StorageException {
+        final Metric rollupMetric = tier.getMetric(metric, aggregation);
+        TimeSeriesFetchRequest request = ImmutableTimeSeriesFetchRequest.builder()
+                .metric(rollupMetric)
+                .start(start)
+                .end(end)
+                .step(Duration.ofMillis(lag.getStep()))
+                .aggregation(Aggregation.NONE)
+                .build();
+
+        final List<DataPoint> rollups;
+        try (Timer.Context context = sampleReadTsTimer.time()) {
+            LOG.debug("Querying TimeseriesStorage for {} rollups of resource id {} with request: {}", tier.getName(), resourceId, request);
+            rollups = storageManager.get().getTimeSeriesData(request).getDataPoints();
+        }
+        if (rollups.isEmpty()) {
+            return null;
+        }
+
+        final TimeSeriesData aggregated = aggregate(resourceId, source, metric, start, end, lag, ImmutableTimeSeriesData.builder()
+                .metric(rollupMetric)
+                .dataPoints(rollups)
+                .build());
+
+        // The rollup stored at the end of a bucket covers the resolution of the tier before it. A data point
+        // is aggregated from the samples before its time, so the ones in (from, to] of a gap have no rollups.
+        final List<Instant> bucketEnds = rollups.stream()
+                .map(DataPoint::getTime)
+                .distinct()
+                .sorted()
+                .collect(Collectors.toList());
+        final List<Instant[]> gaps = new ArrayList<>();
+        Instant covered = start.minusMillis(1);
+        for (Instant bucketEnd : bucketEnds) {
+            final Instant bucketStart = bucketEnd.minusMillis(tier.getResolution());
+            if (bucketStart.isAfter(covered)) {
+                gaps.add(new Instant[] { covered, bucketStart });
+            }
+            covered = bucketEnd;
+        }
+        if (end.isAfter(covered)) {
+            gaps.add(new Instant[] { covered, end });
+        }
+
+        final Map<Instant, Double> rawValues = new HashMap<>();
+        for (Instant[] gap : gaps) {
+            // Start earlier so that the first data point of the gap can be aggregated, e.g. as the rate of a counter
+            final Instant rawStart = gap[0].minusMillis(lag.getHeartbeat());
+            for (DataPoint d : getRawData(resourceId, source, metric, Aggregation.NONE, rawStart.isBefore(start) ? start : rawStart, gap[1], lag).getDataPoints()) {
+                if (d.getTime().isAfter(gap[0]) && !d.getTime().isAfter(gap[1]) && !Double.isNaN(d.getValue())) {
+                    rawValues.put(d.getTime(), d.getValue());
+                }
+            }
+        }
+        if (rawValues.isEmpty()) {
+            return aggregated;
+        }
+
+        final List<DataPoint> dataPoints = aggregated.getDataPoints().stream()
+                .map(d -> rawValues.containsKey(d.getTime()) ?
+                        ImmutableDataPoint.builder().time(d.getTime()).value(rawValues.get(d.getTime())).build() : d)
+                .collect(Collectors.toList());
+        return ImmutableTimeSeriesData.builder()
+                .metric(metric)
+                .dataPoints(dataPoints)
+                .build();
+    }
+
+    private static TimeSeriesData aggregate(final String resourceId, final Source source, final Metric metric, final Instant start, final Instant end,
+                                            final LateAggregationParams lag, final TimeSeriesData timeSeriesData) {
+        final List<Source> currentSources = Collections.singletonList(source);
+        return NewtsLikeSampleAggregator.builder()
+                .resource(resourceId)
+                .start(start)
+                .end(end)
+                .metric(metric)
+                .currentSources(currentSources)
+                .lag(lag)
+                .build().process(samplesToNewtsRowIterator(timeSeriesData));
+    }
+
     private static Aggregation toAggregation(String fn) {
         if ("average".equalsIgnoreCase(fn) || "avg".equalsIgnoreCase(fn)) {
             return Aggregation.AVERAGE;
@@ -345,6 +451,10 @@ public class TimeseriesFetchStrategy implements MeasurementFetchStrategy {
         this.storageManager = timeseriesStorage;
     }
 
+    protected void setRollupsEnabled(final boolean rollupsEnabled) {
+        this.rollupsEnabled = rollupsEnabled;
+    }
+
     @Inject
     protected void setMetricRegistry(@Named("timeseriesMetricRegistry") MetricRegistry registry) {
         this.sampleReadTsTimer = registry.timer("samples.read.ts");
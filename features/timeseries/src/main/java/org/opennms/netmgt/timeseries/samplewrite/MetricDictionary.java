@@ -0,0 +1,343 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2024 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2024 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.timeseries.samplewrite;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+import org.opennms.integration.api.v1.timeseries.Metric;
+import org.opennms.integration.api.v1.timeseries.Tag;
+import org.opennms.integration.api.v1.timeseries.immutables.ImmutableMetric;
+import org.opennms.integration.api.v1.timeseries.immutables.ImmutableTag;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Assigns a small integer id to every metric written by the {@link SampleCodec},
+ * so that the tags of a metric are stored once instead of with every sample.
+ *
+ * The metrics are appended to a file as they are first seen, and synced before
+ * the batch referencing them is written, and are read back when the dictionary
+ * is opened so that the batches left on disk by a previous run can still be
+ * decoded. The dictionary is cleared whenever no batch is left on disk.
+ */
+final class MetricDictionary implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(MetricDictionary.class);
+
+    private final Path file;
+    private FileChannel channel;
+    private boolean closed = false;
+    private boolean dirty = false;
+
+    // Held for reading while encoding, so that the dictionary is not cleared under an encoder
+    private final ReadWriteLock encoding = new ReentrantReadWriteLock();
+
+    private final Map<MetricKey, Integer> ids = new ConcurrentHashMap<>();
+
+    // Replaced when it grows, and re-assigned after every append to publish the new element
+    private volatile Metric[] metrics = new Metric[1024];
+    private int size = 0;
+
+    /**
+     * Compares metrics on all of their tags, including the meta and external tags.
+     */
+    private static final class MetricKey {
+        private final Set<Tag> intrinsicTags;
+        private final Set<Tag> metaTags;
+        private final Set<Tag> externalTags;
+        private final int hash;
+
+        private MetricKey(final Metric metric) {
+            intrinsicTags = metric.getIntrinsicTags();
+            metaTags = metric.getMetaTags();
+            externalTags = metric.getExternalTags();
+            hash = Objects.hash(intrinsicTags, metaTags, externalTags);
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof MetricKey)) {
+                return false;
+            }
+            final MetricKey other = (MetricKey) o;
+            return hash == other.hash
+                    && intrinsicTags.equals(other.intrinsicTags)
+                    && metaTags.equals(other.metaTags)
+                    && externalTags.equals(other.externalTags);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * @param file where the metrics are persisted, or {@code null} to only keep them in memory
+     */
+    MetricDictionary(final Path file) throws IOException {
+        this.file = file;
+        if (file != null) {
+            Files.createDirectories(file.toAbsolutePath().getParent());
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            load();
+        }
+    }
+
+    private void load() throws IOException {
+        long position = 0;
+        final long fileSize = channel.size();
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel.position(0))));
+        try {
+            while (true) {
+                final int length = in.readInt();
+                if (length < 0 || length > fileSize - position - Integer.BYTES) {
+                    break;
+                }
+                final byte[] record = new byte[length];
+                in.readFully(record);
+                add(decode(record));
+                position += Integer.BYTES + length;
+            }
+        } catch (EOFException e) {
+            // Either the end of the file, or a record that was not completely written
+        }
+        if (position < fileSize) {
+            LOG.warn("Discarding {} bytes of incomplete metric at the end of {}", fileSize - position, file);
+            channel.truncate(position);
+        }
+        channel.position(position);
+        LOG.info("Loaded {} metrics from {}", size, file);
+    }
+
+    /**
+     * @return the id of the metric, adding it to the dictionary if needed
+     */
+    int getId(final Metric metric) {
+        final MetricKey key = new MetricKey(metric);
+        final Integer id = ids.get(key);
+        if (id != null) {
+            return id;
+        }
+        synchronized (this) {
+            final Integer existing = ids.get(key);
+            if (existing != null) {
+                return existing;
+            } else if (closed) {
+                throw new IllegalStateException("Metric dictionary is closed: " + file);
+            }
+            if (channel != null) {
+                try {
+                    final byte[] record = encode(metric);
+                    final ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES + record.length);
+                    buffer.putInt(record.length).put(record).flip();
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                    dirty = true;
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Failed to add metric to " + file, e);
+                }
+            }
+            return add(metric);
+        }
+    }
+
+    /**
+     * @return the metric with the given id
+     * @throws IllegalArgumentException if there is no such metric
+     */
+    Metric getMetric(final int id) {
+        final Metric[] current = metrics;
+        final Metric metric = id >= 0 && id < current.length ? current[id] : null;
+        if (metric == null) {
+            throw new IllegalArgumentException("Unknown metric id: " + id);
+        }
+        return metric;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Runs the encoder of a batch, and syncs the metrics that it added to the
+     * dictionary before the batch is returned to be written.
+     */
+    byte[] encode(final Supplier<byte[]> encoder) {
+        encoding.readLock().lock();
+        try {
+            final byte[] bytes = encoder.get();
+            sync();
+            return bytes;
+        } finally {
+            encoding.readLock().unlock();
+        }
+    }
+
+    private synchronized void sync() {
+        if (!dirty || channel == null) {
+            return;
+        }
+        try {
+            channel.force(false);
+            dirty = false;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to sync " + file, e);
+        }
+    }
+
+    /**
+     * Clears the dictionary if it is not empty and {@code unused} tells that no
+     * batch references its metrics anymore. No batch is encoded while {@code unused}
+     * is evaluated, so that a batch that is about to be written is accounted for.
+     *
+     * @return {@code true} if the dictionary was cleared
+     */
+    boolean clearIfUnused(final BooleanSupplier unused) throws IOException {
+        if (size() == 0 || !unused.getAsBoolean()) {
+            return false;
+        }
+        encoding.writeLock().lock();
+        try {
+            if (!unused.getAsBoolean()) {
+                return false;
+            }
+            clear();
+            return true;
+        } finally {
+            encoding.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Forgets all of the metrics, once there is no batch left that references them.
+     */
+    synchronized void clear() throws IOException {
+        ids.clear();
+        metrics = new Metric[1024];
+        size = 0;
+        dirty = false;
+        if (channel != null) {
+            channel.truncate(0);
+            channel.position(0);
+        }
+    }
+
+    private synchronized int add(final Metric metric) {
+        final int id = size++;
+        Metric[] current = metrics;
+        if (id >= current.length) {
+            current = Arrays.copyOf(current, current.length * 2);
+        }
+        current[id] = metric;
+        metrics = current;
+        ids.put(new MetricKey(metric), id);
+        return id;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    private static byte[] encode(final Metric metric) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        final DataOutputStream out = new DataOutputStream(bytes);
+        writeTags(out, metric.getIntrinsicTags());
+        writeTags(out, metric.getMetaTags());
+        writeTags(out, metric.getExternalTags());
+        return bytes.toByteArray();
+    }
+
+    private static void writeTags(final DataOutputStream out, final Collection<Tag> tags) throws IOException {
+        out.writeInt(tags.size());
+        for (final Tag tag : tags) {
+            out.writeUTF(tag.getKey());
+            out.writeBoolean(tag.getValue() != null);
+            if (tag.getValue() != null) {
+                out.writeUTF(tag.getValue());
+            }
+        }
+    }
+
+    private static Metric decode(final byte[] record) throws IOException {
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        final ImmutableMetric.MetricBuilder builder = ImmutableMetric.builder();
+        for (final Tag tag : readTags(in)) {
+            builder.intrinsicTag(tag);
+        }
+        for (final Tag tag : readTags(in)) {
+            builder.metaTag(tag);
+        }
+        for (final Tag tag : readTags(in)) {
+            builder.externalTag(tag);
+        }
+        return builder.build();
+    }
+
+    private static Tag[] readTags(final DataInputStream in) throws IOException {
+        final Tag[] tags = new Tag[in.readInt()];
+        for (int i = 0; i < tags.length; i++) {
+            final String key = in.readUTF();
+            tags[i] = in.readBoolean() ? new ImmutableTag(key, in.readUTF()) : new ImmutableTag(key);
+        }
+        return tags;
+    }
+}
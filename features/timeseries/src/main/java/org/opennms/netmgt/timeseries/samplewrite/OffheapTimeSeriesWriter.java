@@ -33,7 +33,6 @@ import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
 import com.swrve.ratelimitedlogger.RateLimitedLog;
 import org.nustaq.serialization.FSTConfiguration;
-import org.opennms.core.ipc.sink.api.DispatchQueue;
 import org.opennms.core.ipc.sink.api.QueueCreateFailedException;
 import org.opennms.core.ipc.sink.api.WriteFailedException;
 import org.opennms.core.ipc.sink.offheap.DataBlocksOffHeapQueue;
@@ -41,17 +40,19 @@ import org.opennms.integration.api.v1.timeseries.Sample;
 import org.opennms.integration.api.v1.timeseries.StorageException;
 import org.opennms.integration.api.v1.timeseries.immutables.ImmutableSample;
 import org.opennms.netmgt.timeseries.TimeseriesStorageManager;
+import org.opennms.netmgt.timeseries.resource.TimeseriesMetricIndex;
+import org.opennms.netmgt.timeseries.rollup.RollupAccumulator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.inject.Named;
+import java.io.IOException;
 import java.nio.file.Paths;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
-import java.util.UUID;
-import java.util.function.Function;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class OffheapTimeSeriesWriter implements TimeseriesWriter {
     private static final Logger LOG = LoggerFactory.getLogger(OffheapTimeSeriesWriter.class);
@@ -61,6 +62,7 @@ public class OffheapTimeSeriesWriter implements TimeseriesWriter {
             .build();
     public static final String OFFHEAP_NAME = "offheap";
     public static final int RETRY_TIME = 500;
+    public static final String METRICS_FILE_NAME = "org.opennms.features.timeseries.metrics";
 
     private static FSTConfiguration fstConf = FSTConfiguration.createDefaultConfiguration();
 
@@ -68,13 +70,21 @@ public class OffheapTimeSeriesWriter implements TimeseriesWriter {
         fstConf.registerClass(ArrayList.class, ImmutableSample.class);
     }
 
-    private final DispatchQueue<List<Sample>> queue;
+    private final MetricDictionary metricDictionary;
+    private final SampleCodec codec;
+    private final DataBlocksOffHeapQueue<List<Sample>> queue;
     private final TimeseriesStorageManager storage;
     private final List<Thread> workerPool = new ArrayList<>();
     private final TimeseriesWriterConfig timeseriesWriterConfig;
 
+    private TimeseriesMetricIndex metricIndex;
+
+    private RollupAccumulator rollups;
+
     private boolean isActive = true;
 
+    private final AtomicLong insertCount = new AtomicLong();
+
     private final Meter droppedSamples;
 
     private final Timer sampleWriteTsTimer;
@@ -100,8 +110,22 @@ public class OffheapTimeSeriesWriter implements TimeseriesWriter {
                 timeseriesWriterConfig.getBatchSize(), timeseriesWriterConfig.getPath(),
                 timeseriesWriterConfig.getMaxFileSize());
 
+        // The metrics must be known before the batches left on disk can be decoded
+        try {
+            this.metricDictionary = new MetricDictionary(Paths.get(timeseriesWriterConfig.getPath(), METRICS_FILE_NAME));
+        } catch (IOException e) {
+            throw new QueueCreateFailedException(e);
+        }
+        this.codec = new SampleCodec(metricDictionary, fstConf::asObject);
+
         // Set up Q's
         this.queue = createQueue(timeseriesWriterConfig);
+        try {
+            // Nothing references the metrics of the previous run anymore when no batch was left on disk
+            metricDictionary.clearIfUnused(() -> queue.getOffHeapBlockCount() == 0);
+        } catch (IOException e) {
+            throw new QueueCreateFailedException(e);
+        }
         setupConsumerThreads(timeseriesWriterConfig.getNumWriterThreads());
 
         // must register after queue create
@@ -119,7 +143,7 @@ public class OffheapTimeSeriesWriter implements TimeseriesWriter {
 
     private DataBlocksOffHeapQueue<List<Sample>> createQueue(
             TimeseriesWriterConfig timeseriesWriterConfig) throws QueueCreateFailedException {
-        return new DataBlocksOffHeapQueue<>(createSerializer(), createDeSerializer(),
+        return new DataBlocksOffHeapQueue<>(codec::encode, codec::decode,
                 "org.opennms.features.timeseries",
                 Paths.get(timeseriesWriterConfig.getPath()),
                 timeseriesWriterConfig.getBufferSize(),
@@ -127,29 +151,38 @@ public class OffheapTimeSeriesWriter implements TimeseriesWriter {
                 timeseriesWriterConfig.getMaxFileSize());
     }
 
-    private <T> Function<byte[], T> createDeSerializer() {
-        return t -> (T) fstConf.asObject(t);
-    }
-
-    private <T> Function<T, byte[]> createSerializer() {
-        return t -> fstConf.asByteArray(t);
-    }
-
     @Override
     public void insert(List<Sample> samples) {
         try {
-            queue.enqueue(samples, UUID.randomUUID().toString());
+            // The key is not used, it only needs to be cheap to generate
+            queue.enqueue(samples, Long.toString(insertCount.incrementAndGet()));
         } catch (WriteFailedException e) {
             RATE_LIMITED_LOGGER.warn("Could not insert list of samples.", e);
             droppedSamples.mark(samples.size());
         }
     }
 
+    @Override
+    public void setMetricIndex(TimeseriesMetricIndex metricIndex) {
+        this.metricIndex = metricIndex;
+    }
+
+    @Override
+    public void setRollups(RollupAccumulator rollups) {
+        this.rollups = rollups;
+    }
+
     public void destroy() {
         this.isActive = false;
         for (Thread thread : this.workerPool) {
             thread.interrupt();
         }
+        flushRollups();
+        try {
+            metricDictionary.close();
+        } catch (IOException e) {
+            LOG.warn("Could not close the metric dictionary.", e);
+        }
     }
 
     private void work() {
@@ -158,16 +191,34 @@ public class OffheapTimeSeriesWriter implements TimeseriesWriter {
                 var samples = queue.dequeue().getValue();
                 sentToPlugin(samples);
                 RATE_LIMITED_LOGGER.debug("Storing {} samples", samples.size());
+                clearMetricDictionaryIfUnused();
             } catch (InterruptedException e) {
                 return; // we are done.
             }
         }
     }
 
+    private void clearMetricDictionaryIfUnused() {
+        try {
+            // Only the batches that were written to disk reference the metrics
+            if (metricDictionary.clearIfUnused(() -> queue.getOffHeapBlockCount() == 0)) {
+                RATE_LIMITED_LOGGER.debug("Cleared the metric dictionary.");
+            }
+        } catch (IOException e) {
+            RATE_LIMITED_LOGGER.warn("Could not clear the metric dictionary.", e);
+        }
+    }
+
     private void sentToPlugin(final List<Sample> samples) {
         while (isActive) {
             try {
                 this.storage.get().store(samples);
+                if (this.metricIndex != null) {
+                    this.metricIndex.index(samples);
+                }
+                if (this.rollups != null) {
+                    storeRollups(samples);
+                }
                 return; // we are done.
             } catch (StorageException e) {
                 RATE_LIMITED_LOGGER.warn("Could not send samples to plugin, will try again in {} ms.", RETRY_TIME, e);
@@ -180,4 +231,31 @@ public class OffheapTimeSeriesWriter implements TimeseriesWriter {
             }
         }
     }
-}
\ No newline at end of file
+
+    private void flushRollups() {
+        if (this.rollups == null) {
+            return;
+        }
+        final List<Sample> rollupSamples = this.rollups.flush();
+        if (rollupSamples.isEmpty()) {
+            return;
+        }
+        try {
+            this.storage.get().store(rollupSamples);
+        } catch (StorageException e) {
+            LOG.warn("Could not send the {} rollup samples of the open buckets to plugin, they will be lost.", rollupSamples.size(), e);
+        }
+    }
+
+    private void storeRollups(final List<Sample> samples) {
+        final List<Sample> rollupSamples = this.rollups.accumulate(samples);
+        if (rollupSamples.isEmpty()) {
+            return;
+        }
+        try {
+            this.storage.get().store(rollupSamples);
+        } catch (StorageException e) {
+            RATE_LIMITED_LOGGER.warn("Could not send {} rollup samples to plugin, they will be lost.", rollupSamples.size(), e);
+        }
+    }
+}
@@ -44,7 +44,11 @@ import javax.inject.Named;
 
 import org.opennms.integration.api.v1.timeseries.IntrinsicTagNames;
 import org.opennms.integration.api.v1.timeseries.Sample;
+import org.opennms.integration.api.v1.timeseries.StorageException;
+import org.opennms.integration.api.v1.timeseries.TimeSeriesStorage;
 import org.opennms.netmgt.timeseries.TimeseriesStorageManager;
+import org.opennms.netmgt.timeseries.resource.TimeseriesMetricIndex;
+import org.opennms.netmgt.timeseries.rollup.RollupAccumulator;
 import org.opennms.netmgt.timeseries.stats.StatisticsCollector;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -102,6 +106,10 @@ public class RingBufferTimeseriesWriter implements TimeseriesWriter, WorkHandler
 
     private StatisticsCollector stats;
 
+    private TimeseriesMetricIndex metricIndex;
+
+    private RollupAccumulator rollups;
+
     /**
      * The {@link RingBuffer} doesn't appear to expose any methods that indicate the number
      * of elements that are currently "queued", so we keep track of them with this atomic counter.
@@ -198,6 +206,7 @@ public class RingBufferTimeseriesWriter implements TimeseriesWriter, WorkHandler
                     Duration.between(start, Instant.now()));
             destroyStatusThread.interrupt();
         }
+        flushRollups();
     }
 
     @Override
@@ -251,6 +260,12 @@ public class RingBufferTimeseriesWriter implements TimeseriesWriter, WorkHandler
             } else {
                 timeSeriesStorage.store(event.getSamples());
                 this.stats.record(event.getSamples());
+                if (this.metricIndex != null) {
+                    this.metricIndex.index(event.getSamples());
+                }
+                if (this.rollups != null) {
+                    storeRollups(timeSeriesStorage, event.getSamples());
+                }
             }
         } catch (Throwable t) {
             RATE_LIMITED_LOGGER.error("An error occurred while inserting samples. Up to {} samples may be lost: {}: {}", event.getSamples().size(), t.getClass().getSimpleName(), t.getMessage(), t);
@@ -262,6 +277,38 @@ public class RingBufferTimeseriesWriter implements TimeseriesWriter, WorkHandler
         numEntriesOnRingBuffer.decrementAndGet();
     }
 
+    private void flushRollups() {
+        if (this.rollups == null) {
+            return;
+        }
+        final List<Sample> rollupSamples = this.rollups.flush();
+        if (rollupSamples.isEmpty()) {
+            return;
+        }
+        try {
+            final TimeSeriesStorage timeSeriesStorage = this.storage.get();
+            if (timeSeriesStorage == null) {
+                LOG.warn("There is no available TimeSeriesStorage implementation. {} rollup samples of the open buckets will be lost.", rollupSamples.size());
+                return;
+            }
+            timeSeriesStorage.store(rollupSamples);
+        } catch (StorageException e) {
+            LOG.warn("An error occurred while inserting the rollups of the open buckets. {} rollup samples will be lost: {}", rollupSamples.size(), e.getMessage(), e);
+        }
+    }
+
+    private void storeRollups(final TimeSeriesStorage timeSeriesStorage, final List<Sample> samples) {
+        final List<Sample> rollupSamples = this.rollups.accumulate(samples);
+        if (rollupSamples.isEmpty()) {
+            return;
+        }
+        try {
+            timeSeriesStorage.store(rollupSamples);
+        } catch (StorageException e) {
+            RATE_LIMITED_LOGGER.warn("An error occurred while inserting rollups. {} rollup samples will be lost: {}", rollupSamples.size(), e.getMessage(), e);
+        }
+    }
+
     private static final EventTranslatorOneArg<SampleBatchEvent, List<Sample>> TRANSLATOR = (event, sequence, samples) -> event.setSamples(samples);
 
     public void setTimeSeriesStorage(final TimeseriesStorageManager timeseriesStorage) {
@@ -271,4 +318,14 @@ public class RingBufferTimeseriesWriter implements TimeseriesWriter, WorkHandler
     public void setStats(StatisticsCollector stats) {
         this.stats = stats;
     }
+
+    @Override
+    public void setMetricIndex(TimeseriesMetricIndex metricIndex) {
+        this.metricIndex = metricIndex;
+    }
+
+    @Override
+    public void setRollups(RollupAccumulator rollups) {
+        this.rollups = rollups;
+    }
 }
@@ -0,0 +1,229 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2024 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2024 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.timeseries.samplewrite;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Function;
+
+import org.opennms.integration.api.v1.timeseries.Sample;
+import org.opennms.integration.api.v1.timeseries.immutables.ImmutableSample;
+
+/**
+ * Serializes the batches of samples that the {@link OffheapTimeSeriesWriter}
+ * moves off the heap.
+ *
+ * Metrics are replaced by their id in a {@link MetricDictionary}, and a batch
+ * is written as:
+ * <pre>
+ *   "SMPL", version, flags
+ *   number of samples                                  varint
+ *   for every sample:
+ *     metric id                                        varint
+ *     milliseconds since the previous sample           zig-zag varint
+ *     nanoseconds within the millisecond (FLAG_NANOS)  varint
+ *     value                                            8 bytes
+ * </pre>
+ * The time of the first sample is relative to the epoch. Batches that do not
+ * start with the magic bytes were written with FST by previous versions, and
+ * are handed to the legacy deserializer.
+ */
+final class SampleCodec {
+
+    private static final byte[] MAGIC = { 'S', 'M', 'P', 'L' };
+
+    private static final byte VERSION = 1;
+
+    /** Some of the times have a precision below the millisecond */
+    private static final int FLAG_NANOS = 0x01;
+
+    private static final int NANOS_PER_MILLI = 1_000_000;
+
+    private final MetricDictionary dictionary;
+
+    private final Function<byte[], Object> legacyDeserializer;
+
+    SampleCodec(final MetricDictionary dictionary, final Function<byte[], Object> legacyDeserializer) {
+        this.dictionary = Objects.requireNonNull(dictionary);
+        this.legacyDeserializer = Objects.requireNonNull(legacyDeserializer);
+    }
+
+    byte[] encode(final List<Sample> samples) {
+        return dictionary.encode(() -> encodeSamples(samples));
+    }
+
+    private byte[] encodeSamples(final List<Sample> samples) {
+        int flags = 0;
+        for (final Sample sample : samples) {
+            if (sample.getTime().getNano() % NANOS_PER_MILLI != 0) {
+                flags |= FLAG_NANOS;
+            }
+        }
+
+        final Output out = new Output(MAGIC.length + 2 + 5 + samples.size() * 16);
+        out.writeBytes(MAGIC);
+        out.writeByte(VERSION);
+        out.writeByte(flags);
+        out.writeVarint(samples.size());
+
+        long lastMillis = 0;
+        for (final Sample sample : samples) {
+            out.writeVarint(dictionary.getId(sample.getMetric()));
+
+            final Instant time = sample.getTime();
+            final long millis = time.toEpochMilli();
+            out.writeVarlong(zigZag(millis - lastMillis));
+            lastMillis = millis;
+            if ((flags & FLAG_NANOS) != 0) {
+                out.writeVarint(time.getNano() % NANOS_PER_MILLI);
+            }
+
+            out.writeLong(Double.doubleToRawLongBits(sample.getValue()));
+        }
+        return out.toByteArray();
+    }
+
+    @SuppressWarnings("unchecked")
+    List<Sample> decode(final byte[] bytes) {
+        if (!isEncoded(bytes)) {
+            return (List<Sample>) legacyDeserializer.apply(bytes);
+        }
+
+        final ByteBuffer in = ByteBuffer.wrap(bytes, MAGIC.length, bytes.length - MAGIC.length);
+        final byte version = in.get();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported sample batch version: " + version);
+        }
+        final int flags = in.get();
+        final int count = readVarint(in);
+
+        final List<Sample> samples = new ArrayList<>(count);
+        long millis = 0;
+        for (int i = 0; i < count; i++) {
+            final ImmutableSample.ImmutableSampleBuilder sample = ImmutableSample.builder()
+                    .metric(dictionary.getMetric(readVarint(in)));
+
+            millis += unZigZag(readVarlong(in));
+            Instant time = Instant.ofEpochMilli(millis);
+            if ((flags & FLAG_NANOS) != 0) {
+                time = time.plusNanos(readVarint(in));
+            }
+            sample.time(time);
+
+            sample.value(Double.longBitsToDouble(in.getLong()));
+            samples.add(sample.build());
+        }
+        return samples;
+    }
+
+    private static boolean isEncoded(final byte[] bytes) {
+        return bytes.length > MAGIC.length && Arrays.equals(MAGIC, Arrays.copyOf(bytes, MAGIC.length));
+    }
+
+    private static long zigZag(final long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(final long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static int readVarint(final ByteBuffer in) {
+        return (int) readVarlong(in);
+    }
+
+    private static long readVarlong(final ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    /**
+     * A growable byte array, cheaper than a ByteArrayOutputStream for many small writes.
+     */
+    private static final class Output {
+        private byte[] buffer;
+        private int position = 0;
+
+        private Output(final int initialCapacity) {
+            buffer = new byte[initialCapacity];
+        }
+
+        private void ensureCapacity(final int length) {
+            if (position + length > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + length));
+            }
+        }
+
+        private void writeByte(final int b) {
+            ensureCapacity(1);
+            buffer[position++] = (byte) b;
+        }
+
+        private void writeBytes(final byte[] bytes) {
+            ensureCapacity(bytes.length);
+            System.arraycopy(bytes, 0, buffer, position, bytes.length);
+            position += bytes.length;
+        }
+
+        private void writeVarint(final int value) {
+            writeVarlong(value & 0xFFFFFFFFL);
+        }
+
+        private void writeVarlong(long value) {
+            ensureCapacity(10);
+            while ((value & ~0x7FL) != 0) {
+                buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[position++] = (byte) value;
+        }
+
+        private void writeLong(final long value) {
+            ensureCapacity(Long.BYTES);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                buffer[position++] = (byte) (value >>> shift);
+            }
+        }
+
+        private byte[] toByteArray() {
+            return Arrays.copyOf(buffer, position);
+        }
+    }
+}
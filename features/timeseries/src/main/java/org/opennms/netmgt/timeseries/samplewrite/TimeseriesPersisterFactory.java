@@ -45,6 +45,8 @@ import org.opennms.netmgt.rrd.RrdRepository;
 
 import com.codahale.metrics.MetricRegistry;
 import org.opennms.netmgt.timeseries.TimeseriesStorageManager;
+import org.opennms.netmgt.timeseries.resource.TimeseriesMetricIndex;
+import org.opennms.netmgt.timeseries.rollup.RollupAccumulator;
 import org.opennms.netmgt.timeseries.stats.StatisticsCollector;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -77,6 +79,10 @@ public class TimeseriesPersisterFactory implements PersisterFactory {
                     timeseriesWriterConfig.getNumWriterThreads(), registry);
         }
         LOG.info("Writer: {}", this.timeseriesWriter);
+        if (timeseriesWriterConfig.isRollups()) {
+            this.timeseriesWriter.setRollups(new RollupAccumulator(registry));
+            LOG.info("Rollups are enabled.");
+        }
 
         this.metaTagDataLoader = metaTagDataLoader;
         this.configuredAdditionalMetaTagCache = new CacheBuilder<>()
@@ -101,6 +107,15 @@ public class TimeseriesPersisterFactory implements PersisterFactory {
         return persister;
     }
 
+    /**
+     * Shares the index of the resource tree with the writer so that newly persisted metrics are visible to
+     * searches right away.
+     */
+    @Autowired(required = false)
+    public void setMetricIndex(final TimeseriesMetricIndex metricIndex) {
+        this.timeseriesWriter.setMetricIndex(metricIndex);
+    }
+
     public void destroy() {
         if (timeseriesWriter != null) {
             timeseriesWriter.destroy();
@@ -31,8 +31,21 @@ package org.opennms.netmgt.timeseries.samplewrite;
 import java.util.List;
 
 import org.opennms.integration.api.v1.timeseries.Sample;
+import org.opennms.netmgt.timeseries.resource.TimeseriesMetricIndex;
+import org.opennms.netmgt.timeseries.rollup.RollupAccumulator;
 
 public interface TimeseriesWriter {
     void insert(List<Sample> samples);
     void destroy();
+
+    /**
+     * The metrics of all successfully stored samples are added to the given index.
+     */
+    void setMetricIndex(TimeseriesMetricIndex metricIndex);
+
+    /**
+     * The successfully stored samples are folded into the given rollups, and the rollups
+     * of the closed buckets are stored along with them.
+     */
+    void setRollups(RollupAccumulator rollups);
 }
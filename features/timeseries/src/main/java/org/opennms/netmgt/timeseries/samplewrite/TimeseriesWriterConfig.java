@@ -51,6 +51,8 @@ public class TimeseriesWriterConfig {
 
     private long maxFileSize = -1;
 
+    private boolean rollups = false;
+
     public int getBufferSize() {
         return bufferSize == -1 ? ringBufferSize : bufferSize;
     }
@@ -102,4 +104,12 @@ public class TimeseriesWriterConfig {
     public void setMaxFileSize(Long maxFileSize) {
         this.maxFileSize = maxFileSize;
     }
+
+    public boolean isRollups() {
+        return rollups;
+    }
+
+    public void setRollups(boolean rollups) {
+        this.rollups = rollups;
+    }
 }
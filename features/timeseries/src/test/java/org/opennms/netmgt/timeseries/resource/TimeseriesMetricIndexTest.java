@@ -0,0 +1,180 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2024 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2024 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.timeseries.resource;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.integration.api.v1.timeseries.IntrinsicTagNames;
+import org.opennms.integration.api.v1.timeseries.Metric;
+import org.opennms.integration.api.v1.timeseries.immutables.ImmutableMetric;
+import org.opennms.netmgt.model.ResourcePath;
+
+public class TimeseriesMetricIndexTest {
+
+    private final AtomicLong now = new AtomicLong();
+
+    private final TimeseriesMetricIndex index = new TimeseriesMetricIndex(now::get);
+
+    @Before
+    public void setUp() {
+        index.startLoading("snmp");
+    }
+
+    @Test
+    public void shouldFindMetricsByDepth() {
+        Metric loadavg1m = createAndIndexMetric("snmp/1/node-stats", "loadavg1m");
+        Metric loadavg5m = createAndIndexMetric("snmp/1/node-stats", "loadavg5m");
+        Metric ifHcInOctets = createAndIndexMetric("snmp/1/eth0/mib2-stats", "ifHcInOctets");
+        Metric other = createAndIndexMetric("snmp/2/node-stats", "loadavg1m");
+
+        test("snmp/1", 1, loadavg1m, loadavg5m);
+        test("snmp/1", 2, ifHcInOctets);
+        test("snmp/1/eth0", 1, ifHcInOctets);
+        test("snmp/1/node-stats", 0, loadavg1m, loadavg5m);
+        test("snmp", 2, loadavg1m, loadavg5m, other);
+        test("snmp/3", 1);
+    }
+
+    @Test
+    public void shouldNotMatchDotsBelowSearchPath() {
+        // mirrors TimeseriesUtils.toSearchRegex() which does not match any dot in the elements below the path
+        Metric metric = createAndIndexMetric("snmp/1/10.0.0.1/icmp", "icmp");
+
+        test("snmp/1/10.0.0.1", 1, metric);
+        test("snmp/1", 2);
+    }
+
+    @Test
+    public void shouldRemoveMetrics() {
+        Metric loadavg1m = createAndIndexMetric("snmp/1/node-stats", "loadavg1m");
+        Metric loadavg5m = createAndIndexMetric("snmp/1/node-stats", "loadavg5m");
+
+        index.remove(loadavg1m);
+
+        test("snmp/1", 1, loadavg5m);
+        assertEquals(1, index.size());
+        index.remove(loadavg5m);
+        assertTrue(index.findBelow(ResourcePath.fromString("snmp/1"), 1).isEmpty());
+    }
+
+    @Test
+    public void shouldKeepLatestVersionOfMetric() {
+        createAndIndexMetric("snmp/1/node-stats", "loadavg1m");
+        Metric updated = ImmutableMetric.builder()
+                .intrinsicTag(IntrinsicTagNames.resourceId, "snmp/1/node-stats")
+                .intrinsicTag(IntrinsicTagNames.name, "loadavg1m")
+                .externalTag("sysName", "router")
+                .build();
+        index.index(updated);
+
+        Metric found = index.findBelow(ResourcePath.fromString("snmp/1"), 1).iterator().next();
+        assertEquals("router", found.getFirstTagByKey("sysName").getValue());
+    }
+
+    @Test
+    public void shouldOnlyIndexLoadedNodes() {
+        createAndIndexMetric("nodeSnmp/1/node-stats", "loadavg1m");
+        assertEquals(0, index.size());
+
+        index.startLoading("nodeSnmp/1");
+        Metric metric = createAndIndexMetric("nodeSnmp/1/node-stats", "loadavg1m");
+        test("nodeSnmp/1", 1, metric);
+    }
+
+    @Test
+    public void shouldDropStaleMetricsOnLoad() {
+        index.startLoading("nodeSnmp/1");
+        index.startLoading("nodeSnmp/2");
+        Metric stale = createAndIndexMetric("nodeSnmp/1/node-stats", "loadavg1m");
+        Metric stored = createAndIndexMetric("nodeSnmp/1/node-stats", "loadavg5m");
+        Metric other = createAndIndexMetric("nodeSnmp/2/node-stats", "loadavg1m");
+
+        now.addAndGet(1000);
+        long since = index.startLoading("nodeSnmp/1");
+        // persisted while the storage is queried
+        Metric persisted = createAndIndexMetric("nodeSnmp/1/node-stats", "loadavg15m");
+        index.load("nodeSnmp/1", Collections.singleton(stored), since);
+
+        test("nodeSnmp/1", 1, stored, persisted);
+        test("nodeSnmp/2", 1, other);
+        assertFalse(index.findBelow(ResourcePath.fromString("nodeSnmp/1/node-stats"), 0).contains(stale));
+    }
+
+    @Test
+    public void shouldEvictNodesThatWereNotSearched() {
+        index.setExpireAfterRead(300);
+        index.startLoading("nodeSnmp/2");
+        createAndIndexMetric("nodeSnmp/2/node-stats", "loadavg1m");
+        long since = index.startLoading("nodeSnmp/1");
+        Metric metric = createAndIndexMetric("nodeSnmp/1/node-stats", "loadavg1m");
+        index.load("nodeSnmp/1", Collections.singleton(metric), since);
+
+        now.addAndGet(TimeUnit.SECONDS.toMillis(200));
+        assertTrue(index.touch("nodeSnmp/1"));
+        now.addAndGet(TimeUnit.SECONDS.toMillis(200));
+        assertTrue(index.touch("nodeSnmp/1"));
+
+        // nodeSnmp/2 was not searched for 400 seconds
+        assertFalse(index.touch("nodeSnmp/2"));
+        test("nodeSnmp/1", 1, metric);
+        test("nodeSnmp/2", 1);
+
+        now.addAndGet(TimeUnit.SECONDS.toMillis(400));
+        assertFalse(index.touch("nodeSnmp/1"));
+        test("nodeSnmp/1", 1);
+        // not indexed anymore until the node is loaded again
+        createAndIndexMetric("nodeSnmp/1/node-stats", "loadavg1m");
+        test("nodeSnmp/1", 1);
+    }
+
+    private void test(String path, int depth, Metric... expectedMetrics) {
+        Set<Metric> expected = new HashSet<>(Arrays.asList(expectedMetrics));
+        assertEquals(expected, index.findBelow(ResourcePath.fromString(path), depth));
+    }
+
+    private Metric createAndIndexMetric(final String resourceId, final String name) {
+        Metric metric = ImmutableMetric.builder()
+                .intrinsicTag(IntrinsicTagNames.resourceId, resourceId)
+                .intrinsicTag(IntrinsicTagNames.name, name)
+                .build();
+        index.index(metric);
+        return metric;
+    }
+}
@@ -30,6 +30,7 @@ package org.opennms.netmgt.timeseries.resource;
 
 import static org.junit.Assert.assertEquals;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.Mockito.clearInvocations;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
@@ -124,15 +125,15 @@ public class TimeseriesSearcherTest {
         Metric n2_loadavg5m = createAndAddMetric("snmp/2/node-stats", "loadavg5m");
 
         test("snmp/2", n2_loadavg1m, n2_loadavg5m );
-        verify(searcher, times(1)).buildCache(any());
+        verify(searcher, times(1)).buildCache(any(), any(), anyLong());
         test("snmp/2/notExist", new Metric[0]);
         // it should still 1
-        verify(searcher, times(1)).buildCache(any());
+        verify(searcher, times(1)).buildCache(any(), any(), anyLong());
 
         Thread.sleep(1000L);
         test("snmp/2/notExist", new Metric[0]);
         // should be 2 now because of read expiry
-        verify(searcher, times(2)).buildCache(any());
+        verify(searcher, times(2)).buildCache(any(), any(), anyLong());
     }
 
     private void test(String path, Metric...expectedMetrics) throws StorageException {
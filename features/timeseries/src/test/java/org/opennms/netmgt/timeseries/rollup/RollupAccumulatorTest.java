@@ -0,0 +1,223 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2024 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2024 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.timeseries.rollup;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.integration.api.v1.timeseries.Aggregation;
+import org.opennms.integration.api.v1.timeseries.IntrinsicTagNames;
+import org.opennms.integration.api.v1.timeseries.MetaTagNames;
+import org.opennms.integration.api.v1.timeseries.Metric;
+import org.opennms.integration.api.v1.timeseries.Sample;
+import org.opennms.integration.api.v1.timeseries.immutables.ImmutableMetric;
+import org.opennms.integration.api.v1.timeseries.immutables.ImmutableSample;
+
+import com.codahale.metrics.MetricRegistry;
+
+public class RollupAccumulatorTest {
+
+    private static final long MINUTE = Duration.ofMinutes(1).toMillis();
+
+    private final AtomicLong now = new AtomicLong();
+
+    private MetricRegistry registry;
+
+    private RollupAccumulator accumulator;
+
+    @Before
+    public void setUp() {
+        registry = new MetricRegistry();
+        accumulator = new RollupAccumulator(registry, now::get);
+    }
+
+    @Test
+    public void canRollUpGauges() {
+        final Metric metric = createMetric("ifHighSpeed", Metric.Mtype.gauge);
+        assertTrue(accumulator.accumulate(Arrays.asList(
+                createSample(metric, 0, 3.0),
+                createSample(metric, MINUTE, 1.0),
+                createSample(metric, 4 * MINUTE, 8.0))).isEmpty());
+
+        // The first sample of the next 5 minute bucket closes the previous one
+        final List<Sample> rollups = accumulator.accumulate(Collections.singletonList(createSample(metric, 5 * MINUTE, 100.0)));
+        assertEquals(3, rollups.size());
+        assertRollup(rollups.get(0), RollupTier.FIVE_MINUTES.getMetric(metric, Aggregation.MIN), 5 * MINUTE, 1.0);
+        assertRollup(rollups.get(1), RollupTier.FIVE_MINUTES.getMetric(metric, Aggregation.MAX), 5 * MINUTE, 8.0);
+        assertRollup(rollups.get(2), RollupTier.FIVE_MINUTES.getMetric(metric, Aggregation.AVERAGE), 5 * MINUTE, 4.0);
+
+        // The hourly and daily buckets are still open
+        assertEquals(3, accumulator.accumulate(Collections.singletonList(createSample(metric, 55 * MINUTE, 0.0))).size());
+        assertEquals(6, accumulator.accumulate(Collections.singletonList(createSample(metric, 60 * MINUTE, 0.0))).size());
+        assertEquals(12, registry.meter("rollups.samples").getCount());
+    }
+
+    @Test
+    public void canRollUpCounterRates() {
+        final Metric metric = createMetric("ifHCInOctets", Metric.Mtype.count);
+        assertTrue(accumulator.accumulate(Arrays.asList(
+                createSample(metric, 0, 1000.0),
+                createSample(metric, MINUTE, 7000.0),
+                // Counter reset
+                createSample(metric, 2 * MINUTE, 100.0),
+                createSample(metric, 3 * MINUTE, 1300.0))).isEmpty());
+
+        final List<Sample> rollups = accumulator.accumulate(Collections.singletonList(createSample(metric, 5 * MINUTE, 1300.0)));
+        assertEquals(3, rollups.size());
+        assertRollup(rollups.get(0), RollupTier.FIVE_MINUTES.getMetric(metric, Aggregation.MIN), 5 * MINUTE, 20.0);
+        assertRollup(rollups.get(1), RollupTier.FIVE_MINUTES.getMetric(metric, Aggregation.MAX), 5 * MINUTE, 100.0);
+        assertRollup(rollups.get(2), RollupTier.FIVE_MINUTES.getMetric(metric, Aggregation.AVERAGE), 5 * MINUTE, 60.0);
+        assertEquals(Metric.Mtype.gauge.name(), rollups.get(0).getMetric().getFirstTagByKey(MetaTagNames.mtype).getValue());
+    }
+
+    @Test
+    public void canDropLateSamplesAndCloseIdleBuckets() {
+        final Metric metric = createMetric("ifHighSpeed", Metric.Mtype.gauge);
+        accumulator.accumulate(Arrays.asList(
+                createSample(metric, 0, 1.0),
+                createSample(metric, 5 * MINUTE, 2.0)));
+        // Falls into the 5 minute bucket which was already closed, but still counts for the others
+        assertTrue(accumulator.accumulate(Collections.singletonList(createSample(metric, 2 * MINUTE, 3.0))).isEmpty());
+        assertEquals(1, registry.meter("rollups.late-samples").getCount());
+        // Rollups are never rolled up again
+        assertTrue(accumulator.accumulate(Collections.singletonList(createSample(
+                RollupTier.ONE_HOUR.getMetric(metric, Aggregation.MAX), 60 * MINUTE, 1.0))).isEmpty());
+
+        // The metric isn't collected anymore, the sweep closes the buckets once they are over
+        now.set(Duration.ofHours(1).toMillis() + 30 * MINUTE);
+        final List<Sample> rollups = accumulator.accumulate(Collections.emptyList());
+        assertEquals(6, rollups.size());
+        assertRollup(rollups.get(0), RollupTier.FIVE_MINUTES.getMetric(metric, Aggregation.MIN), 10 * MINUTE, 2.0);
+        assertRollup(rollups.get(5), RollupTier.ONE_HOUR.getMetric(metric, Aggregation.AVERAGE), 60 * MINUTE, 2.0);
+
+        now.set(Duration.ofDays(3).toMillis());
+        assertEquals(3, accumulator.accumulate(Collections.emptyList()).size());
+        assertEquals(0, registry.getGauges().get("rollups.series").getValue());
+    }
+
+    @Test
+    public void canFlushOpenBuckets() {
+        final Metric metric = createMetric("ifHighSpeed", Metric.Mtype.gauge);
+        assertTrue(accumulator.accumulate(Arrays.asList(
+                createSample(metric, 0, 3.0),
+                createSample(metric, MINUTE, 5.0))).isEmpty());
+
+        // Only the 5 minute bucket was observed until its end, the others are aggregated from the raw samples
+        final List<Sample> rollups = accumulator.flush();
+        assertEquals(3, rollups.size());
+        assertRollup(rollups.get(2), RollupTier.FIVE_MINUTES.getMetric(metric, Aggregation.AVERAGE), 5 * MINUTE, 4.0);
+        assertEquals(0, registry.getGauges().get("rollups.series").getValue());
+        assertTrue(accumulator.flush().isEmpty());
+    }
+
+    @Test
+    public void canSkipBucketsNotObservedFromTheirStart() {
+        final Metric metric = createMetric("ifHighSpeed", Metric.Mtype.gauge);
+        // Stopped in the middle of the hour, after having been running for a while
+        for (long time = 0; time < 32 * MINUTE; time += MINUTE) {
+            accumulator.accumulate(Collections.singletonList(createSample(metric, time, 1.0)));
+        }
+        // The hourly and daily buckets are cut off by the stop
+        final List<Sample> flushed = accumulator.flush();
+        assertEquals(3, flushed.size());
+        flushed.forEach(RollupAccumulatorTest::assertFiveMinuteRollup);
+
+        // Restarted in the middle of the next 5 minute bucket
+        accumulator = new RollupAccumulator(new MetricRegistry(), now::get);
+        assertTrue(accumulator.accumulate(Arrays.asList(
+                createSample(metric, 37 * MINUTE, 2.0),
+                createSample(metric, 38 * MINUTE, 2.0))).isEmpty());
+        // The first 5 minute bucket after the restart is incomplete, the next one is stored
+        assertTrue(accumulator.accumulate(Collections.singletonList(createSample(metric, 40 * MINUTE, 2.0))).isEmpty());
+        final List<Sample> rollups = accumulator.accumulate(Collections.singletonList(createSample(metric, 45 * MINUTE, 2.0)));
+        assertEquals(3, rollups.size());
+        assertRollup(rollups.get(2), RollupTier.FIVE_MINUTES.getMetric(metric, Aggregation.AVERAGE), 40 * MINUTE + 5 * MINUTE, 2.0);
+
+        // Neither part of the hourly bucket has a rollup, but the next hour is observed from its start
+        for (long time = 50 * MINUTE; time <= 60 * MINUTE; time += 5 * MINUTE) {
+            for (Sample rollup : accumulator.accumulate(Collections.singletonList(createSample(metric, time, 2.0)))) {
+                assertFiveMinuteRollup(rollup);
+            }
+        }
+        assertEquals(3, accumulator.accumulate(Collections.singletonList(createSample(metric, 65 * MINUTE, 2.0))).size());
+        assertEquals(6, accumulator.accumulate(Collections.singletonList(createSample(metric, 120 * MINUTE, 2.0))).size());
+    }
+
+    @Test
+    public void canSelectTierForInterval() {
+        assertEquals(Optional.empty(), RollupTier.forInterval(Duration.ofMinutes(2).toMillis()));
+        assertEquals(Optional.of(RollupTier.FIVE_MINUTES), RollupTier.forInterval(Duration.ofMinutes(30).toMillis()));
+        assertEquals(Optional.of(RollupTier.ONE_HOUR), RollupTier.forInterval(Duration.ofHours(4).toMillis()));
+        assertEquals(Optional.of(RollupTier.ONE_DAY), RollupTier.forInterval(Duration.ofDays(2).toMillis()));
+
+        final Metric rollup = RollupTier.ONE_DAY.getMetric("snmp:1:eth0", "ifHCInOctets", Aggregation.MAX);
+        assertEquals("snmp:1:eth0", rollup.getFirstTagByKey(IntrinsicTagNames.resourceId).getValue());
+        assertEquals("ifHCInOctets", rollup.getFirstTagByKey(IntrinsicTagNames.name).getValue());
+        assertEquals("1d_max", rollup.getFirstTagByKey(RollupTier.TAG).getValue());
+        assertTrue(RollupTier.isRollup(rollup));
+        assertFalse(RollupTier.isRollup(createMetric("ifHCInOctets", Metric.Mtype.count)));
+    }
+
+    private static Metric createMetric(final String name, final Metric.Mtype mtype) {
+        return ImmutableMetric.builder()
+                .intrinsicTag(IntrinsicTagNames.resourceId, "snmp:1:eth0")
+                .intrinsicTag(IntrinsicTagNames.name, name)
+                .metaTag(MetaTagNames.mtype, mtype.name())
+                .build();
+    }
+
+    private static Sample createSample(final Metric metric, final long time, final double value) {
+        return ImmutableSample.builder()
+                .metric(metric)
+                .time(Instant.ofEpochMilli(time))
+                .value(value)
+                .build();
+    }
+
+    private static void assertFiveMinuteRollup(final Sample sample) {
+        assertTrue(sample.getMetric().getFirstTagByKey(RollupTier.TAG).getValue().startsWith(RollupTier.FIVE_MINUTES.getName() + "_"));
+    }
+
+    private static void assertRollup(final Sample sample, final Metric metric, final long time, final double value) {
+        assertEquals(metric, sample.getMetric());
+        assertEquals(Instant.ofEpochMilli(time), sample.getTime());
+        assertEquals(value, sample.getValue(), 0.0001);
+    }
+}
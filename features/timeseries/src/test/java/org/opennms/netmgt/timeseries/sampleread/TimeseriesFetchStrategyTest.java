@@ -50,9 +50,13 @@ import java.util.Set;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 import org.opennms.integration.api.v1.timeseries.Aggregation;
+import org.opennms.integration.api.v1.timeseries.DataPoint;
 import org.opennms.integration.api.v1.timeseries.IntrinsicTagNames;
+import org.opennms.integration.api.v1.timeseries.MetaTagNames;
+import org.opennms.integration.api.v1.timeseries.Metric;
 import org.opennms.integration.api.v1.timeseries.StorageException;
 import org.opennms.integration.api.v1.timeseries.TimeSeriesFetchRequest;
 import org.opennms.integration.api.v1.timeseries.TimeSeriesStorage;
@@ -71,6 +75,7 @@ import org.opennms.netmgt.model.ResourceId;
 import org.opennms.netmgt.model.ResourcePath;
 import org.opennms.netmgt.model.RrdGraphAttribute;
 import org.opennms.netmgt.timeseries.TimeseriesStorageManagerImpl;
+import org.opennms.netmgt.timeseries.rollup.RollupTier;
 import org.opennms.newts.api.Measurement;
 import org.opennms.newts.api.Resource;
 import org.opennms.newts.api.Results.Row;
@@ -231,6 +236,114 @@ public class TimeseriesFetchStrategyTest {
         verify(resourceDao, atLeastOnce()).getResourceById(any(ResourceId.class));
     }
 
+    @Test
+    public void canRetrieveValuesFromRollups() throws StorageException {
+        final Source source = createMockResource("icmp", "icmp", null, "127.0.0.1", false);
+        replay();
+
+        // One week with one hourly rollup per hour, the first bucket starts with the range
+        final long start = START_TIME - Duration.ofDays(7).toMillis();
+        final String newtsResourceId = "response:127.0.0.1:icmp";
+        final Metric rollupMetric = RollupTier.ONE_HOUR.getMetric(newtsResourceId, "icmp", Aggregation.AVERAGE);
+        final List<DataPoint> rollups = Lists.newArrayList();
+        for (long time = RollupTier.ONE_HOUR.getBucketEnd(start); time <= END_TIME; time += RollupTier.ONE_HOUR.getResolution()) {
+            rollups.add(ImmutableDataPoint.builder().time(Instant.ofEpochMilli(time)).value(33.0).build());
+        }
+        when(timeSeriesStorage.supportsAggregation(Aggregation.AVERAGE)).thenReturn(false);
+        when(timeSeriesStorage.getTimeSeriesData(any())).thenAnswer(invocation -> {
+            final TimeSeriesFetchRequest request = invocation.getArgument(0);
+            return ImmutableTimeSeriesData.builder()
+                    .metric(request.getMetric())
+                    .dataPoints(RollupTier.isRollup(request.getMetric()) ? rollups : Collections.emptyList())
+                    .build();
+        });
+        fetchStrategy.setRollupsEnabled(true);
+
+        final long step = Duration.ofHours(4).toMillis();
+        FetchResults fetchResults = fetchStrategy.fetch(RollupTier.ONE_HOUR.getBucketEnd(start) - RollupTier.ONE_HOUR.getResolution(), END_TIME, step, 0, null, null, Collections.singletonList(source), false);
+        assertEquals(1, fetchResults.getColumns().keySet().size());
+        assertTrue(fetchResults.getColumns().containsKey("icmp"));
+
+        assertValues(33.0, fetchResults.getColumns().get("icmp"));
+
+        final ArgumentCaptor<TimeSeriesFetchRequest> requests = ArgumentCaptor.forClass(TimeSeriesFetchRequest.class);
+        verify(timeSeriesStorage, atLeastOnce()).getTimeSeriesData(requests.capture());
+        assertEquals(rollupMetric, requests.getAllValues().get(0).getMetric());
+        assertEquals(Aggregation.NONE, requests.getAllValues().get(0).getAggregation());
+
+        verify(resourceDao, atLeastOnce()).getResourceById(any(ResourceId.class));
+    }
+
+    @Test
+    public void canBackfillMissingRollupsFromRawSamples() throws StorageException {
+        final Source source = createMockResource("icmp", "icmp", null, "127.0.0.1", false);
+        replay();
+
+        // One week of hourly rollups, without the ones of the third day
+        final long start = START_TIME - Duration.ofDays(7).toMillis();
+        final long gapStart = RollupTier.ONE_HOUR.getBucketEnd(start) + Duration.ofDays(2).toMillis();
+        final long gapEnd = gapStart + Duration.ofDays(1).toMillis();
+        final List<DataPoint> rollups = Lists.newArrayList();
+        final List<DataPoint> samples = Lists.newArrayList();
+        for (long time = RollupTier.ONE_HOUR.getBucketEnd(start); time <= END_TIME; time += RollupTier.ONE_HOUR.getResolution()) {
+            if (time <= gapStart || time > gapEnd) {
+                rollups.add(ImmutableDataPoint.builder().time(Instant.ofEpochMilli(time)).value(33.0).build());
+            }
+        }
+        for (long time = gapStart; time <= gapEnd; time += Duration.ofMinutes(5).toMillis()) {
+            samples.add(ImmutableDataPoint.builder().time(Instant.ofEpochMilli(time)).value(7.0).build());
+        }
+        when(timeSeriesStorage.supportsAggregation(Aggregation.AVERAGE)).thenReturn(false);
+        // the raw samples are returned with the stored metric, which includes the type
+        final Metric rawMetric = ImmutableMetric.builder()
+                .intrinsicTag(IntrinsicTagNames.resourceId, "response:127.0.0.1:icmp")
+                .intrinsicTag(IntrinsicTagNames.name, "icmp")
+                .metaTag(MetaTagNames.mtype, Metric.Mtype.gauge.name())
+                .build();
+        when(timeSeriesStorage.getTimeSeriesData(any())).thenAnswer(invocation -> {
+            final TimeSeriesFetchRequest request = invocation.getArgument(0);
+            final boolean rollup = RollupTier.isRollup(request.getMetric());
+            return ImmutableTimeSeriesData.builder()
+                    .metric(rollup ? request.getMetric() : rawMetric)
+                    .dataPoints(rollup ? rollups : samples)
+                    .build();
+        });
+        fetchStrategy.setRollupsEnabled(true);
+
+        final long step = Duration.ofHours(4).toMillis();
+        FetchResults fetchResults = fetchStrategy.fetch(RollupTier.ONE_HOUR.getBucketEnd(start) - RollupTier.ONE_HOUR.getResolution(), END_TIME, step, 0, null, null, Collections.singletonList(source), false);
+        assertEquals(1, fetchResults.getColumns().keySet().size());
+
+        final long[] timestamps = fetchResults.getTimestamps();
+        final double[] values = fetchResults.getColumns().get("icmp");
+        boolean backfilled = false;
+        for (int i = 0; i < timestamps.length; i++) {
+            if (Double.isNaN(values[i])) {
+                continue;
+            }
+            if (timestamps[i] > gapStart + step && timestamps[i] <= gapEnd) {
+                assertEquals(7.0, values[i], 0.0001);
+                backfilled = true;
+            } else if (timestamps[i] <= gapStart || timestamps[i] > gapEnd + step) {
+                assertEquals(33.0, values[i], 0.0001);
+            }
+        }
+        assertTrue(backfilled);
+
+        verify(resourceDao, atLeastOnce()).getResourceById(any(ResourceId.class));
+    }
+
+    private static void assertValues(final double expected, final double[] values) {
+        int count = 0;
+        for (double value : values) {
+            if (!Double.isNaN(value)) {
+                assertEquals(expected, value, 0.0001);
+                count++;
+            }
+        }
+        assertTrue(count > 0);
+    }
+
     public Source createMockResource(final String label, final String attr, final String node) throws StorageException {
         return createMockResource(label, attr, node, true);
     }
@@ -0,0 +1,192 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2024 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2024 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.timeseries.samplewrite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opennms.integration.api.v1.timeseries.IntrinsicTagNames;
+import org.opennms.integration.api.v1.timeseries.MetaTagNames;
+import org.opennms.integration.api.v1.timeseries.Metric;
+import org.opennms.integration.api.v1.timeseries.Sample;
+import org.opennms.integration.api.v1.timeseries.immutables.ImmutableMetric;
+import org.opennms.integration.api.v1.timeseries.immutables.ImmutableSample;
+
+public class SampleCodecTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void canRoundtripSamples() throws IOException {
+        final SampleCodec codec = new SampleCodec(new MetricDictionary(null), bytes -> null);
+
+        final List<Sample> samples = createSamples(Instant.ofEpochMilli(1_600_000_000_000L));
+        // Out of order, with sub-millisecond precision and special values
+        samples.add(sample(createMetric("x", "eth1"), Instant.ofEpochSecond(1_500_000_000L, 123_456_789L), Double.NaN));
+        samples.add(sample(createMetric("x", "eth2"), Instant.ofEpochMilli(1_600_000_000_001L), Double.NEGATIVE_INFINITY));
+
+        assertEquals(samples, codec.decode(codec.encode(samples)));
+        assertEquals(Collections.emptyList(), codec.decode(codec.encode(Collections.emptyList())));
+    }
+
+    @Test
+    public void storesMetricsOnce() throws IOException {
+        final SampleCodec codec = new SampleCodec(new MetricDictionary(null), bytes -> null);
+        final List<Sample> samples = createSamples(Instant.ofEpochMilli(1_600_000_000_000L));
+
+        final byte[] bytes = codec.encode(samples);
+        // After the first sample: one byte for the id, one for the time and eight for the value
+        assertTrue(bytes.length <= 32 + (samples.size() - 1) * 10);
+        assertEquals(samples, codec.decode(bytes));
+    }
+
+    @Test
+    public void canDecodeBatchesFromPreviousRun() throws IOException {
+        final Path file = folder.getRoot().toPath().resolve("metrics");
+        final List<Sample> samples = createSamples(Instant.ofEpochMilli(1_600_000_000_000L));
+
+        final byte[] bytes;
+        try (MetricDictionary dictionary = new MetricDictionary(file)) {
+            bytes = new SampleCodec(dictionary, b -> null).encode(samples);
+        }
+
+        // Simulate a crash while a metric was being added
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.wrap(new byte[] { 0, 0, 1, 0, 42 }));
+        }
+
+        try (MetricDictionary dictionary = new MetricDictionary(file)) {
+            assertEquals(samples.size(), dictionary.size());
+            final SampleCodec codec = new SampleCodec(dictionary, b -> null);
+            assertEquals(samples, codec.decode(bytes));
+
+            // New metrics are appended after the ones that were loaded
+            final Metric metric = createMetric("y", "eth0");
+            final int id = dictionary.getId(metric);
+            assertEquals(samples.size(), id);
+            assertEquals(id, dictionary.getId(createMetric("y", "eth0")));
+            assertEquals(0, dictionary.getId(createMetric("x", "eth0")));
+        }
+
+        try (MetricDictionary dictionary = new MetricDictionary(file)) {
+            assertEquals(samples.size() + 1, dictionary.size());
+            assertEquals(createMetric("y", "eth0"), dictionary.getMetric(samples.size()));
+            dictionary.clear();
+        }
+
+        try (MetricDictionary dictionary = new MetricDictionary(file)) {
+            assertEquals(0, dictionary.size());
+        }
+    }
+
+    @Test
+    public void clearsDictionaryOnlyWhenUnused() throws IOException {
+        final Path file = folder.getRoot().toPath().resolve("metrics");
+        try (MetricDictionary dictionary = new MetricDictionary(file)) {
+            assertFalse(dictionary.clearIfUnused(() -> true));
+
+            final SampleCodec codec = new SampleCodec(dictionary, b -> null);
+            final List<Sample> samples = createSamples(Instant.ofEpochMilli(1_600_000_000_000L));
+            final byte[] bytes = codec.encode(samples);
+            final long fileSize = Files.size(file);
+            assertTrue(fileSize > 0);
+
+            assertFalse(dictionary.clearIfUnused(() -> false));
+            assertEquals(samples.size(), dictionary.size());
+            assertEquals(samples, codec.decode(bytes));
+
+            assertTrue(dictionary.clearIfUnused(() -> true));
+            assertEquals(0, dictionary.size());
+            assertEquals(0, Files.size(file));
+
+            // Metrics are added again by the next batch that is encoded
+            codec.encode(samples);
+            assertEquals(samples.size(), dictionary.size());
+            assertEquals(fileSize, Files.size(file));
+        }
+    }
+
+    @Test
+    public void distinguishesMetricsByMetaTags() throws IOException {
+        final MetricDictionary dictionary = new MetricDictionary(null);
+        final int id = dictionary.getId(createMetric("x", "eth0"));
+        final Metric other = ImmutableMetric.builder()
+                .intrinsicTag(IntrinsicTagNames.resourceId, "snmp/1/eth0")
+                .intrinsicTag(IntrinsicTagNames.name, "x")
+                .metaTag(MetaTagNames.mtype, Metric.Mtype.gauge.name())
+                .build();
+        assertEquals(id + 1, dictionary.getId(other));
+        assertEquals(id, dictionary.getId(createMetric("x", "eth0")));
+    }
+
+    @Test
+    public void delegatesLegacyBatches() throws IOException {
+        final List<Sample> legacy = new ArrayList<>();
+        final SampleCodec codec = new SampleCodec(new MetricDictionary(null), bytes -> legacy);
+        assertSame(legacy, codec.decode(new byte[] { 0x00, 0x01, 0x02, 0x03, 0x04, 0x05 }));
+    }
+
+    private static List<Sample> createSamples(final Instant start) {
+        final List<Sample> samples = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            samples.add(sample(createMetric("x", "eth" + i), start.plusMillis(i), i * 1.5d));
+        }
+        return samples;
+    }
+
+    private static Sample sample(final Metric metric, final Instant time, final double value) {
+        return ImmutableSample.builder().metric(metric).time(time).value(value).build();
+    }
+
+    private static Metric createMetric(final String name, final String instance) {
+        return ImmutableMetric.builder()
+                .intrinsicTag(IntrinsicTagNames.resourceId, "snmp/1/" + instance)
+                .intrinsicTag(IntrinsicTagNames.name, name)
+                .metaTag(MetaTagNames.mtype, Metric.Mtype.counter.name())
+                .externalTag("host", "localhost")
+                .build();
+    }
+}
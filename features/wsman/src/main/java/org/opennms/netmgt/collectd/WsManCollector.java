@@ -184,7 +184,7 @@ public class WsManCollector extends AbstractRemoteServiceCollector {
             }
         }
 
-        return collectionSetBuilder.build();
+        return collectionSetBuilder.buildCollectionSet();
     }
 
     private void collectGroupUsing(Group group, CollectionAgent agent, WSManClient client, int retries, CollectionSetBuilder builder) throws CollectionException {
@@ -435,7 +435,7 @@ public class VmwareCimCollector extends AbstractRemoteServiceCollector {
         if (collection.getVmwareCimGroup().length < 1) {
             logger.info("No groups to collect. Returning empty collection set.");
             builder.withStatus(CollectionStatus.SUCCEEDED);
-            return builder.build();
+            return builder.buildCollectionSet();
         }
 
         try (final VmwareViJavaAccess vmwareViJavaAccess = new VmwareViJavaAccess(vmwareServer)) {
@@ -468,7 +468,7 @@ public class VmwareCimCollector extends AbstractRemoteServiceCollector {
                             cimList = vmwareViJavaAccess.queryCimObjects(hostSystem, cimClass, InetAddressUtils.str(agent.getAddress()));
                         } catch (Exception e) {
                             logger.warn("Error retrieving CIM values from host system '{}'. Error message: '{}'", vmwareManagedObjectId, e.getMessage());
-                            return builder.build();
+                            return builder.buildCollectionSet();
                         }
                         cimObjects.put(cimClass, cimList);
                     }
@@ -514,12 +514,12 @@ public class VmwareCimCollector extends AbstractRemoteServiceCollector {
             }
         } catch (MalformedURLException e) {
             logger.warn("Error connecting VMware management server '{}': '{}' exception: {} cause: '{}'", vmwareManagementServer, e.getMessage(), e.getClass().getName(), e.getCause());
-            return builder.build();
+            return builder.buildCollectionSet();
         } catch (RemoteException e) {
             logger.warn("Error connecting VMware management server '{}': '{}' exception: {} cause: '{}'", vmwareManagementServer, e.getMessage(), e.getClass().getName(), e.getCause());
-            return builder.build();
+            return builder.buildCollectionSet();
         }
-        return builder.build();
+        return builder.buildCollectionSet();
     }
 
     /**
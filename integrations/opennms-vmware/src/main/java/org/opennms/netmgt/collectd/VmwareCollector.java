@@ -218,7 +218,7 @@ public class VmwareCollector extends AbstractRemoteServiceCollector {
         if (collection.getVmwareGroup().length < 1) {
             logger.info("No groups to collect. Returning empty collection set.");
             builder.withStatus(CollectionStatus.SUCCEEDED);
-            return builder.build();
+            return builder.buildCollectionSet();
         }
 
         try (final VmwareViJavaAccess vmwareViJavaAccess = new VmwareViJavaAccess(vmwareServer)) {
@@ -229,7 +229,7 @@ public class VmwareCollector extends AbstractRemoteServiceCollector {
                 vmwarePerformanceValues = vmwareViJavaAccess.queryPerformanceValues(managedEntity);
             } catch (RemoteException e) {
                 logger.warn("Error retrieving performance values from VMware management server '" + vmwareManagementServer + "' for managed object '" + vmwareManagedObjectId + "'", e.getMessage());
-                return builder.build();
+                return builder.buildCollectionSet();
             }
             for (final VmwareGroup vmwareGroup : collection.getVmwareGroup()) {
                 final NodeLevelResource nodeResource = new NodeLevelResource(agent.getNodeId());
@@ -288,12 +288,12 @@ public class VmwareCollector extends AbstractRemoteServiceCollector {
             builder.withStatus(CollectionStatus.SUCCEEDED);
         } catch (MalformedURLException e) {
             logger.warn("Error connecting VMware management server '{}': '{}' exception: {} cause: '{}'", vmwareManagementServer, e.getMessage(), e.getClass().getName(), e.getCause());
-            return builder.build();
+            return builder.buildCollectionSet();
         } catch (RemoteException e) {
             logger.warn("Error connecting VMware management server '{}': '{}' exception: {} cause: '{}'", vmwareManagementServer, e.getMessage(), e.getClass().getName(), e.getCause());
-            return builder.build();
+            return builder.buildCollectionSet();
         }
-        return builder.build();
+        return builder.buildCollectionSet();
     }
 
     /**
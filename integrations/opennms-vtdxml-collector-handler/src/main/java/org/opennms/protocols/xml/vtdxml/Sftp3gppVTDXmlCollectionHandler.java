@@ -125,7 +125,7 @@ public class Sftp3gppVTDXmlCollectionHandler extends AbstractVTDXmlCollectionHan
                     }
                 }
             }
-            return builder.build();
+            return builder.buildCollectionSet();
         } catch (Exception e) {
             status = "failed";
             throw new CollectionException(e.getMessage(), e);
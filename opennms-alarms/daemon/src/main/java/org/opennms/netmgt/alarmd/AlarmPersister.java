@@ -43,7 +43,9 @@ public interface AlarmPersister {
      * <p>persist</p>
      *
      * @param event a {@link org.opennms.netmgt.xml.event.Event} object
-     * @return the new/updated {@link OnmsAlarm}
+     * @return the new/updated {@link OnmsAlarm}, or null if the event does not raise an alarm or, with
+     * the write-behind enabled, if its reduction into an existing alarm was deferred. Deferred reductions
+     * are written, and notified to the {@link org.opennms.netmgt.dao.api.AlarmEntityNotifier}, later on.
      */
     OnmsAlarm persist(Event event);
 
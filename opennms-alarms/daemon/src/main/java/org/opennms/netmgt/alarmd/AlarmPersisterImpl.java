@@ -29,6 +29,7 @@
 package org.opennms.netmgt.alarmd;
 
 import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collection;
@@ -37,10 +38,14 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
 import java.util.concurrent.locks.Lock;
 import java.util.stream.Collectors;
 
 import org.opennms.core.sysprops.SystemProperties;
+import org.opennms.netmgt.alarmd.AlarmReductionIndex.IndexedAlarm;
+import org.opennms.netmgt.alarmd.AlarmReductionIndex.PendingReductions;
 import org.opennms.netmgt.alarmd.api.AlarmPersisterExtension;
 import org.opennms.netmgt.dao.api.AlarmDao;
 import org.opennms.netmgt.dao.api.AlarmEntityNotifier;
@@ -55,6 +60,8 @@ import org.opennms.netmgt.xml.event.UpdateField;
 import org.opennms.netmgt.xml.eventconf.LogDestType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.transaction.support.TransactionOperations;
 
@@ -68,7 +75,7 @@ import com.google.common.util.concurrent.Striped;
  * @author <a href="mailto:david@opennms.org">David Hustace</a>
  * @version $Id: $
  */
-public class AlarmPersisterImpl implements AlarmPersister {
+public class AlarmPersisterImpl implements AlarmPersister, InitializingBean, DisposableBean {
     private static final Logger LOG = LoggerFactory.getLogger(AlarmPersisterImpl.class);
 
     public static final String RELATED_REDUCTION_KEY_PREFIX = "related-reductionKey";
@@ -77,6 +84,19 @@ public class AlarmPersisterImpl implements AlarmPersister {
     protected static boolean NEW_IF_CLEARED = Boolean.getBoolean("org.opennms.alarmd.newIfClearedAlarmExists");
     protected static boolean LEGACY_ALARM_STATE = Boolean.getBoolean("org.opennms.alarmd.legacyAlarmState");
 
+    /**
+     * When enabled, events which only reduce into an already known alarm are recorded against the
+     * {@link AlarmReductionIndex} and written to the database in batches instead of one transaction per event.
+     */
+    public static final String WRITE_BEHIND_SYS_PROP = "org.opennms.alarmd.writeBehind";
+    protected static boolean WRITE_BEHIND = Boolean.getBoolean(WRITE_BEHIND_SYS_PROP);
+
+    public static final String WRITE_BEHIND_INTERVAL_MS_SYS_PROP = "org.opennms.alarmd.writeBehind.intervalMs";
+    protected static final long WRITE_BEHIND_INTERVAL_MS = SystemProperties.getLong(WRITE_BEHIND_INTERVAL_MS_SYS_PROP, 250L);
+
+    public static final String WRITE_BEHIND_BATCH_SIZE_SYS_PROP = "org.opennms.alarmd.writeBehind.batchSize";
+    protected static final int WRITE_BEHIND_BATCH_SIZE = SystemProperties.getInteger(WRITE_BEHIND_BATCH_SIZE_SYS_PROP, 500);
+
     @Autowired
     private AlarmDao m_alarmDao;
 
@@ -92,6 +112,9 @@ public class AlarmPersisterImpl implements AlarmPersister {
     @Autowired
     private AlarmEntityNotifier m_alarmEntityNotifier;
 
+    @Autowired(required = false)
+    private AlarmReductionIndex m_reductionIndex;
+
     private Striped<Lock> lockStripes = StripedExt.fairLock(NUM_STRIPE_LOCKS);
 
     private final Set<AlarmPersisterExtension> extensions = Sets.newConcurrentHashSet();
@@ -100,6 +123,39 @@ public class AlarmPersisterImpl implements AlarmPersister {
     
     private boolean m_legacyAlarmState = LEGACY_ALARM_STATE;
 
+    private boolean m_writeBehind = WRITE_BEHIND;
+
+    private Timer m_writeBehindTimer;
+
+    @Override
+    public void afterPropertiesSet() {
+        if (m_writeBehind) {
+            if (m_reductionIndex == null) {
+                m_reductionIndex = new AlarmReductionIndex();
+            }
+            m_writeBehindTimer = new Timer("AlarmPersister-WriteBehind", true);
+            m_writeBehindTimer.schedule(new TimerTask() {
+                @Override
+                public void run() {
+                    try {
+                        flushReductions();
+                    } catch (Exception e) {
+                        LOG.error("Error while writing reduced events to alarms.", e);
+                    }
+                }
+            }, WRITE_BEHIND_INTERVAL_MS, WRITE_BEHIND_INTERVAL_MS);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (m_writeBehindTimer != null) {
+            m_writeBehindTimer.cancel();
+            m_writeBehindTimer = null;
+            flushReductions();
+        }
+    }
+
     @Override
     public OnmsAlarm persist(Event event) {
         Objects.requireNonNull(event, "Cannot create alarm from null event.");
@@ -118,6 +174,9 @@ public class AlarmPersisterImpl implements AlarmPersister {
         final OnmsAlarm alarm;
         try {
             locks.forEach(Lock::lock);
+            if (m_writeBehind) {
+                return persistWithIndex(event);
+            }
             // Process the alarm inside a transaction
             alarm = m_transactionOperations.execute((action) -> addOrReduceEventAsAlarm(event));
         } finally {
@@ -127,6 +186,138 @@ public class AlarmPersisterImpl implements AlarmPersister {
         return alarm;
     }
 
+    /**
+     * Processes the event using the reduction index. Must be called while holding the locks for the event.
+     *
+     * @return the new or updated alarm, or null if the reduction was recorded to be written later
+     */
+    private OnmsAlarm persistWithIndex(Event event) {
+        final IndexedAlarm indexed = m_reductionIndex.get(event.getAlarmData().getReductionKey());
+        if (indexed != null && canReduceLater(event, indexed)) {
+            LOG.debug("persistWithIndex: reductionKey:{} found in index, deferring reduction to alarm: {}", indexed.getReductionKey(), indexed.getAlarmId());
+            m_reductionIndex.reduce(indexed, event);
+            return null;
+        }
+
+        // Any alarm touched by the event must reflect the reductions recorded so far
+        final List<PendingReductions> pending = new ArrayList<>(2);
+        for (final String key : getLockKeys(event)) {
+            final IndexedAlarm alarm = m_reductionIndex.get(key);
+            final PendingReductions reductions = alarm != null ? alarm.drain() : null;
+            if (reductions != null) {
+                pending.add(reductions);
+            }
+        }
+
+        final OnmsAlarm alarm;
+        try {
+            alarm = m_transactionOperations.execute((action) -> {
+                pending.forEach(this::applyReductions);
+                return addOrReduceEventAsAlarm(event);
+            });
+        } catch (RuntimeException e) {
+            pending.forEach(m_reductionIndex::restore);
+            throw e;
+        }
+
+        m_reductionIndex.index(alarm);
+        return alarm;
+    }
+
+    /**
+     * Whether the event would only increment the counter and replace the last event of the given alarm, so the
+     * update can be coalesced with other reductions.
+     */
+    private boolean canReduceLater(Event event, IndexedAlarm indexed) {
+        return indexed.isValid()
+                && !indexed.isSituation()
+                && !isResolutionEvent(event)
+                && !Objects.equals(indexed.getAlarmType(), OnmsAlarm.RESOLUTION_TYPE)
+                && Objects.equals(indexed.getAlarmType(), event.getAlarmData().getAlarmType())
+                && !(m_createNewAlarmIfClearedAlarmExists && OnmsSeverity.CLEARED.equals(indexed.getSeverity()))
+                && !event.getAlarmData().hasUpdateFields()
+                && !event.getAlarmData().isAutoClean()
+                && event.getParmCollection().stream().noneMatch(AlarmPersisterImpl::isRelatedReductionKeyWithContent)
+                && extensions.isEmpty();
+    }
+
+    /**
+     * Writes the pending reductions of the alarms in the reduction index.
+     *
+     * The reductions are written in batches, each one in a single transaction while holding the locks of the alarms.
+     */
+    protected void flushReductions() {
+        while (m_reductionIndex.hasDirty()) {
+            final List<IndexedAlarm> alarms = m_reductionIndex.pollDirty(WRITE_BEHIND_BATCH_SIZE);
+            final List<String> keys = new ArrayList<>(alarms.size());
+            alarms.forEach(alarm -> keys.add(alarm.getReductionKey()));
+
+            final Iterable<Lock> locks = lockStripes.bulkGet(keys);
+            try {
+                locks.forEach(Lock::lock);
+
+                final List<PendingReductions> pending = new ArrayList<>(alarms.size());
+                for (final IndexedAlarm alarm : alarms) {
+                    final PendingReductions reductions = alarm.drain();
+                    if (reductions != null) {
+                        pending.add(reductions);
+                    }
+                }
+                if (pending.isEmpty()) {
+                    continue;
+                }
+
+                try {
+                    m_transactionOperations.execute((action) -> {
+                        pending.forEach(this::applyReductions);
+                        return null;
+                    });
+                } catch (RuntimeException e) {
+                    pending.forEach(m_reductionIndex::restore);
+                    throw e;
+                }
+                LOG.debug("flushReductions: wrote reductions for {} alarms", pending.size());
+            } finally {
+                locks.forEach(Lock::unlock);
+            }
+        }
+    }
+
+    /**
+     * Applies the coalesced reductions to the alarm, equivalent to reducing each of the events in order.
+     */
+    private void applyReductions(PendingReductions reductions) {
+        final OnmsAlarm alarm = m_alarmDao.get(reductions.getAlarm().getAlarmId());
+        if (alarm == null) {
+            // The alarm was deleted without us being notified, process the events again as if they had never been
+            // coalesced so they raise a new alarm instead of getting lost
+            LOG.info("applyReductions: alarm with id {} was deleted before {} reduced events could be applied, processing them again.",
+                    reductions.getAlarm().getAlarmId(), reductions.getCount());
+            m_reductionIndex.invalidate(reductions.getAlarm());
+            for (final Event event : reductions.getEvents()) {
+                try {
+                    addOrReduceEventAsAlarm(event);
+                } catch (IllegalStateException e) {
+                    LOG.warn("applyReductions: {}", e.getMessage());
+                }
+            }
+            return;
+        }
+
+        final OnmsEvent lastEvent = m_eventDao.get(reductions.getLastEventId());
+        if (lastEvent != null) {
+            alarm.setLastEvent(lastEvent);
+            alarm.setLastEventTime(lastEvent.getEventTime());
+            alarm.setLogMsg(lastEvent.getEventLogMsg());
+        }
+        alarm.setCounter(alarm.getCounter() + reductions.getCount());
+
+        m_alarmDao.update(alarm);
+        m_eventDao.setAlarmForEvents(alarm, reductions.getEventIds());
+
+        m_alarmEntityNotifier.didUpdateAlarmWithReducedEvent(alarm);
+    }
+
     private OnmsAlarm addOrReduceEventAsAlarm(Event event) throws IllegalStateException {
         
         final OnmsEvent persistedEvent = m_eventDao.get(event.getDbid());
@@ -527,4 +718,20 @@ public class AlarmPersisterImpl implements AlarmPersister {
     public void setLegacyAlarmState(boolean legacyAlarmState) {
         m_legacyAlarmState = legacyAlarmState;
     }
+
+    public boolean isWriteBehind() {
+        return m_writeBehind;
+    }
+
+    public void setWriteBehind(boolean writeBehind) {
+        m_writeBehind = writeBehind;
+    }
+
+    public AlarmReductionIndex getReductionIndex() {
+        return m_reductionIndex;
+    }
+
+    public void setReductionIndex(AlarmReductionIndex reductionIndex) {
+        m_reductionIndex = reductionIndex;
+    }
 }
@@ -0,0 +1,293 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2024 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2024 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.alarmd;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.opennms.netmgt.dao.api.DefaultAlarmEntityListener;
+import org.opennms.netmgt.model.OnmsAlarm;
+import org.opennms.netmgt.model.OnmsSeverity;
+import org.opennms.netmgt.xml.event.Event;
+
+/**
+ * In-memory index of the alarms known to alarmd, keyed by their reduction key.
+ *
+ * The index is used by the {@link AlarmPersisterImpl} to reduce duplicate events into existing alarms without
+ * looking up and updating the alarm in the database for every event. Reductions are recorded against the indexed
+ * alarm and applied to the database in batches.
+ *
+ * Alarms are added to the index after they were created or updated by the persister. Entries are invalidated when
+ * the alarm is changed elsewhere in a way that affects the reduction, so that the next event is processed against
+ * the database again.
+ */
+public class AlarmReductionIndex extends DefaultAlarmEntityListener {
+
+    private final Map<String, IndexedAlarm> alarmsByReductionKey = new ConcurrentHashMap<>();
+
+    private final Queue<IndexedAlarm> dirtyAlarms = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The state of an alarm as last seen by the persister together with the reductions which have not been written
+     * to the database yet.
+     */
+    static class IndexedAlarm {
+        private final int alarmId;
+        private final String reductionKey;
+        private final Integer alarmType;
+        private final OnmsSeverity severity;
+        private final boolean situation;
+
+        private volatile boolean valid = true;
+
+        private boolean dirty = false;
+        private final List<Event> events = new ArrayList<>();
+
+        private IndexedAlarm(final OnmsAlarm alarm) {
+            this.alarmId = alarm.getId();
+            this.reductionKey = alarm.getReductionKey();
+            this.alarmType = alarm.getAlarmType();
+            this.severity = alarm.getSeverity();
+            this.situation = !alarm.getRelatedAlarms().isEmpty();
+        }
+
+        int getAlarmId() {
+            return alarmId;
+        }
+
+        String getReductionKey() {
+            return reductionKey;
+        }
+
+        Integer getAlarmType() {
+            return alarmType;
+        }
+
+        OnmsSeverity getSeverity() {
+            return severity;
+        }
+
+        boolean isSituation() {
+            return situation;
+        }
+
+        boolean isValid() {
+            return valid;
+        }
+
+        /**
+         * Records the reduction of the given event into the alarm.
+         *
+         * @return true if the alarm had no pending reductions before
+         */
+        synchronized boolean reduce(final Event event) {
+            events.add(event);
+            if (dirty) {
+                return false;
+            }
+            dirty = true;
+            return true;
+        }
+
+        /**
+         * Removes and returns the pending reductions, or null if there are none.
+         */
+        synchronized PendingReductions drain() {
+            if (!dirty) {
+                return null;
+            }
+            final PendingReductions pending = new PendingReductions(this, new ArrayList<>(events));
+            dirty = false;
+            events.clear();
+            return pending;
+        }
+
+        /**
+         * Puts back reductions which could not be written, ahead of any reductions recorded in the meantime.
+         *
+         * @return true if the alarm had no pending reductions before
+         */
+        synchronized boolean restore(final PendingReductions pending) {
+            events.addAll(0, pending.getEvents());
+            if (dirty) {
+                return false;
+            }
+            dirty = true;
+            return true;
+        }
+    }
+
+    /**
+     * Reductions recorded against an alarm which have been drained for writing.
+     *
+     * The reduced events are kept, so they can be processed again should the alarm have been deleted in the meantime.
+     */
+    static class PendingReductions {
+        private final IndexedAlarm alarm;
+        private final List<Event> events;
+
+        private PendingReductions(final IndexedAlarm alarm, final List<Event> events) {
+            this.alarm = alarm;
+            this.events = Collections.unmodifiableList(events);
+        }
+
+        IndexedAlarm getAlarm() {
+            return alarm;
+        }
+
+        int getCount() {
+            return events.size();
+        }
+
+        List<Event> getEvents() {
+            return events;
+        }
+
+        List<Integer> getEventIds() {
+            final List<Integer> eventIds = new ArrayList<>(events.size());
+            events.forEach(event -> eventIds.add(event.getDbid()));
+            return eventIds;
+        }
+
+        Integer getLastEventId() {
+            return events.get(events.size() - 1).getDbid();
+        }
+    }
+
+    /**
+     * Returns the indexed alarm for the given reduction key, or null if there is none.
+     */
+    IndexedAlarm get(final String reductionKey) {
+        return reductionKey == null ? null : alarmsByReductionKey.get(reductionKey);
+    }
+
+    /**
+     * Adds or replaces the entry for the given alarm.
+     *
+     * Pending reductions of a replaced entry must have been written before.
+     */
+    void index(final OnmsAlarm alarm) {
+        if (alarm == null || alarm.getId() == null || alarm.getReductionKey() == null) {
+            return;
+        }
+        alarmsByReductionKey.put(alarm.getReductionKey(), new IndexedAlarm(alarm));
+    }
+
+    /**
+     * Records the reduction of the given event into the indexed alarm.
+     */
+    void reduce(final IndexedAlarm alarm, final Event event) {
+        if (alarm.reduce(event)) {
+            dirtyAlarms.add(alarm);
+        }
+    }
+
+    /**
+     * Puts back reductions which could not be written.
+     */
+    void restore(final PendingReductions pending) {
+        if (pending.getAlarm().restore(pending)) {
+            dirtyAlarms.add(pending.getAlarm());
+        }
+    }
+
+    /**
+     * Removes up to the given number of alarms with pending reductions from the queue of dirty alarms.
+     *
+     * The reductions of the returned alarms may have been drained in the meantime.
+     */
+    List<IndexedAlarm> pollDirty(final int max) {
+        final List<IndexedAlarm> alarms = new ArrayList<>(Math.min(max, 64));
+        IndexedAlarm alarm;
+        while (alarms.size() < max && (alarm = dirtyAlarms.poll()) != null) {
+            alarms.add(alarm);
+        }
+        return alarms;
+    }
+
+    boolean hasDirty() {
+        return !dirtyAlarms.isEmpty();
+    }
+
+    int size() {
+        return alarmsByReductionKey.size();
+    }
+
+    void clear() {
+        alarmsByReductionKey.clear();
+    }
+
+    /**
+     * Removes the entry of the given alarm from the index. Pending reductions of the entry are still written.
+     */
+    void invalidate(final OnmsAlarm alarm, final String reductionKey) {
+        if (alarm == null || reductionKey == null) {
+            return;
+        }
+        final IndexedAlarm indexed = alarmsByReductionKey.get(reductionKey);
+        if (indexed != null && Objects.equals(indexed.getAlarmId(), alarm.getId())) {
+            invalidate(indexed);
+        }
+    }
+
+    /**
+     * Removes the given entry from the index, unless it was replaced already.
+     */
+    void invalidate(final IndexedAlarm indexed) {
+        indexed.valid = false;
+        alarmsByReductionKey.remove(indexed.getReductionKey(), indexed);
+    }
+
+    @Override
+    public void onAlarmSeverityUpdated(final OnmsAlarm alarm, final OnmsSeverity previousSeverity) {
+        invalidate(alarm, alarm.getReductionKey());
+    }
+
+    @Override
+    public void onAlarmArchived(final OnmsAlarm alarm, final String previousReductionKey) {
+        invalidate(alarm, previousReductionKey);
+    }
+
+    @Override
+    public void onAlarmDeleted(final OnmsAlarm alarm) {
+        invalidate(alarm, alarm.getReductionKey());
+    }
+
+    @Override
+    public void onRelatedAlarmsUpdated(final OnmsAlarm alarm, final Set<OnmsAlarm> previousRelatedAlarms) {
+        invalidate(alarm, alarm.getReductionKey());
+    }
+}
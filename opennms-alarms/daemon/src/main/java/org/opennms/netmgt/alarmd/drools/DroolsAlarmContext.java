@@ -33,16 +33,20 @@ import java.nio.file.Paths;
 import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
@@ -85,6 +89,10 @@ import com.swrve.ratelimitedlogger.RateLimitedLog;
  *
  * Atomic actions are used to update facts in working memory.
  *
+ * When a batch interval is configured, alarm callbacks are not submitted individually. Instead, the changes
+ * are accumulated, keeping only the latest change for every alarm, and applied to the working memory in a single
+ * atomic action per batch, so that the rules are evaluated once for the whole batch.
+ *
  * @author jwhite
  */
 public class DroolsAlarmContext extends ManagedDroolsContext implements AlarmLifecycleListener {
@@ -99,6 +107,19 @@ public class DroolsAlarmContext extends ManagedDroolsContext implements AlarmLif
     private static final long MAX_NUM_ACTIONS_IN_FLIGHT = SystemProperties.getLong(
             "org.opennms.netmgt.alarmd.drools.max_num_actions_in_flight", 5000);
 
+    /**
+     * Interval at which accumulated alarm changes are applied to the working memory.
+     * Changes are submitted individually when set to 0.
+     */
+    private static final long BATCH_INTERVAL_MS = SystemProperties.getLong(
+            "org.opennms.netmgt.alarmd.drools.batch_interval_ms", 0);
+
+    /**
+     * Number of accumulated alarm changes at which the batch is applied without waiting for the interval to elapse.
+     */
+    private static final int MAX_BATCH_SIZE = SystemProperties.getInteger(
+            "org.opennms.netmgt.alarmd.drools.max_batch_size", 1000);
+
     @Autowired
     private AlarmService alarmService;
 
@@ -122,6 +143,23 @@ public class DroolsAlarmContext extends ManagedDroolsContext implements AlarmLif
 
     private final Map<Integer, Map<Integer, AlarmAssociationAndFact>> alarmAssociationById = new HashMap<>();
 
+    /**
+     * Versions of the alarms in working memory. Unlike the fact maps, this one is read outside of the
+     * session and is used to skip the alarms of a snapshot which did not change.
+     */
+    private final Map<Integer, AlarmVersion> alarmVersionsById = new ConcurrentHashMap<>();
+
+    /**
+     * Alarm changes waiting to be applied, keyed by alarm id. A deletion is recorded with a null alarm.
+     */
+    private final Map<Integer, AlarmDelta> pendingDeltasById = new LinkedHashMap<>();
+
+    private long batchIntervalMs = BATCH_INTERVAL_MS;
+
+    private int maxBatchSize = MAX_BATCH_SIZE;
+
+    private java.util.Timer batchTimer;
+
     private final CountDownLatch seedSubmittedLatch = new CountDownLatch(1);
 
     private final AtomicLong atomicActionsInFlight = new AtomicLong(-1);
@@ -129,6 +167,7 @@ public class DroolsAlarmContext extends ManagedDroolsContext implements AlarmLif
     private final AtomicLong numSituationsFromLastSnapshot = new AtomicLong(-1);
     private final Meter atomicActionsDropped = new Meter();
     private final Meter atomicActionsQueued = new Meter();
+    private final Meter alarmDeltasCoalesced = new Meter();
 
     public DroolsAlarmContext() {
         this(getDefaultRulesFolder());
@@ -144,11 +183,13 @@ public class DroolsAlarmContext extends ManagedDroolsContext implements AlarmLif
             alarmsById.clear();
             acknowledgementsByAlarmId.clear();
             alarmAssociationById.clear();
+            alarmVersionsById.clear();
             for (FactHandle fact : kieSession.getFactHandles()) {
                 final Object objForFact = kieSession.getObject(fact);
                 if (objForFact instanceof OnmsAlarm) {
                     final OnmsAlarm alarmInSession = (OnmsAlarm)objForFact;
                     alarmsById.put(alarmInSession.getId(), new AlarmAndFact(alarmInSession, fact));
+                    alarmVersionsById.put(alarmInSession.getId(), new AlarmVersion(alarmInSession));
                 } else if (objForFact instanceof OnmsAcknowledgment) {
                     final OnmsAcknowledgment ackInSession = (OnmsAcknowledgment)objForFact;
                     acknowledgementsByAlarmId.put(ackInSession.getRefId(), new AlarmAcknowledgementAndFact(ackInSession, fact));
@@ -173,12 +214,44 @@ public class DroolsAlarmContext extends ManagedDroolsContext implements AlarmLif
         getMetrics().register("numSituationsFromLastSnapshot", (Gauge<Long>) numSituationsFromLastSnapshot::get);
         getMetrics().register("atomicActionsDropped", atomicActionsDropped);
         getMetrics().register("atomicActionsQueued", atomicActionsQueued);
+        getMetrics().register("alarmDeltasCoalesced", alarmDeltasCoalesced);
     }
 
     public static File getDefaultRulesFolder() {
         return Paths.get(ConfigFileConstants.getHome(), "etc", "alarmd", "drools-rules.d").toFile();
     }
 
+    @Override
+    public synchronized void start() {
+        super.start();
+        if (batchIntervalMs > 0 && batchTimer == null) {
+            batchTimer = new java.util.Timer("DroolsAlarmContext-Batch", true);
+            batchTimer.schedule(new TimerTask() {
+                @Override
+                public void run() {
+                    try {
+                        flushAlarmDeltas();
+                    } catch (Exception e) {
+                        LOG.error("Exception occurred while applying alarm changes.", e);
+                    }
+                }
+            }, batchIntervalMs, batchIntervalMs);
+        }
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (batchTimer != null) {
+            batchTimer.cancel();
+            batchTimer = null;
+        }
+        // Pending changes are dropped along with the session
+        synchronized (pendingDeltasById) {
+            pendingDeltasById.clear();
+        }
+        super.stop();
+    }
+
     @Override
     public void onStart() {
         final Thread seedThread = new Thread(() -> {
@@ -224,6 +297,18 @@ public class DroolsAlarmContext extends ManagedDroolsContext implements AlarmLif
      * @param atomicAction action to consider
      */
     private void executeAtomicallyWhenTransactionComplete(KieSession.AtomicAction atomicAction) {
+        executeWhenTransactionComplete(() -> submitOrRun(atomicAction));
+    }
+
+    /**
+     * Queues the given change to be applied with the next batch, when the transaction is complete and
+     * has been successfully committed. See {@link #executeAtomicallyWhenTransactionComplete(KieSession.AtomicAction)}.
+     */
+    private void addAlarmDeltaWhenTransactionComplete(AlarmDelta delta) {
+        executeWhenTransactionComplete(() -> addAlarmDelta(delta));
+    }
+
+    private void executeWhenTransactionComplete(Runnable runnable) {
         if (TransactionSynchronizationManager.isSynchronizationActive()) {
             TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
                 @Override
@@ -233,14 +318,61 @@ public class DroolsAlarmContext extends ManagedDroolsContext implements AlarmLif
                                 "The alarms facts in the session may be out of sync until the next snapshot.");
                         return;
                     }
-                    submitOrRun(atomicAction);
+                    runnable.run();
                 }
             });
         } else {
-            submitOrRun(atomicAction);
+            runnable.run();
         }
     }
 
+    private boolean isBatching() {
+        return batchIntervalMs > 0;
+    }
+
+    private void addAlarmDelta(AlarmDelta delta) {
+        final int numPendingDeltas;
+        synchronized (pendingDeltasById) {
+            // Only the latest change of an alarm needs to be applied
+            if (pendingDeltasById.remove(delta.getAlarmId()) != null) {
+                alarmDeltasCoalesced.mark();
+            }
+            pendingDeltasById.put(delta.getAlarmId(), delta);
+            numPendingDeltas = pendingDeltasById.size();
+        }
+        if (numPendingDeltas >= maxBatchSize) {
+            flushAlarmDeltas();
+        }
+    }
+
+    /**
+     * Applies all of the pending alarm changes to the working memory in a single atomic action.
+     */
+    @VisibleForTesting
+    void flushAlarmDeltas() {
+        final List<AlarmDelta> deltas;
+        synchronized (pendingDeltasById) {
+            if (pendingDeltasById.isEmpty()) {
+                return;
+            }
+            deltas = new ArrayList<>(pendingDeltasById.values());
+            pendingDeltasById.clear();
+        }
+
+        LOG.debug("Applying {} alarm changes.", deltas.size());
+        submitOrRun(kieSession -> {
+            for (AlarmDelta delta : deltas) {
+                if (delta.isDeleted()) {
+                    handleDeletedAlarmForAtomic(kieSession, delta.getAlarmId(), delta.getReductionKey());
+                    stateTracker.trackDeletedAlarm(delta.getAlarmId(), delta.getReductionKey());
+                } else {
+                    handleNewOrUpdatedAlarmForAtomic(kieSession, delta.getAlarm(), delta.getAck());
+                    stateTracker.trackNewOrUpdatedAlarm(delta.getAlarmId(), delta.getReductionKey());
+                }
+            }
+        });
+    }
+
     private void submitOrRun(KieSession.AtomicAction atomicAction) {
         if (fireThreadId.get() == Thread.currentThread().getId()) {
             // This is the fire thread! Let's execute the action immediately instead of deferring it.
@@ -276,24 +408,34 @@ public class DroolsAlarmContext extends ManagedDroolsContext implements AlarmLif
                 .filter(a -> a.getId() != null)
                 .collect(Collectors.toMap(OnmsAlarm::getId, a -> a));
 
+        // Only the alarms which are missing from working memory, or which changed since they were
+        // inserted, need to be reconciled
+        final Map<Integer, OnmsAlarm> changedAlarmsById = alarmsInDbById.values().stream()
+                .filter(a -> !new AlarmVersion(a).equals(alarmVersionsById.get(a.getId())))
+                .collect(Collectors.toMap(OnmsAlarm::getId, a -> a));
+
         // Eagerly initialize the alarms
-        for (OnmsAlarm alarm : alarms) {
+        for (OnmsAlarm alarm : changedAlarmsById.values()) {
             eagerlyInitializeAlarm(alarm);
         }
 
-        // Retrieve the acks from the database for the set of the alarms we've been given
-        final Map<Integer, OnmsAcknowledgment> acksByRefId = fetchAcks(alarms);
+        // Retrieve the acks from the database for the set of the alarms we need to reconcile
+        final Map<Integer, OnmsAcknowledgment> acksByRefId = fetchAcks(changedAlarmsById.values());
 
         // Track some stats
         final long numSituations = alarms.stream().filter(OnmsAlarm::isSituation).count();
         numAlarmsFromLastSnapshot.set(alarms.size() - numSituations);
         numSituationsFromLastSnapshot.set(numSituations);
 
+        // Apply any pending changes before the snapshot, so that the state tracker accounts for them
+        flushAlarmDeltas();
+
         submitOrRun(kieSession -> {
             final Set<Integer> alarmIdsInDb = alarmsInDbById.keySet();
+            final Set<Integer> changedAlarmIdsInDb = changedAlarmsById.keySet();
             final Set<Integer> alarmIdsInWorkingMem = alarmsById.keySet();
 
-            final Set<Integer> alarmIdsToAdd = Sets.difference(alarmIdsInDb, alarmIdsInWorkingMem).stream()
+            final Set<Integer> alarmIdsToAdd = Sets.difference(changedAlarmIdsInDb, alarmIdsInWorkingMem).stream()
                     // The snapshot contains an alarm which we don't have in working memory.
                     // It is possible that the alarm was in fact deleted some time after the
                     // snapshot was processed. We should only add it, if we did not explicitly
@@ -305,7 +447,7 @@ public class DroolsAlarmContext extends ManagedDroolsContext implements AlarmLif
                     // Only remove it from memory if the fact we have dates before the snapshot.
                     .filter(alarmId -> !stateTracker.wasAlarmWithIdUpdated(alarmId))
                     .collect(Collectors.toSet());
-            final Set<Integer> alarmIdsToUpdate = Sets.intersection(alarmIdsInWorkingMem, alarmIdsInDb).stream()
+            final Set<Integer> alarmIdsToUpdate = Sets.intersection(alarmIdsInWorkingMem, changedAlarmIdsInDb).stream()
                     // This stream contains the set of all alarms which are both in the snapshot
                     // and in working memory
                     .filter(alarmId -> {
@@ -315,7 +457,7 @@ public class DroolsAlarmContext extends ManagedDroolsContext implements AlarmLif
                             return false;
                         }
                         final OnmsAlarm alarmInMem = alarmAndFact.getAlarm();
-                        final OnmsAlarm alarmInDb = alarmsInDbById.get(alarmId);
+                        final OnmsAlarm alarmInDb = changedAlarmsById.get(alarmId);
                         // Only update the alarms if they are different
                         return shouldUpdateAlarmForSnapshot(alarmInMem, alarmInDb);
                     })
@@ -346,7 +488,7 @@ public class DroolsAlarmContext extends ManagedDroolsContext implements AlarmLif
             }
 
             final Set<OnmsAlarm> alarmsToUpdate = Sets.union(alarmIdsToAdd, alarmIdsToUpdate).stream()
-                    .map(alarmsInDbById::get)
+                    .map(changedAlarmsById::get)
                     .collect(Collectors.toSet());
             for (OnmsAlarm alarm : alarmsToUpdate) {
                 handleNewOrUpdatedAlarmForAtomic(kieSession, alarm, acksByRefId.get(alarm.getId()));
@@ -386,6 +528,11 @@ public class DroolsAlarmContext extends ManagedDroolsContext implements AlarmLif
         // Retrieve the acks from the database for the set of the alarms we've been given
         final Map<Integer, OnmsAcknowledgment> acksByRefId = fetchAcks(Collections.singletonList(alarm));
 
+        if (isBatching()) {
+            addAlarmDeltaWhenTransactionComplete(new AlarmDelta(alarm, acksByRefId.get(alarm.getId())));
+            return;
+        }
+
         executeAtomicallyWhenTransactionComplete(kieSession -> {
             handleNewOrUpdatedAlarmForAtomic(kieSession, alarm, acksByRefId.get(alarm.getId()));
             stateTracker.trackNewOrUpdatedAlarm(alarm.getId(), alarm.getReductionKey());
@@ -482,6 +629,7 @@ public class DroolsAlarmContext extends ManagedDroolsContext implements AlarmLif
             final FactHandle fact = kieSession.insert(alarm);
             alarmsById.put(alarm.getId(), new AlarmAndFact(alarm, fact));
         }
+        alarmVersionsById.put(alarm.getId(), new AlarmVersion(alarm));
 
         // Ack
         final AlarmAcknowledgementAndFact acknowledgmentFact = acknowledgementsByAlarmId.get(alarm.getId());
@@ -535,6 +683,11 @@ public class DroolsAlarmContext extends ManagedDroolsContext implements AlarmLif
             return;
         }
 
+        if (isBatching()) {
+            addAlarmDeltaWhenTransactionComplete(new AlarmDelta(alarmId, reductionKey));
+            return;
+        }
+
         executeAtomicallyWhenTransactionComplete(kieSession -> {
             handleDeletedAlarmForAtomic(kieSession, alarmId, reductionKey);
             stateTracker.trackDeletedAlarm(alarmId, reductionKey);
@@ -543,6 +696,7 @@ public class DroolsAlarmContext extends ManagedDroolsContext implements AlarmLif
 
     private void handleDeletedAlarmForAtomic(KieSession kieSession, int alarmId, String reductionKey) {
         final AlarmAndFact alarmAndFact = alarmsById.remove(alarmId);
+        alarmVersionsById.remove(alarmId);
         if (alarmAndFact != null) {
             LOG.debug("Deleting alarm from session: {}", alarmAndFact.getAlarm());
             kieSession.delete(alarmAndFact.getFact());
@@ -567,6 +721,88 @@ public class DroolsAlarmContext extends ManagedDroolsContext implements AlarmLif
         }
     }
 
+    /**
+     * The fields of an alarm which are compared when handling snapshots, see
+     * {@link #shouldUpdateAlarmForSnapshot(OnmsAlarm, OnmsAlarm)}.
+     */
+    @VisibleForTesting
+    static final class AlarmVersion {
+        private final Date lastEventTime;
+        private final Date ackTime;
+
+        AlarmVersion(OnmsAlarm alarm) {
+            // Copy the dates, the alarm may be modified once it's in working memory
+            this.lastEventTime = copyOf(alarm.getLastEventTime());
+            this.ackTime = copyOf(alarm.getAckTime());
+        }
+
+        private static Date copyOf(Date date) {
+            return date != null ? new Date(date.getTime()) : null;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof AlarmVersion)) {
+                return false;
+            }
+            final AlarmVersion that = (AlarmVersion) o;
+            return Objects.equals(lastEventTime, that.lastEventTime)
+                    && Objects.equals(ackTime, that.ackTime);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(lastEventTime, ackTime);
+        }
+    }
+
+    /**
+     * A change to an alarm which is waiting to be applied to the working memory.
+     */
+    private static final class AlarmDelta {
+        private final int alarmId;
+        private final String reductionKey;
+        private final OnmsAlarm alarm;
+        private final OnmsAcknowledgment ack;
+
+        private AlarmDelta(OnmsAlarm alarm, OnmsAcknowledgment ack) {
+            this.alarmId = alarm.getId();
+            this.reductionKey = alarm.getReductionKey();
+            this.alarm = alarm;
+            this.ack = ack;
+        }
+
+        private AlarmDelta(int alarmId, String reductionKey) {
+            this.alarmId = alarmId;
+            this.reductionKey = reductionKey;
+            this.alarm = null;
+            this.ack = null;
+        }
+
+        public int getAlarmId() {
+            return alarmId;
+        }
+
+        public String getReductionKey() {
+            return reductionKey;
+        }
+
+        public OnmsAlarm getAlarm() {
+            return alarm;
+        }
+
+        public OnmsAcknowledgment getAck() {
+            return ack;
+        }
+
+        public boolean isDeleted() {
+            return alarm == null;
+        }
+    }
+
     public void setAlarmService(AlarmService alarmService) {
         this.alarmService = alarmService;
     }
@@ -596,4 +832,12 @@ public class DroolsAlarmContext extends ManagedDroolsContext implements AlarmLif
     public void setAlarmDao(AlarmDao alarmDao) {
         this.alarmDao = alarmDao;
     }
+
+    public void setBatchIntervalMs(long batchIntervalMs) {
+        this.batchIntervalMs = batchIntervalMs;
+    }
+
+    public void setMaxBatchSize(int maxBatchSize) {
+        this.maxBatchSize = maxBatchSize;
+    }
 }
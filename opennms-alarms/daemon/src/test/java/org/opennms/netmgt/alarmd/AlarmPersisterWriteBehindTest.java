@@ -0,0 +1,237 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2024 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2024 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.alarmd;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.opennms.netmgt.dao.api.AlarmDao;
+import org.opennms.netmgt.dao.api.AlarmEntityNotifier;
+import org.opennms.netmgt.dao.api.EventDao;
+import org.opennms.netmgt.model.OnmsAlarm;
+import org.opennms.netmgt.model.OnmsEvent;
+import org.opennms.netmgt.model.OnmsSeverity;
+import org.opennms.netmgt.xml.event.AlarmData;
+import org.opennms.netmgt.xml.event.Event;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionOperations;
+
+public class AlarmPersisterWriteBehindTest {
+
+    private static final String REDUCTION_KEY = "uei.opennms.org/test:1";
+
+    private AlarmDao alarmDao;
+    private EventDao eventDao;
+    private AlarmEntityNotifier alarmEntityNotifier;
+    private AlarmReductionIndex reductionIndex;
+    private AlarmPersisterImpl alarmPersister;
+
+    private final Map<Integer, OnmsAlarm> alarms = new HashMap<>();
+
+    @Before
+    public void setUp() {
+        alarmDao = mock(AlarmDao.class);
+        eventDao = mock(EventDao.class);
+        alarmEntityNotifier = mock(AlarmEntityNotifier.class);
+        reductionIndex = new AlarmReductionIndex();
+
+        // Store alarms in memory and hand out ids on save
+        doAnswer(invocation -> {
+            final OnmsAlarm alarm = invocation.getArgument(0);
+            alarm.setId(alarms.size() + 1);
+            alarms.put(alarm.getId(), alarm);
+            return alarm.getId();
+        }).when(alarmDao).save(any(OnmsAlarm.class));
+        when(alarmDao.get(anyInt())).thenAnswer(invocation -> alarms.get(invocation.<Integer>getArgument(0)));
+        when(alarmDao.findByReductionKey(anyString())).thenAnswer(invocation -> alarms.values().stream()
+                .filter(a -> a.getReductionKey().equals(invocation.getArgument(0)))
+                .findFirst().orElse(null));
+
+        when(eventDao.get(anyInt())).thenAnswer(invocation -> {
+            final OnmsEvent event = new OnmsEvent();
+            event.setId(invocation.getArgument(0));
+            event.setEventTime(new Date(invocation.<Integer>getArgument(0) * 1000L));
+            event.setEventLogMsg("event #" + invocation.getArgument(0));
+            event.setEventSeverity(OnmsSeverity.MAJOR.getId());
+            return event;
+        });
+
+        final TransactionOperations transactionOperations = mock(TransactionOperations.class);
+        when(transactionOperations.execute(any())).thenAnswer(invocation ->
+                invocation.<TransactionCallback<?>>getArgument(0).doInTransaction(null));
+
+        alarmPersister = new AlarmPersisterImpl();
+        alarmPersister.setAlarmDao(alarmDao);
+        alarmPersister.setEventDao(eventDao);
+        alarmPersister.setAlarmChangeListener(alarmEntityNotifier);
+        alarmPersister.setTransactionOperations(transactionOperations);
+        alarmPersister.setReductionIndex(reductionIndex);
+        alarmPersister.setWriteBehind(true);
+    }
+
+    @Test
+    public void canCoalesceDuplicateReductions() {
+        // The first event creates the alarm
+        final OnmsAlarm alarm = alarmPersister.persist(event(1, REDUCTION_KEY, null, 1));
+        assertThat(alarm, notNullValue());
+        assertThat(alarm.getCounter(), equalTo(1));
+
+        // The duplicates are recorded without touching the database
+        for (int dbid = 2; dbid <= 10; dbid++) {
+            assertThat(alarmPersister.persist(event(dbid, REDUCTION_KEY, null, 1)), nullValue());
+        }
+        verify(alarmDao, times(1)).findByReductionKey(REDUCTION_KEY);
+        verify(alarmDao, never()).update(any(OnmsAlarm.class));
+        assertThat(alarm.getCounter(), equalTo(1));
+
+        // All of them are applied at once
+        alarmPersister.flushReductions();
+        assertThat(alarm.getCounter(), equalTo(10));
+        assertThat(alarm.getLastEvent().getId(), equalTo(10));
+        assertThat(alarm.getLastEventTime(), equalTo(new Date(10000L)));
+        assertThat(alarm.getLogMsg(), equalTo("event #10"));
+        verify(alarmDao, times(1)).update(alarm);
+        verify(alarmEntityNotifier, times(1)).didUpdateAlarmWithReducedEvent(alarm);
+
+        @SuppressWarnings("unchecked")
+        final ArgumentCaptor<Collection<Integer>> eventIds = ArgumentCaptor.forClass(Collection.class);
+        verify(eventDao, times(1)).setAlarmForEvents(eq(alarm), eventIds.capture());
+        assertThat(eventIds.getValue(), contains(2, 3, 4, 5, 6, 7, 8, 9, 10));
+
+        // Nothing left to write
+        alarmPersister.flushReductions();
+        verify(alarmDao, times(1)).update(alarm);
+    }
+
+    @Test
+    public void canApplyPendingReductionsBeforeResolution() {
+        final OnmsAlarm alarm = alarmPersister.persist(event(1, REDUCTION_KEY, null, 1));
+        alarmPersister.persist(event(2, REDUCTION_KEY, null, 1));
+        alarmPersister.persist(event(3, REDUCTION_KEY, null, 1));
+
+        // The resolution is processed immediately, after the pending reductions were applied
+        final OnmsAlarm resolved = alarmPersister.persist(event(4, "uei.opennms.org/test-clear:1", REDUCTION_KEY, 2));
+        assertThat(resolved, equalTo(alarm));
+        assertThat(alarm.getCounter(), equalTo(3));
+        assertThat(alarm.getSeverity(), equalTo(OnmsSeverity.CLEARED));
+        assertThat(alarm.getLastEvent().getId(), equalTo(4));
+
+        final InOrder inOrder = inOrder(eventDao, alarmDao);
+        inOrder.verify(eventDao).setAlarmForEvents(eq(alarm), any());
+        inOrder.verify(alarmDao).findByReductionKey(REDUCTION_KEY);
+
+        // The next trigger is not coalesced, as it resets the severity of the resolved alarm
+        assertThat(alarmPersister.persist(event(5, REDUCTION_KEY, null, 1)), equalTo(alarm));
+        assertThat(alarm.getCounter(), equalTo(4));
+    }
+
+    @Test
+    public void doesNotCoalesceIntoInvalidatedAlarms() {
+        final OnmsAlarm alarm = alarmPersister.persist(event(1, REDUCTION_KEY, null, 1));
+        alarmPersister.persist(event(2, REDUCTION_KEY, null, 1));
+
+        // The alarm is deleted, the pending reduction then raises a new alarm
+        reductionIndex.onAlarmDeleted(alarm);
+        assertThat(reductionIndex.size(), equalTo(0));
+        alarms.clear();
+        alarmPersister.flushReductions();
+        verify(eventDao, never()).setAlarmForEvents(any(), any());
+        final OnmsAlarm newAlarm = alarms.get(1);
+        assertThat(newAlarm, notNullValue());
+        assertThat(newAlarm.getLastEvent().getId(), equalTo(2));
+
+        // The next event is reduced into the new alarm
+        assertThat(alarmPersister.persist(event(3, REDUCTION_KEY, null, 1)), equalTo(newAlarm));
+        assertThat(newAlarm.getCounter(), equalTo(2));
+    }
+
+    @Test
+    public void canReplayReductionsOfAlarmsDeletedUnnoticed() {
+        final OnmsAlarm alarm = alarmPersister.persist(event(1, REDUCTION_KEY, null, 1));
+        for (int dbid = 2; dbid <= 4; dbid++) {
+            assertThat(alarmPersister.persist(event(dbid, REDUCTION_KEY, null, 1)), nullValue());
+        }
+
+        // The alarm is removed from the database without the index being told
+        alarms.clear();
+        alarmPersister.flushReductions();
+
+        // The stale entry is gone and the events were processed again, as if they had never been coalesced
+        assertThat(reductionIndex.size(), equalTo(0));
+        verify(eventDao, never()).setAlarmForEvents(any(), any());
+        final OnmsAlarm newAlarm = alarms.get(1);
+        assertThat(newAlarm, notNullValue());
+        assertThat(newAlarm, not(sameInstance(alarm)));
+        assertThat(newAlarm.getCounter(), equalTo(3));
+        assertThat(newAlarm.getLastEvent().getId(), equalTo(4));
+        verify(alarmEntityNotifier, times(2)).didCreateAlarm(any(OnmsAlarm.class));
+
+        // Subsequent events are no longer coalesced into the deleted alarm
+        assertThat(alarmPersister.persist(event(5, REDUCTION_KEY, null, 1)), equalTo(newAlarm));
+        assertThat(newAlarm.getCounter(), equalTo(4));
+    }
+
+    private static Event event(final int dbid, final String reductionKey, final String clearKey, final int alarmType) {
+        final AlarmData alarmData = new AlarmData();
+        alarmData.setReductionKey(reductionKey);
+        alarmData.setClearKey(clearKey);
+        alarmData.setAlarmType(alarmType);
+
+        final Event event = new Event();
+        event.setUei("uei.opennms.org/test");
+        event.setDbid(dbid);
+        event.setAlarmData(alarmData);
+        return event;
+    }
+}
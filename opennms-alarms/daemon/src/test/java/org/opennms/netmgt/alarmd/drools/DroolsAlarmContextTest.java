@@ -30,16 +30,57 @@ package org.opennms.netmgt.alarmd.drools;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.File;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 
+import org.junit.Before;
 import org.junit.Test;
+import org.kie.api.runtime.KieSession;
+import org.mockito.ArgumentCaptor;
+import org.opennms.netmgt.dao.api.AcknowledgmentDao;
+import org.opennms.netmgt.model.OnmsAcknowledgment;
 import org.opennms.netmgt.model.OnmsAlarm;
 
 public class DroolsAlarmContextTest {
 
+    private KieSession kieSession;
+    private AcknowledgmentDao acknowledgmentDao;
+    private DroolsAlarmContext dac;
+
+    @Before
+    public void setUp() {
+        kieSession = mock(KieSession.class);
+        acknowledgmentDao = mock(AcknowledgmentDao.class);
+        when(acknowledgmentDao.findLatestAckForRefId(anyInt())).thenReturn(Optional.empty());
+
+        // Capture the atomic actions instead of running a real session
+        dac = new DroolsAlarmContext(new File("target")) {
+            @Override
+            public boolean isStarted() {
+                return true;
+            }
+
+            @Override
+            public KieSession getKieSession() {
+                return kieSession;
+            }
+        };
+        dac.setAcknowledgmentDao(acknowledgmentDao);
+    }
+
     @Test
     public void canDetermineWhenAlarmShouldBeUpdatedForSnapshot() {
         // Mock alarms to be able to test all the code branches
@@ -65,4 +106,101 @@ public class DroolsAlarmContextTest {
         assertThat(DroolsAlarmContext.shouldUpdateAlarmForSnapshot(a2, a2), equalTo(false));
         assertThat(DroolsAlarmContext.shouldUpdateAlarmForSnapshot(a3, a3), equalTo(false));
     }
+
+    @Test
+    public void canCompareAlarmVersions() {
+        final OnmsAlarm a1 = alarm(1, 0);
+        final OnmsAlarm a2 = alarm(1, 0);
+        assertThat(new DroolsAlarmContext.AlarmVersion(a1), equalTo(new DroolsAlarmContext.AlarmVersion(a2)));
+
+        a2.setAlarmAckTime(new Date(0));
+        assertThat(new DroolsAlarmContext.AlarmVersion(a1), not(equalTo(new DroolsAlarmContext.AlarmVersion(a2))));
+
+        // The version is not affected by later changes to the alarm
+        final DroolsAlarmContext.AlarmVersion version = new DroolsAlarmContext.AlarmVersion(a1);
+        a1.getLastEventTime().setTime(1);
+        assertThat(version, not(equalTo(new DroolsAlarmContext.AlarmVersion(a1))));
+    }
+
+    @Test
+    public void canCoalesceAlarmChangesIntoBatches() {
+        // Flush manually
+        dac.setBatchIntervalMs(TimeUnit.MINUTES.toMillis(1));
+
+        final OnmsAlarm a1v1 = alarm(1, 1);
+        final OnmsAlarm a1v2 = alarm(1, 2);
+        final OnmsAlarm a1v3 = alarm(1, 3);
+        final OnmsAlarm a2 = alarm(2, 1);
+        dac.handleNewOrUpdatedAlarm(a1v1);
+        dac.handleNewOrUpdatedAlarm(a2);
+        dac.handleNewOrUpdatedAlarm(a1v2);
+        dac.handleDeletedAlarm(2, a2.getReductionKey());
+        dac.handleNewOrUpdatedAlarm(a1v3);
+        verify(kieSession, never()).submit(any());
+
+        // All of the changes are applied in a single action
+        dac.flushAlarmDeltas();
+        executeSubmittedAction();
+
+        // Only the latest version of the alarms made it to the session
+        verify(kieSession, times(1)).insert(a1v3);
+        verify(kieSession, never()).insert(a1v1);
+        verify(kieSession, never()).insert(a1v2);
+        verify(kieSession, never()).insert(a2);
+        verify(kieSession, times(1)).insert(any(OnmsAcknowledgment.class));
+        verify(kieSession, never()).delete(any());
+
+        // Nothing left to apply
+        dac.flushAlarmDeltas();
+        verify(kieSession, never()).submit(any());
+    }
+
+    @Test
+    public void canApplyBatchOnceFull() {
+        dac.setBatchIntervalMs(TimeUnit.MINUTES.toMillis(1));
+        dac.setMaxBatchSize(2);
+
+        dac.handleNewOrUpdatedAlarm(alarm(1, 1));
+        dac.handleNewOrUpdatedAlarm(alarm(1, 2));
+        verify(kieSession, never()).submit(any());
+        dac.handleNewOrUpdatedAlarm(alarm(2, 1));
+        verify(kieSession, times(1)).submit(any());
+    }
+
+    @Test
+    public void canSkipUnchangedAlarmsInSnapshot() {
+        dac.handleAlarmSnapshot(Arrays.asList(alarm(1, 1), alarm(2, 1), alarm(3, 1)));
+        executeSubmittedAction();
+        verify(kieSession, times(3)).insert(any(OnmsAlarm.class));
+
+        // Only the alarm which changed is reconciled, and only its ack is fetched
+        final OnmsAlarm a2 = alarm(2, 2);
+        dac.handleAlarmSnapshot(Arrays.asList(alarm(1, 1), a2, alarm(3, 1)));
+        verify(acknowledgmentDao, times(1)).findLatestAckForRefId(2);
+        executeSubmittedAction();
+        verify(kieSession, times(1)).insert(a2);
+        verify(kieSession, times(1)).insert(any(OnmsAlarm.class));
+
+        // Alarms missing from the snapshot are still removed
+        dac.handleAlarmSnapshot(Arrays.asList(alarm(1, 1), a2));
+        executeSubmittedAction();
+        verify(kieSession, never()).insert(any(OnmsAlarm.class));
+        verify(kieSession, times(2)).delete(any());
+    }
+
+    private void executeSubmittedAction() {
+        final ArgumentCaptor<KieSession.AtomicAction> action = ArgumentCaptor.forClass(KieSession.AtomicAction.class);
+        verify(kieSession, times(1)).submit(action.capture());
+        reset(kieSession);
+        action.getValue().execute(kieSession);
+    }
+
+    private static OnmsAlarm alarm(int id, long lastEventTime) {
+        final OnmsAlarm alarm = new OnmsAlarm();
+        alarm.setId(id);
+        alarm.setReductionKey("uei.opennms.org/test:" + id);
+        alarm.setLastEventTime(new Date(lastEventTime));
+        alarm.setFirstEventTime(new Date(0));
+        return alarm;
+    }
 }
@@ -0,0 +1,357 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2024 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2024 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.xml.eventconf;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.opennms.netmgt.xml.event.Snmp;
+
+/**
+ * Event definitions of a configuration tree compiled into a lookup structure for matching events.
+ *
+ * All definitions are flattened into a single array in the order in which they are evaluated: for each events file,
+ * beginning with the root, followed by its loaded event files in depth-first order, the definitions are sorted by
+ * priority and position. A definition which appears in multiple files (i.e. prioritized definitions rolled up to the
+ * root) is evaluated at each of its positions, exactly like before.
+ *
+ * The positions of the definitions are then bucketed by the partition key and by the exact values of the specific
+ * type they require. A lookup selects at most four pre-sorted buckets and walks them in order, so only definitions
+ * which can possibly match are evaluated. Before invoking the matcher of a definition, the generic type, source,
+ * host and number of varbinds of the event are checked against exact values taken from the mask.
+ *
+ * The structure is immutable and a lookup does not allocate.
+ */
+final class CompiledEventMatcher {
+    private static final int[] NONE = new int[0];
+
+    private static final int NO_VALUE = Integer.MIN_VALUE;
+
+    private final Partition m_partition;
+
+    private final Event[] m_events;
+
+    private final int[][] m_generics;
+
+    private final String[][] m_sources;
+
+    private final String[][] m_hosts;
+
+    private final int[] m_minParms;
+
+    private final Bucket m_unpartitioned;
+
+    private final Map<String, Bucket> m_partitions;
+
+    /**
+     * Positions of the definitions sharing a partition key, split by the specific type they require.
+     */
+    private static final class Bucket {
+        private final int[] m_anySpecific;
+
+        private final int[] m_specifics;
+
+        private final int[][] m_bySpecific;
+
+        private Bucket(final List<Integer> anySpecific, final TreeMap<Integer, List<Integer>> bySpecific) {
+            m_anySpecific = toArray(anySpecific);
+            m_specifics = new int[bySpecific.size()];
+            m_bySpecific = new int[bySpecific.size()][];
+
+            int i = 0;
+            for (final Map.Entry<Integer, List<Integer>> e : bySpecific.entrySet()) {
+                m_specifics[i] = e.getKey();
+                m_bySpecific[i] = toArray(e.getValue());
+                i++;
+            }
+        }
+
+        private int[] withSpecific(final int specific) {
+            if (specific == NO_VALUE) {
+                return NONE;
+            }
+            final int i = Arrays.binarySearch(m_specifics, specific);
+            return i < 0 ? NONE : m_bySpecific[i];
+        }
+    }
+
+    private static final class BucketBuilder {
+        private final List<Integer> m_anySpecific = new ArrayList<>();
+        private final TreeMap<Integer, List<Integer>> m_bySpecific = new TreeMap<>();
+
+        private void add(final int position, final int[] specifics) {
+            if (specifics == null) {
+                m_anySpecific.add(position);
+            } else {
+                for (final int specific : specifics) {
+                    final List<Integer> positions = m_bySpecific.computeIfAbsent(specific, k -> new ArrayList<>());
+                    if (positions.isEmpty() || positions.get(positions.size() - 1) != position) {
+                        positions.add(position);
+                    }
+                }
+            }
+        }
+
+        private Bucket build() {
+            return new Bucket(m_anySpecific, m_bySpecific);
+        }
+    }
+
+    private CompiledEventMatcher(final Partition partition, final List<Events> files) {
+        m_partition = partition;
+
+        // Flatten the definitions of all files in the order they are evaluated in
+        final List<Event> events = new ArrayList<>();
+        final List<List<String>> keys = new ArrayList<>();
+        for (final Events file : files) {
+            final Map<Event, List<String>> keysOfFile = new IdentityHashMap<>();
+            for (final Event event : file.getNullPartitionedEvents()) {
+                keysOfFile.put(event, null);
+            }
+            for (final Map.Entry<String, List<Event>> e : file.getPartitionedEvents().entrySet()) {
+                for (final Event event : e.getValue()) {
+                    // Prioritized definitions may be part of a partition and unpartitioned at the same time
+                    if (keysOfFile.containsKey(event) && keysOfFile.get(event) == null) {
+                        continue;
+                    }
+                    keysOfFile.computeIfAbsent(event, k -> new ArrayList<>()).add(e.getKey());
+                }
+            }
+
+            final List<Event> sorted = new ArrayList<>(keysOfFile.keySet());
+            sorted.sort(null);
+            for (final Event event : sorted) {
+                events.add(event);
+                keys.add(keysOfFile.get(event));
+            }
+        }
+
+        m_events = events.toArray(new Event[0]);
+        m_generics = new int[m_events.length][];
+        m_sources = new String[m_events.length][];
+        m_hosts = new String[m_events.length][];
+        m_minParms = new int[m_events.length];
+
+        final BucketBuilder unpartitioned = new BucketBuilder();
+        final Map<String, BucketBuilder> partitions = new HashMap<>();
+        for (int i = 0; i < m_events.length; i++) {
+            final Event event = m_events[i];
+            m_generics[i] = exactIntegers(event.getMaskElementValues(Maskelement.TAG_SNMP_GENERIC));
+            m_sources[i] = exactStrings(event.getMaskElementValues(Maskelement.TAG_SOURCE));
+            m_hosts[i] = exactStrings(event.getMaskElementValues(Maskelement.TAG_HOST));
+            m_minParms[i] = minParms(event.getMask());
+
+            final int[] specifics = exactIntegers(event.getMaskElementValues(Maskelement.TAG_SNMP_SPECIFIC));
+            if (keys.get(i) == null) {
+                unpartitioned.add(i, specifics);
+            } else {
+                for (final String key : keys.get(i)) {
+                    partitions.computeIfAbsent(key, k -> new BucketBuilder()).add(i, specifics);
+                }
+            }
+        }
+
+        m_unpartitioned = unpartitioned.build();
+        m_partitions = new HashMap<>(partitions.size() * 2);
+        for (final Map.Entry<String, BucketBuilder> e : partitions.entrySet()) {
+            m_partitions.put(e.getKey(), e.getValue().build());
+        }
+    }
+
+    /**
+     * Compiles the definitions of the given, already initialized, events file and all of its loaded event files.
+     */
+    static CompiledEventMatcher compile(final Partition partition, final Events root) {
+        final List<Events> files = new ArrayList<>();
+        collect(root, files);
+        return new CompiledEventMatcher(partition, files);
+    }
+
+    private static void collect(final Events events, final List<Events> files) {
+        files.add(events);
+        for (final Events loaded : events.getLoadedEventFiles().values()) {
+            collect(loaded, files);
+        }
+    }
+
+    Event findFirstMatchingEvent(final org.opennms.netmgt.xml.event.Event matchingEvent) {
+        final Snmp snmp = matchingEvent.getSnmp();
+        final int generic = snmp != null && snmp.hasGeneric() ? snmp.getGeneric() : NO_VALUE;
+        final int specific = snmp != null && snmp.hasSpecific() ? snmp.getSpecific() : NO_VALUE;
+        final String source = matchingEvent.getSource();
+        final String host = matchingEvent.getHost();
+        final int parms = matchingEvent.getParmCollection().size();
+
+        final String key = m_partition.group(matchingEvent);
+        final Bucket partition = key != null ? m_partitions.get(key) : null;
+
+        final int[] a = m_unpartitioned.m_anySpecific;
+        final int[] b = m_unpartitioned.withSpecific(specific);
+        final int[] c = partition != null ? partition.m_anySpecific : NONE;
+        final int[] d = partition != null ? partition.withSpecific(specific) : NONE;
+
+        // Walk the sorted buckets at once, always continuing with the lowest position
+        int ia = 0, ib = 0, ic = 0, id = 0;
+        while (true) {
+            int next = Integer.MAX_VALUE;
+            if (ia < a.length) next = Math.min(next, a[ia]);
+            if (ib < b.length) next = Math.min(next, b[ib]);
+            if (ic < c.length) next = Math.min(next, c[ic]);
+            if (id < d.length) next = Math.min(next, d[id]);
+            if (next == Integer.MAX_VALUE) {
+                return null;
+            }
+
+            if (ia < a.length && a[ia] == next) ia++;
+            if (ib < b.length && b[ib] == next) ib++;
+            if (ic < c.length && c[ic] == next) ic++;
+            if (id < d.length && d[id] == next) id++;
+
+            if (parms < m_minParms[next]
+                    || !contains(m_generics[next], generic)
+                    || !contains(m_sources[next], source)
+                    || !contains(m_hosts[next], host)) {
+                continue;
+            }
+
+            if (m_events[next].matches(matchingEvent).matched()) {
+                return m_events[next];
+            }
+        }
+    }
+
+    int size() {
+        return m_events.length;
+    }
+
+    private static boolean contains(final int[] values, final int value) {
+        if (values == null) {
+            return true;
+        }
+        if (value == NO_VALUE) {
+            return false;
+        }
+        for (final int v : values) {
+            if (v == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean contains(final String[] values, final String value) {
+        if (values == null) {
+            return true;
+        }
+        if (value == null) {
+            return false;
+        }
+        for (final String v : values) {
+            if (v.equals(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isExact(final String value) {
+        return value != null && !value.startsWith("~") && !value.endsWith("%");
+    }
+
+    /**
+     * Returns the values of a mask element if all of them must be matched exactly or {@code null} otherwise.
+     */
+    private static String[] exactStrings(final Collection<String> values) {
+        if (values == null || values.isEmpty()) {
+            return null;
+        }
+        for (final String value : values) {
+            if (!isExact(value)) {
+                return null;
+            }
+        }
+        return values.toArray(new String[0]);
+    }
+
+    /**
+     * Returns the integer values of a mask element if all of them must be matched exactly or {@code null} otherwise.
+     * Values which are not in the canonical form of an integer are dropped, as they can never be equal to the value
+     * of the event.
+     */
+    private static int[] exactIntegers(final Collection<String> values) {
+        final String[] exact = exactStrings(values);
+        if (exact == null) {
+            return null;
+        }
+
+        final List<Integer> result = new ArrayList<>(exact.length);
+        for (final String value : exact) {
+            try {
+                final int i = Integer.parseInt(value);
+                if (i != NO_VALUE && Integer.toString(i).equals(value)) {
+                    result.add(i);
+                }
+            } catch (final NumberFormatException e) {
+                // Never matches
+            }
+        }
+        return toArray(result);
+    }
+
+    /**
+     * A varbind of the mask can only be matched if the event has at least as many parameters. The varbinds are
+     * ignored if the mask has no mask elements, see {@link Event#matches(org.opennms.netmgt.xml.event.Event)}.
+     */
+    private static int minParms(final Mask mask) {
+        if (mask == null || mask.getMaskelements().isEmpty() || mask.getVarbinds() == null) {
+            return 0;
+        }
+        int min = 0;
+        for (final Varbind varbind : mask.getVarbinds()) {
+            if (varbind.getVbnumber() != null) {
+                min = Math.max(min, varbind.getVbnumber());
+            }
+        }
+        return min;
+    }
+
+    private static int[] toArray(final List<Integer> values) {
+        final int[] result = new int[values.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = values.get(i);
+        }
+        return result;
+    }
+}
@@ -38,7 +38,6 @@ import java.io.StringWriter;
 import java.io.Writer;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashSet;
@@ -49,7 +48,6 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.Set;
-import java.util.TreeSet;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
@@ -120,6 +118,13 @@ public class Events implements Serializable {
     @XmlTransient
     private EventOrdering m_ordering;
 
+    /**
+     * The event definitions of this file and all loaded files compiled for matching. Built when the root file is
+     * initialized and lazily for loaded files which are queried directly.
+     */
+    @XmlTransient
+    private transient volatile CompiledEventMatcher m_compiledMatcher;
+
     public Global getGlobal() {
         return m_global;
     }
@@ -284,31 +289,12 @@ public class Events implements Serializable {
             }
         }
 
-        // If the UEI match failed, fallback to searching with the matchers through the partitions
-        final String key = m_partition.group(matchingEvent);
-        Collection<Event> potentialMatches = m_nullPartitionedEvents;
-        if (key != null) {
-            final List<Event> events = m_partitionedEvents.get(key);
-            if (events != null) {
-                potentialMatches = new TreeSet<Event>(m_nullPartitionedEvents);
-                potentialMatches.addAll(events);
-            }
-        }
-
-        for (final Event event : potentialMatches) {
-            if (event.matches(matchingEvent).matched()) {
-                return event;
-            }
+        // If the UEI match failed, fallback to searching with the matchers through the compiled partitions
+        CompiledEventMatcher compiledMatcher = m_compiledMatcher;
+        if (compiledMatcher == null) {
+            compiledMatcher = m_compiledMatcher = CompiledEventMatcher.compile(m_partition, this);
         }
-
-        for (Events subEvents : m_loadedEventFiles.values()) {
-            final Event event = subEvents.findFirstMatchingEvent(matchingEvent);
-            if (event != null) {
-                return event;
-            }
-        }
-
-        return null;
+        return compiledMatcher.findFirstMatchingEvent(matchingEvent);
     }
 
     public Set<Event> findMatchingEvents(final EventCriteria criteria) {
@@ -363,7 +349,13 @@ public class Events implements Serializable {
     }
 
     public void initialize(final Partition partition, final EventOrdering eventOrdering) {
+        initializeEvents(partition, eventOrdering);
+        m_compiledMatcher = CompiledEventMatcher.compile(partition, this);
+    }
+
+    private void initializeEvents(final Partition partition, final EventOrdering eventOrdering) {
         m_ordering = eventOrdering;
+        m_compiledMatcher = null;
 
         for (final Event event : m_events) {
             event.initialize(m_ordering.next());
@@ -372,7 +364,7 @@ public class Events implements Serializable {
         partitionEvents(partition);
 
         for (final Events events : m_loadedEventFiles.values()) {
-            events.initialize(partition, m_ordering.subsequence());
+            events.initializeEvents(partition, m_ordering.subsequence());
         }
 
         // roll up all prioritized events and sort all events by priority
@@ -473,6 +465,18 @@ public class Events implements Serializable {
         }
     }
 
+    List<Event> getNullPartitionedEvents() {
+        return m_nullPartitionedEvents;
+    }
+
+    Map<String, List<Event>> getPartitionedEvents() {
+        return m_partitionedEvents;
+    }
+
+    Map<String, Events> getLoadedEventFiles() {
+        return m_loadedEventFiles;
+    }
+
     public Events getLoadEventsByFile(final String relativePath) {
         return m_loadedEventFiles.get(relativePath);
     }
@@ -482,11 +486,13 @@ public class Events implements Serializable {
             m_eventFiles.add(relativePath);
         }
         m_loadedEventFiles.put(relativePath, events);
+        m_compiledMatcher = null;
     }
 
     public void removeLoadedEventFile(final String relativePath) {
         m_eventFiles.remove(relativePath);
         m_loadedEventFiles.remove(relativePath);
+        m_compiledMatcher = null;
     }
 
     public void saveEvents(final Resource resource) {
@@ -31,11 +31,16 @@ package org.opennms.netmgt.xml.eventconf;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mockito;
+import org.opennms.netmgt.xml.event.Parm;
+import org.opennms.netmgt.xml.event.Snmp;
 
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.when;
 
@@ -70,4 +75,145 @@ public class EventsTest {
         assertTrue(events.getEvents().contains(mockEvent));
     }
 
+    @Test
+    public void testFindsFirstMatchingEventInPriorityOrder() {
+        final Event first = event("uei.opennms.org/first", 0, "id", ".1.2.3", "specific", "1");
+        final Event rootFallback = event("uei.opennms.org/root-fallback", 0, "id", ".1.2.3");
+        events.addEvent(first);
+        events.addEvent(rootFallback);
+
+        final Event loaded = event("uei.opennms.org/loaded", 0, "id", ".1.2.3", "specific", "2");
+        final Event prioritized = event("uei.opennms.org/prioritized", 10, "id", ".1.2.3", "specific", "2");
+        final Events loadedEvents = new Events();
+        loadedEvents.addEvent(loaded);
+        loadedEvents.addEvent(prioritized);
+        events.addLoadedEventFile("loaded.xml", loadedEvents);
+
+        events.initialize(new EnterpriseIdPartition(), new EventOrdering());
+
+        assertSame(first, events.findFirstMatchingEvent(trap(".1.2.3", 6, 1)));
+        // Prioritized definitions of loaded files are evaluated before the ones of the root file
+        assertSame(prioritized, events.findFirstMatchingEvent(trap(".1.2.3", 6, 2)));
+        assertSame(rootFallback, events.findFirstMatchingEvent(trap(".1.2.3", 6, 3)));
+        assertNull(events.findFirstMatchingEvent(trap(".1.2.4", 6, 1)));
+
+        // Loaded files can be queried on their own
+        assertSame(prioritized, loadedEvents.findFirstMatchingEvent(trap(".1.2.3", 6, 2)));
+        assertNull(loadedEvents.findFirstMatchingEvent(trap(".1.2.3", 6, 1)));
+    }
+
+    @Test
+    public void testMergesPartitionedAndUnpartitionedEvents() {
+        final Event wildcard = event("uei.opennms.org/wildcard", 0, "id", ".1.2.%", "specific", "1");
+        final Event partitioned = event("uei.opennms.org/partitioned", 0, "id", ".1.2.3");
+        final Event anyId = event("uei.opennms.org/any-id", 0, "generic", "6");
+        events.addEvent(wildcard);
+        events.addEvent(partitioned);
+        events.addEvent(anyId);
+
+        events.initialize(new EnterpriseIdPartition(), new EventOrdering());
+
+        assertSame(wildcard, events.findFirstMatchingEvent(trap(".1.2.3", 6, 1)));
+        assertSame(partitioned, events.findFirstMatchingEvent(trap(".1.2.3", 6, 2)));
+        assertSame(wildcard, events.findFirstMatchingEvent(trap(".1.2.4", 6, 1)));
+        assertSame(anyId, events.findFirstMatchingEvent(trap(".1.2.4", 6, 2)));
+        assertNull(events.findFirstMatchingEvent(trap(".1.2.4", 5, 2)));
+    }
+
+    @Test
+    public void testMatchesSpecificGenericAndVarbinds() {
+        final Event withVarbind = event("uei.opennms.org/varbind", 0, "id", ".1.2.3", "specific", "1", "generic", "6");
+        final Varbind varbind = new Varbind();
+        varbind.setVbnumber(2);
+        varbind.setVbvalues(Arrays.asList("up"));
+        withVarbind.getMask().addVarbind(varbind);
+        final Event regex = event("uei.opennms.org/regex", 0, "id", ".1.2.3", "specific", "~[12]");
+        final Event nonCanonical = event("uei.opennms.org/non-canonical", 0, "id", ".1.2.3", "specific", "03");
+        events.addEvent(withVarbind);
+        events.addEvent(regex);
+        events.addEvent(nonCanonical);
+
+        events.initialize(new EnterpriseIdPartition(), new EventOrdering());
+
+        final org.opennms.netmgt.xml.event.Event withParms = trap(".1.2.3", 6, 1);
+        withParms.addParm(parm("first", "down"));
+        withParms.addParm(parm("second", "up"));
+        assertSame(withVarbind, events.findFirstMatchingEvent(withParms));
+
+        final org.opennms.netmgt.xml.event.Event withoutParms = trap(".1.2.3", 6, 1);
+        assertSame(regex, events.findFirstMatchingEvent(withoutParms));
+
+        assertSame(regex, events.findFirstMatchingEvent(trap(".1.2.3", 0, 2)));
+        assertNull(events.findFirstMatchingEvent(trap(".1.2.3", 6, 3)));
+    }
+
+    @Test
+    public void testFindsEventAfterLoadedFileWasAdded() {
+        events.initialize(new EnterpriseIdPartition(), new EventOrdering());
+        assertNull(events.findFirstMatchingEvent(trap(".1.2.3", 6, 1)));
+
+        final Event loaded = event("uei.opennms.org/loaded", 0, "id", ".1.2.3");
+        final Events loadedEvents = new Events();
+        loadedEvents.addEvent(loaded);
+        events.addLoadedEventFile("loaded.xml", loadedEvents);
+        events.initialize(new EnterpriseIdPartition(), new EventOrdering());
+
+        assertSame(loaded, events.findFirstMatchingEvent(trap(".1.2.3", 6, 1)));
+    }
+
+    private static Event event(final String uei, final int priority, final String... maskElements) {
+        final Mask mask = new Mask();
+        for (int i = 0; i < maskElements.length; i += 2) {
+            final Maskelement maskElement = new Maskelement();
+            maskElement.setMename(maskElements[i]);
+            maskElement.addMevalue(maskElements[i + 1]);
+            mask.addMaskelement(maskElement);
+        }
+
+        final Event event = new Event();
+        event.setUei(uei);
+        event.setPriority(priority);
+        event.setMask(mask);
+        return event;
+    }
+
+    private static org.opennms.netmgt.xml.event.Event trap(final String id, final int generic, final int specific) {
+        final Snmp snmp = new Snmp();
+        snmp.setId(id);
+        snmp.setGeneric(generic);
+        snmp.setSpecific(specific);
+
+        final org.opennms.netmgt.xml.event.Event event = new org.opennms.netmgt.xml.event.Event();
+        event.setSnmp(snmp);
+        return event;
+    }
+
+    private static Parm parm(final String name, final String value) {
+        return new Parm(name, value);
+    }
+
+    /**
+     * Partitions the definitions by their exact enterprise ID, like the DAO does.
+     */
+    private static class EnterpriseIdPartition implements Partition {
+        @Override
+        public List<String> group(final Event eventConf) {
+            final List<String> ids = eventConf.getMaskElementValues(Maskelement.TAG_SNMP_EID);
+            if (ids == null) {
+                return null;
+            }
+            for (final String id : ids) {
+                if (id.endsWith("%") || id.startsWith("~")) {
+                    return null;
+                }
+            }
+            return ids;
+        }
+
+        @Override
+        public String group(final org.opennms.netmgt.xml.event.Event matchingEvent) {
+            return matchingEvent.getSnmp() == null ? null : matchingEvent.getSnmp().getId();
+        }
+    }
+
 }
@@ -28,16 +28,27 @@
 
 package org.opennms.netmgt.dao.api;
 
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
 
+import org.opennms.netmgt.model.OnmsAlarm;
 import org.opennms.netmgt.model.OnmsEvent;
 
 public interface EventDao extends LegacyOnmsDao<OnmsEvent, Integer> {
 
     int deletePreviousEventsForAlarm(final Integer id, final OnmsEvent e);
 
+    /**
+     * Associates the events with the given ids with the alarm using a single statement.
+     *
+     * @param alarm    the alarm the events were reduced into
+     * @param eventIds the ids of the events
+     * @return the number of updated events
+     */
+    int setAlarmForEvents(final OnmsAlarm alarm, final Collection<Integer> eventIds);
+
     /**
      * Returns a list of events which have been created
      * AFTER date and the uei of each event matches one uei entry of the ueiList.
@@ -29,6 +29,7 @@
 package org.opennms.netmgt.dao.mock;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -42,6 +43,7 @@ import java.util.stream.Stream;
 import org.opennms.netmgt.dao.api.CountedObject;
 import org.opennms.netmgt.dao.api.EventCountDao;
 import org.opennms.netmgt.dao.api.EventDao;
+import org.opennms.netmgt.model.OnmsAlarm;
 import org.opennms.netmgt.model.OnmsEvent;
 
 public class MockEventDao extends AbstractMockDao<OnmsEvent, Integer> implements EventDao, EventCountDao {
@@ -63,6 +65,19 @@ public class MockEventDao extends AbstractMockDao<OnmsEvent, Integer> implements
         throw new UnsupportedOperationException("Not yet implemented!");
     }
 
+    @Override
+    public int setAlarmForEvents(final OnmsAlarm alarm, final Collection<Integer> eventIds) {
+        int count = 0;
+        for (final Integer eventId : eventIds) {
+            final OnmsEvent event = get(eventId);
+            if (event != null) {
+                event.setAlarm(alarm);
+                count++;
+            }
+        }
+        return count;
+    }
+
     @Override
     public List<OnmsEvent> getEventsAfterDate(List<String> ueiList, Date date) {
         List<OnmsEvent> matchingEvents = new ArrayList<OnmsEvent>();
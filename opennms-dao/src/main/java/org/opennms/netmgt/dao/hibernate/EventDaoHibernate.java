@@ -29,6 +29,7 @@
 package org.opennms.netmgt.dao.hibernate;
 
 import java.sql.SQLException;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
@@ -37,6 +38,7 @@ import org.hibernate.HibernateException;
 import org.hibernate.Query;
 import org.hibernate.Session;
 import org.opennms.netmgt.dao.api.EventDao;
+import org.opennms.netmgt.model.OnmsAlarm;
 import org.opennms.netmgt.model.OnmsEvent;
 import org.springframework.dao.DataAccessException;
 import org.springframework.orm.hibernate3.HibernateCallback;
@@ -55,6 +57,24 @@ public class EventDaoHibernate extends AbstractDaoHibernate<OnmsEvent, Integer>
         return bulkDelete(hql, values);
     }
 
+    @Override
+    public int setAlarmForEvents(final OnmsAlarm alarm, final Collection<Integer> eventIds) {
+        if (eventIds.isEmpty()) {
+            return 0;
+        }
+        final String hql = "update OnmsEvent e set e.alarm = :alarm where e.id in (:eventIds)";
+
+        return getHibernateTemplate().execute(new HibernateCallback<Integer>() {
+            @Override
+            public Integer doInHibernate(Session session) throws HibernateException, SQLException {
+                return session.createQuery(hql)
+                        .setParameter("alarm", alarm)
+                        .setParameterList("eventIds", eventIds)
+                        .executeUpdate();
+            }
+        });
+    }
+
     @Override
     public List<OnmsEvent> getEventsAfterDate(final List<String> ueiList, final Date date) {
         final String hql = "From OnmsEvent e where e.eventUei in (:eventUei) and e.eventTime > :eventTime order by e.eventTime desc";
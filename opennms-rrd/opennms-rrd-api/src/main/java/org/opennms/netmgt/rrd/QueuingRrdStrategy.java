@@ -31,6 +31,7 @@ package org.opennms.netmgt.rrd;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -64,7 +65,9 @@ import org.slf4j.LoggerFactory;
  * work will enqueue here and the write threads will get behind. As this happens
  * each file will eventually have more than a single update enqueued and
  * therefore the number of updates pushed thru the system will increase because
- * more then one will be output per 'open' Eventually, the I/O system and the
+ * more then one will be output per 'open'. The updates enqueued for a file are
+ * merged into a single operation, so they also take up less memory while they
+ * wait. Eventually, the I/O system and the
  * collection system will balance out. When this happens all data will be
  * collected but will not be output to the rrd files until the next time the
  * file is processed by the write threads.
@@ -488,9 +491,15 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
 
     /**
      * Represents an update to a rrd file.
+     *
+     * The updates that are enqueued for a file one after the other are merged
+     * into a single operation, which writes all of them at once.
      */
     public class UpdateOperation extends Operation {
 
+        // the updates merged into this one, null until there is one
+        private List<String> mergedUpdates = null;
+
         UpdateOperation(String fileName, String data) {
             super(fileName, UPDATE, data, true);
         }
@@ -499,32 +508,68 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
             super(fileName, UPDATE, data, significant);
         }
 
+        @Override
+        int getCount() {
+            return mergedUpdates == null ? 1 : 1 + mergedUpdates.size();
+        }
+
         @Override
         Object process(Object rrd) throws Exception {
             // open the file if we need to
-            if (rrd == null) rrd = m_delegate.openFile(getFileName());
+            final boolean opened = rrd == null;
+            if (opened) rrd = m_delegate.openFile(getFileName());
 
-            final String update = (String) getData();
+            // keep going after a bad update so that the following ones are not lost
+            Exception failure = null;
+            for (int i = 0; i < getCount(); i++) {
+                final String update = i == 0 ? (String) getData() : mergedUpdates.get(i - 1);
+                try {
+                    // process the update
+                    m_delegate.updateFile(rrd, "", update);
+                } catch (final Throwable e) {
+                    final String error = String.format("Error processing update for file %s: %s", getFileName(), update);
+                    m_log.debug(error, e);
+                    if (failure == null) {
+                        failure = new Exception(error, e);
+                    }
+                    continue;
+                }
 
-            try {
-                // process the update
-                m_delegate.updateFile(rrd, "", update);
-            } catch (final Throwable e) {
-                final String error = String.format("Error processing update for file %s: %s", getFileName(), update);
-                m_log.debug(error, e);
-                throw new Exception(error, e);
+                // keep stats
+                setUpdatesCompleted(getUpdatesCompleted() + 1);
+                if (getUpdatesCompleted() % m_modulus == 0) {
+                    logStats();
+                }
             }
-
-            // keep stats
-            setUpdatesCompleted(getUpdatesCompleted() + 1);
-            if (getUpdatesCompleted() % m_modulus == 0) {
-                logStats();
+            if (failure != null) {
+                // the rrd won't be returned, so close it here if we opened it,
+                // otherwise it is closed by the caller
+                if (opened) {
+                    processClose(rrd);
+                }
+                throw failure;
             }
             // return the open rrd for further processing
             return rrd;
 
         }
 
+        @Override
+        void addToPendingList(LinkedList<Operation> pendingOperations) {
+            // zero updates are merged on their own
+            if (getClass() == UpdateOperation.class && pendingOperations.size() > 0
+                    && pendingOperations.getLast().getClass() == UpdateOperation.class
+                    && pendingOperations.getLast().isSignificant() == isSignificant()) {
+                final UpdateOperation updateOp = (UpdateOperation) pendingOperations.getLast();
+                if (updateOp.mergedUpdates == null) {
+                    updateOp.mergedUpdates = new ArrayList<>(2);
+                }
+                updateOp.mergedUpdates.add((String) getData());
+            } else {
+                super.addToPendingList(pendingOperations);
+            }
+        }
+
     }
 
     /**
@@ -548,6 +593,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
         @Override
         Object process(Object rrd) throws Exception {
             long ts = getFirstTimeStamp();
+            final boolean opened = rrd == null;
             for (int i = 0; i < count; i++) {
                 // open the file if we need to
                 if (rrd == null)
@@ -558,6 +604,10 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
                     // process the update
                     m_delegate.updateFile(rrd, "", update);
                 } catch (Throwable e) {
+                    // the rrd won't be returned, only close it if we opened it
+                    if (opened) {
+                        processClose(rrd);
+                    }
                     throw new Exception("Error processing update " + i + " for file " + getFileName() + ": " + update, e);
                 }
                 ts += getInterval();
@@ -1107,7 +1157,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
                     // while we are processing
                     for (final Operation op : ops) {
                         if (op.isSignificant()) {
-                            setSignificantOpsCompleted(getSignificantOpsCompleted() + 1);
+                            setSignificantOpsCompleted(getSignificantOpsCompleted() + op.getCount());
                         }
 
                     }
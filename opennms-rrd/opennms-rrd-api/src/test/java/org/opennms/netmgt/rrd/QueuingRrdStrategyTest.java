@@ -0,0 +1,104 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2024 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2024 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+
+public class QueuingRrdStrategyTest {
+
+    private RrdStrategy<Object, Object> m_delegate;
+
+    private QueuingRrdStrategy m_strategy;
+
+    private final Object m_rrd = new Object();
+
+    @SuppressWarnings("unchecked")
+    @Before
+    public void setUp() throws Exception {
+        m_delegate = mock(RrdStrategy.class);
+        when(m_delegate.openFile(any())).thenReturn(m_rrd);
+
+        m_strategy = new QueuingRrdStrategy(m_delegate);
+        // The operations are processed by calling run() from the test
+        m_strategy.setWriteThreads(0);
+        m_strategy.setWriteThreadSleepTime(1);
+        m_strategy.setWriteThreadExitDelay(10);
+        m_strategy.setModulus(10000);
+    }
+
+    @Test
+    public void continuesMergedUpdatesAfterAFailure() throws Exception {
+        doThrow(new IllegalArgumentException("bad update")).when(m_delegate).updateFile(m_rrd, "", "200:2");
+
+        m_strategy.updateFile("a.jrb", "test", "100:1");
+        m_strategy.updateFile("a.jrb", "test", "200:2");
+        m_strategy.updateFile("a.jrb", "test", "300:3");
+        m_strategy.run();
+
+        final InOrder inOrder = inOrder(m_delegate);
+        inOrder.verify(m_delegate).openFile("a.jrb");
+        inOrder.verify(m_delegate).updateFile(m_rrd, "", "100:1");
+        inOrder.verify(m_delegate).updateFile(m_rrd, "", "200:2");
+        inOrder.verify(m_delegate).updateFile(m_rrd, "", "300:3");
+        inOrder.verify(m_delegate).closeFile(m_rrd);
+        verify(m_delegate, times(1)).openFile(any());
+        verify(m_delegate, times(1)).closeFile(any());
+
+        assertEquals(2, m_strategy.getUpdatesCompleted());
+        assertEquals(1, m_strategy.getErrors());
+    }
+
+    @Test
+    public void closesFileOnceWhenAnUpdateOfAnOpenFileFails() throws Exception {
+        doThrow(new IllegalArgumentException("bad update")).when(m_delegate).updateFile(eq(m_rrd), eq(""), eq("200:0"));
+
+        // The zero update gets the file opened by the update before it
+        m_strategy.updateFile("a.jrb", "test", "100:1");
+        m_strategy.updateFile("a.jrb", "test", "200:0");
+        m_strategy.run();
+
+        verify(m_delegate, times(1)).openFile("a.jrb");
+        verify(m_delegate).updateFile(m_rrd, "", "100:1");
+        verify(m_delegate).updateFile(m_rrd, "", "200:0");
+        verify(m_delegate, times(1)).closeFile(m_rrd);
+        assertEquals(1, m_strategy.getErrors());
+    }
+}
@@ -0,0 +1,262 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2024 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2024 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd.jrobin;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jrobin.core.RrdDb;
+import org.jrobin.core.RrdException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the most recently used JRobin files open, so that the collectors,
+ * thresholding and the graphs do not need to open and parse a file every time
+ * they access it.
+ *
+ * There is at most one open {@link RrdDb} per file in the JVM, shared by the
+ * writers and the readers, who synchronize on it to access the file. Files that
+ * are not in use are closed in least recently used order once there are more
+ * than {@link #getMaxOpenFiles()} of them. A maximum of 0 closes the files as
+ * soon as they are released.
+ */
+final class JRobinRrdDbPool {
+    private static final Logger LOG = LoggerFactory.getLogger(JRobinRrdDbPool.class);
+
+    /** Default number of files kept open */
+    static final int DEFAULT_MAX_OPEN_FILES = 500;
+
+    private static final JRobinRrdDbPool s_instance = new JRobinRrdDbPool(DEFAULT_MAX_OPEN_FILES);
+
+    private static final class Entry {
+        private final String m_path;
+        private final RrdDb m_rrdDb;
+        private int m_references = 0;
+        private boolean m_invalid = false;
+
+        private Entry(final String path, final RrdDb rrdDb) {
+            m_path = path;
+            m_rrdDb = rrdDb;
+        }
+    }
+
+    // In access order, so that the least recently used file comes first
+    private final Map<String, Entry> m_entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final Map<RrdDb, Entry> m_entriesByRrdDb = new IdentityHashMap<>();
+
+    private int m_maxOpenFiles;
+
+    private long m_hits = 0;
+
+    private long m_misses = 0;
+
+    JRobinRrdDbPool(final int maxOpenFiles) {
+        setMaxOpenFiles(maxOpenFiles);
+    }
+
+    /**
+     * @return the pool shared by all of the JRobin strategies in the JVM
+     */
+    static JRobinRrdDbPool getInstance() {
+        return s_instance;
+    }
+
+    synchronized int getMaxOpenFiles() {
+        return m_maxOpenFiles;
+    }
+
+    void setMaxOpenFiles(final int maxOpenFiles) {
+        if (maxOpenFiles < 0) {
+            throw new IllegalArgumentException("The maximum number of open files can't be negative: " + maxOpenFiles);
+        }
+        final List<Entry> evicted;
+        synchronized (this) {
+            m_maxOpenFiles = maxOpenFiles;
+            evicted = evictIdle();
+        }
+        close(evicted);
+    }
+
+    /**
+     * Returns the open file for the given path, opening it if needed. Every
+     * call must be followed by a call to {@link #release(RrdDb)}.
+     */
+    RrdDb acquire(final String path) throws IOException, RrdException {
+        // The file may have been deleted since we opened it
+        if (!new File(path).exists()) {
+            invalidate(path);
+        }
+
+        synchronized (this) {
+            final Entry entry = m_entries.get(path);
+            if (entry != null) {
+                entry.m_references++;
+                m_hits++;
+                return entry.m_rrdDb;
+            }
+            m_misses++;
+        }
+
+        // Open the file without holding the lock, other files can be acquired meanwhile
+        final RrdDb rrdDb = new RrdDb(path);
+
+        final List<Entry> evicted;
+        final Entry entry;
+        synchronized (this) {
+            final Entry existing = m_entries.get(path);
+            if (existing != null) {
+                // Another thread opened the file at the same time
+                existing.m_references++;
+                entry = existing;
+                evicted = new ArrayList<>(1);
+                evicted.add(new Entry(path, rrdDb));
+            } else {
+                entry = new Entry(path, rrdDb);
+                entry.m_references++;
+                m_entries.put(path, entry);
+                m_entriesByRrdDb.put(rrdDb, entry);
+                evicted = evictIdle();
+            }
+        }
+        close(evicted);
+        return entry.m_rrdDb;
+    }
+
+    /**
+     * Hands back a file returned by {@link #acquire(String)}. Files that
+     * were not acquired from this pool are closed.
+     */
+    void release(final RrdDb rrdDb) throws IOException {
+        final List<Entry> evicted;
+        synchronized (this) {
+            final Entry entry = m_entriesByRrdDb.get(rrdDb);
+            if (entry == null) {
+                evicted = null;
+            } else {
+                entry.m_references--;
+                if (entry.m_invalid && entry.m_references <= 0) {
+                    m_entriesByRrdDb.remove(rrdDb);
+                    evicted = new ArrayList<>(1);
+                    evicted.add(entry);
+                } else {
+                    evicted = evictIdle();
+                }
+            }
+        }
+        if (evicted == null) {
+            rrdDb.close();
+        } else {
+            close(evicted);
+        }
+    }
+
+    /**
+     * Forgets the open file for the given path, i.e. when the file is
+     * about to be replaced. It is closed once it is no longer in use.
+     */
+    void invalidate(final String path) {
+        final List<Entry> evicted = new ArrayList<>(1);
+        synchronized (this) {
+            final Entry entry = m_entries.remove(path);
+            if (entry == null) {
+                return;
+            }
+            if (entry.m_references <= 0) {
+                m_entriesByRrdDb.remove(entry.m_rrdDb);
+                evicted.add(entry);
+            } else {
+                entry.m_invalid = true;
+            }
+        }
+        close(evicted);
+    }
+
+    /**
+     * Closes all of the files which are not in use.
+     */
+    void clear() {
+        final List<Entry> evicted = new ArrayList<>();
+        synchronized (this) {
+            for (final Iterator<Entry> it = m_entries.values().iterator(); it.hasNext(); ) {
+                final Entry entry = it.next();
+                if (entry.m_references <= 0) {
+                    it.remove();
+                    m_entriesByRrdDb.remove(entry.m_rrdDb);
+                    evicted.add(entry);
+                }
+            }
+        }
+        close(evicted);
+    }
+
+    synchronized int getOpenFiles() {
+        return m_entriesByRrdDb.size();
+    }
+
+    synchronized String getStats() {
+        return String.format("JRobin open files: %d/%d, hits: %d, misses: %d", m_entriesByRrdDb.size(), m_maxOpenFiles, m_hits, m_misses);
+    }
+
+    /**
+     * Removes the least recently used files which are not in use until
+     * there are no more than the maximum number of files.
+     */
+    private List<Entry> evictIdle() {
+        final List<Entry> evicted = new ArrayList<>();
+        for (final Iterator<Entry> it = m_entries.values().iterator(); m_entries.size() - evicted.size() > m_maxOpenFiles && it.hasNext(); ) {
+            final Entry entry = it.next();
+            if (entry.m_references <= 0) {
+                evicted.add(entry);
+            }
+        }
+        for (final Entry entry : evicted) {
+            m_entries.remove(entry.m_path);
+            m_entriesByRrdDb.remove(entry.m_rrdDb);
+        }
+        return evicted;
+    }
+
+    private static void close(final List<Entry> entries) {
+        for (final Entry entry : entries) {
+            try {
+                entry.m_rrdDb.close();
+            } catch (final IOException e) {
+                LOG.error("Failed to close rrd file: {}", entry.m_path, e);
+            }
+        }
+    }
+}
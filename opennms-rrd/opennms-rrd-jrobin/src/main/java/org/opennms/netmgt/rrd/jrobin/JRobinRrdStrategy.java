@@ -44,6 +44,7 @@ import java.util.Map.Entry;
 import java.util.Properties;
 
 import org.jrobin.core.FetchData;
+import org.jrobin.core.RrdBackendFactory;
 import org.jrobin.core.RrdDb;
 import org.jrobin.core.RrdDef;
 import org.jrobin.core.RrdException;
@@ -71,6 +72,8 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
     private static final Logger LOG = LoggerFactory.getLogger(JRobinRrdStrategy.class);
     private static final String BACKEND_FACTORY_PROPERTY = "org.jrobin.core.RrdBackendFactory";
     private static final String DEFAULT_BACKEND_FACTORY = "FILE";
+    private static final String MAX_OPEN_FILES_PROPERTY = "org.opennms.rrd.jrobin.maxOpenFiles";
+    private static final String MAPPED_FLUSH_INTERVAL_PROPERTY = "org.opennms.rrd.jrobin.mapped.flushInterval";
 
     /*
      * Ensure that we only initialize certain things *once* per
@@ -78,6 +81,11 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
      */
     private static boolean s_initialized = false;
 
+    /*
+     * The backend factory for memory mapped files, when it is in use.
+     */
+    private static MappedRrdBackendFactory s_mappedBackendFactory = null;
+
     private Properties m_configurationProperties;
 
     /**
@@ -130,23 +138,46 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
                 factory = (String)m_configurationProperties.get(BACKEND_FACTORY_PROPERTY);
             }
             try {
+                if (MappedRrdBackendFactory.NAME.equals(factory) && s_mappedBackendFactory == null) {
+                    final MappedRrdBackendFactory mappedBackendFactory = new MappedRrdBackendFactory();
+                    RrdBackendFactory.registerFactory(mappedBackendFactory);
+                    mappedBackendFactory.registerMBean();
+                    s_mappedBackendFactory = mappedBackendFactory;
+                }
                 RrdDb.setDefaultFactory(factory);
                 s_initialized=true;
             } catch (RrdException e) {
                 LOG.error("Could not set default JRobin RRD factory", e);
             }
         }
+        if (s_mappedBackendFactory != null) {
+            String flushInterval = m_configurationProperties == null ? null : (String)m_configurationProperties.get(MAPPED_FLUSH_INTERVAL_PROPERTY);
+            try {
+                s_mappedBackendFactory.setFlushInterval(flushInterval == null ? MappedRrdBackendFactory.DEFAULT_FLUSH_INTERVAL : Long.parseLong(flushInterval.trim()));
+            } catch (IllegalArgumentException e) {
+                LOG.error("Invalid value for {}: {}", MAPPED_FLUSH_INTERVAL_PROPERTY, flushInterval, e);
+            }
+        }
+        if (m_configurationProperties != null && m_configurationProperties.get(MAX_OPEN_FILES_PROPERTY) != null) {
+            final String maxOpenFiles = (String)m_configurationProperties.get(MAX_OPEN_FILES_PROPERTY);
+            try {
+                JRobinRrdDbPool.getInstance().setMaxOpenFiles(Integer.parseInt(maxOpenFiles.trim()));
+            } catch (IllegalArgumentException e) {
+                LOG.error("Invalid value for {}: {}", MAX_OPEN_FILES_PROPERTY, maxOpenFiles, e);
+            }
+        }
     }
 
     /**
-     * Closes the JRobin RrdDb.
+     * Hands the JRobin RrdDb back to the pool of open files, which closes
+     * it once it has not been used for a while.
      *
      * @param rrdFile a {@link org.jrobin.core.RrdDb} object.
      * @throws java.lang.Exception if any.
      */
     @Override
     public void closeFile(final RrdDb rrdFile) throws Exception {
-        rrdFile.close();
+        JRobinRrdDbPool.getInstance().release(rrdFile);
     }
 
     /** {@inheritDoc} */
@@ -201,6 +232,9 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
         }
         LOG.info("createRRD: creating RRD file {}", rrdDef.getPath());
 
+        // Don't keep writing to a previous file with the same name
+        JRobinRrdDbPool.getInstance().invalidate(rrdDef.getPath());
+
         RrdDb rrd = new RrdDb(rrdDef);
         rrd.close();
     }
@@ -208,22 +242,26 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
     /**
      * {@inheritDoc}
      *
-     * Opens the JRobin RrdDb by name and returns it.
+     * Returns the JRobin RrdDb with the given name from the pool of open
+     * files, opening it if needed.
      */
     @Override
     public RrdDb openFile(final String fileName) throws Exception {
-        return new RrdDb(fileName);
+        return JRobinRrdDbPool.getInstance().acquire(fileName);
     }
 
     /**
      * {@inheritDoc}
      *
      * Creates a sample from the JRobin RrdDb and passes in the data provided.
+     * The RrdDb may be shared with other threads, which also synchronize on it.
      */
     @Override
     public void updateFile(final RrdDb rrdFile, final String owner, final String data) throws Exception {
-        Sample sample = rrdFile.createSample();
-        sample.setAndUpdate(data);
+        synchronized (rrdFile) {
+            Sample sample = rrdFile.createSample();
+            sample.setAndUpdate(data);
+        }
     }
 
     /**
@@ -255,8 +293,11 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
         try {
             long now = System.currentTimeMillis();
             long collectTime = (now - (now % interval)) / 1000L;
-            rrd = new RrdDb(fileName, true);
-            FetchData data = rrd.createFetchRequest(consolidationFunction, collectTime, collectTime).fetchData();
+            rrd = JRobinRrdDbPool.getInstance().acquire(fileName);
+            FetchData data;
+            synchronized (rrd) {
+                data = rrd.createFetchRequest(consolidationFunction, collectTime, collectTime).fetchData();
+            }
             LOG.debug(data.toString());
             double[] vals = data.getValues(ds);
             if (vals.length > 0) {
@@ -270,7 +311,7 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
         } finally {
             if (rrd != null) {
                 try {
-                    rrd.close();
+                    JRobinRrdDbPool.getInstance().release(rrd);
                 } catch (IOException e) {
                     LOG.error("Failed to close rrd file: {}", fileName, e);
                 }
@@ -283,13 +324,16 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
     public Double fetchLastValueInRange(final String fileName, final String ds, final int interval, final int range) throws NumberFormatException, org.opennms.netmgt.rrd.RrdException {
         RrdDb rrd = null;
         try {
-        	rrd = new RrdDb(fileName, true);
+        	rrd = JRobinRrdDbPool.getInstance().acquire(fileName);
          	long now = System.currentTimeMillis();
             long latestUpdateTime = (now - (now % interval)) / 1000L;
             long earliestUpdateTime = ((now - (now % interval)) - range) / 1000L;
             LOG.debug("fetchInRange: fetching data from {} to {}", earliestUpdateTime, latestUpdateTime);
 
-            FetchData data = rrd.createFetchRequest("AVERAGE", earliestUpdateTime, latestUpdateTime).fetchData();
+            FetchData data;
+            synchronized (rrd) {
+                data = rrd.createFetchRequest("AVERAGE", earliestUpdateTime, latestUpdateTime).fetchData();
+            }
 
 		    double[] vals = data.getValues(ds);
 		    long[] times = data.getTimestamps();
@@ -312,7 +356,7 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
         } finally {
             if (rrd != null) {
                 try {
-                    rrd.close();
+                    JRobinRrdDbPool.getInstance().release(rrd);
                 } catch (IOException e) {
                     LOG.error("Failed to close rrd file: {}", fileName, e);
                 }
@@ -860,13 +904,13 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
     }
 
     /**
-     * This implementation does not track any stats.
+     * Returns the usage of the pool of open files.
      *
      * @return a {@link java.lang.String} object.
      */
     @Override
     public String getStats() {
-        return "";
+        return JRobinRrdDbPool.getInstance().getStats();
     }
 
     /*
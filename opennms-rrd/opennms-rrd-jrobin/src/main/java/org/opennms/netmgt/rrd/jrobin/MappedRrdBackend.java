@@ -0,0 +1,222 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2024 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2024 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd.jrobin;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.BitSet;
+
+import org.jrobin.core.RrdBackend;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * JRobin backend which reads and writes a memory mapped file, instead of
+ * issuing a system call for every primitive that JRobin reads or writes.
+ *
+ * The pages that are written to are tracked, so that {@link MappedRrdBackendFactory}
+ * can periodically write them to disk. The pages which are still dirty when the
+ * file is closed are left to the operating system, like the writes of the FILE
+ * backend.
+ */
+final class MappedRrdBackend extends RrdBackend {
+    private static final Logger LOG = LoggerFactory.getLogger(MappedRrdBackend.class);
+
+    static final int PAGE_SIZE = 4096;
+
+    private static final Unmapper s_unmapper = Unmapper.create();
+
+    private final MappedRrdBackendFactory m_factory;
+    private final boolean m_readOnly;
+    private final RandomAccessFile m_file;
+    private final FileChannel m_channel;
+    private MappedByteBuffer m_buffer;
+    private final BitSet m_dirtyPages = new BitSet();
+    private boolean m_closed = false;
+
+    MappedRrdBackend(final MappedRrdBackendFactory factory, final String path, final boolean readOnly) throws IOException {
+        super(path);
+        m_factory = factory;
+        m_readOnly = readOnly;
+        m_file = new RandomAccessFile(path, readOnly ? "r" : "rw");
+        m_channel = m_file.getChannel();
+        try {
+            map(m_channel.size());
+        } catch (final IOException e) {
+            m_file.close();
+            throw e;
+        }
+    }
+
+    private void map(final long length) throws IOException {
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("RRD file is too large to be mapped: " + getPath());
+        }
+        final MappedByteBuffer previous = m_buffer;
+        m_buffer = m_channel.map(m_readOnly ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE, 0, length);
+        if (previous != null) {
+            s_unmapper.unmap(previous);
+        }
+    }
+
+    @Override
+    protected synchronized void write(final long offset, final byte[] b) throws IOException {
+        checkOpen();
+        if (m_readOnly) {
+            throw new IOException("RRD file is open read-only: " + getPath());
+        }
+        if (offset < 0 || offset + b.length > m_buffer.capacity()) {
+            throw new IOException("Write of " + b.length + " bytes at " + offset + " beyond the end of " + getPath());
+        }
+        final ByteBuffer buffer = m_buffer.duplicate();
+        buffer.position((int) offset);
+        buffer.put(b);
+
+        if (b.length > 0) {
+            m_dirtyPages.set((int) (offset / PAGE_SIZE), (int) ((offset + b.length - 1) / PAGE_SIZE) + 1);
+            m_factory.recordWrite(b.length);
+        }
+    }
+
+    @Override
+    protected synchronized void read(final long offset, final byte[] b) throws IOException {
+        checkOpen();
+        if (offset < 0 || offset + b.length > m_buffer.capacity()) {
+            throw new IOException("Read of " + b.length + " bytes at " + offset + " beyond the end of " + getPath());
+        }
+        final ByteBuffer buffer = m_buffer.duplicate();
+        buffer.position((int) offset);
+        buffer.get(b);
+    }
+
+    @Override
+    public synchronized long getLength() throws IOException {
+        checkOpen();
+        return m_buffer.capacity();
+    }
+
+    @Override
+    protected synchronized void setLength(final long length) throws IOException {
+        checkOpen();
+        if (m_readOnly) {
+            throw new IOException("RRD file is open read-only: " + getPath());
+        }
+        m_file.setLength(length);
+        map(length);
+    }
+
+    /**
+     * @return whether some pages were written to since the last flush
+     */
+    synchronized boolean isDirty() {
+        return !m_closed && !m_dirtyPages.isEmpty();
+    }
+
+    /**
+     * Writes the dirty pages to disk.
+     *
+     * @return the number of pages that were written
+     */
+    synchronized int flush() throws IOException {
+        if (m_closed || m_dirtyPages.isEmpty()) {
+            return 0;
+        }
+        final int pages = m_dirtyPages.cardinality();
+        // msync() writes the dirty pages of the mapping in the order of their offset
+        m_buffer.force();
+        m_dirtyPages.clear();
+        m_factory.flushed(pages);
+        return pages;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (m_closed) {
+            return;
+        }
+        m_closed = true;
+        m_factory.closed(this, m_dirtyPages.cardinality());
+        m_dirtyPages.clear();
+        try {
+            s_unmapper.unmap(m_buffer);
+            m_buffer = null;
+        } finally {
+            m_file.close();
+        }
+    }
+
+    private void checkOpen() throws IOException {
+        if (m_closed) {
+            throw new IOException("RRD file is closed: " + getPath());
+        }
+    }
+
+    /**
+     * Releases mappings right away rather than when they are garbage collected,
+     * so that the files which are opened one after the other don't exhaust the
+     * number of mappings of the process.
+     */
+    private static final class Unmapper {
+        private final Object m_unsafe;
+        private final Method m_invokeCleaner;
+
+        private Unmapper(final Object unsafe, final Method invokeCleaner) {
+            m_unsafe = unsafe;
+            m_invokeCleaner = invokeCleaner;
+        }
+
+        private static Unmapper create() {
+            try {
+                final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                return new Unmapper(theUnsafe.get(null), unsafeClass.getMethod("invokeCleaner", ByteBuffer.class));
+            } catch (final Exception e) {
+                LOG.info("Mapped RRD files will be released when they are garbage collected: {}", e.getMessage());
+                return new Unmapper(null, null);
+            }
+        }
+
+        private void unmap(final MappedByteBuffer buffer) {
+            if (m_invokeCleaner == null || buffer == null) {
+                return;
+            }
+            try {
+                m_invokeCleaner.invoke(m_unsafe, buffer);
+            } catch (final Exception e) {
+                LOG.debug("Failed to unmap buffer", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,249 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2024 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2024 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd.jrobin;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.jrobin.core.RrdBackend;
+import org.jrobin.core.RrdBackendFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates {@link MappedRrdBackend}s, which are selected with the
+ * {@value #NAME} JRobin backend factory.
+ *
+ * The pages written to the files that are open are synced to disk every
+ * {@link #getFlushInterval()} seconds, file after file in the order of their
+ * paths, so that the writes of many updates to the same pages are combined.
+ * The statistics are published as the {@value #OBJECT_NAME} MBean.
+ */
+public class MappedRrdBackendFactory extends RrdBackendFactory implements MappedRrdBackendFactoryMBean {
+    private static final Logger LOG = LoggerFactory.getLogger(MappedRrdBackendFactory.class);
+
+    /** Name of the JRobin backend factory */
+    public static final String NAME = "MAPPED";
+
+    public static final String OBJECT_NAME = "OpenNMS:Name=MappedRrdBackend";
+
+    /** Default interval between the flushes, in seconds */
+    public static final long DEFAULT_FLUSH_INTERVAL = 300;
+
+    private final Set<MappedRrdBackend> m_backends = ConcurrentHashMap.newKeySet();
+
+    private ScheduledExecutorService m_executor;
+
+    private ScheduledFuture<?> m_flushes;
+
+    private long m_flushInterval = DEFAULT_FLUSH_INTERVAL;
+
+    private final AtomicLong m_writes = new AtomicLong();
+    private final AtomicLong m_bytesWritten = new AtomicLong();
+    private final AtomicLong m_pagesFlushed = new AtomicLong();
+    private final AtomicLong m_pagesReleased = new AtomicLong();
+    private final AtomicLong m_filesFlushed = new AtomicLong();
+    private final AtomicLong m_flushCount = new AtomicLong();
+    private volatile long m_lastFlushDuration = 0;
+    private volatile double m_lastFlushPagesPerSecond = 0;
+
+    @Override
+    protected RrdBackend open(final String path, final boolean readOnly) throws IOException {
+        final MappedRrdBackend backend = new MappedRrdBackend(this, path, readOnly);
+        m_backends.add(backend);
+        return backend;
+    }
+
+    @Override
+    protected boolean exists(final String path) throws IOException {
+        return new File(path).exists();
+    }
+
+    @Override
+    public String getFactoryName() {
+        return NAME;
+    }
+
+    /**
+     * Sets the interval between the flushes, 0 leaves the dirty pages to the
+     * operating system.
+     */
+    public synchronized void setFlushInterval(final long flushInterval) {
+        if (flushInterval < 0) {
+            throw new IllegalArgumentException("The flush interval can't be negative: " + flushInterval);
+        }
+        m_flushInterval = flushInterval;
+        if (m_flushes != null) {
+            m_flushes.cancel(false);
+            m_flushes = null;
+        }
+        if (flushInterval > 0) {
+            if (m_executor == null) {
+                m_executor = Executors.newSingleThreadScheduledExecutor(r -> {
+                    final Thread thread = new Thread(r, "JRobin-MappedRrdFlusher");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+            m_flushes = m_executor.scheduleWithFixedDelay(this::flush, flushInterval, flushInterval, TimeUnit.SECONDS);
+        }
+    }
+
+    @Override
+    public synchronized long getFlushInterval() {
+        return m_flushInterval;
+    }
+
+    /**
+     * Writes the dirty pages of all of the open files to disk.
+     */
+    void flush() {
+        final long start = System.currentTimeMillis();
+        final List<MappedRrdBackend> dirty = new ArrayList<>();
+        for (final MappedRrdBackend backend : m_backends) {
+            if (backend.isDirty()) {
+                dirty.add(backend);
+            }
+        }
+        // Files of the same directory are usually close to each other on disk
+        dirty.sort(Comparator.comparing(MappedRrdBackend::getPath));
+
+        long pages = 0;
+        for (final MappedRrdBackend backend : dirty) {
+            try {
+                pages += backend.flush();
+            } catch (final IOException | RuntimeException e) {
+                LOG.warn("Failed to flush RRD file {}", backend.getPath(), e);
+            }
+        }
+        m_flushCount.incrementAndGet();
+
+        final long duration = System.currentTimeMillis() - start;
+        m_lastFlushDuration = duration;
+        m_lastFlushPagesPerSecond = pages * 1000.0 / Math.max(duration, 1);
+        LOG.debug("Flushed {} pages of {} RRD files in {}ms", pages, dirty.size(), duration);
+    }
+
+    void recordWrite(final int bytes) {
+        m_writes.incrementAndGet();
+        m_bytesWritten.addAndGet(bytes);
+    }
+
+    void flushed(final int pages) {
+        m_filesFlushed.incrementAndGet();
+        m_pagesFlushed.addAndGet(pages);
+    }
+
+    void closed(final MappedRrdBackend backend, final int dirtyPages) {
+        m_backends.remove(backend);
+        m_pagesReleased.addAndGet(dirtyPages);
+    }
+
+    /**
+     * Publishes the statistics in the platform MBean server.
+     */
+    void registerMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+        } catch (final JMException e) {
+            LOG.warn("Failed to register the {} MBean", OBJECT_NAME, e);
+        }
+    }
+
+    @Override
+    public int getOpenFiles() {
+        return m_backends.size();
+    }
+
+    @Override
+    public long getWrites() {
+        return m_writes.get();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return m_bytesWritten.get();
+    }
+
+    @Override
+    public long getPagesFlushed() {
+        return m_pagesFlushed.get();
+    }
+
+    @Override
+    public long getPagesReleased() {
+        return m_pagesReleased.get();
+    }
+
+    @Override
+    public long getFilesFlushed() {
+        return m_filesFlushed.get();
+    }
+
+    @Override
+    public long getFlushes() {
+        return m_flushCount.get();
+    }
+
+    @Override
+    public long getLastFlushDuration() {
+        return m_lastFlushDuration;
+    }
+
+    @Override
+    public double getLastFlushPagesPerSecond() {
+        return m_lastFlushPagesPerSecond;
+    }
+
+    @Override
+    public double getWriteAmplification() {
+        final long bytes = m_bytesWritten.get();
+        return bytes == 0 ? 0 : (double) (m_pagesFlushed.get() + m_pagesReleased.get()) * MappedRrdBackend.PAGE_SIZE / bytes;
+    }
+
+    @Override
+    public double getWritesPerPage() {
+        final long pages = m_pagesFlushed.get() + m_pagesReleased.get();
+        return pages == 0 ? 0 : (double) m_writes.get() / pages;
+    }
+}
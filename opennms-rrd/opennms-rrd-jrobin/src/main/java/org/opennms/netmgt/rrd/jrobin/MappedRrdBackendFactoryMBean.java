@@ -0,0 +1,97 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2024 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2024 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd.jrobin;
+
+/**
+ * Reports how the writes of JRobin to the memory mapped RRD files translate
+ * into writes to the disk.
+ */
+public interface MappedRrdBackendFactoryMBean {
+    /**
+     * @return the number of RRD files that are currently mapped
+     */
+    int getOpenFiles();
+
+    /**
+     * @return the number of writes made by JRobin
+     */
+    long getWrites();
+
+    /**
+     * @return the number of bytes written by JRobin
+     */
+    long getBytesWritten();
+
+    /**
+     * @return the number of pages written to disk by the periodic flushes
+     */
+    long getPagesFlushed();
+
+    /**
+     * @return the number of dirty pages left to the operating system when files were closed
+     */
+    long getPagesReleased();
+
+    /**
+     * @return the number of files synced to disk by the periodic flushes
+     */
+    long getFilesFlushed();
+
+    /**
+     * @return the number of periodic flushes
+     */
+    long getFlushes();
+
+    /**
+     * @return the duration of the last periodic flush, in milliseconds
+     */
+    long getLastFlushDuration();
+
+    /**
+     * @return the pages written to disk per second by the last periodic flush
+     */
+    double getLastFlushPagesPerSecond();
+
+    /**
+     * @return the interval between the periodic flushes, in seconds
+     */
+    long getFlushInterval();
+
+    /**
+     * @return the number of bytes of the pages written to disk, or left to the
+     * operating system, for every byte written by JRobin
+     */
+    double getWriteAmplification();
+
+    /**
+     * @return the number of writes made by JRobin for every page written to
+     * disk, or left to the operating system
+     */
+    double getWritesPerPage();
+}
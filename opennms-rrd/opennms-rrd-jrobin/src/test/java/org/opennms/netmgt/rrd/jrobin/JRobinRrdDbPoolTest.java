@@ -0,0 +1,154 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2024 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2024 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd.jrobin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.jrobin.core.RrdDb;
+import org.jrobin.core.RrdDef;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class JRobinRrdDbPoolTest {
+
+    @Rule
+    public TemporaryFolder m_tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testSharesOpenFiles() throws Exception {
+        final JRobinRrdDbPool pool = new JRobinRrdDbPool(10);
+        final String path = createRrdFile("foo");
+
+        final RrdDb writer = pool.acquire(path);
+        final RrdDb reader = pool.acquire(path);
+        assertSame(writer, reader);
+
+        pool.release(writer);
+        pool.release(reader);
+        assertFalse(writer.isClosed());
+        assertSame(writer, pool.acquire(path));
+        pool.release(writer);
+        assertEquals(1, pool.getOpenFiles());
+
+        pool.clear();
+        assertTrue(writer.isClosed());
+        assertEquals(0, pool.getOpenFiles());
+    }
+
+    @Test
+    public void testClosesLeastRecentlyUsedFiles() throws Exception {
+        final JRobinRrdDbPool pool = new JRobinRrdDbPool(2);
+        final String foo = createRrdFile("foo");
+        final String bar = createRrdFile("bar");
+        final String baz = createRrdFile("baz");
+
+        final RrdDb fooDb = pool.acquire(foo);
+        pool.release(fooDb);
+        final RrdDb barDb = pool.acquire(bar);
+        pool.release(barDb);
+        // foo is now more recently used than bar
+        pool.release(pool.acquire(foo));
+
+        final RrdDb bazDb = pool.acquire(baz);
+        assertTrue(barDb.isClosed());
+        assertFalse(fooDb.isClosed());
+        assertFalse(bazDb.isClosed());
+        pool.release(bazDb);
+        assertEquals(2, pool.getOpenFiles());
+    }
+
+    @Test
+    public void testKeepsFilesInUse() throws Exception {
+        final JRobinRrdDbPool pool = new JRobinRrdDbPool(1);
+        final RrdDb fooDb = pool.acquire(createRrdFile("foo"));
+        final RrdDb barDb = pool.acquire(createRrdFile("bar"));
+        assertFalse(fooDb.isClosed());
+        assertEquals(2, pool.getOpenFiles());
+
+        pool.release(fooDb);
+        assertTrue(fooDb.isClosed());
+        pool.release(barDb);
+        assertFalse(barDb.isClosed());
+    }
+
+    @Test
+    public void testClosesReleasedFilesWithoutPooling() throws Exception {
+        final JRobinRrdDbPool pool = new JRobinRrdDbPool(0);
+        final RrdDb rrdDb = pool.acquire(createRrdFile("foo"));
+        pool.release(rrdDb);
+        assertTrue(rrdDb.isClosed());
+        assertEquals(0, pool.getOpenFiles());
+    }
+
+    @Test
+    public void testReopensReplacedFiles() throws Exception {
+        final JRobinRrdDbPool pool = new JRobinRrdDbPool(10);
+        final String path = createRrdFile("foo");
+
+        final RrdDb first = pool.acquire(path);
+        pool.invalidate(path);
+        assertFalse(first.isClosed());
+        final RrdDb second = pool.acquire(path);
+        assertNotSame(first, second);
+        pool.release(first);
+        assertTrue(first.isClosed());
+        pool.release(second);
+
+        // Deleted behind our back
+        assertTrue(new File(path).delete());
+        try {
+            pool.acquire(path);
+            fail("Expected the deleted file not to be opened");
+        } catch (IOException e) {
+            // Expected
+        }
+        assertTrue(second.isClosed());
+        assertEquals(0, pool.getOpenFiles());
+    }
+
+    private String createRrdFile(final String name) throws Exception {
+        final String path = new File(m_tempFolder.getRoot(), name + ".jrb").getAbsolutePath();
+        final RrdDef def = new RrdDef(path);
+        def.setStartTime(1000);
+        def.setStep(300);
+        def.addDatasource("bar", "GAUGE", 3000, Double.NaN, Double.NaN);
+        def.addArchive("RRA:AVERAGE:0.5:1:2016");
+        new RrdDb(def).close();
+        return path;
+    }
+}
@@ -0,0 +1,153 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2024 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2024 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd.jrobin;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MappedRrdBackendTest {
+
+    @Rule
+    public TemporaryFolder m_tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testReadsAndWritesThroughTheMapping() throws Exception {
+        final MappedRrdBackendFactory factory = new MappedRrdBackendFactory();
+        final File file = m_tempFolder.newFile("foo.jrb");
+
+        final MappedRrdBackend backend = (MappedRrdBackend) factory.open(file.getAbsolutePath(), false);
+        backend.setLength(3 * MappedRrdBackend.PAGE_SIZE);
+        assertEquals(3 * MappedRrdBackend.PAGE_SIZE, backend.getLength());
+        assertEquals(1, factory.getOpenFiles());
+
+        // Spans the first two pages
+        backend.write(MappedRrdBackend.PAGE_SIZE - 2, new byte[] { 1, 2, 3, 4 });
+        backend.write(10, new byte[] { 5 });
+        final byte[] read = new byte[4];
+        backend.read(MappedRrdBackend.PAGE_SIZE - 2, read);
+        assertArrayEquals(new byte[] { 1, 2, 3, 4 }, read);
+
+        assertTrue(backend.isDirty());
+        assertEquals(2, backend.flush());
+        assertFalse(backend.isDirty());
+        assertEquals(0, backend.flush());
+
+        backend.write(2 * MappedRrdBackend.PAGE_SIZE, new byte[] { 6 });
+        backend.close();
+        assertEquals(0, factory.getOpenFiles());
+
+        assertEquals(3, factory.getWrites());
+        assertEquals(6, factory.getBytesWritten());
+        assertEquals(2, factory.getPagesFlushed());
+        assertEquals(1, factory.getPagesReleased());
+        assertEquals(1.0d, factory.getWritesPerPage(), 0.0d);
+        assertEquals(3.0d * MappedRrdBackend.PAGE_SIZE / 6, factory.getWriteAmplification(), 0.0d);
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            assertEquals(3 * MappedRrdBackend.PAGE_SIZE, raf.length());
+            raf.seek(MappedRrdBackend.PAGE_SIZE - 2);
+            raf.readFully(read);
+            assertArrayEquals(new byte[] { 1, 2, 3, 4 }, read);
+            raf.seek(2 * MappedRrdBackend.PAGE_SIZE);
+            assertEquals(6, raf.read());
+        }
+    }
+
+    @Test
+    public void testFlushesAllOpenFiles() throws Exception {
+        final MappedRrdBackendFactory factory = new MappedRrdBackendFactory();
+        final MappedRrdBackend foo = createBackend(factory, "foo.jrb");
+        final MappedRrdBackend bar = createBackend(factory, "bar.jrb");
+        final MappedRrdBackend baz = createBackend(factory, "baz.jrb");
+
+        foo.write(0, new byte[] { 1 });
+        foo.write(1, new byte[] { 2 });
+        baz.write(MappedRrdBackend.PAGE_SIZE, new byte[] { 3 });
+        factory.flush();
+
+        assertEquals(1, factory.getFlushes());
+        assertEquals(2, factory.getFilesFlushed());
+        assertEquals(2, factory.getPagesFlushed());
+        assertEquals(1.5d, factory.getWritesPerPage(), 0.0d);
+        assertFalse(foo.isDirty());
+        assertFalse(bar.isDirty());
+        assertFalse(baz.isDirty());
+
+        foo.close();
+        bar.close();
+        baz.close();
+    }
+
+    @Test
+    public void testRejectsInvalidAccess() throws Exception {
+        final MappedRrdBackendFactory factory = new MappedRrdBackendFactory();
+        final MappedRrdBackend backend = createBackend(factory, "foo.jrb");
+        try {
+            backend.write(2 * MappedRrdBackend.PAGE_SIZE - 1, new byte[] { 1, 2 });
+            fail("Expected an IOException when writing beyond the end of the file");
+        } catch (IOException e) {
+            // Expected
+        }
+        backend.close();
+
+        final MappedRrdBackend readOnly = (MappedRrdBackend) factory.open(new File(m_tempFolder.getRoot(), "foo.jrb").getAbsolutePath(), true);
+        assertEquals(2 * MappedRrdBackend.PAGE_SIZE, readOnly.getLength());
+        try {
+            readOnly.write(0, new byte[] { 1 });
+            fail("Expected an IOException when writing to a read-only file");
+        } catch (IOException e) {
+            // Expected
+        }
+        readOnly.close();
+
+        try {
+            readOnly.read(0, new byte[1]);
+            fail("Expected an IOException when reading a closed file");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    private MappedRrdBackend createBackend(final MappedRrdBackendFactory factory, final String name) throws IOException {
+        final MappedRrdBackend backend = (MappedRrdBackend) factory.open(new File(m_tempFolder.getRoot(), name).getAbsolutePath(), false);
+        backend.setLength(2 * MappedRrdBackend.PAGE_SIZE);
+        return backend;
+    }
+}
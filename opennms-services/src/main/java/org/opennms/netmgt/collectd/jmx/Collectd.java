@@ -45,6 +45,8 @@ import javax.management.openmbean.TabularType;
 import org.opennms.netmgt.collectd.CollectableService;
 import org.opennms.netmgt.daemon.AbstractSpringContextJmxServiceDaemon;
 import org.opennms.netmgt.scheduler.LegacyScheduler;
+import org.opennms.netmgt.scheduler.Scheduler;
+import org.opennms.netmgt.scheduler.TimingWheelScheduler;
 
 /**
  * <p>Collectd class.</p>
@@ -227,10 +229,15 @@ public class Collectd extends AbstractSpringContextJmxServiceDaemon<org.opennms.
     }
     
     private ThreadPoolExecutor getExecutor() {
-        return (ThreadPoolExecutor) ((LegacyScheduler) getDaemon().getScheduler()).getRunner();
+        final Scheduler scheduler = getDaemon().getScheduler();
+        if (scheduler instanceof TimingWheelScheduler) {
+            return (ThreadPoolExecutor) ((TimingWheelScheduler) scheduler).getRunner();
+        }
+        return (ThreadPoolExecutor) ((LegacyScheduler) scheduler).getRunner();
     }
 
     private boolean getThreadPoolStatsStatus() {
-        return (getDaemon().getScheduler() instanceof LegacyScheduler);
+        final Scheduler scheduler = getDaemon().getScheduler();
+        return (scheduler instanceof LegacyScheduler || scheduler instanceof TimingWheelScheduler);
     }
 }
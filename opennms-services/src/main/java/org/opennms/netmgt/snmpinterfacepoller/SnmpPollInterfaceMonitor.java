@@ -113,6 +113,8 @@ public class SnmpPollInterfaceMonitor {
 		}
 
         String ipAddress = agentConfig.getAddress().getCanonicalHostName();
+        // Both are issued at once, so that they can be merged with each other and with the GETs of other services
+        // to the same agent when SnmpUtils coalesces them (see org.opennms.snmp.getCoalescingWindowMs)
         CompletableFuture<List<SnmpValue>> adminValuesFuture = m_client.get(agentConfig, adminoids)
                 .withLocation(m_location).withDescription("SnmpInterfacePoller Admin Status for " + ipAddress)
                 .withTimeToLive(m_interval).execute();
@@ -131,7 +131,7 @@ public class WmiCollector extends AbstractRemoteServiceCollector {
 
         if (collection.getWpms().size() < 1) {
             LOG.info("No groups to collect.");
-            return builder.withStatus(CollectionStatus.SUCCEEDED).build();
+            return builder.withStatus(CollectionStatus.SUCCEEDED).buildCollectionSet();
         }
 
         final NodeLevelResource nodeResource = new NodeLevelResource(agent.getNodeId());
@@ -218,7 +218,7 @@ public class WmiCollector extends AbstractRemoteServiceCollector {
                 }
             }
         }
-        return builder.build();
+        return builder.buildCollectionSet();
     }
 
     private boolean isGroupAvailable(final WmiAgentState agentState, final Wpm wpm) {
@@ -123,7 +123,7 @@ public class NSClientCollector extends AbstractRemoteServiceCollector {
         if (collection.getWpms().getWpm().size() < 1) {
             LOG.info("No groups to collect.");
             builder.withStatus(CollectionStatus.SUCCEEDED);
-            return builder.build();
+            return builder.buildCollectionSet();
         }
 
         // All node resources for NSClient; nothing of interface or "indexed resource" type
@@ -187,7 +187,7 @@ public class NSClientCollector extends AbstractRemoteServiceCollector {
                 }
             }
         }
-        return builder.build();
+        return builder.buildCollectionSet();
     }
 
     private static void initNSClientPeerFactory() {
@@ -192,7 +192,7 @@ public abstract class AbstractXmlCollectionHandler implements XmlCollectionHandl
                 fillCollectionSet(urlStr, request, agent, builder, source);
                 LOG.debug("collect: finished source url '{}' collection with {} resources", urlStr, builder.getNumResources());
             }
-            return builder.build();
+            return builder.buildCollectionSet();
         } catch (Exception e) {
             status = "failed";
             throw new CollectionException(e.getMessage(), e);
@@ -123,7 +123,7 @@ public class Sftp3gppXmlCollectionHandler extends AbstractXmlCollectionHandler {
                     }
                 }
             }
-            return builder.build();
+            return builder.buildCollectionSet();
         } catch (Exception e) {
             status = "failed";
             throw new CollectionException(e.getMessage(), e);